@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a full activation: the messages of a batch are sent to the
+ * queue and pass through the connection consumer of the test broker, the
+ * server session pool, the work manager and the server sessions to an
+ * endpoint doing nothing. An operation is one message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboundDispatchBenchmark {
+    /**
+     * The number of messages of an invocation
+     */
+    public static final int BATCH = 1000;
+
+    @Param({"false", "true"})
+    public boolean transacted;
+
+    @Param({"1", "15"})
+    public int maxSession;
+
+    @Param({"1"})
+    public int maxMessages;
+
+    private InboundFixture fixture;
+    private Connection connection;
+    private MessageProducer producer;
+    private Message message;
+    private long sent;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new InboundFixture("inbound-benchmark", transacted, maxSession, maxMessages);
+        connection = fixture.getContainer().getBroker().createConnectionFactory().createConnection();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        producer = session.createProducer(fixture.getQueue());
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        message = session.createTextMessage("benchmark");
+        sent = fixture.getEndpointFactory().getDeliveredCount();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        connection.close();
+        fixture.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dispatch() throws Exception {
+        for (int i = 0; i < BATCH; ++i)
+            producer.send(message);
+        sent += BATCH;
+        if (fixture.getEndpointFactory().awaitDelivered(sent, 60000) == false)
+            throw new IllegalStateException("Messages not delivered in time, delivered=" + fixture.getEndpointFactory().getDeliveredCount() + " sent=" + sent);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.benchmarks;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.jboss.resource.adapter.jms.inflow.JmsActivation;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestQueue;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.jboss.resource.adapter.jms.testkit.container.TestMessageEndpointFactory;
+
+/**
+ * An activation of a queue of the test broker, started in a test container,
+ * for the benchmarks of the inbound path.
+ */
+public class InboundFixture {
+    /**
+     * A listener doing nothing, so only the cost of the RA is measured
+     */
+    public static final MessageListener NO_OP = new MessageListener() {
+        public void onMessage(Message message) {
+        }
+    };
+
+    private final TestContainer container;
+    private final TestQueue queue;
+    private final TestMessageEndpointFactory endpointFactory;
+    private final JmsActivation activation;
+
+    /**
+     * Start an activation and wait until its connection consumer is created
+     *
+     * @param brokerName  the name of the broker
+     * @param transacted  whether the delivery is transacted
+     * @param maxSession  the maximum number of server sessions
+     * @param maxMessages the maximum number of messages loaded into a server session at once
+     * @throws Exception for any error
+     */
+    public InboundFixture(String brokerName, boolean transacted, int maxSession, int maxMessages) throws Exception {
+        TestBroker broker = TestBroker.getBroker(brokerName);
+        container = new TestContainer(broker, maxSession + 2);
+        queue = broker.getQueue("benchmark");
+
+        JmsActivationSpec spec = container.createQueueActivationSpec(queue.getName(), transacted);
+        spec.setMaxSession(maxSession);
+        spec.setMaxMessages(maxMessages);
+        endpointFactory = new TestMessageEndpointFactory(NO_OP, transacted ? container.getTransactionManager() : null);
+        activation = new JmsActivation(container.getResourceAdapter(), endpointFactory, spec);
+        activation.start();
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (queue.getSubscription().getConsumerCount() == 0) {
+            if (System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("Activation did not start " + activation);
+            Thread.sleep(10);
+        }
+    }
+
+    public TestContainer getContainer() {
+        return container;
+    }
+
+    public TestQueue getQueue() {
+        return queue;
+    }
+
+    public TestMessageEndpointFactory getEndpointFactory() {
+        return endpointFactory;
+    }
+
+    public JmsActivation getActivation() {
+        return activation;
+    }
+
+    /**
+     * Stop the activation, the container and the broker
+     */
+    public void stop() {
+        activation.stop();
+        container.stop();
+        container.getBroker().destroy();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.jboss.resource.adapter.jms.JmsConnectionFactory;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.jboss.resource.adapter.jms.testkit.container.TestTransactionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the outbound send path, JmsConnectionFactoryImpl to
+ * JmsSessionFactoryImpl to JmsSession to JmsMessageProducer.send, against the
+ * in-memory broker of the test kit. The messages are published to a topic
+ * without subscribers, so the broker does no more than copy them.
+ * <ul>
+ * <li>send, sendContended - one or eight threads, each sending with a session of its own</li>
+ * <li>sendShared - eight threads sharing one session, contending for the lock of its managed connection</li>
+ * <li>connectionPerSend, connectionPerSendContended - every send creates and closes the connection, like a request of an application</li>
+ * </ul>
+ * When transacted the sessions of send and sendContended are local
+ * transactions committed after every send, connectionPerSend sends in a JTA
+ * transaction with the connection enlisted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutboundSendBenchmark {
+    @Param({"false", "true"})
+    public boolean transacted;
+
+    @Param({"256"})
+    public int messageSize;
+
+    private TestContainer container;
+    private TestTransactionManager tm;
+    private JmsConnectionFactory connectionFactory;
+    private JmsConnectionFactory xaConnectionFactory;
+    private Topic topic;
+    private String text;
+
+    private Connection sharedConnection;
+    private Session sharedSession;
+    private MessageProducer sharedProducer;
+    private Message sharedMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        TestBroker broker = TestBroker.getBroker("outbound-benchmark");
+        container = new TestContainer(broker, 4);
+        tm = container.getTransactionManager();
+        connectionFactory = (JmsConnectionFactory) container.createConnectionFactory(container.createManagedConnectionFactory(false));
+        xaConnectionFactory = (JmsConnectionFactory) container.createConnectionFactory(container.createManagedConnectionFactory(true));
+        topic = broker.getTopic("benchmark");
+        StringBuffer buffer = new StringBuffer(messageSize);
+        for (int i = 0; i < messageSize; ++i)
+            buffer.append((char) ('a' + i % 26));
+        text = buffer.toString();
+
+        sharedConnection = connectionFactory.createConnection();
+        sharedSession = sharedConnection.createSession(transacted, Session.AUTO_ACKNOWLEDGE);
+        sharedProducer = sharedSession.createProducer(topic);
+        sharedMessage = sharedSession.createTextMessage(text);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        sharedConnection.close();
+        container.stop();
+        container.getBroker().destroy();
+    }
+
+    /**
+     * A session of the benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ThreadSession {
+        Connection connection;
+        Session session;
+        MessageProducer producer;
+        Message message;
+
+        @Setup
+        public void setup(OutboundSendBenchmark benchmark) throws JMSException {
+            connection = benchmark.connectionFactory.createConnection();
+            session = connection.createSession(benchmark.transacted, Session.AUTO_ACKNOWLEDGE);
+            producer = session.createProducer(benchmark.topic);
+            message = session.createTextMessage(benchmark.text);
+        }
+
+        @TearDown
+        public void teardown() throws JMSException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void send(ThreadSession thread) throws JMSException {
+        thread.producer.send(thread.message);
+        if (transacted)
+            thread.session.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void sendContended(ThreadSession thread) throws JMSException {
+        thread.producer.send(thread.message);
+        if (transacted)
+            thread.session.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void sendShared() throws JMSException {
+        sharedProducer.send(sharedMessage);
+        if (transacted)
+            sharedSession.commit();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void connectionPerSend() throws Exception {
+        if (transacted == false) {
+            sendOnNewConnection(connectionFactory);
+            return;
+        }
+        tm.begin();
+        try {
+            sendOnNewConnection(xaConnectionFactory);
+        } catch (Exception e) {
+            tm.rollback();
+            throw e;
+        }
+        tm.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void connectionPerSendContended() throws Exception {
+        connectionPerSend();
+    }
+
+    private void sendOnNewConnection(JmsConnectionFactory factory) throws JMSException {
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createProducer(topic).send(session.createTextMessage(text));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.jboss.resource.adapter.jms.benchmarks.InboundFixture;
+import org.jboss.resource.adapter.jms.testkit.TestTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of JmsServerSession.onMessage with an endpoint doing nothing.
+ * The endpoint benchmarks call the same endpoint directly, so the
+ * difference is the overhead the RA adds to every message. With
+ * transacted delivery both include the transaction of the endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerSessionBenchmark {
+    @Param({"false", "true"})
+    public boolean transacted;
+
+    private InboundFixture fixture;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new InboundFixture("session-benchmark", transacted, 15, 1);
+    }
+
+    @TearDown
+    public void teardown() {
+        fixture.stop();
+    }
+
+    /**
+     * A server session taken from the pool by the benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ThreadSession {
+        JmsServerSessionPool pool;
+        JmsServerSession serverSession;
+        Message message;
+
+        @Setup
+        public void setup(ServerSessionBenchmark benchmark) throws JMSException {
+            pool = benchmark.fixture.getActivation().getSessionPool();
+            serverSession = (JmsServerSession) pool.getServerSession();
+            message = new TestTextMessage("benchmark");
+            message.setJMSTimestamp(System.currentTimeMillis());
+        }
+
+        @TearDown
+        public void teardown() {
+            pool.returnServerSession(serverSession);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void onMessage(ThreadSession thread) {
+        thread.serverSession.onMessage(thread.message);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void onMessage8(ThreadSession thread) {
+        thread.serverSession.onMessage(thread.message);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void endpoint(ThreadSession thread) throws Exception {
+        deliver(thread);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void endpoint8(ThreadSession thread) throws Exception {
+        deliver(thread);
+    }
+
+    private void deliver(ThreadSession thread) throws Exception {
+        thread.serverSession.endpoint.beforeDelivery(JmsActivation.ONMESSAGE);
+        try {
+            ((MessageListener) thread.serverSession.endpoint).onMessage(thread.message);
+        } finally {
+            thread.serverSession.endpoint.afterDelivery();
+        }
+    }
+}
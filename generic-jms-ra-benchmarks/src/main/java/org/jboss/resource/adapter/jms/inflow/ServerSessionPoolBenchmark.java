@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.jboss.resource.adapter.jms.benchmarks.InboundFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of getServerSession and returnServerSession of the server session
+ * pool of an idle activation, with more threads than sessions in the
+ * contended runs. It lives in the package of the pool to return the
+ * sessions directly instead of through the work manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerSessionPoolBenchmark {
+    @Param({"15"})
+    public int maxSession;
+
+    private InboundFixture fixture;
+    private JmsServerSessionPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new InboundFixture("pool-benchmark", false, maxSession, 1);
+        pool = fixture.getActivation().getSessionPool();
+    }
+
+    @TearDown
+    public void teardown() {
+        fixture.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void getAndReturn() throws JMSException {
+        pool.returnServerSession((JmsServerSession) pool.getServerSession());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void getAndReturn8() throws JMSException {
+        pool.returnServerSession((JmsServerSession) pool.getServerSession());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void getAndReturn64() throws JMSException {
+        pool.returnServerSession((JmsServerSession) pool.getServerSession());
+    }
+}
@@ -21,20 +21,47 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import java.nio.ByteBuffer;
+
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 
 /**
  * A wrapper for a message
+ * <p/>
+ * The ByteBuffer accessors read a reassembled {@link JmsLargeMessage}
+ * directly. Otherwise heap buffers positioned at the start of their array
+ * are read and written in place, and other buffers are copied through a per
+ * thread scratch array. The bytes written are counted, so the length of a
+ * body still being written is known as well.
  *
  * @author <a href="mailto:adrian@jboss.com">Adrian Brock</a>
  */
 public class JmsBytesMessage extends JmsMessage implements BytesMessage {
+    /**
+     * The size of the scratch array
+     */
+    private static final int SCRATCH_SIZE = 8192;
+
+    /**
+     * The scratch arrays for copying between buffers and the provider message
+     */
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[SCRATCH_SIZE];
+        }
+    };
+
+    /**
+     * The number of bytes written to the body since it was created or cleared
+     */
+    private long written;
+
     /**
      * Create a new wrapper
      *
      * @param message the message
-     * @param session the session
+     * @param session the session or null for a message not created or received through the RA
      */
     public JmsBytesMessage(BytesMessage message, JmsSession session) {
         super(message, session);
@@ -44,6 +71,18 @@ public class JmsBytesMessage extends JmsMessage implements BytesMessage {
         return ((BytesMessage) message).getBodyLength();
     }
 
+    /**
+     * @return the number of bytes written through this wrapper since it was created or its body was cleared
+     */
+    public long getWrittenLength() {
+        return written;
+    }
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        written = 0;
+    }
+
     public boolean readBoolean() throws JMSException {
         return ((BytesMessage) message).readBoolean();
     }
@@ -60,6 +99,39 @@ public class JmsBytesMessage extends JmsMessage implements BytesMessage {
         return ((BytesMessage) message).readBytes(value);
     }
 
+    /**
+     * Read bytes from the body into the remaining space of the buffer
+     *
+     * @param buffer the buffer, its position is advanced by the number of bytes read
+     * @return the number of bytes read or -1 when the end of the body was reached
+     * @throws JMSException for any error
+     */
+    public int readBytes(ByteBuffer buffer) throws JMSException {
+        if (message instanceof JmsLargeMessage)
+            return ((JmsLargeMessage) message).readBytes(buffer);
+
+        BytesMessage bytes = (BytesMessage) message;
+        if (buffer.remaining() == 0)
+            return 0;
+        if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0) {
+            int read = bytes.readBytes(buffer.array(), buffer.remaining());
+            if (read > 0)
+                buffer.position(buffer.position() + read);
+            return read;
+        }
+
+        byte[] array = scratch.get();
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = bytes.readBytes(array, Math.min(array.length, buffer.remaining()));
+            if (read <= 0)
+                break;
+            buffer.put(array, 0, read);
+            total += read;
+        }
+        return total == 0 ? -1 : total;
+    }
+
     public char readChar() throws JMSException {
         return ((BytesMessage) message).readChar();
     }
@@ -102,49 +174,129 @@ public class JmsBytesMessage extends JmsMessage implements BytesMessage {
 
     public void writeBoolean(boolean value) throws JMSException {
         ((BytesMessage) message).writeBoolean(value);
+        written += 1;
     }
 
     public void writeByte(byte value) throws JMSException {
         ((BytesMessage) message).writeByte(value);
+        written += 1;
     }
 
     public void writeBytes(byte[] value, int offset, int length) throws JMSException {
         ((BytesMessage) message).writeBytes(value, offset, length);
+        written += length;
     }
 
     public void writeBytes(byte[] value) throws JMSException {
         ((BytesMessage) message).writeBytes(value);
+        written += value.length;
+    }
+
+    /**
+     * Write the remaining bytes of the buffer to the body
+     *
+     * @param buffer the buffer, its position is advanced to its limit
+     * @throws JMSException for any error
+     */
+    public void writeBytes(ByteBuffer buffer) throws JMSException {
+        BytesMessage bytes = (BytesMessage) message;
+        if (buffer.hasArray()) {
+            bytes.writeBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            written += buffer.remaining();
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        byte[] array = scratch.get();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(array.length, buffer.remaining());
+            buffer.get(array, 0, length);
+            bytes.writeBytes(array, 0, length);
+            written += length;
+        }
     }
 
     public void writeChar(char value) throws JMSException {
         ((BytesMessage) message).writeChar(value);
+        written += 2;
     }
 
     public void writeDouble(double value) throws JMSException {
         ((BytesMessage) message).writeDouble(value);
+        written += 8;
     }
 
     public void writeFloat(float value) throws JMSException {
         ((BytesMessage) message).writeFloat(value);
+        written += 4;
     }
 
     public void writeInt(int value) throws JMSException {
         ((BytesMessage) message).writeInt(value);
+        written += 4;
     }
 
     public void writeLong(long value) throws JMSException {
         ((BytesMessage) message).writeLong(value);
+        written += 8;
     }
 
     public void writeObject(Object value) throws JMSException {
         ((BytesMessage) message).writeObject(value);
+        written += sizeOf(value);
     }
 
     public void writeShort(short value) throws JMSException {
         ((BytesMessage) message).writeShort(value);
+        written += 2;
     }
 
     public void writeUTF(String value) throws JMSException {
         ((BytesMessage) message).writeUTF(value);
+        written += utfLength(value);
+    }
+
+    /**
+     * The number of bytes an object takes in the body, for the types
+     * {@link BytesMessage#writeObject(Object)} accepts
+     *
+     * @param value the object
+     * @return the number of bytes
+     */
+    private static long sizeOf(Object value) {
+        if (value instanceof Boolean || value instanceof Byte)
+            return 1;
+        if (value instanceof Character || value instanceof Short)
+            return 2;
+        if (value instanceof Integer || value instanceof Float)
+            return 4;
+        if (value instanceof Long || value instanceof Double)
+            return 8;
+        if (value instanceof byte[])
+            return ((byte[]) value).length;
+        if (value instanceof String)
+            return utfLength((String) value);
+        return 0;
+    }
+
+    /**
+     * The number of bytes a string takes in the modified UTF-8 encoding of
+     * {@link java.io.DataOutput#writeUTF(String)}, with its length
+     *
+     * @param value the string
+     * @return the number of bytes
+     */
+    private static long utfLength(String value) {
+        long length = 2;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length += 1;
+            else if (c > 0x07FF)
+                length += 3;
+            else
+                length += 2;
+        }
+        return length;
     }
 }
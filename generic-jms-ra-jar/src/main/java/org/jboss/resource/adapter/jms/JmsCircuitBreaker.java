@@ -0,0 +1,319 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import javax.jms.InvalidDestinationException;
+import javax.jms.InvalidSelectorException;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotReadableException;
+import javax.jms.MessageNotWriteableException;
+import javax.jms.TransactionInProgressException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A circuit breaker for the connections of a managed connection factory.
+ * <p/>
+ * The breaker is closed while the broker is reachable. After the configured
+ * number of consecutive connect or send failures it opens and requests fail
+ * fast for the cool-down period. Then it is half open and lets a single probe
+ * through, which closes the breaker when it succeeds and opens it again when
+ * it fails. Errors caused by the application, e.g. an invalid message or
+ * destination or a closed session, do not count as failures. A failure
+ * threshold of zero disables the breaker.
+ */
+public class JmsCircuitBreaker {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsCircuitBreaker.class);
+
+    /**
+     * Requests are let through
+     */
+    public static final int CLOSED = 0;
+
+    /**
+     * Requests fail fast
+     */
+    public static final int OPEN = 1;
+
+    /**
+     * A single probe is let through
+     */
+    public static final int HALF_OPEN = 2;
+
+    private static final String[] STATE_NAMES = {"CLOSED", "OPEN", "HALF_OPEN"};
+
+    /**
+     * The name used in log messages
+     */
+    private String name;
+
+    /**
+     * The number of consecutive failures that opens the breaker
+     */
+    private volatile int failureThreshold;
+
+    /**
+     * How long the breaker stays open in milliseconds
+     */
+    private volatile long coolDown;
+
+    private volatile int state = CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+    private long lastTransition = System.currentTimeMillis();
+
+    // metrics
+    private long tripCount;
+    private long rejectedCount;
+    private long failureCount;
+    private long transitionCount;
+
+    /**
+     * Create a new circuit breaker
+     *
+     * @param name             the name used in log messages
+     * @param failureThreshold the number of consecutive failures that opens the breaker, zero disables it
+     * @param coolDown         how long the breaker stays open in milliseconds
+     */
+    public JmsCircuitBreaker(String name, int failureThreshold, long coolDown) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Whether a request may try the broker, a request let through while
+     * half open is the probe and must report its outcome
+     *
+     * @return true when the request may proceed
+     */
+    public boolean allowRequest() {
+        if (failureThreshold <= 0 || state == CLOSED)
+            return true;
+        synchronized (this) {
+            if (state == CLOSED)
+                return true;
+            if (state == OPEN && System.currentTimeMillis() - openedAt >= coolDown)
+                transition(HALF_OPEN);
+            if (state == HALF_OPEN && probing == false) {
+                probing = true;
+                return true;
+            }
+            ++rejectedCount;
+            return false;
+        }
+    }
+
+    /**
+     * Whether the breaker is open and still cooling down, unlike
+     * {@link #allowRequest()} this does not claim the probe
+     *
+     * @return true when requests fail fast
+     */
+    public boolean isRejecting() {
+        if (failureThreshold <= 0 || state != OPEN)
+            return false;
+        synchronized (this) {
+            if (state == OPEN && System.currentTimeMillis() - openedAt < coolDown) {
+                ++rejectedCount;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Report a successful connect or send. Only the probe closes the breaker,
+     * a request let through before the breaker opened does not.
+     */
+    public void success() {
+        if (failureThreshold <= 0)
+            return;
+        synchronized (this) {
+            if (state == CLOSED) {
+                consecutiveFailures = 0;
+            } else if (state == HALF_OPEN && probing) {
+                consecutiveFailures = 0;
+                probing = false;
+                transition(CLOSED);
+            }
+        }
+    }
+
+    /**
+     * Report a failed connect or send, an error caused by the application
+     * only ends the request like {@link #cancel()}
+     *
+     * @param t the failure
+     */
+    public void failure(Throwable t) {
+        if (failureThreshold <= 0)
+            return;
+        if (isApplicationError(t)) {
+            cancel();
+            return;
+        }
+        synchronized (this) {
+            ++failureCount;
+            ++consecutiveFailures;
+            if (state == HALF_OPEN || (state == CLOSED && consecutiveFailures >= failureThreshold)) {
+                probing = false;
+                openedAt = System.currentTimeMillis();
+                ++tripCount;
+                transition(OPEN);
+                log.warn("Circuit breaker opened for " + name + " after " + consecutiveFailures + " consecutive failures, failing fast for " + coolDown + " ms: " + t);
+            }
+        }
+    }
+
+    /**
+     * Report that a request let through did not reach the broker, e.g.
+     * because the message or destination was invalid
+     */
+    public void cancel() {
+        if (failureThreshold <= 0)
+            return;
+        synchronized (this) {
+            probing = false;
+        }
+    }
+
+    /**
+     * Whether an error was caused by the application rather than by the
+     * broker: an invalid message, destination or selector, an operation not
+     * allowed in the state of the session, or a send without a destination
+     * on an unidentified producer, which the JMS API reports with an
+     * UnsupportedOperationException. Other runtime exceptions are failures,
+     * providers throw them on broken connections.
+     *
+     * @param t the error
+     * @return true for an application error
+     */
+    public static boolean isApplicationError(Throwable t) {
+        return t instanceof InvalidDestinationException || t instanceof InvalidSelectorException || t instanceof MessageFormatException
+                || t instanceof MessageNotWriteableException || t instanceof MessageNotReadableException
+                || t instanceof javax.jms.IllegalStateException || t instanceof TransactionInProgressException
+                || t instanceof UnsupportedOperationException;
+    }
+
+    private synchronized void reset() {
+        consecutiveFailures = 0;
+        probing = false;
+        if (state != CLOSED)
+            transition(CLOSED);
+    }
+
+    private void transition(int newState) {
+        if (log.isDebugEnabled())
+            log.debug("Circuit breaker for " + name + " " + STATE_NAMES[state] + " -> " + STATE_NAMES[newState]);
+        if (newState == CLOSED && state != CLOSED)
+            log.info("Circuit breaker closed for " + name);
+        state = newState;
+        lastTransition = System.currentTimeMillis();
+        ++transitionCount;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        if (failureThreshold <= 0)
+            reset();
+    }
+
+    public long getCoolDown() {
+        return coolDown;
+    }
+
+    public void setCoolDown(long coolDown) {
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * @return the state, one of {@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return the name of the state
+     */
+    public String getStateName() {
+        return STATE_NAMES[state];
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the time of the last state transition
+     */
+    public synchronized long getLastTransition() {
+        return lastTransition;
+    }
+
+    /**
+     * @return the number of times the breaker opened
+     */
+    public synchronized long getTripCount() {
+        return tripCount;
+    }
+
+    /**
+     * @return the number of requests that failed fast
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the number of reported failures
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the number of state transitions
+     */
+    public synchronized long getTransitionCount() {
+        return transitionCount;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("JmsCircuitBreaker(").append(name);
+        buffer.append(" state=").append(getStateName());
+        buffer.append(" failureThreshold=").append(failureThreshold);
+        buffer.append(" coolDown=").append(coolDown);
+        buffer.append(')');
+        return buffer.toString();
+    }
+}
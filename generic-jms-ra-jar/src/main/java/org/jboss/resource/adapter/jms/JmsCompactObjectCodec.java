@@ -0,0 +1,1077 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.WeakHashMap;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A compact binary codec for value objects.
+ * <p/>
+ * Strings, boxed primitives, byte/int/long/double arrays, object arrays,
+ * enums, dates, big numbers and the java.util collections are written with
+ * a one byte tag and variable length integers. Other objects are written
+ * field by field when their class has a no-argument constructor and no
+ * custom serialization (writeObject, readObject, writeReplace, readResolve
+ * or Externalizable). The field names are written once per class and
+ * message, so fields added or removed on one side are skipped or left at
+ * their defaults on the other. Shared references and cycles are preserved.
+ * Nested objects that cannot be written field by field are embedded with
+ * Java serialization; when the object itself cannot, {@link #canEncode}
+ * returns false and the message falls back to a provider ObjectMessage.
+ * <p/>
+ * Only Serializable classes are written field by field, and decoding only
+ * creates the objects a provider ObjectMessage could create. A codec
+ * created with a list of allowed classes only decodes the built-in types,
+ * the common java.util collections and those classes, including within
+ * embedded serialized objects.
+ */
+public class JmsCompactObjectCodec implements JmsObjectCodec {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsCompactObjectCodec.class);
+
+    /**
+     * The name of the codec
+     */
+    public static final String NAME = "compact";
+
+    /**
+     * The format version
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Encode buffers larger than this are not kept for reuse
+     */
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+
+    // value tags
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int BYTE = 3;
+    private static final int SHORT = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int CHAR = 9;
+    private static final int STRING = 10;
+    private static final int BYTES = 11;
+    private static final int BIG_INTEGER = 12;
+    private static final int BIG_DECIMAL = 13;
+    private static final int DATE = 14;
+    private static final int ENUM = 15;
+    private static final int INT_ARRAY = 16;
+    private static final int LONG_ARRAY = 17;
+    private static final int DOUBLE_ARRAY = 18;
+    private static final int ARRAY = 19;
+    private static final int COLLECTION = 20;
+    private static final int MAP = 21;
+    private static final int OBJECT = 22;
+    private static final int REF = 23;
+    private static final int SERIALIZED = 24;
+
+    // field kinds
+    private static final int K_BOOLEAN = 0;
+    private static final int K_BYTE = 1;
+    private static final int K_SHORT = 2;
+    private static final int K_CHAR = 3;
+    private static final int K_INT = 4;
+    private static final int K_LONG = 5;
+    private static final int K_FLOAT = 6;
+    private static final int K_DOUBLE = 7;
+    private static final int K_OBJECT = 8;
+
+    /**
+     * The classes decoded without being allowed explicitly
+     */
+    private static final Set<String> BUILTIN_CLASSES = new HashSet<String>(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short", "java.lang.Character",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Number", "java.lang.Enum",
+            "java.math.BigInteger", "java.math.BigDecimal", "java.util.Date",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.Vector", "java.util.ArrayDeque",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet",
+            "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.Hashtable", "java.util.IdentityHashMap"));
+
+    /**
+     * Marks classes that cannot be written field by field
+     */
+    private static final ClassInfo NOT_ENCODABLE = new ClassInfo(null, new Field[0]);
+
+    /**
+     * The class metadata, softly referenced so the cache does not pin application classloaders
+     */
+    private final Map<Class<?>, SoftReference<ClassInfo>> classInfos = Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<ClassInfo>>());
+
+    /**
+     * The encode buffers
+     */
+    private final ThreadLocal<Output> outputs = new ThreadLocal<Output>();
+
+    /**
+     * The class names and package prefixes allowed to be decoded, null to allow all classes
+     */
+    private final String[] allowedClasses;
+
+    /**
+     * Create a codec decoding any Serializable class
+     */
+    public JmsCompactObjectCodec() {
+        this(null);
+    }
+
+    /**
+     * Create a codec only decoding the built-in types and the allowed classes
+     *
+     * @param allowedClasses the class names and package prefixes ending with ".*", separated by commas; null or empty to allow all classes
+     */
+    public JmsCompactObjectCodec(String allowedClasses) {
+        if (allowedClasses == null || allowedClasses.trim().length() == 0) {
+            this.allowedClasses = null;
+        } else {
+            String[] names = allowedClasses.split(",");
+            for (int i = 0; i < names.length; ++i)
+                names[i] = names[i].trim();
+            this.allowedClasses = names;
+        }
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public boolean canEncode(Object object) {
+        if (object == null || isBuiltin(object))
+            return true;
+        return getClassInfo(object.getClass()) != null;
+    }
+
+    public void encode(Object object, BytesMessage message) throws JMSException {
+        Output out = outputs.get();
+        if (out == null || out.inUse)
+            out = new Output();
+        out.inUse = true;
+        try {
+            out.writeVarInt(VERSION);
+            writeValue(out, object);
+            message.writeBytes(out.buf, 0, out.count);
+        } catch (IOException e) {
+            JMSException jmse = new MessageFormatException("Unable to encode " + object.getClass().getName() + ": " + e);
+            jmse.setLinkedException(e);
+            jmse.initCause(e);
+            throw jmse;
+        } finally {
+            out.reset();
+            if (out.buf.length <= MAX_CACHED_BUFFER)
+                outputs.set(out);
+        }
+    }
+
+    public Object decode(BytesMessage message) throws JMSException {
+        byte[] data = new byte[(int) message.getBodyLength()];
+        message.readBytes(data);
+        Input in = new Input(data);
+        try {
+            int version = in.readVarInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported format version " + version);
+            return readValue(in);
+        } catch (Exception e) {
+            JMSException jmse = new MessageFormatException("Unable to decode object: " + e);
+            jmse.setLinkedException(e);
+            jmse.initCause(e);
+            throw jmse;
+        }
+    }
+
+    private boolean isBuiltin(Object value) {
+        Class<?> c = value.getClass();
+        return c == String.class || value instanceof Number && c.getName().startsWith("java.") || c == Boolean.class || c == Character.class
+                || c == Date.class || c.isArray() || value instanceof Enum || isJavaUtilCollection(c);
+    }
+
+    private static boolean isJavaUtilCollection(Class<?> c) {
+        return (Collection.class.isAssignableFrom(c) || Map.class.isAssignableFrom(c)) && c.getName().startsWith("java.util.");
+    }
+
+    // ---- writing
+
+    private void writeValue(Output out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> c = value.getClass();
+        if (c == String.class) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (c == Integer.class) {
+            out.writeByte(INT);
+            out.writeVarInt(zigZag(((Integer) value).intValue()));
+        } else if (c == Long.class) {
+            out.writeByte(LONG);
+            out.writeVarLong(zigZag(((Long) value).longValue()));
+        } else if (c == Boolean.class) {
+            out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (c == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToLongBits(((Double) value).doubleValue()));
+        } else if (c == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeInt(Float.floatToIntBits(((Float) value).floatValue()));
+        } else if (c == Short.class) {
+            out.writeByte(SHORT);
+            out.writeVarInt(zigZag(((Short) value).shortValue()));
+        } else if (c == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        } else if (c == Character.class) {
+            out.writeByte(CHAR);
+            out.writeVarInt(((Character) value).charValue());
+        } else if (c == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (c == BigInteger.class) {
+            byte[] bytes = ((BigInteger) value).toByteArray();
+            out.writeByte(BIG_INTEGER);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (c == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] bytes = decimal.unscaledValue().toByteArray();
+            out.writeByte(BIG_DECIMAL);
+            out.writeVarInt(zigZag(decimal.scale()));
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (c == Date.class) {
+            out.writeByte(DATE);
+            out.writeVarLong(zigZag(((Date) value).getTime()));
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeClass(((Enum<?>) value).getDeclaringClass());
+            out.writeString(((Enum<?>) value).name());
+        } else {
+            Integer ref = out.refs.get(value);
+            if (ref != null) {
+                out.writeByte(REF);
+                out.writeVarInt(ref.intValue());
+            } else {
+                writeReference(out, value, c);
+            }
+        }
+    }
+
+    private void writeReference(Output out, Object value, Class<?> c) throws IOException {
+        if (c == int[].class) {
+            int[] array = (int[]) value;
+            out.writeByte(INT_ARRAY);
+            out.register(value);
+            out.writeVarInt(array.length);
+            for (int i = 0; i < array.length; ++i)
+                out.writeVarInt(zigZag(array[i]));
+        } else if (c == long[].class) {
+            long[] array = (long[]) value;
+            out.writeByte(LONG_ARRAY);
+            out.register(value);
+            out.writeVarInt(array.length);
+            for (int i = 0; i < array.length; ++i)
+                out.writeVarLong(zigZag(array[i]));
+        } else if (c == double[].class) {
+            double[] array = (double[]) value;
+            out.writeByte(DOUBLE_ARRAY);
+            out.register(value);
+            out.writeVarInt(array.length);
+            for (int i = 0; i < array.length; ++i)
+                out.writeLong(Double.doubleToLongBits(array[i]));
+        } else if (c.isArray() && c.getComponentType().isPrimitive() == false) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY);
+            out.writeClass(c.getComponentType());
+            out.register(value);
+            out.writeVarInt(array.length);
+            for (int i = 0; i < array.length; ++i)
+                writeValue(out, array[i]);
+        } else if (value instanceof Collection && isJavaUtilCollection(c) && hasComparator(value) == false) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte(COLLECTION);
+            out.writeClass(collectionClass(c, value instanceof Set ? LinkedHashSet.class : ArrayList.class));
+            out.register(value);
+            out.writeVarInt(collection.size());
+            for (Iterator<?> i = collection.iterator(); i.hasNext(); )
+                writeValue(out, i.next());
+        } else if (value instanceof Map && isJavaUtilCollection(c) && hasComparator(value) == false) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeClass(collectionClass(c, LinkedHashMap.class));
+            out.register(value);
+            out.writeVarInt(map.size());
+            for (Iterator<? extends Map.Entry<?, ?>> i = map.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<?, ?> entry = i.next();
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            ClassInfo info = getClassInfo(c);
+            if (info != null)
+                writeObject(out, value, info);
+            else
+                writeSerialized(out, value);
+        }
+    }
+
+    private void writeObject(Output out, Object value, ClassInfo info) throws IOException {
+        out.writeByte(OBJECT);
+        out.writeDescriptor(info);
+        out.register(value);
+        Field[] fields = info.fields;
+        int[] kinds = info.kinds;
+        try {
+            for (int i = 0; i < fields.length; ++i) {
+                Field field = fields[i];
+                switch (kinds[i]) {
+                    case K_BOOLEAN:
+                        out.writeByte(field.getBoolean(value) ? 1 : 0);
+                        break;
+                    case K_BYTE:
+                        out.writeByte(field.getByte(value));
+                        break;
+                    case K_SHORT:
+                        out.writeVarInt(zigZag(field.getShort(value)));
+                        break;
+                    case K_CHAR:
+                        out.writeVarInt(field.getChar(value));
+                        break;
+                    case K_INT:
+                        out.writeVarInt(zigZag(field.getInt(value)));
+                        break;
+                    case K_LONG:
+                        out.writeVarLong(zigZag(field.getLong(value)));
+                        break;
+                    case K_FLOAT:
+                        out.writeInt(Float.floatToIntBits(field.getFloat(value)));
+                        break;
+                    case K_DOUBLE:
+                        out.writeLong(Double.doubleToLongBits(field.getDouble(value)));
+                        break;
+                    default:
+                        writeValue(out, field.get(value));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw (IOException) new IOException("Unable to read fields of " + value.getClass().getName()).initCause(e);
+        }
+    }
+
+    private void writeSerialized(Output out, Object value) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(value);
+        oos.close();
+        byte[] bytes = baos.toByteArray();
+        out.writeByte(SERIALIZED);
+        out.writeVarInt(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static boolean hasComparator(Object value) {
+        if (value instanceof SortedSet)
+            return ((SortedSet<?>) value).comparator() != null;
+        if (value instanceof SortedMap)
+            return ((SortedMap<?, ?>) value).comparator() != null;
+        return false;
+    }
+
+    /**
+     * The class to recreate a java.util collection with, the unmodifiable,
+     * synchronized and other wrappers have no public constructor and are
+     * recreated as the default implementation
+     */
+    private static Class<?> collectionClass(Class<?> c, Class<?> defaultClass) {
+        if (Modifier.isPublic(c.getModifiers())) {
+            try {
+                if (Modifier.isPublic(c.getConstructor().getModifiers()))
+                    return c;
+            } catch (NoSuchMethodException ignored) {
+                // use the default
+            }
+        }
+        return defaultClass;
+    }
+
+    // ---- reading
+
+    @SuppressWarnings("unchecked")
+    private Object readValue(Input in) throws Exception {
+        int tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return Byte.valueOf((byte) in.readByte());
+            case SHORT:
+                return Short.valueOf((short) unZigZag(in.readVarInt()));
+            case INT:
+                return Integer.valueOf(unZigZag(in.readVarInt()));
+            case LONG:
+                return Long.valueOf(unZigZag(in.readVarLong()));
+            case FLOAT:
+                return Float.valueOf(Float.intBitsToFloat(in.readInt()));
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(in.readLong()));
+            case CHAR:
+                return Character.valueOf((char) in.readVarInt());
+            case STRING:
+                return in.readString();
+            case BYTES:
+                return in.readBytes(in.readVarInt());
+            case BIG_INTEGER:
+                return new BigInteger(in.readBytes(in.readVarInt()));
+            case BIG_DECIMAL: {
+                int scale = unZigZag(in.readVarInt());
+                return new BigDecimal(new BigInteger(in.readBytes(in.readVarInt())), scale);
+            }
+            case DATE:
+                return new Date(unZigZag(in.readVarLong()));
+            case ENUM: {
+                Class enumClass = in.readClass();
+                if (enumClass.isEnum() == false)
+                    throw new InvalidClassException(enumClass.getName(), "not an enum");
+                return Enum.valueOf(enumClass, in.readString());
+            }
+            case INT_ARRAY: {
+                int[] array = new int[in.readLength()];
+                in.register(array);
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = unZigZag(in.readVarInt());
+                return array;
+            }
+            case LONG_ARRAY: {
+                long[] array = new long[in.readLength()];
+                in.register(array);
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = unZigZag(in.readVarLong());
+                return array;
+            }
+            case DOUBLE_ARRAY: {
+                double[] array = new double[in.readLength()];
+                in.register(array);
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = Double.longBitsToDouble(in.readLong());
+                return array;
+            }
+            case ARRAY: {
+                Class<?> component = in.readClass();
+                Object[] array = (Object[]) Array.newInstance(component, in.readLength());
+                in.register(array);
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = readValue(in);
+                return array;
+            }
+            case COLLECTION: {
+                Collection<Object> collection = (Collection<Object>) newCollection(in.readClass(), Collection.class);
+                in.register(collection);
+                for (int i = in.readLength(); i > 0; --i)
+                    collection.add(readValue(in));
+                return collection;
+            }
+            case MAP: {
+                Map<Object, Object> map = (Map<Object, Object>) newCollection(in.readClass(), Map.class);
+                in.register(map);
+                for (int i = in.readLength(); i > 0; --i) {
+                    Object key = readValue(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case OBJECT:
+                return readObject(in);
+            case REF: {
+                int ref = in.readVarInt();
+                if (ref >= in.refs.size())
+                    throw new IOException("Invalid reference " + ref);
+                return in.refs.get(ref);
+            }
+            case SERIALIZED:
+                return readSerialized(in);
+            default:
+                throw new IOException("Unknown tag " + tag + " at offset " + (in.pos - 1));
+        }
+    }
+
+    /**
+     * Create an empty java.util collection or map as written by the encoder
+     */
+    private static Object newCollection(Class<?> c, Class<?> type) throws Exception {
+        if (type.isAssignableFrom(c) == false || isJavaUtilCollection(c) == false || Modifier.isPublic(c.getModifiers()) == false)
+            throw new InvalidClassException(c.getName(), "not a java.util " + type.getSimpleName());
+        return c.getConstructor().newInstance();
+    }
+
+    private Object readObject(Input in) throws Exception {
+        Descriptor descriptor = in.readDescriptor();
+        Object value = descriptor.info.constructor.newInstance();
+        in.register(value);
+        for (int i = 0; i < descriptor.kinds.length; ++i) {
+            Field field = descriptor.targets[i];
+            switch (descriptor.kinds[i]) {
+                case K_BOOLEAN: {
+                    boolean v = in.readByte() != 0;
+                    if (field != null)
+                        field.setBoolean(value, v);
+                    break;
+                }
+                case K_BYTE: {
+                    byte v = (byte) in.readByte();
+                    if (field != null)
+                        field.setByte(value, v);
+                    break;
+                }
+                case K_SHORT: {
+                    short v = (short) unZigZag(in.readVarInt());
+                    if (field != null)
+                        field.setShort(value, v);
+                    break;
+                }
+                case K_CHAR: {
+                    char v = (char) in.readVarInt();
+                    if (field != null)
+                        field.setChar(value, v);
+                    break;
+                }
+                case K_INT: {
+                    int v = unZigZag(in.readVarInt());
+                    if (field != null)
+                        field.setInt(value, v);
+                    break;
+                }
+                case K_LONG: {
+                    long v = unZigZag(in.readVarLong());
+                    if (field != null)
+                        field.setLong(value, v);
+                    break;
+                }
+                case K_FLOAT: {
+                    float v = Float.intBitsToFloat(in.readInt());
+                    if (field != null)
+                        field.setFloat(value, v);
+                    break;
+                }
+                case K_DOUBLE: {
+                    double v = Double.longBitsToDouble(in.readLong());
+                    if (field != null)
+                        field.setDouble(value, v);
+                    break;
+                }
+                default: {
+                    Object v = readValue(in);
+                    if (field != null && (v == null || field.getType().isInstance(v)))
+                        field.set(value, v);
+                    else if (field != null && log.isTraceEnabled())
+                        log.trace("Skipping incompatible value for " + field + ": " + v.getClass().getName());
+                }
+            }
+        }
+        return value;
+    }
+
+    private Object readSerialized(Input in) throws Exception {
+        byte[] bytes = in.readBytes(in.readVarInt());
+        final ClassLoader loader = in.loader;
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                checkAllowed(desc.getName());
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                } catch (ClassNotFoundException e) {
+                    return super.resolveClass(desc);
+                }
+            }
+
+            protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+                for (int i = 0; i < interfaces.length; ++i)
+                    checkAllowed(interfaces[i]);
+                return super.resolveProxyClass(interfaces);
+            }
+        };
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Check a class may be decoded before it is loaded
+     *
+     * @param name the class name
+     * @throws InvalidClassException when the class is not allowed
+     */
+    void checkAllowed(String name) throws InvalidClassException {
+        if (allowedClasses == null)
+            return;
+        String component = name;
+        while (component.startsWith("["))
+            component = component.substring(1);
+        if (component.length() == 1)
+            // an array of primitives
+            return;
+        if (component.startsWith("L") && component.endsWith(";"))
+            component = component.substring(1, component.length() - 1);
+        if (BUILTIN_CLASSES.contains(component))
+            return;
+        for (int i = 0; i < allowedClasses.length; ++i) {
+            String allowed = allowedClasses[i];
+            if (allowed.endsWith(".*") ? component.startsWith(allowed.substring(0, allowed.length() - 1)) : component.equals(allowed))
+                return;
+        }
+        throw new InvalidClassException(name, "not allowed to be decoded");
+    }
+
+    // ---- class metadata
+
+    /**
+     * Get the metadata to write an object field by field
+     *
+     * @param c the class
+     * @return the metadata or null when the class cannot be written field by field
+     */
+    ClassInfo getClassInfo(Class<?> c) {
+        SoftReference<ClassInfo> reference = classInfos.get(c);
+        ClassInfo info = reference != null ? reference.get() : null;
+        if (info == null) {
+            info = createClassInfo(c);
+            classInfos.put(c, new SoftReference<ClassInfo>(info));
+        }
+        return info == NOT_ENCODABLE ? null : info;
+    }
+
+    private static ClassInfo createClassInfo(Class<?> c) {
+        String name = c.getName();
+        if (c.isArray() || c.isInterface() || c.isEnum() || Modifier.isAbstract(c.getModifiers()) || Serializable.class.isAssignableFrom(c) == false
+                || Externalizable.class.isAssignableFrom(c) || name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.sun."))
+            return NOT_ENCODABLE;
+        try {
+            List<Field> fields = new ArrayList<Field>();
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+                if (hasMethod(k, "writeObject", ObjectOutputStream.class) || hasMethod(k, "readObject", ObjectInputStream.class)
+                        || hasMethod(k, "writeReplace") || hasMethod(k, "readResolve"))
+                    return NOT_ENCODABLE;
+                hierarchy.add(0, k);
+            }
+            for (Class<?> k : hierarchy) {
+                Field[] declared = k.getDeclaredFields();
+                for (int i = 0; i < declared.length; ++i) {
+                    int modifiers = declared[i].getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || declared[i].isSynthetic())
+                        continue;
+                    declared[i].setAccessible(true);
+                    fields.add(declared[i]);
+                }
+            }
+            Constructor<?> constructor = c.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new ClassInfo(constructor, fields.toArray(new Field[fields.size()]));
+        } catch (NoSuchMethodException e) {
+            return NOT_ENCODABLE;
+        } catch (RuntimeException e) {
+            log.debug("Unable to write " + name + " field by field", e);
+            return NOT_ENCODABLE;
+        }
+    }
+
+    private static boolean hasMethod(Class<?> c, String name, Class<?>... parameterTypes) {
+        try {
+            c.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static int kindOf(Class<?> type) {
+        if (type == boolean.class)
+            return K_BOOLEAN;
+        if (type == byte.class)
+            return K_BYTE;
+        if (type == short.class)
+            return K_SHORT;
+        if (type == char.class)
+            return K_CHAR;
+        if (type == int.class)
+            return K_INT;
+        if (type == long.class)
+            return K_LONG;
+        if (type == float.class)
+            return K_FLOAT;
+        if (type == double.class)
+            return K_DOUBLE;
+        return K_OBJECT;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The fields of a class written field by field
+     */
+    static class ClassInfo {
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final int[] kinds;
+        final Map<String, Field> byName;
+
+        ClassInfo(Constructor<?> constructor, Field[] fields) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.kinds = new int[fields.length];
+            this.byName = new HashMap<String, Field>();
+            for (int i = 0; i < fields.length; ++i) {
+                kinds[i] = kindOf(fields[i].getType());
+                byName.put(fields[i].getName(), fields[i]);
+            }
+        }
+    }
+
+    /**
+     * The fields of a class as written by the sender mapped to the local fields
+     */
+    private static class Descriptor {
+        ClassInfo info;
+        int[] kinds;
+        Field[] targets;
+    }
+
+    /**
+     * A growable encode buffer with the reference and class tables
+     */
+    private static class Output {
+        byte[] buf = new byte[256];
+        int count;
+        boolean inUse;
+        IdentityHashMap<Object, Integer> refs = new IdentityHashMap<Object, Integer>();
+        HashMap<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+        HashMap<Class<?>, Integer> descriptors = new HashMap<Class<?>, Integer>();
+
+        void reset() {
+            count = 0;
+            inUse = false;
+            refs.clear();
+            classes.clear();
+            descriptors.clear();
+        }
+
+        void register(Object value) {
+            refs.put(value, Integer.valueOf(refs.size()));
+        }
+
+        void ensure(int n) {
+            if (count + n > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length * 2, count + n)];
+                System.arraycopy(buf, 0, bigger, 0, count);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, count, length);
+            count += length;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            buf[count++] = (byte) (value >>> 24);
+            buf[count++] = (byte) (value >>> 16);
+            buf[count++] = (byte) (value >>> 8);
+            buf[count++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        /**
+         * Strings are written as the number of chars followed by each char
+         * as a variable length integer, one byte for ASCII
+         */
+        void writeString(String s) {
+            int length = s.length();
+            writeVarInt(length);
+            ensure(length);
+            for (int i = 0; i < length; ++i) {
+                char c = s.charAt(i);
+                if (c < 0x80)
+                    buf[count++] = (byte) c;
+                else
+                    writeVarInt(c);
+            }
+        }
+
+        void writeClass(Class<?> c) {
+            Integer index = classes.get(c);
+            if (index != null) {
+                writeVarInt(index.intValue());
+            } else {
+                writeVarInt(0);
+                writeString(c.getName());
+                classes.put(c, Integer.valueOf(classes.size() + 1));
+            }
+        }
+
+        void writeDescriptor(ClassInfo info) {
+            Class<?> c = info.constructor.getDeclaringClass();
+            Integer index = descriptors.get(c);
+            if (index != null) {
+                writeVarInt(index.intValue());
+                return;
+            }
+            writeVarInt(0);
+            writeString(c.getName());
+            writeVarInt(info.fields.length);
+            for (int i = 0; i < info.fields.length; ++i) {
+                writeString(info.fields[i].getName());
+                writeByte(info.kinds[i]);
+            }
+            descriptors.put(c, Integer.valueOf(descriptors.size() + 1));
+        }
+    }
+
+    /**
+     * A decode buffer with the reference and class tables
+     */
+    private class Input {
+        byte[] buf;
+        int pos;
+        ClassLoader loader;
+        List<Object> refs = new ArrayList<Object>();
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        List<Descriptor> descriptors = new ArrayList<Descriptor>();
+
+        Input(byte[] buf) {
+            this.buf = buf;
+            loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null)
+                loader = JmsCompactObjectCodec.class.getClassLoader();
+        }
+
+        void register(Object value) {
+            refs.add(value);
+        }
+
+        int readByte() throws EOFException {
+            if (pos >= buf.length)
+                throw new EOFException("Unexpected end of encoded object at offset " + pos);
+            return buf[pos++];
+        }
+
+        byte[] readBytes(int length) throws EOFException {
+            if (length < 0 || pos + length > buf.length)
+                throw new EOFException("Unexpected end of encoded object at offset " + pos);
+            byte[] bytes = new byte[length];
+            System.arraycopy(buf, pos, bytes, 0, length);
+            pos += length;
+            return bytes;
+        }
+
+        int readLength() throws IOException {
+            int length = readVarInt();
+            // every element takes at least one byte
+            if (length < 0 || length > buf.length - pos)
+                throw new IOException("Invalid length " + length + " at offset " + pos);
+            return length;
+        }
+
+        int readVarInt() throws EOFException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new EOFException("Malformed integer at offset " + pos);
+        }
+
+        long readVarLong() throws EOFException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new EOFException("Malformed long at offset " + pos);
+        }
+
+        int readInt() throws EOFException {
+            return (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16 | (readByte() & 0xFF) << 8 | (readByte() & 0xFF);
+        }
+
+        long readLong() throws EOFException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; ++i) {
+                int c = readByte();
+                chars[i] = c >= 0 ? (char) c : (char) ((c & 0x7F) | (readVarInt() << 7));
+            }
+            return new String(chars);
+        }
+
+        Class<?> readClass() throws IOException, ClassNotFoundException {
+            int index = readVarInt();
+            if (index == 0) {
+                String name = readString();
+                checkAllowed(name);
+                Class<?> c = Class.forName(name, false, loader);
+                classes.add(c);
+                return c;
+            }
+            if (index > classes.size())
+                throw new IOException("Invalid class reference " + index);
+            return classes.get(index - 1);
+        }
+
+        Descriptor readDescriptor() throws IOException, ClassNotFoundException {
+            int index = readVarInt();
+            if (index != 0) {
+                if (index > descriptors.size())
+                    throw new IOException("Invalid class reference " + index);
+                return descriptors.get(index - 1);
+            }
+            String name = readString();
+            checkAllowed(name);
+            Class<?> c = Class.forName(name, false, loader);
+            ClassInfo info = getClassInfo(c);
+            if (info == null)
+                throw new IOException("Class " + name + " cannot be decoded field by field");
+            Descriptor descriptor = new Descriptor();
+            descriptor.info = info;
+            int count = readLength();
+            descriptor.kinds = new int[count];
+            descriptor.targets = new Field[count];
+            for (int i = 0; i < count; ++i) {
+                String fieldName = readString();
+                int kind = readByte();
+                if (kind < K_BOOLEAN || kind > K_OBJECT)
+                    throw new IOException("Invalid kind " + kind + " for field " + fieldName + " of " + name);
+                descriptor.kinds[i] = kind;
+                Field field = info.byName.get(fieldName);
+                if (field != null && kindOf(field.getType()) == kind)
+                    descriptor.targets[i] = field;
+                else if (log.isTraceEnabled())
+                    log.trace("Skipping field " + fieldName + " of " + name);
+            }
+            descriptors.add(descriptor);
+            return descriptor;
+        }
+    }
+}
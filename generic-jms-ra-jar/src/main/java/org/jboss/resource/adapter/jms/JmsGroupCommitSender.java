@@ -0,0 +1,515 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.naming.Context;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.inflow.JmsActivation;
+
+/**
+ * Sends messages for many callers through one transacted session.
+ * <p/>
+ * Callers queue their message and block. A flusher sends the queued
+ * messages and commits once the batch is full or the oldest message has
+ * waited for the configured interval, then releases the callers of the
+ * batch. The broker then makes a whole batch durable with one commit rather
+ * than one per message. When a batch fails it is rolled back, every caller
+ * of the batch gets the error and the connection is recreated for the next
+ * batch. The flusher runs as work of the resource adapter's WorkManager,
+ * closes its connection and stops after being idle, and is stopped with the
+ * resource adapter.
+ * <p/>
+ * A caller waits at most for the configured timeout. A message still queued
+ * then is withdrawn; a message already part of a batch being committed may
+ * still be sent after the caller got the error, so it can arrive after
+ * messages the caller sends later. Otherwise the messages of a producer keep
+ * their order, as each send returns only once its batch was committed.
+ */
+public class JmsGroupCommitSender implements Work, WorkListener {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsGroupCommitSender.class);
+
+    /**
+     * How long the flusher waits for messages before closing its connection
+     */
+    private static final long IDLE_TIMEOUT = 60000;
+
+    /**
+     * The managed connection factory
+     */
+    private JmsManagedConnectionFactory mcf;
+
+    /**
+     * The user
+     */
+    private String user;
+
+    /**
+     * The password
+     */
+    private String password;
+
+    /**
+     * The maximum number of messages per commit
+     */
+    private int batchSize;
+
+    /**
+     * The maximum time a message waits for its batch in nanoseconds
+     */
+    private long intervalNanos;
+
+    /**
+     * How long a caller waits for the commit of its message in milliseconds
+     */
+    private long timeout;
+
+    /**
+     * The queued messages, guarded by itself
+     */
+    private final List<Request> pending = new ArrayList<Request>();
+
+    /**
+     * Whether the flusher is scheduled or running, guarded by pending
+     */
+    private boolean running;
+
+    /**
+     * Whether the sender was stopped, guarded by pending
+     */
+    private boolean stopped;
+
+    /**
+     * The connection, only used by the flusher
+     */
+    private Connection connection;
+
+    /**
+     * The transacted session, only used by the flusher
+     */
+    private Session session;
+
+    /**
+     * The anonymous producer, only used by the flusher
+     */
+    private MessageProducer producer;
+
+    /**
+     * Whether trace is enabled
+     */
+    private boolean trace = log.isTraceEnabled();
+
+    /**
+     * Create a new group commit sender
+     *
+     * @param mcf            the managed connection factory
+     * @param user           the user or null
+     * @param password       the password
+     * @param batchSize      the maximum number of messages per commit
+     * @param intervalMicros the maximum time a message waits for its batch in microseconds
+     * @param timeout        how long a caller waits for the commit of its message in milliseconds
+     */
+    public JmsGroupCommitSender(JmsManagedConnectionFactory mcf, String user, String password, int batchSize, long intervalMicros, long timeout) {
+        this.mcf = mcf;
+        this.user = user;
+        this.password = password;
+        this.batchSize = batchSize;
+        this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Send a message and wait until the batch holding it is committed
+     *
+     * @param destination  the destination
+     * @param message      the message
+     * @param deliveryMode the delivery mode
+     * @param priority     the priority
+     * @param timeToLive   the time to live
+     * @throws JMSException when the batch could not be committed in time
+     */
+    public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        Request request = new Request(destination, message, deliveryMode, priority, timeToLive);
+        boolean schedule = false;
+        synchronized (pending) {
+            if (stopped)
+                throw new JMSException("Group commit sender stopped " + this);
+            pending.add(request);
+            if (running == false) {
+                running = true;
+                schedule = true;
+            } else if (pending.size() == 1 || pending.size() >= batchSize) {
+                pending.notifyAll();
+            }
+        }
+        if (schedule)
+            schedule();
+        await(request);
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Stop the sender, failing the queued messages. A batch being committed
+     * completes.
+     */
+    public void stop() {
+        synchronized (pending) {
+            stopped = true;
+            pending.notifyAll();
+        }
+        abandon(new JMSException("Group commit sender stopped " + this));
+    }
+
+    public void release() {
+        stop();
+    }
+
+    public void run() {
+        boolean idle = false;
+        try {
+            List<Request> batch;
+            while ((batch = nextBatch()) != null)
+                flush(batch);
+            idle = true;
+        } catch (InterruptedException e) {
+            // not left to the next work of the thread
+            log.debug("Interrupted " + this);
+        } finally {
+            if (idle == false) {
+                close();
+                synchronized (pending) {
+                    running = false;
+                }
+                abandon(new JMSException("Group commit sender stopped " + this));
+            }
+        }
+    }
+
+    /**
+     * Start the flusher with the WorkManager of the resource adapter, or a
+     * thread of its own outside a container
+     */
+    private void schedule() {
+        WorkManager workManager = mcf.getWorkManager();
+        if (workManager == null) {
+            Thread thread = new Thread(this, "GenericJmsRA group commit " + mcf.getConnectionFactory());
+            thread.setDaemon(true);
+            thread.start();
+            return;
+        }
+        try {
+            workManager.scheduleWork(this, WorkManager.INDEFINITE, null, this);
+        } catch (WorkException e) {
+            log.warn("Unable to schedule the group commit of " + this, e);
+            rejected(e);
+        }
+    }
+
+    /**
+     * Fail the queued messages when the flusher cannot run
+     *
+     * @param e the error
+     */
+    private void rejected(Exception e) {
+        synchronized (pending) {
+            running = false;
+        }
+        JMSException error = new JMSException("Unable to schedule the group commit: " + e);
+        error.initCause(e);
+        abandon(error);
+    }
+
+    /**
+     * Fail all queued messages
+     *
+     * @param error the error
+     */
+    private void abandon(JMSException error) {
+        List<Request> abandoned;
+        synchronized (pending) {
+            abandoned = new ArrayList<Request>(pending);
+            pending.clear();
+        }
+        for (Request request : abandoned)
+            request.fail(error);
+    }
+
+    /**
+     * Wait for the next batch, clearing the flusher when idle or stopped. The
+     * connection is detached with the lock held, so no message can be queued
+     * before the flusher is cleared and the next flusher does not use it, and
+     * closed after leaving the lock, so senders do not wait for the close.
+     *
+     * @return the batch or null when idle or stopped
+     * @throws InterruptedException when interrupted
+     */
+    private List<Request> nextBatch() throws InterruptedException {
+        Connection idle;
+        synchronized (pending) {
+            List<Request> batch = takeBatch();
+            if (batch != null)
+                return batch;
+            idle = detach();
+            running = false;
+        }
+        close(idle);
+        return null;
+    }
+
+    /**
+     * Wait for the next batch, the caller holds the lock on pending
+     *
+     * @return the batch or null when idle or stopped
+     * @throws InterruptedException when interrupted
+     */
+    private List<Request> takeBatch() throws InterruptedException {
+        long idleUntil = System.currentTimeMillis() + IDLE_TIMEOUT;
+        while (pending.isEmpty()) {
+            long wait = idleUntil - System.currentTimeMillis();
+            if (wait <= 0 || stopped)
+                return null;
+            pending.wait(wait);
+        }
+
+        long deadline = pending.get(0).queued + intervalNanos;
+        while (pending.size() < batchSize && stopped == false) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0)
+                break;
+            TimeUnit.NANOSECONDS.timedWait(pending, wait);
+        }
+
+        int size = Math.min(batchSize, pending.size());
+        if (size == 0) {
+            // stopped while waiting
+            return null;
+        }
+        List<Request> head = pending.subList(0, size);
+        List<Request> batch = new ArrayList<Request>(head);
+        head.clear();
+        return batch;
+    }
+
+    /**
+     * Wait for the outcome of a message, withdrawing it when it is still
+     * queued after the timeout or when the caller is interrupted
+     *
+     * @param request the request
+     * @throws JMSException when the message was not committed
+     */
+    private void await(Request request) throws JMSException {
+        boolean done;
+        try {
+            done = request.done.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw withdraw(request, "Interrupted waiting for the group commit");
+        }
+        if (done == false)
+            throw withdraw(request, "Timed out after " + timeout + " ms waiting for the group commit");
+        if (request.error != null)
+            throw request.error;
+    }
+
+    private JMSException withdraw(Request request, String reason) {
+        boolean withdrawn;
+        synchronized (pending) {
+            withdrawn = pending.remove(request);
+        }
+        if (withdrawn)
+            return new JMSException(reason + ", the message was not sent " + this);
+        return new JMSException(reason + ", the message may still be sent " + this);
+    }
+
+    /**
+     * Send and commit a batch
+     *
+     * @param batch the batch
+     */
+    private void flush(List<Request> batch) {
+        try {
+            if (session == null)
+                setup();
+            for (Request request : batch)
+                producer.send(request.destination, request.message, request.deliveryMode, request.priority, request.timeToLive);
+            long start = System.nanoTime();
+            session.commit();
+            mcf.getMetrics().getCommit().recordSince(start);
+            if (trace)
+                log.trace("Committed " + batch.size() + " messages " + this);
+            for (Request request : batch)
+                request.complete();
+        } catch (Throwable t) {
+            log.debug("Error committing " + batch.size() + " messages " + this, t);
+            try {
+                if (session != null)
+                    session.rollback();
+            } catch (Throwable ignored) {
+                log.trace("Ignored error rolling back " + this, ignored);
+            }
+            close();
+
+            JMSException error;
+            if (t instanceof JMSException) {
+                error = (JMSException) t;
+            } else {
+                error = new JMSException("Error committing batch: " + t);
+                error.initCause(t);
+            }
+            for (Request request : batch)
+                request.fail(error);
+        }
+    }
+
+    /**
+     * Create the connection and transacted session, preferring a non XA
+     * connection when the provider factory supports both
+     *
+     * @throws Exception for any error
+     */
+    private void setup() throws Exception {
+        Context context = JmsActivation.convertStringToContext(mcf.getJndiParameters());
+        Object factory = context.lookup(mcf.getConnectionFactory());
+        if (factory instanceof ConnectionFactory) {
+            ConnectionFactory cf = (ConnectionFactory) factory;
+            connection = user != null ? cf.createConnection(user, password) : cf.createConnection();
+        } else {
+            connection = JmsManagedConnection.createConnection(factory, user, password);
+        }
+        session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        producer = session.createProducer(null);
+        if (trace)
+            log.trace("Created session " + session + " for " + this);
+    }
+
+    private void close() {
+        close(detach());
+    }
+
+    /**
+     * Forget the connection, session and producer
+     *
+     * @return the connection or null
+     */
+    private Connection detach() {
+        Connection result = connection;
+        connection = null;
+        session = null;
+        producer = null;
+        return result;
+    }
+
+    private void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (Throwable t) {
+                log.debug("Error closing connection " + this, t);
+            }
+        }
+    }
+
+    public void workAccepted(WorkEvent e) {
+    }
+
+    public void workRejected(WorkEvent e) {
+        log.warn("Group commit rejected " + this, e.getException());
+        rejected(e.getException());
+    }
+
+    public void workStarted(WorkEvent e) {
+    }
+
+    public void workCompleted(WorkEvent e) {
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("JmsGroupCommitSender@").append(Integer.toHexString(System.identityHashCode(this)));
+        buffer.append("(connectionFactory=").append(mcf.getConnectionFactory());
+        buffer.append(" user=").append(user);
+        buffer.append(" batchSize=").append(batchSize);
+        buffer.append(" intervalMicros=").append(TimeUnit.NANOSECONDS.toMicros(intervalNanos));
+        buffer.append(" timeout=").append(timeout);
+        buffer.append(')');
+        return buffer.toString();
+    }
+
+    /**
+     * A queued message
+     */
+    private static class Request {
+        final Destination destination;
+        final Message message;
+        final int deliveryMode;
+        final int priority;
+        final long timeToLive;
+        final long queued = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile JMSException error;
+
+        Request(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) {
+            this.destination = destination;
+            this.message = message;
+            this.deliveryMode = deliveryMode;
+            this.priority = priority;
+            this.timeToLive = timeToLive;
+        }
+
+        void complete() {
+            done.countDown();
+        }
+
+        void fail(JMSException error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+}
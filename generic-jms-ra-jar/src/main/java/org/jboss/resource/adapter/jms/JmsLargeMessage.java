@@ -0,0 +1,576 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotWriteableException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A large message which was sent as a sequence of chunks and reassembled
+ * by the resource adapter.
+ * <p/>
+ * The headers and properties are those of the first chunk, the body is the concatenation of all chunks. The body is either
+ * held on the heap or in a memory mapped temporary file, it can be read
+ * through the BytesMessage API or as a stream with {@link #getInputStream()}.
+ * The message is read-only.
+ *
+ * @see JmsLargeMessageSender
+ */
+public class JmsLargeMessage implements BytesMessage {
+    private static final Logger log = Logger.getLogger(JmsLargeMessage.class);
+
+    /**
+     * The property holding the id shared by all chunks of a large message
+     */
+    public static final String LARGE_MESSAGE_ID = "GenericJmsRA_LargeMessageId";
+
+    /**
+     * The property holding the zero based index of a chunk
+     */
+    public static final String CHUNK_INDEX = "GenericJmsRA_ChunkIndex";
+
+    /**
+     * The property holding the number of chunks of a large message
+     */
+    public static final String CHUNK_COUNT = "GenericJmsRA_ChunkCount";
+
+    /**
+     * The property holding the size of all but the last chunk
+     */
+    public static final String CHUNK_SIZE = "GenericJmsRA_ChunkSize";
+
+    /**
+     * The property holding the size of the complete body
+     */
+    public static final String TOTAL_SIZE = "GenericJmsRA_TotalSize";
+
+    /**
+     * The JMS defined group id property
+     */
+    public static final String JMSX_GROUP_ID = "JMSXGroupID";
+
+    /**
+     * The JMS defined group sequence property
+     */
+    public static final String JMSX_GROUP_SEQ = "JMSXGroupSeq";
+
+    /**
+     * The selector matching all messages but the second and later chunks of
+     * large messages
+     */
+    public static final String FIRST_CHUNK_SELECTOR = "(" + CHUNK_INDEX + " IS NULL OR " + CHUNK_INDEX + " = 0)";
+
+    /**
+     * The message supplying the headers and properties
+     */
+    private Message message;
+
+    /**
+     * The complete body
+     */
+    private ByteBuffer body;
+
+    /**
+     * The read position in the body
+     */
+    private ByteBuffer position;
+
+    /**
+     * The temporary file backing the body, if any
+     */
+    private File file;
+
+    /**
+     * Create a new large message
+     *
+     * @param message the message supplying the headers and properties
+     * @param body    the complete body
+     * @param file    the temporary file backing the body or null
+     */
+    public JmsLargeMessage(Message message, ByteBuffer body, File file) {
+        this.message = message;
+        this.body = body;
+        this.file = file;
+        this.position = body.duplicate();
+    }
+
+    /**
+     * Whether the message is a chunk of a large message
+     *
+     * @param message the message
+     * @return true for a chunk
+     * @throws JMSException for any error
+     */
+    public static boolean isChunk(Message message) throws JMSException {
+        return message instanceof BytesMessage && message.propertyExists(LARGE_MESSAGE_ID);
+    }
+
+    /**
+     * Get a stream over the complete body, independent of the read
+     * position of the BytesMessage API
+     *
+     * @return the stream
+     */
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(body.duplicate());
+    }
+
+    /**
+     * @return whether the body is held in a temporary file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Release the temporary file backing the body
+     */
+    public void release() {
+        if (file != null) {
+            if (file.delete() == false) {
+                log.debug("Unable to delete " + file + ", deleting on exit");
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+    // --- BytesMessage API
+
+    public long getBodyLength() throws JMSException {
+        return body.limit();
+    }
+
+    public boolean readBoolean() throws JMSException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws JMSException {
+        try {
+            return position.get();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public int readUnsignedByte() throws JMSException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws JMSException {
+        try {
+            return position.getShort();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public int readUnsignedShort() throws JMSException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws JMSException {
+        try {
+            return position.getChar();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public int readInt() throws JMSException {
+        try {
+            return position.getInt();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public long readLong() throws JMSException {
+        try {
+            return position.getLong();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public float readFloat() throws JMSException {
+        try {
+            return position.getFloat();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public double readDouble() throws JMSException {
+        try {
+            return position.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw eof();
+        }
+    }
+
+    public String readUTF() throws JMSException {
+        try {
+            return DataInputStream.readUTF(new DataInputStream(new ByteBufferInputStream(position)));
+        } catch (IOException e) {
+            MessageFormatException mfe = new MessageFormatException("Unable to read UTF string: " + e);
+            mfe.setLinkedException(e);
+            throw mfe;
+        }
+    }
+
+    public int readBytes(byte[] value) throws JMSException {
+        return readBytes(value, value.length);
+    }
+
+    public int readBytes(byte[] value, int length) throws JMSException {
+        if (position.hasRemaining() == false)
+            return -1;
+        int count = Math.min(length, position.remaining());
+        position.get(value, 0, count);
+        return count;
+    }
+
+    /**
+     * Read bytes from the body into the remaining space of the buffer
+     *
+     * @param buffer the buffer, its position is advanced by the number of bytes read
+     * @return the number of bytes read or -1 when the end of the body was reached
+     * @throws JMSException for any error
+     */
+    public int readBytes(ByteBuffer buffer) throws JMSException {
+        if (position.hasRemaining() == false)
+            return buffer.hasRemaining() ? -1 : 0;
+        int count = Math.min(buffer.remaining(), position.remaining());
+        ByteBuffer slice = position.duplicate();
+        slice.limit(slice.position() + count);
+        buffer.put(slice);
+        position.position(position.position() + count);
+        return count;
+    }
+
+    public void reset() throws JMSException {
+        position = body.duplicate();
+    }
+
+    public void writeBoolean(boolean value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeByte(byte value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeShort(short value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeChar(char value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeInt(int value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeLong(long value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeFloat(float value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeDouble(double value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeUTF(String value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeBytes(byte[] value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeBytes(byte[] value, int offset, int length) throws JMSException {
+        throw readOnly();
+    }
+
+    public void writeObject(Object value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void clearBody() throws JMSException {
+        throw readOnly();
+    }
+
+    // --- Message API, delegated to the completing chunk
+
+    public void acknowledge() throws JMSException {
+        message.acknowledge();
+    }
+
+    public void clearProperties() throws JMSException {
+        message.clearProperties();
+    }
+
+    public boolean propertyExists(String name) throws JMSException {
+        return message.propertyExists(name);
+    }
+
+    public boolean getBooleanProperty(String name) throws JMSException {
+        return message.getBooleanProperty(name);
+    }
+
+    public byte getByteProperty(String name) throws JMSException {
+        return message.getByteProperty(name);
+    }
+
+    public short getShortProperty(String name) throws JMSException {
+        return message.getShortProperty(name);
+    }
+
+    public int getIntProperty(String name) throws JMSException {
+        return message.getIntProperty(name);
+    }
+
+    public long getLongProperty(String name) throws JMSException {
+        return message.getLongProperty(name);
+    }
+
+    public float getFloatProperty(String name) throws JMSException {
+        return message.getFloatProperty(name);
+    }
+
+    public double getDoubleProperty(String name) throws JMSException {
+        return message.getDoubleProperty(name);
+    }
+
+    public String getStringProperty(String name) throws JMSException {
+        return message.getStringProperty(name);
+    }
+
+    public Object getObjectProperty(String name) throws JMSException {
+        return message.getObjectProperty(name);
+    }
+
+    public Enumeration getPropertyNames() throws JMSException {
+        return message.getPropertyNames();
+    }
+
+    public void setBooleanProperty(String name, boolean value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setByteProperty(String name, byte value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setShortProperty(String name, short value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setIntProperty(String name, int value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setLongProperty(String name, long value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setFloatProperty(String name, float value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setDoubleProperty(String name, double value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setStringProperty(String name, String value) throws JMSException {
+        throw readOnly();
+    }
+
+    public void setObjectProperty(String name, Object value) throws JMSException {
+        throw readOnly();
+    }
+
+    public String getJMSMessageID() throws JMSException {
+        return message.getJMSMessageID();
+    }
+
+    public void setJMSMessageID(String id) throws JMSException {
+        message.setJMSMessageID(id);
+    }
+
+    public long getJMSTimestamp() throws JMSException {
+        return message.getJMSTimestamp();
+    }
+
+    public void setJMSTimestamp(long timestamp) throws JMSException {
+        message.setJMSTimestamp(timestamp);
+    }
+
+    public byte[] getJMSCorrelationIDAsBytes() throws JMSException {
+        return message.getJMSCorrelationIDAsBytes();
+    }
+
+    public void setJMSCorrelationIDAsBytes(byte[] correlationID) throws JMSException {
+        message.setJMSCorrelationIDAsBytes(correlationID);
+    }
+
+    public String getJMSCorrelationID() throws JMSException {
+        return message.getJMSCorrelationID();
+    }
+
+    public void setJMSCorrelationID(String correlationID) throws JMSException {
+        message.setJMSCorrelationID(correlationID);
+    }
+
+    public Destination getJMSReplyTo() throws JMSException {
+        return message.getJMSReplyTo();
+    }
+
+    public void setJMSReplyTo(Destination replyTo) throws JMSException {
+        message.setJMSReplyTo(replyTo);
+    }
+
+    public Destination getJMSDestination() throws JMSException {
+        return message.getJMSDestination();
+    }
+
+    public void setJMSDestination(Destination destination) throws JMSException {
+        message.setJMSDestination(destination);
+    }
+
+    public int getJMSDeliveryMode() throws JMSException {
+        return message.getJMSDeliveryMode();
+    }
+
+    public void setJMSDeliveryMode(int deliveryMode) throws JMSException {
+        message.setJMSDeliveryMode(deliveryMode);
+    }
+
+    public boolean getJMSRedelivered() throws JMSException {
+        return message.getJMSRedelivered();
+    }
+
+    public void setJMSRedelivered(boolean redelivered) throws JMSException {
+        message.setJMSRedelivered(redelivered);
+    }
+
+    public String getJMSType() throws JMSException {
+        return message.getJMSType();
+    }
+
+    public void setJMSType(String type) throws JMSException {
+        message.setJMSType(type);
+    }
+
+    public long getJMSExpiration() throws JMSException {
+        return message.getJMSExpiration();
+    }
+
+    public void setJMSExpiration(long expiration) throws JMSException {
+        message.setJMSExpiration(expiration);
+    }
+
+    public int getJMSPriority() throws JMSException {
+        return message.getJMSPriority();
+    }
+
+    public void setJMSPriority(int priority) throws JMSException {
+        message.setJMSPriority(priority);
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("JmsLargeMessage(");
+        buffer.append("size=").append(body.limit());
+        if (file != null) {
+            buffer.append(" file=").append(file);
+        }
+        buffer.append(" message=").append(message);
+        buffer.append(')');
+        return buffer.toString();
+    }
+
+    private static MessageEOFException eof() {
+        return new MessageEOFException("Unexpected end of large message");
+    }
+
+    private static MessageNotWriteableException readOnly() {
+        return new MessageNotWriteableException("A reassembled large message is read-only");
+    }
+
+    /**
+     * An InputStream reading from a ByteBuffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            if (buffer.hasRemaining() == false)
+                return -1;
+            return buffer.get() & 0xff;
+        }
+
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (buffer.hasRemaining() == false)
+                return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.Enumeration;
+import java.util.UUID;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Splits a large BytesMessage into a sequence of chunks.
+ * <p/>
+ * Every chunk carries the headers and properties of the original message,
+ * the JMSXGroupID/JMSXGroupSeq group properties and the chunk properties
+ * defined in {@link JmsLargeMessage}. The chunks are sent through the
+ * session of the managed connection, so they are atomic when that session
+ * is transacted or enlisted in a JTA transaction.
+ */
+public class JmsLargeMessageSender {
+    private static final Logger log = Logger.getLogger(JmsLargeMessageSender.class);
+
+    /**
+     * The session used to create the chunks
+     */
+    private Session session;
+
+    /**
+     * The maximum size of a chunk
+     */
+    private int chunkSize;
+
+    /**
+     * Create a new sender
+     *
+     * @param session   the session used to create the chunks
+     * @param chunkSize the maximum size of a chunk
+     */
+    public JmsLargeMessageSender(Session session, int chunkSize) {
+        this.session = session;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Send the message as a sequence of chunks
+     *
+     * @param producer     the producer
+     * @param destination  the destination or null to use the producer's destination
+     * @param message      the message
+     * @param deliveryMode the delivery mode
+     * @param priority     the priority
+     * @param timeToLive   the time to live
+     * @throws JMSException for any error
+     */
+    public void send(MessageProducer producer, Destination destination, BytesMessage message, int deliveryMode, int priority, long timeToLive)
+            throws JMSException {
+        message.reset();
+        long totalSize = message.getBodyLength();
+        int chunkCount = (int) ((totalSize + chunkSize - 1) / chunkSize);
+        String id = UUID.randomUUID().toString();
+        String groupId = message.getStringProperty(JmsLargeMessage.JMSX_GROUP_ID);
+        if (groupId == null)
+            groupId = id;
+
+        if (log.isTraceEnabled())
+            log.trace("Sending large message " + id + " size=" + totalSize + " chunks=" + chunkCount + " message=" + message);
+
+        byte[] buffer = new byte[(int) Math.min(chunkSize, totalSize)];
+        for (int i = 0; i < chunkCount; ++i) {
+            int read = message.readBytes(buffer);
+            if (read <= 0)
+                throw new JMSException("Unexpected end of message after " + i + " of " + chunkCount + " chunks");
+
+            BytesMessage chunk = session.createBytesMessage();
+            copyHeaders(message, chunk);
+            chunk.setStringProperty(JmsLargeMessage.JMSX_GROUP_ID, groupId);
+            chunk.setIntProperty(JmsLargeMessage.JMSX_GROUP_SEQ, i + 1);
+            chunk.setStringProperty(JmsLargeMessage.LARGE_MESSAGE_ID, id);
+            chunk.setIntProperty(JmsLargeMessage.CHUNK_INDEX, i);
+            chunk.setIntProperty(JmsLargeMessage.CHUNK_COUNT, chunkCount);
+            chunk.setIntProperty(JmsLargeMessage.CHUNK_SIZE, chunkSize);
+            chunk.setLongProperty(JmsLargeMessage.TOTAL_SIZE, totalSize);
+            chunk.writeBytes(buffer, 0, read);
+
+            if (destination == null)
+                producer.send(chunk, deliveryMode, priority, timeToLive);
+            else
+                producer.send(destination, chunk, deliveryMode, priority, timeToLive);
+        }
+    }
+
+    /**
+     * Copy the client settable headers and the properties
+     *
+     * @param from the original message
+     * @param to   the chunk
+     * @throws JMSException for any error
+     */
+    private static void copyHeaders(BytesMessage from, BytesMessage to) throws JMSException {
+        to.setJMSCorrelationID(from.getJMSCorrelationID());
+        to.setJMSReplyTo(from.getJMSReplyTo());
+        to.setJMSType(from.getJMSType());
+        for (Enumeration names = from.getPropertyNames(); names.hasMoreElements(); ) {
+            String name = (String) names.nextElement();
+            // JMSX properties are either set by the provider or set below
+            if (name.startsWith("JMSX") == false)
+                to.setObjectProperty(name, from.getObjectProperty(name));
+        }
+    }
+}
@@ -40,16 +40,21 @@ public class JmsLocalTransaction implements LocalTransaction {
     }
 
     public void begin() throws ResourceException {
+        mc.setInTransaction(true);
     }
 
     public void commit() throws ResourceException {
         mc.lock();
         try {
-            if (mc.getSession().getTransacted())
+            if (mc.getSession().getTransacted()) {
+                long start = System.nanoTime();
                 mc.getSession().commit();
+                mc.getManagedConnectionFactory().getMetrics().getCommit().recordSince(start);
+            }
         } catch (JMSException e) {
             throw new ResourceException("Could not commit LocalTransaction", e);
         } finally {
+            mc.setInTransaction(false);
             mc.unlock();
         }
     }
@@ -62,6 +67,7 @@ public class JmsLocalTransaction implements LocalTransaction {
         } catch (JMSException ex) {
             throw new ResourceException("Could not rollback LocalTransaction", ex);
         } finally {
+            mc.setInTransaction(false);
             mc.unlock();
         }
     }
@@ -140,6 +140,16 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
     private XAResource xaResource;
     private boolean xaTransacted;
 
+    /**
+     * Whether the connection is associated with a local or XA transaction
+     */
+    private volatile boolean inTransaction;
+
+    /**
+     * Whether the connection was counted as created in the metrics
+     */
+    private boolean counted;
+
     /**
      * Holds all current JmsSession handles.
      */
@@ -180,6 +190,8 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
             }
             throw new ResourceException(t);
         }
+        mcf.getMetrics().connectionCreated();
+        counted = true;
     }
 
     //---- ManagedConnection API ----
@@ -257,6 +269,8 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
         }
 
         isDestroyed = true;
+        if (counted)
+            mcf.getMetrics().connectionDestroyed();
 
         try {
             con.setExceptionListener(null);
@@ -355,15 +369,19 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
     }
 
     protected void tryLock() throws JMSException {
+        long start = System.nanoTime();
         int tryLock = mcf.getUseTryLock();
         if (tryLock <= 0) {
             lock();
+            mcf.getMetrics().getLockWait().recordSince(start);
             return;
         }
         try {
             if (lock.tryLock(tryLock, TimeUnit.SECONDS) == false) {
+                mcf.getMetrics().lockTimedOut();
                 throw new ResourceAllocationException("Unable to obtain lock in " + tryLock + " seconds: " + this);
             }
+            mcf.getMetrics().getLockWait().recordSince(start);
         } catch (InterruptedException e) {
             throw new ResourceAllocationException("Interrupted attempting lock: " + this);
         }
@@ -496,6 +514,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
         }
 
         log.warn("Handling jms exception failure: " + this, exception);
+        mcf.getMetrics().connectionError();
 
         // We need to unlock() before sending the connection error to the
         // event listeners. Otherwise the lock won't be in sync once
@@ -606,6 +625,28 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
         con.stop();
     }
 
+    /**
+     * Whether the connection is associated with a local or XA transaction
+     *
+     * @return true when in a transaction
+     */
+    boolean isInTransaction() {
+        return inTransaction;
+    }
+
+    void setInTransaction(boolean inTransaction) {
+        this.inTransaction = inTransaction;
+    }
+
+    /**
+     * Get the password for this connection.
+     *
+     * @return The password for this connection.
+     */
+    String getPassword() {
+        return pwd;
+    }
+
     // --- Used by MetaData
 
     /**
@@ -22,19 +22,30 @@
 package org.jboss.resource.adapter.jms;
 
 import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jms.ConnectionMetaData;
+import javax.jms.JMSException;
+import javax.management.ObjectName;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ResourceAdapter;
+import javax.resource.spi.ResourceAdapterAssociation;
+import javax.resource.spi.ResourceAllocationException;
+import javax.resource.spi.work.WorkManager;
 import javax.security.auth.Subject;
 
 //import org.jboss.jms.jndi.JMSProviderAdapter;
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+import org.jboss.resource.adapter.jms.metrics.MetricsReporter;
+import org.jboss.resource.adapter.jms.metrics.MetricsReporting;
 
 /**
  * Jms ManagedConectionFactory
@@ -42,7 +53,7 @@ import org.jboss.logging.Logger;
  * @author <a href="mailto:peter.antman@tim.se">Peter Antman </a>.
  * @author <a href="mailto:adrian@jboss.com">Adrian Brock</a>
  */
-public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
+public class JmsManagedConnectionFactory implements ManagedConnectionFactory, ResourceAdapterAssociation, JmsManagedConnectionFactoryMBean {
     private static final long serialVersionUID = -923483284031773011L;
 
     private static final Logger log = Logger.getLogger(JmsManagedConnection.class);
@@ -62,6 +73,91 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
      */
     private Integer useTryLock = 60;
 
+    /**
+     * The chunk size for large messages
+     */
+    private Integer largeMessageChunkSize = 0;
+
+    /**
+     * The name of the codec for ObjectMessages
+     */
+    private String objectCodec;
+
+    /**
+     * The classes the codec for ObjectMessages is allowed to decode
+     */
+    private String objectCodecAllowedClasses;
+
+    /**
+     * The codec for ObjectMessages
+     */
+    private transient JmsObjectCodec objectCodecInstance;
+
+    /**
+     * The maximum number of messages per group commit
+     */
+    private Integer groupCommitSize = 0;
+
+    /**
+     * The maximum time a message waits for its group commit in microseconds
+     */
+    private Integer groupCommitInterval = 1000;
+
+    /**
+     * How long a sender waits for its group commit in milliseconds
+     */
+    private Integer groupCommitTimeout = 30000;
+
+    /**
+     * The group commit senders by user
+     */
+    private transient Map<String, JmsGroupCommitSender> groupCommitSenders;
+
+    /**
+     * The number of consecutive connect or send failures that opens the circuit breaker
+     */
+    private Integer circuitBreakerFailureThreshold = 0;
+
+    /**
+     * How long the circuit breaker stays open in milliseconds
+     */
+    private Integer circuitBreakerCoolDown = 30000;
+
+    /**
+     * The circuit breaker
+     */
+    private transient volatile JmsCircuitBreaker circuitBreaker;
+
+    /**
+     * The metrics
+     */
+    private transient volatile JmsManagedConnectionFactoryMetrics metrics;
+
+    /**
+     * The name of the reporter the metrics are published to
+     */
+    private String metricsReporter;
+
+    /**
+     * How often the metrics are published in milliseconds
+     */
+    private Integer metricsReportInterval = 60000;
+
+    /**
+     * The name of the MBean, registered with the first managed connection
+     */
+    private transient ObjectName objectName;
+
+    /**
+     * The name the metrics are reported under, null when they are not reported
+     */
+    private transient String metricsSource;
+
+    /**
+     * The resource adapter
+     */
+    private transient ResourceAdapter ra;
+
     public JmsManagedConnectionFactory() {
         // empty
     }
@@ -100,8 +196,25 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
         if (trace)
             log.trace("jms credentials: " + cred);
 
+        registerMBean();
+
+        JmsCircuitBreaker breaker = getCircuitBreaker();
+        if (breaker.allowRequest() == false)
+            throw new ResourceAllocationException("Circuit breaker is open, not connecting: " + breaker);
+
         // OK we got autentication stuff
-        JmsManagedConnection mc = new JmsManagedConnection(this, info, cred.name, cred.pwd);
+        JmsManagedConnection mc;
+        try {
+            mc = new JmsManagedConnection(this, info, cred.name, cred.pwd);
+        } catch (Throwable t) {
+            breaker.failure(t);
+            if (t instanceof ResourceException)
+                throw (ResourceException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw (RuntimeException) t;
+        }
+        breaker.success();
 
         if (trace)
             log.trace("created new managed connection: " + mc);
@@ -287,6 +400,459 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
         this.useTryLock = useTryLock;
     }
 
+    /**
+     * Get the largeMessageChunkSize.
+     *
+     * @return the largeMessageChunkSize.
+     */
+    public Integer getLargeMessageChunkSize() {
+        return largeMessageChunkSize;
+    }
+
+    /**
+     * Set the largeMessageChunkSize, BytesMessages with a larger body are
+     * sent as a sequence of chunks. Zero disables chunking.
+     *
+     * @param largeMessageChunkSize the largeMessageChunkSize.
+     */
+    public void setLargeMessageChunkSize(Integer largeMessageChunkSize) {
+        this.largeMessageChunkSize = largeMessageChunkSize;
+    }
+
+    /**
+     * Get the objectCodec.
+     *
+     * @return the objectCodec.
+     */
+    public String getObjectCodec() {
+        return objectCodec;
+    }
+
+    /**
+     * Set the objectCodec, the registered name or class name of the
+     * {@link JmsObjectCodec} used for ObjectMessages. When not set the
+     * provider serializes the objects.
+     *
+     * @param objectCodec the objectCodec.
+     */
+    public void setObjectCodec(String objectCodec) {
+        this.objectCodec = objectCodec;
+        this.objectCodecInstance = null;
+    }
+
+    /**
+     * Get the objectCodecAllowedClasses.
+     *
+     * @return the objectCodecAllowedClasses.
+     */
+    public String getObjectCodecAllowedClasses() {
+        return objectCodecAllowedClasses;
+    }
+
+    /**
+     * Set the objectCodecAllowedClasses, the class names and package
+     * prefixes ending with ".*" the codec is allowed to decode, separated by
+     * commas. When not set any Serializable class is decoded.
+     *
+     * @param objectCodecAllowedClasses the objectCodecAllowedClasses.
+     */
+    public void setObjectCodecAllowedClasses(String objectCodecAllowedClasses) {
+        this.objectCodecAllowedClasses = objectCodecAllowedClasses;
+        this.objectCodecInstance = null;
+    }
+
+    /**
+     * Get the codec for ObjectMessages
+     *
+     * @return the codec or null when objects are serialized by the provider
+     * @throws JMSException when the codec cannot be created
+     */
+    JmsObjectCodec getObjectCodecInstance() throws JMSException {
+        JmsObjectCodec codec = objectCodecInstance;
+        if (codec == null && objectCodec != null) {
+            codec = JmsObjectCodecs.getCodec(objectCodec, objectCodecAllowedClasses);
+            objectCodecInstance = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Get the groupCommitSize.
+     *
+     * @return the groupCommitSize.
+     */
+    public Integer getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * Set the groupCommitSize, the maximum number of persistent messages sent
+     * outside a transaction that are committed together. Values below two
+     * disable group commit.
+     *
+     * @param groupCommitSize the groupCommitSize.
+     */
+    public void setGroupCommitSize(Integer groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    /**
+     * Get the groupCommitInterval.
+     *
+     * @return the groupCommitInterval.
+     */
+    public Integer getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    /**
+     * Set the groupCommitInterval, the maximum time in microseconds a message
+     * waits for the other messages of its group commit.
+     *
+     * @param groupCommitInterval the groupCommitInterval.
+     */
+    public void setGroupCommitInterval(Integer groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    /**
+     * Get the groupCommitTimeout.
+     *
+     * @return the groupCommitTimeout.
+     */
+    public Integer getGroupCommitTimeout() {
+        return groupCommitTimeout;
+    }
+
+    /**
+     * Set the groupCommitTimeout, the maximum time in milliseconds a sender
+     * waits for the commit of its message before the send fails.
+     *
+     * @param groupCommitTimeout the groupCommitTimeout.
+     */
+    public void setGroupCommitTimeout(Integer groupCommitTimeout) {
+        this.groupCommitTimeout = groupCommitTimeout;
+    }
+
+    /**
+     * Get the group commit sender for a user
+     *
+     * @param user     the user or null
+     * @param password the password
+     * @return the sender or null when group commit is disabled
+     */
+    JmsGroupCommitSender getGroupCommitSender(String user, String password) {
+        int size = groupCommitSize == null ? 0 : groupCommitSize.intValue();
+        if (size < 2)
+            return null;
+        synchronized (this) {
+            if (groupCommitSenders == null)
+                groupCommitSenders = new HashMap<String, JmsGroupCommitSender>();
+            String key = user == null ? "" : user;
+            JmsGroupCommitSender sender = groupCommitSenders.get(key);
+            if (sender == null) {
+                long interval = groupCommitInterval == null ? 0 : groupCommitInterval.longValue();
+                long timeout = groupCommitTimeout == null ? 0 : groupCommitTimeout.longValue();
+                sender = new JmsGroupCommitSender(this, user, password, size, interval, timeout);
+                groupCommitSenders.put(key, sender);
+            }
+            return sender;
+        }
+    }
+
+    /**
+     * Stop the group commit senders and the metrics reports and unregister the
+     * MBean, called when the resource adapter stops
+     */
+    void stop() {
+        Map<String, JmsGroupCommitSender> senders;
+        synchronized (this) {
+            senders = groupCommitSenders;
+            groupCommitSenders = null;
+            JmsManagement.unregister(objectName);
+            objectName = null;
+            if (metricsSource != null) {
+                MetricsReporting.cancel(metricsSource);
+                metricsSource = null;
+            }
+        }
+        if (senders != null) {
+            for (JmsGroupCommitSender sender : senders.values())
+                sender.stop();
+        }
+    }
+
+    public ResourceAdapter getResourceAdapter() {
+        return ra;
+    }
+
+    public void setResourceAdapter(ResourceAdapter ra) throws ResourceException {
+        this.ra = ra;
+        if (ra instanceof JmsResourceAdapter)
+            ((JmsResourceAdapter) ra).register(this);
+    }
+
+    /**
+     * Get the work manager of the resource adapter
+     *
+     * @return the work manager or null when not associated with a started resource adapter
+     */
+    WorkManager getWorkManager() {
+        if (ra instanceof JmsResourceAdapter)
+            return ((JmsResourceAdapter) ra).getWorkManager();
+        return null;
+    }
+
+    /**
+     * Get the circuitBreakerFailureThreshold.
+     *
+     * @return the circuitBreakerFailureThreshold.
+     */
+    public Integer getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Set the circuitBreakerFailureThreshold, the number of consecutive
+     * connect or send failures that opens the circuit breaker. Zero disables
+     * the circuit breaker.
+     *
+     * @param circuitBreakerFailureThreshold the circuitBreakerFailureThreshold.
+     */
+    public void setCircuitBreakerFailureThreshold(Integer circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        JmsCircuitBreaker breaker = circuitBreaker;
+        if (breaker != null)
+            breaker.setFailureThreshold(circuitBreakerFailureThreshold == null ? 0 : circuitBreakerFailureThreshold.intValue());
+    }
+
+    /**
+     * Get the circuitBreakerCoolDown.
+     *
+     * @return the circuitBreakerCoolDown.
+     */
+    public Integer getCircuitBreakerCoolDown() {
+        return circuitBreakerCoolDown;
+    }
+
+    /**
+     * Set the circuitBreakerCoolDown, how long in milliseconds the circuit
+     * breaker fails fast before letting a probe through.
+     *
+     * @param circuitBreakerCoolDown the circuitBreakerCoolDown.
+     */
+    public void setCircuitBreakerCoolDown(Integer circuitBreakerCoolDown) {
+        this.circuitBreakerCoolDown = circuitBreakerCoolDown;
+        JmsCircuitBreaker breaker = circuitBreaker;
+        if (breaker != null)
+            breaker.setCoolDown(circuitBreakerCoolDown == null ? 0 : circuitBreakerCoolDown.longValue());
+    }
+
+    /**
+     * Get the circuit breaker, its state and counters are the circuit breaker metrics
+     *
+     * @return the circuit breaker
+     */
+    public JmsCircuitBreaker getCircuitBreaker() {
+        JmsCircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            synchronized (this) {
+                if (circuitBreaker == null) {
+                    int threshold = circuitBreakerFailureThreshold == null ? 0 : circuitBreakerFailureThreshold.intValue();
+                    long coolDown = circuitBreakerCoolDown == null ? 0 : circuitBreakerCoolDown.longValue();
+                    circuitBreaker = new JmsCircuitBreaker(String.valueOf(mcfProperties.getConnectionFactory()), threshold, coolDown);
+                }
+                breaker = circuitBreaker;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Get the metricsReporter.
+     *
+     * @return the metricsReporter.
+     */
+    public String getMetricsReporter() {
+        return metricsReporter;
+    }
+
+    /**
+     * Set the metricsReporter, "log" or the class name of the
+     * {@link MetricsReporter} the metrics are published to.
+     *
+     * @param metricsReporter the metricsReporter.
+     */
+    public void setMetricsReporter(String metricsReporter) {
+        this.metricsReporter = metricsReporter;
+    }
+
+    /**
+     * Get the metricsReportInterval.
+     *
+     * @return the metricsReportInterval.
+     */
+    public Integer getMetricsReportInterval() {
+        return metricsReportInterval;
+    }
+
+    /**
+     * Set the metricsReportInterval in milliseconds.
+     *
+     * @param metricsReportInterval the metricsReportInterval.
+     */
+    public void setMetricsReportInterval(Integer metricsReportInterval) {
+        this.metricsReportInterval = metricsReportInterval;
+    }
+
+    /**
+     * Get the metrics
+     *
+     * @return the metrics
+     */
+    public JmsManagedConnectionFactoryMetrics getMetrics() {
+        JmsManagedConnectionFactoryMetrics result = metrics;
+        if (result == null) {
+            synchronized (this) {
+                if (metrics == null)
+                    metrics = new JmsManagedConnectionFactoryMetrics();
+                result = metrics;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Register the MBean, unregistered when the resource adapter stops
+     */
+    private synchronized void registerMBean() {
+        if (objectName == null) {
+            String id = JmsManagement.idOf(this);
+            objectName = JmsManagement.createObjectName("ManagedConnectionFactory", getConnectionFactory(), id);
+            JmsManagement.register(objectName, this);
+            scheduleMetricsReports("ManagedConnectionFactory[" + getConnectionFactory() + "]@" + id);
+        }
+    }
+
+    /**
+     * Publish the metrics periodically when a reporter is configured
+     *
+     * @param source the name of the metrics
+     */
+    private void scheduleMetricsReports(String source) {
+        int interval = metricsReportInterval == null ? 0 : metricsReportInterval.intValue();
+        try {
+            MetricsReporter reporter = MetricsReporting.createReporter(metricsReporter);
+            if (reporter != null && interval > 0) {
+                MetricsReporting.schedule(source, getMetrics(), reporter, interval);
+                metricsSource = source;
+            }
+        } catch (Exception e) {
+            log.warn("Unable to create metrics reporter " + metricsReporter, e);
+        }
+    }
+
+    // --- MBean API
+
+    public long getLiveConnections() {
+        return getMetrics().getLiveConnections();
+    }
+
+    public long getCreatedConnections() {
+        return getMetrics().getCreatedConnections();
+    }
+
+    public long getDestroyedConnections() {
+        return getMetrics().getDestroyedConnections();
+    }
+
+    public long getConnectionErrors() {
+        return getMetrics().getConnectionErrors();
+    }
+
+    public long getSendFailures() {
+        return getMetrics().getSendFailures();
+    }
+
+    public long getLockTimeouts() {
+        return getMetrics().getLockTimeouts();
+    }
+
+    public long getLockWaitCount() {
+        return getMetrics().getLockWait().getCount();
+    }
+
+    public double getLockWaitMean() {
+        return getMetrics().getLockWait().getMean();
+    }
+
+    public long getLockWaitP99() {
+        return getMetrics().getLockWait().getPercentile(99);
+    }
+
+    public long getLockWaitMax() {
+        return getMetrics().getLockWait().getMax();
+    }
+
+    public long getSendCount() {
+        return getMetrics().getSend().getCount();
+    }
+
+    public double getSendMean() {
+        return getMetrics().getSend().getMean();
+    }
+
+    public long getSendP99() {
+        return getMetrics().getSend().getPercentile(99);
+    }
+
+    public long getSendMax() {
+        return getMetrics().getSend().getMax();
+    }
+
+    public long getCommitP99() {
+        return getMetrics().getCommit().getPercentile(99);
+    }
+
+    public long getXAStartP99() {
+        return getMetrics().getXAStart().getPercentile(99);
+    }
+
+    public long getXAEndP99() {
+        return getMetrics().getXAEnd().getPercentile(99);
+    }
+
+    public long getXAPrepareP99() {
+        return getMetrics().getXAPrepare().getPercentile(99);
+    }
+
+    public long getXACommitP99() {
+        return getMetrics().getXACommit().getPercentile(99);
+    }
+
+    public long percentile(String histogram, double percentile) {
+        LatencyHistogram result = getMetrics().getHistogram(histogram);
+        if (result == null)
+            throw new IllegalArgumentException("No histogram " + histogram);
+        return result.getPercentile(percentile);
+    }
+
+    public String getCircuitBreakerState() {
+        return getCircuitBreaker().getStateName();
+    }
+
+    public long getCircuitBreakerTrips() {
+        return getCircuitBreaker().getTripCount();
+    }
+
+    public long getCircuitBreakerRejections() {
+        return getCircuitBreaker().getRejectedCount();
+    }
+
+    public void resetMetrics() {
+        getMetrics().reset();
+    }
+
     private ConnectionRequestInfo getInfo(ConnectionRequestInfo info) {
         if (info == null) {
             // Create a default one
@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+/**
+ * The management interface of a managed connection factory.
+ * Latencies are in nanoseconds.
+ */
+public interface JmsManagedConnectionFactoryMBean {
+    String getConnectionFactory();
+
+    long getLiveConnections();
+
+    long getCreatedConnections();
+
+    long getDestroyedConnections();
+
+    long getConnectionErrors();
+
+    long getSendFailures();
+
+    long getLockTimeouts();
+
+    long getLockWaitCount();
+
+    double getLockWaitMean();
+
+    long getLockWaitP99();
+
+    long getLockWaitMax();
+
+    long getSendCount();
+
+    double getSendMean();
+
+    long getSendP99();
+
+    long getSendMax();
+
+    long getCommitP99();
+
+    long getXAStartP99();
+
+    long getXAEndP99();
+
+    long getXAPrepareP99();
+
+    long getXACommitP99();
+
+    /**
+     * Get a percentile of a latency histogram
+     *
+     * @param histogram  the name of the histogram: lockWait, send, commit, xaStart, xaEnd, xaPrepare or xaCommit
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in nanoseconds
+     */
+    long percentile(String histogram, double percentile);
+
+    String getCircuitBreakerState();
+
+    long getCircuitBreakerTrips();
+
+    long getCircuitBreakerRejections();
+
+    void resetMetrics();
+}
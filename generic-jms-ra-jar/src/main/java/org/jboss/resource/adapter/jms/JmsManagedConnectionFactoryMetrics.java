@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+import org.jboss.resource.adapter.jms.metrics.ReportableMetrics;
+
+/**
+ * The metrics of the managed connections of a managed connection factory.
+ * All latencies are in nanoseconds.
+ */
+public class JmsManagedConnectionFactoryMetrics implements ReportableMetrics {
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong connectionErrors = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong lockTimeouts = new AtomicLong();
+
+    /**
+     * The time spent waiting for the lock of a managed connection
+     */
+    private final LatencyHistogram lockWait = new LatencyHistogram("lockWait");
+
+    /**
+     * The time the provider took to send a message
+     */
+    private final LatencyHistogram send = new LatencyHistogram("send");
+
+    /**
+     * The time the provider took to commit a transacted session
+     */
+    private final LatencyHistogram commit = new LatencyHistogram("commit");
+
+    /**
+     * The time the provider took for the phases of XA transactions
+     */
+    private final LatencyHistogram xaStart = new LatencyHistogram("xaStart");
+    private final LatencyHistogram xaEnd = new LatencyHistogram("xaEnd");
+    private final LatencyHistogram xaPrepare = new LatencyHistogram("xaPrepare");
+    private final LatencyHistogram xaCommit = new LatencyHistogram("xaCommit");
+
+    /**
+     * All histograms
+     */
+    private final List<LatencyHistogram> histograms = Collections.unmodifiableList(Arrays.asList(lockWait, send, commit, xaStart, xaEnd, xaPrepare, xaCommit));
+
+    void connectionCreated() {
+        created.incrementAndGet();
+    }
+
+    void connectionDestroyed() {
+        destroyed.incrementAndGet();
+    }
+
+    void connectionError() {
+        connectionErrors.incrementAndGet();
+    }
+
+    void sendFailed() {
+        sendFailures.incrementAndGet();
+    }
+
+    void lockTimedOut() {
+        lockTimeouts.incrementAndGet();
+    }
+
+    /**
+     * @return the number of managed connections that are not destroyed
+     */
+    public long getLiveConnections() {
+        return created.get() - destroyed.get();
+    }
+
+    /**
+     * @return the number of managed connections created
+     */
+    public long getCreatedConnections() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of managed connections destroyed
+     */
+    public long getDestroyedConnections() {
+        return destroyed.get();
+    }
+
+    /**
+     * @return the number of errors reported by the exception listener of a connection
+     */
+    public long getConnectionErrors() {
+        return connectionErrors.get();
+    }
+
+    /**
+     * @return the number of failed sends
+     */
+    public long getSendFailures() {
+        return sendFailures.get();
+    }
+
+    /**
+     * @return the number of times the lock of a managed connection could not be obtained in time
+     */
+    public long getLockTimeouts() {
+        return lockTimeouts.get();
+    }
+
+    public LatencyHistogram getLockWait() {
+        return lockWait;
+    }
+
+    public LatencyHistogram getSend() {
+        return send;
+    }
+
+    public LatencyHistogram getCommit() {
+        return commit;
+    }
+
+    public LatencyHistogram getXAStart() {
+        return xaStart;
+    }
+
+    public LatencyHistogram getXAEnd() {
+        return xaEnd;
+    }
+
+    public LatencyHistogram getXAPrepare() {
+        return xaPrepare;
+    }
+
+    public LatencyHistogram getXACommit() {
+        return xaCommit;
+    }
+
+    /**
+     * Get a histogram by name
+     *
+     * @param name the name of the histogram, e.g. send
+     * @return the histogram or null when there is none with that name
+     */
+    public LatencyHistogram getHistogram(String name) {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getName().equalsIgnoreCase(name))
+                return histogram;
+        }
+        return null;
+    }
+
+    public List<LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("liveConnections", getLiveConnections());
+        counters.put("createdConnections", getCreatedConnections());
+        counters.put("destroyedConnections", getDestroyedConnections());
+        counters.put("connectionErrors", getConnectionErrors());
+        counters.put("sendFailures", getSendFailures());
+        counters.put("lockTimeouts", getLockTimeouts());
+        return counters;
+    }
+
+    /**
+     * Clear the histograms and the failure counters, the connection counts are kept
+     */
+    public void reset() {
+        connectionErrors.set(0);
+        sendFailures.set(0);
+        lockTimeouts.set(0);
+        for (LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+}
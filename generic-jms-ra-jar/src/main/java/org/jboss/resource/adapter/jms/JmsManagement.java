@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Registers the MBeans of the resource adapter with the platform MBeanServer.
+ * <p/>
+ * Registration failures are logged and otherwise ignored, management must
+ * never prevent the adapter from working.
+ */
+public class JmsManagement {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsManagement.class);
+
+    /**
+     * The domain of the object names
+     */
+    public static final String DOMAIN = "org.jboss.resource.adapter.jms";
+
+    private JmsManagement() {
+        // static only
+    }
+
+    /**
+     * Create an object name
+     *
+     * @param type     the type
+     * @param name     the name, quoted as needed
+     * @param id       distinguishes MBeans with the same name
+     * @return the object name or null when the name is invalid
+     */
+    public static ObjectName createObjectName(String type, String name, String id) {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("type", type);
+        properties.put("name", ObjectName.quote(String.valueOf(name)));
+        properties.put("id", id);
+        try {
+            return new ObjectName(DOMAIN, properties);
+        } catch (Exception e) {
+            log.debug("Unable to create object name for " + type + " " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get an id for an instance
+     *
+     * @param instance the instance
+     * @return the id
+     */
+    public static String idOf(Object instance) {
+        return Integer.toHexString(System.identityHashCode(instance));
+    }
+
+    /**
+     * Register an MBean
+     *
+     * @param objectName the object name, may be null
+     * @param mbean      the MBean
+     * @return the object name when registered, otherwise null
+     */
+    public static ObjectName register(ObjectName objectName, Object mbean) {
+        if (objectName == null)
+            return null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+            if (log.isTraceEnabled())
+                log.trace("Registered " + objectName);
+            return objectName;
+        } catch (Throwable t) {
+            log.debug("Unable to register " + objectName, t);
+            return null;
+        }
+    }
+
+    /**
+     * Unregister an MBean
+     *
+     * @param objectName the object name, may be null
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (Throwable t) {
+            log.debug("Unable to unregister " + objectName, t);
+        }
+    }
+}
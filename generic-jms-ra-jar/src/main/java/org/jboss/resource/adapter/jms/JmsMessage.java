@@ -55,7 +55,8 @@ public class JmsMessage implements Message {
     }
 
     public void acknowledge() throws JMSException {
-        session.getSession(); // Check for closed
+        if (session != null)
+            session.getSession(); // Check for closed
         message.acknowledge();
     }
 
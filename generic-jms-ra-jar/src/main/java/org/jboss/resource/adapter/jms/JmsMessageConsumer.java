@@ -168,6 +168,11 @@ public class JmsMessageConsumer implements MessageConsumer {
     }
 
     Message wrapMessage(Message message) {
+        if (JmsObjectCodecs.isEncoded(message)) {
+            JmsObjectCodec codec = getObjectCodec();
+            if (codec != null)
+                return new JmsObjectMessage((BytesMessage) message, session, codec);
+        }
         if (message instanceof BytesMessage)
             return new JmsBytesMessage((BytesMessage) message, session);
         else if (message instanceof MapMessage)
@@ -181,6 +186,20 @@ public class JmsMessageConsumer implements MessageConsumer {
         return new JmsMessage(message, session);
     }
 
+    /**
+     * Get the codec for ObjectMessages configured on the managed connection factory
+     *
+     * @return the codec or null when encoded objects are received as BytesMessages
+     */
+    JmsObjectCodec getObjectCodec() {
+        try {
+            return session.getObjectCodec();
+        } catch (JMSException e) {
+            log.warn("Unable to get the object codec for " + this, e);
+            return null;
+        }
+    }
+
     MessageListener wrapMessageListener(MessageListener listener) {
         return new JmsMessageListener(listener, this);
     }
@@ -21,10 +21,14 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageNotReadableException;
 import javax.jms.MessageProducer;
+import javax.jms.ResourceAllocationException;
 
 import org.jboss.logging.Logger;
 
@@ -75,14 +79,17 @@ public class JmsMessageProducer implements MessageProducer {
         }
     }
 
-    public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive)
+    public void send(final Destination destination, Message message, final int deliveryMode, final int priority, final long timeToLive)
             throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message + " deliveryMode=" + deliveryMode + " priority=" + priority + " ttl=" + timeToLive);
-            checkState();
-            producer.send(destination, message, deliveryMode, priority, timeToLive);
+            message = send(destination, message, deliveryMode, priority, timeToLive, new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(destination, message, deliveryMode, priority, timeToLive);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -90,13 +97,16 @@ public class JmsMessageProducer implements MessageProducer {
         }
     }
 
-    public void send(Destination destination, Message message) throws JMSException {
+    public void send(final Destination destination, Message message) throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message);
-            checkState();
-            producer.send(destination, message);
+            message = send(destination, message, producer.getDeliveryMode(), producer.getPriority(), producer.getTimeToLive(), new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(destination, message);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -104,13 +114,16 @@ public class JmsMessageProducer implements MessageProducer {
         }
     }
 
-    public void send(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+    public void send(Message message, final int deliveryMode, final int priority, final long timeToLive) throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " message=" + message + " deliveryMode=" + deliveryMode + " priority=" + priority + " ttl=" + timeToLive);
-            checkState();
-            producer.send(message, deliveryMode, priority, timeToLive);
+            message = send(null, message, deliveryMode, priority, timeToLive, new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(message, deliveryMode, priority, timeToLive);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -123,8 +136,11 @@ public class JmsMessageProducer implements MessageProducer {
         try {
             if (trace)
                 log.trace("send " + this + " message=" + message);
-            checkState();
-            producer.send(message);
+            message = send(null, message, producer.getDeliveryMode(), producer.getPriority(), producer.getTimeToLive(), new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(message);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -180,6 +196,182 @@ public class JmsMessageProducer implements MessageProducer {
         session.checkTransactionActive();
     }
 
+    /**
+     * The provider call sending a message that is neither chunked nor grouped
+     */
+    interface DirectSend {
+        /**
+         * Send the message
+         *
+         * @param message the provider message
+         * @throws JMSException for any error
+         */
+        void send(Message message) throws JMSException;
+    }
+
+    /**
+     * Send a message as chunks, through the group commit sender or with the
+     * provider call, and report the outcome to the circuit breaker and the
+     * metrics
+     *
+     * @param destination  the destination or null to use the producer's destination
+     * @param message      the message
+     * @param deliveryMode the delivery mode
+     * @param priority     the priority
+     * @param timeToLive   the time to live
+     * @param direct       the provider call sending the message otherwise
+     * @return the provider message
+     * @throws JMSException for any error
+     */
+    Message send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive, DirectSend direct) throws JMSException {
+        checkState();
+        Message wrapped = message;
+        message = unwrap(message);
+        JmsCircuitBreaker breaker = checkCircuit();
+        long start = System.nanoTime();
+        try {
+            if (sendChunked(destination, wrapped, deliveryMode, priority, timeToLive) == false && sendGrouped(destination, message, deliveryMode, priority, timeToLive) == false)
+                direct.send(message);
+            sendSucceeded(breaker, start);
+        } catch (JMSException e) {
+            sendFailed(breaker, start, e);
+            throw e;
+        } catch (RuntimeException e) {
+            sendFailed(breaker, start, e);
+            throw e;
+        }
+        return message;
+    }
+
+    /**
+     * Send the message as a sequence of chunks if it is larger than the chunk size
+     * configured on the managed connection factory
+     *
+     * @param destination  the destination or null to use the producer's destination
+     * @param message      the message as passed by the application
+     * @param deliveryMode the delivery mode
+     * @param priority     the priority
+     * @param timeToLive   the time to live
+     * @return true when the message was sent as chunks
+     * @throws JMSException for any error
+     */
+    boolean sendChunked(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        if (isLargeMessage(message) == false)
+            return false;
+        sendChunks(destination, (BytesMessage) unwrap(message), deliveryMode, priority, timeToLive);
+        return true;
+    }
+
+    void sendChunks(Destination destination, BytesMessage message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        if (trace)
+            log.trace("send chunked " + this + " message=" + message);
+        JmsLargeMessageSender sender = new JmsLargeMessageSender(session.getSession(), session.getLargeMessageChunkSize());
+        sender.send(producer, destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    /**
+     * Send a persistent message through the group commit sender of the managed
+     * connection factory. Only sessions that are not transacted and not in a
+     * transaction use it, non persistent messages are sent by the session.
+     *
+     * @param destination  the destination or null to use the producer's destination
+     * @param message      the message
+     * @param deliveryMode the delivery mode
+     * @param priority     the priority
+     * @param timeToLive   the time to live
+     * @return true when the message was sent and committed by the group commit sender
+     * @throws JMSException for any error
+     */
+    boolean sendGrouped(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        if (deliveryMode != DeliveryMode.PERSISTENT)
+            return false;
+        JmsGroupCommitSender sender = session.getGroupCommitSender();
+        if (sender == null)
+            return false;
+        if (destination == null)
+            destination = producer.getDestination();
+        if (trace)
+            log.trace("send grouped " + this + " sender=" + sender + " message=" + message);
+        sender.send(destination, message, deliveryMode, priority, timeToLive);
+        return true;
+    }
+
+    /**
+     * Whether the message must be sent as chunks, i.e. it is a BytesMessage
+     * larger than the chunk size configured on the managed connection factory.
+     * The length of a body still being written is the number of bytes written
+     * to it, only known for the messages created by the RA; other such messages
+     * are sent as they are.
+     *
+     * @param message the message as passed by the application
+     * @return true for a large message
+     * @throws JMSException for any error
+     */
+    boolean isLargeMessage(Message message) throws JMSException {
+        int chunkSize = session.getLargeMessageChunkSize();
+        if (chunkSize <= 0 || (message instanceof BytesMessage) == false)
+            return false;
+        try {
+            return ((BytesMessage) message).getBodyLength() > chunkSize;
+        } catch (MessageNotReadableException e) {
+            if (message instanceof JmsBytesMessage)
+                return ((JmsBytesMessage) message).getWrittenLength() > chunkSize;
+            log.warn("Not sending as chunks " + message + " whose body is being written, its length is unknown until it is reset");
+            return false;
+        }
+    }
+
+    /**
+     * Fail fast when the circuit breaker of the managed connection factory is open
+     *
+     * @return the circuit breaker to report the outcome of the send to
+     * @throws JMSException when the circuit breaker is open
+     */
+    JmsCircuitBreaker checkCircuit() throws JMSException {
+        JmsCircuitBreaker breaker = session.getCircuitBreaker();
+        if (breaker.allowRequest() == false)
+            throw new ResourceAllocationException("Circuit breaker is open, not sending: " + breaker);
+        return breaker;
+    }
+
+    /**
+     * Report a successful send to the circuit breaker and the metrics
+     *
+     * @param breaker the circuit breaker
+     * @param start   when the send started from {@link System#nanoTime()}
+     */
+    void sendSucceeded(JmsCircuitBreaker breaker, long start) {
+        session.sent(start);
+        breaker.success();
+    }
+
+    /**
+     * Report a failed send to the circuit breaker, errors caused by the
+     * application do not count as broker failures
+     *
+     * @param breaker the circuit breaker
+     * @param start   when the send started from {@link System#nanoTime()}
+     * @param e       the error
+     */
+    void sendFailed(JmsCircuitBreaker breaker, long start, Exception e) {
+        session.sendFailed(start);
+        breaker.failure(e);
+    }
+
+    /**
+     * Get the provider message of a message created or received through
+     * the adapter, the provider does not need to handle it as a foreign message
+     * and the body of an encoded JmsObjectMessage is the BytesMessage it wraps
+     *
+     * @param message the message
+     * @return the provider message
+     */
+    Message unwrap(Message message) {
+        if (message instanceof JmsMessage)
+            return ((JmsMessage) message).message;
+        return message;
+    }
+
     void closeProducer() throws JMSException {
         producer.close();
     }
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Encodes the object of an ObjectMessage into the body of a BytesMessage.
+ * <p/>
+ * Codecs are registered with {@link JmsObjectCodecs} and are selected by
+ * name with the ObjectCodec property of the managed connection factory and
+ * the objectCodec activation property. Implementations must be thread safe
+ * and have a public no-argument constructor.
+ */
+public interface JmsObjectCodec {
+    /**
+     * Get the name written to the codec header of encoded messages
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Whether the codec can encode the object, when it cannot the object is
+     * sent in a provider ObjectMessage using Java serialization
+     *
+     * @param object the object
+     * @return true when the object can be encoded
+     */
+    boolean canEncode(Object object);
+
+    /**
+     * Encode the object into the body of the message
+     *
+     * @param object  the object
+     * @param message the message
+     * @throws JMSException for any error
+     */
+    void encode(Object object, BytesMessage message) throws JMSException;
+
+    /**
+     * Decode the object from the body of the message
+     *
+     * @param message the message positioned at the start of the body
+     * @return the object
+     * @throws JMSException for any error
+     */
+    Object decode(BytesMessage message) throws JMSException;
+}
@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The registry of object codecs and the headers written to encoded messages.
+ * <p/>
+ * A codec is looked up by its registered name, other names are treated as the
+ * class name of a {@link JmsObjectCodec} implementation, loaded with the
+ * thread context classloader and cached.
+ */
+public class JmsObjectCodecs {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsObjectCodecs.class);
+
+    /**
+     * The property holding the name of the codec of an encoded message
+     */
+    public static final String CODEC_PROPERTY = "GenericJmsRA_ObjectCodec";
+
+    /**
+     * The property holding the class name of the encoded object
+     */
+    public static final String TYPE_PROPERTY = "GenericJmsRA_ObjectType";
+
+    /**
+     * The codecs by name
+     */
+    private static final ConcurrentHashMap<String, JmsObjectCodec> codecs = new ConcurrentHashMap<String, JmsObjectCodec>();
+
+    static {
+        register(new JmsCompactObjectCodec());
+    }
+
+    private JmsObjectCodecs() {
+        // static only
+    }
+
+    /**
+     * Register a codec under its name
+     *
+     * @param codec the codec
+     */
+    public static void register(JmsObjectCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Get a codec
+     *
+     * @param name the registered name or the class name of the codec
+     * @return the codec or null when the name is null or empty
+     * @throws JMSException when the codec cannot be created
+     */
+    public static JmsObjectCodec getCodec(String name) throws JMSException {
+        if (name == null || name.trim().length() == 0)
+            return null;
+        name = name.trim();
+        JmsObjectCodec codec = codecs.get(name);
+        if (codec != null)
+            return codec;
+
+        try {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl == null)
+                cl = JmsObjectCodecs.class.getClassLoader();
+            Class<?> clazz = Class.forName(name, true, cl);
+            codec = (JmsObjectCodec) clazz.newInstance();
+        } catch (Exception e) {
+            JMSException jmse = new JMSException("Unable to create object codec " + name);
+            jmse.setLinkedException(e);
+            jmse.initCause(e);
+            throw jmse;
+        }
+        codecs.putIfAbsent(codec.getName(), codec);
+        JmsObjectCodec previous = codecs.putIfAbsent(name, codec);
+        return previous != null ? previous : codec;
+    }
+
+    /**
+     * Get a codec only decoding the allowed classes
+     *
+     * @param name           the registered name or the class name of the codec
+     * @param allowedClasses the class names and package prefixes ending with ".*" allowed to be decoded, separated by commas; null or empty to allow all
+     * @return the codec or null when the name is null or empty
+     * @throws JMSException when the codec cannot be created
+     */
+    public static JmsObjectCodec getCodec(String name, String allowedClasses) throws JMSException {
+        JmsObjectCodec codec = getCodec(name);
+        if (codec == null || allowedClasses == null || allowedClasses.trim().length() == 0)
+            return codec;
+        if (codec instanceof JmsCompactObjectCodec)
+            return new JmsCompactObjectCodec(allowedClasses);
+        log.warn("Ignoring the allowed classes for object codec " + name + " which does not support them");
+        return codec;
+    }
+
+    /**
+     * Whether the message is a BytesMessage holding an encoded object
+     *
+     * @param message the message
+     * @return true when it holds an encoded object
+     */
+    public static boolean isEncoded(Message message) {
+        if (message instanceof BytesMessage == false)
+            return false;
+        try {
+            return message.propertyExists(CODEC_PROPERTY);
+        } catch (JMSException e) {
+            log.debug("Unable to check for an encoded object " + message, e);
+            return false;
+        }
+    }
+
+    /**
+     * Check that a message was encoded with the configured codec. The codec is
+     * never resolved from the message, so a sender cannot choose the decoder
+     * or bypass its allowed classes.
+     *
+     * @param message the message
+     * @param codec   the configured codec
+     * @return the configured codec
+     * @throws JMSException when the message names another codec
+     */
+    static JmsObjectCodec getCodec(Message message, JmsObjectCodec codec) throws JMSException {
+        String name = message.getStringProperty(CODEC_PROPERTY);
+        if (name == null || name.equals(codec.getName()) || name.equals(codec.getClass().getName()))
+            return codec;
+        throw new MessageFormatException("Object encoded with codec " + name + " instead of " + codec.getName());
+    }
+}
@@ -22,16 +22,43 @@
 package org.jboss.resource.adapter.jms;
 
 import java.io.Serializable;
+import java.util.Enumeration;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.MessageNotWriteableException;
 import javax.jms.ObjectMessage;
 
+import org.jboss.logging.Logger;
+
 /**
  * A wrapper for a message
+ * <p/>
+ * When an object codec is configured the object is encoded into a provider
+ * BytesMessage with the {@link JmsObjectCodecs#CODEC_PROPERTY} and
+ * {@link JmsObjectCodecs#TYPE_PROPERTY} headers. Objects the codec cannot
+ * encode are sent in a provider ObjectMessage instead.
  *
  * @author <a href="mailto:adrian@jboss.com">Adrian Brock</a>
  */
 public class JmsObjectMessage extends JmsMessage implements ObjectMessage {
+    private static final Logger log = Logger.getLogger(JmsObjectMessage.class);
+
+    /**
+     * The codec or null when the message is a provider ObjectMessage
+     */
+    private JmsObjectCodec codec;
+
+    /**
+     * Whether the body was written through this wrapper
+     */
+    private boolean written;
+
+    /**
+     * The object written through this wrapper
+     */
+    private Serializable object;
+
     /**
      * Create a new wrapper
      *
@@ -42,11 +69,89 @@ public class JmsObjectMessage extends JmsMessage implements ObjectMessage {
         super(message, session);
     }
 
+    /**
+     * Create a new wrapper for an encoded object
+     *
+     * @param message the message holding the encoded object
+     * @param session the session or null for messages delivered to an endpoint
+     * @param codec   the codec
+     */
+    public JmsObjectMessage(BytesMessage message, JmsSession session, JmsObjectCodec codec) {
+        super(message, session);
+        this.codec = codec;
+    }
+
+    /**
+     * Whether the object is encoded with a codec rather than serialized by the provider
+     *
+     * @return true when encoded
+     */
+    public boolean isEncoded() {
+        return codec != null;
+    }
+
     public Serializable getObject() throws JMSException {
-        return ((ObjectMessage) message).getObject();
+        if (codec == null)
+            return ((ObjectMessage) message).getObject();
+        if (written)
+            return object;
+        BytesMessage bytes = (BytesMessage) message;
+        bytes.reset();
+        return (Serializable) JmsObjectCodecs.getCodec(message, codec).decode(bytes);
     }
 
     public void setObject(Serializable object) throws JMSException {
-        ((ObjectMessage) message).setObject(object);
+        if (codec == null) {
+            ((ObjectMessage) message).setObject(object);
+            return;
+        }
+        if (object != null && codec.canEncode(object) == false) {
+            fallback(object);
+            return;
+        }
+        BytesMessage bytes = (BytesMessage) message;
+        if (written)
+            bytes.clearBody();
+        codec.encode(object, bytes);
+        bytes.setStringProperty(JmsObjectCodecs.CODEC_PROPERTY, codec.getName());
+        if (object != null)
+            bytes.setStringProperty(JmsObjectCodecs.TYPE_PROPERTY, object.getClass().getName());
+        written = true;
+        this.object = object;
+    }
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        if (codec != null) {
+            written = true;
+            object = null;
+        }
+    }
+
+    /**
+     * Replace the BytesMessage with a provider ObjectMessage for an object
+     * the codec cannot encode, keeping the headers and properties set so far
+     *
+     * @param object the object
+     * @throws JMSException for any error
+     */
+    private void fallback(Serializable object) throws JMSException {
+        if (session == null)
+            throw new MessageNotWriteableException("Message is read only");
+        if (log.isTraceEnabled())
+            log.trace("Codec " + codec.getName() + " cannot encode " + object.getClass().getName() + ", using an ObjectMessage");
+        ObjectMessage fallback = session.getSession().createObjectMessage(object);
+        fallback.setJMSCorrelationID(message.getJMSCorrelationID());
+        fallback.setJMSReplyTo(message.getJMSReplyTo());
+        fallback.setJMSType(message.getJMSType());
+        for (Enumeration names = message.getPropertyNames(); names.hasMoreElements(); ) {
+            String name = (String) names.nextElement();
+            if (name.equals(JmsObjectCodecs.CODEC_PROPERTY) == false && name.equals(JmsObjectCodecs.TYPE_PROPERTY) == false)
+                fallback.setObjectProperty(name, message.getObjectProperty(name));
+        }
+        message = fallback;
+        codec = null;
+        written = false;
+        this.object = null;
     }
 }
@@ -55,13 +55,16 @@ public class JmsQueueSender extends JmsMessageProducer implements QueueSender {
         return ((QueueSender) producer).getQueue();
     }
 
-    public void send(Queue destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+    public void send(final Queue destination, Message message, final int deliveryMode, final int priority, final long timeToLive) throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message + " deliveryMode=" + deliveryMode + " priority=" + priority + " ttl=" + timeToLive);
-            checkState();
-            producer.send(destination, message, deliveryMode, priority, timeToLive);
+            message = send(destination, message, deliveryMode, priority, timeToLive, new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(destination, message, deliveryMode, priority, timeToLive);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -69,13 +72,16 @@ public class JmsQueueSender extends JmsMessageProducer implements QueueSender {
         }
     }
 
-    public void send(Queue destination, Message message) throws JMSException {
+    public void send(final Queue destination, Message message) throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message);
-            checkState();
-            producer.send(destination, message);
+            message = send(destination, message, producer.getDeliveryMode(), producer.getPriority(), producer.getTimeToLive(), new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    producer.send(destination, message);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
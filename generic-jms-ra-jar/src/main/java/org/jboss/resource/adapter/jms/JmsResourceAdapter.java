@@ -24,6 +24,9 @@ package org.jboss.resource.adapter.jms;
 import org.jboss.logging.Logger;
 import org.jboss.resource.adapter.jms.inflow.JmsActivation;
 import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.inflow.JmsLookupCache;
+import org.jboss.resource.adapter.jms.inflow.JmsSetupScheduler;
+import org.jboss.resource.adapter.jms.inflow.JmsSharedSubscription;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
@@ -31,8 +34,13 @@ import javax.resource.spi.BootstrapContext;
 import javax.resource.spi.ResourceAdapter;
 import javax.resource.spi.ResourceAdapterInternalException;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkManager;
 import javax.transaction.xa.XAResource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -58,26 +66,195 @@ public class JmsResourceAdapter implements ResourceAdapter {
      */
     private ConcurrentHashMap activations = new ConcurrentHashMap();
 
+    /**
+     * The shared subscriptions by key
+     */
+    private Map sharedSubscriptions = new HashMap();
+
+    /**
+     * The largest number of activations set up at once
+     */
+    private Integer activationSetupThreads = Integer.valueOf(8);
+
+    /**
+     * How long looked up objects are shared by the activations in milliseconds
+     */
+    private Long lookupCacheTimeout = Long.valueOf(0);
+
+    /**
+     * The associated managed connection factories
+     */
+    private Map managedConnectionFactories = Collections.synchronizedMap(new IdentityHashMap());
+
+    /**
+     * The scheduler of the activation setups
+     */
+    private JmsSetupScheduler setupScheduler;
+
+    /**
+     * The lookup cache or null when every activation does its own lookups
+     */
+    private JmsLookupCache lookupCache;
+
     /**
      * Get the work manager
      *
-     * @return the work manager
+     * @return the work manager or null when not started
      */
     public WorkManager getWorkManager() {
-        return ctx.getWorkManager();
+        return ctx == null ? null : ctx.getWorkManager();
+    }
+
+    /**
+     * Register a managed connection factory associated with the resource
+     * adapter, to stop it with the resource adapter
+     *
+     * @param mcf the managed connection factory
+     */
+    void register(JmsManagedConnectionFactory mcf) {
+        managedConnectionFactories.put(mcf, mcf);
+    }
+
+    /**
+     * Get the activationSetupThreads.
+     *
+     * @return the activationSetupThreads.
+     */
+    public Integer getActivationSetupThreads() {
+        return activationSetupThreads;
+    }
+
+    /**
+     * Set the activationSetupThreads, the largest number of activations set up
+     * at once on the work manager.
+     *
+     * @param activationSetupThreads the activationSetupThreads.
+     */
+    public void setActivationSetupThreads(Integer activationSetupThreads) {
+        this.activationSetupThreads = activationSetupThreads;
+    }
+
+    /**
+     * Get the lookupCacheTimeout.
+     *
+     * @return the lookupCacheTimeout.
+     */
+    public Long getLookupCacheTimeout() {
+        return lookupCacheTimeout;
+    }
+
+    /**
+     * Set the lookupCacheTimeout, how long the initial contexts and the objects
+     * looked up are shared by the activations with the same JNDI parameters in
+     * milliseconds. Zero disables sharing.
+     *
+     * @param lookupCacheTimeout the lookupCacheTimeout.
+     */
+    public void setLookupCacheTimeout(Long lookupCacheTimeout) {
+        this.lookupCacheTimeout = lookupCacheTimeout;
+    }
+
+    /**
+     * @return the lookup cache or null when every activation does its own lookups
+     */
+    public JmsLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Schedule the setup of an activation
+     *
+     * @param setup the setup
+     * @throws WorkException when it cannot be scheduled
+     */
+    public void scheduleSetup(Work setup) throws WorkException {
+        setupScheduler.schedule(setup);
+    }
+
+    /**
+     * @return how long the last batch of activation setups took in milliseconds, -1 before the first completed
+     */
+    public long getActivationReadinessTime() {
+        return setupScheduler == null ? -1 : setupScheduler.getReadinessTime();
+    }
+
+    /**
+     * @return the number of activations in the last batch of setups
+     */
+    public int getActivationReadinessCount() {
+        return setupScheduler == null ? 0 : setupScheduler.getReadinessCount();
     }
 
     public void endpointActivation(MessageEndpointFactory endpointFactory, ActivationSpec spec) throws ResourceException {
-        JmsActivation activation = new JmsActivation(this, endpointFactory, (JmsActivationSpec) spec);
+        JmsActivationSpec jmsSpec = (JmsActivationSpec) spec;
+        JmsActivation activation = new JmsActivation(this, endpointFactory, jmsSpec);
         activations.put(spec, activation);
-        activation.start();
+        if (jmsSpec.isSharedSubscription() && activation.isDeliveryTransacted()) {
+            // each member would need the message in its own transaction, enlisted with the consuming session
+            log.warn("Transacted delivery cannot share a subscription, " + activation + " consumes the messages itself");
+            activation.start();
+        } else if (jmsSpec.isSharedSubscription() && JmsMCFProperties.TOPIC_TYPE.equals(jmsSpec.getDestinationType()) == false) {
+            // a queue hands each message to one consumer, sharing it would deliver it to every member
+            log.warn("Only activations of a topic can share a subscription, " + activation + " consumes the messages itself");
+            activation.start();
+        } else if (jmsSpec.isSharedSubscription()) {
+            joinSharedSubscription(activation);
+        } else {
+            activation.start();
+        }
     }
 
     public void endpointDeactivation(MessageEndpointFactory endpointFactory, ActivationSpec spec) {
         JmsActivation activation = (JmsActivation) activations.remove(spec);
         if (activation != null) {
+            stopActivation(activation);
+        }
+    }
+
+    /**
+     * Start an activation as a member of the shared subscription of its destination
+     *
+     * @param activation the activation
+     * @throws ResourceException for any error
+     */
+    protected void joinSharedSubscription(JmsActivation activation) throws ResourceException {
+        String key = JmsSharedSubscription.getKey(activation);
+        synchronized (sharedSubscriptions) {
+            JmsSharedSubscription sharedSubscription = (JmsSharedSubscription) sharedSubscriptions.get(key);
+            if (sharedSubscription == null) {
+                sharedSubscription = new JmsSharedSubscription(key);
+                sharedSubscriptions.put(key, sharedSubscription);
+            }
+            try {
+                sharedSubscription.join(activation);
+            } finally {
+                if (sharedSubscription.getMemberCount() == 0) {
+                    sharedSubscriptions.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop an activation, leaving its shared subscription if any
+     *
+     * @param activation the activation
+     */
+    protected void stopActivation(JmsActivation activation) {
+        JmsSharedSubscription sharedSubscription = activation.getSharedSubscription();
+        if (sharedSubscription == null) {
             activation.stop();
+            return;
+        }
+        JmsSharedSubscription.Departure departure;
+        synchronized (sharedSubscriptions) {
+            departure = sharedSubscription.leave(activation);
+            if (departure.isLast()) {
+                sharedSubscriptions.remove(sharedSubscription.getKey());
+            }
         }
+        // waiting for the deliveries and connecting the next member hold up no other activation
+        departure.complete();
     }
 
     public XAResource[] getXAResources(ActivationSpec[] specs) throws ResourceException {
@@ -86,6 +263,12 @@ public class JmsResourceAdapter implements ResourceAdapter {
 
     public void start(BootstrapContext ctx) throws ResourceAdapterInternalException {
         this.ctx = ctx;
+        setupScheduler = new JmsSetupScheduler(ctx.getWorkManager(), activationSetupThreads == null ? 1 : activationSetupThreads.intValue());
+        if (lookupCacheTimeout != null && lookupCacheTimeout.longValue() > 0) {
+            lookupCache = new JmsLookupCache(lookupCacheTimeout.longValue());
+        } else {
+            lookupCache = null;
+        }
     }
 
     public void stop() {
@@ -94,13 +277,23 @@ public class JmsResourceAdapter implements ResourceAdapter {
             try {
                 JmsActivation activation = (JmsActivation) entry.getValue();
                 if (activation != null) {
-                    activation.stop();
+                    stopActivation(activation);
                 }
             } catch (Exception ignored) {
                 log.debug("Ignored", ignored);
             }
             i.remove();
         }
+        if (lookupCache != null) {
+            lookupCache.clear();
+        }
+        JmsManagedConnectionFactory[] mcfs;
+        synchronized (managedConnectionFactories) {
+            mcfs = (JmsManagedConnectionFactory[]) managedConnectionFactories.keySet().toArray(new JmsManagedConnectionFactory[managedConnectionFactories.size()]);
+        }
+        for (int i = 0; i < mcfs.length; ++i) {
+            mcfs[i].stop();
+        }
     }
 
     public int hashCode() {
@@ -156,6 +156,83 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         return session;
     }
 
+    /**
+     * Get the chunk size for large messages
+     *
+     * @return the chunk size or zero when large messages are sent as they are
+     */
+    int getLargeMessageChunkSize() {
+        JmsManagedConnection mc = this.mc;
+        if (mc == null)
+            return 0;
+        Integer chunkSize = mc.getManagedConnectionFactory().getLargeMessageChunkSize();
+        return chunkSize == null ? 0 : chunkSize.intValue();
+    }
+
+    /**
+     * Get the codec for ObjectMessages
+     *
+     * @return the codec or null when objects are serialized by the provider
+     * @throws JMSException when the codec cannot be created
+     */
+    JmsObjectCodec getObjectCodec() throws JMSException {
+        JmsManagedConnection mc = this.mc;
+        if (mc == null)
+            return null;
+        return mc.getManagedConnectionFactory().getObjectCodecInstance();
+    }
+
+    /**
+     * Get the group commit sender, only used for sessions which are not
+     * transacted and not in a local or XA transaction
+     *
+     * @return the sender or null when messages are sent by the session
+     */
+    JmsGroupCommitSender getGroupCommitSender() {
+        JmsManagedConnection mc = this.mc;
+        if (mc == null || info.isTransacted() || mc.isInTransaction())
+            return null;
+        return mc.getManagedConnectionFactory().getGroupCommitSender(mc.getUserName(), mc.getPassword());
+    }
+
+    /**
+     * Get the circuit breaker of the managed connection factory
+     *
+     * @return the circuit breaker
+     * @throws JMSException when the session is closed
+     */
+    JmsCircuitBreaker getCircuitBreaker() throws JMSException {
+        JmsManagedConnection mc = this.mc;
+        if (mc == null)
+            throw new IllegalStateException("The session is closed");
+        return mc.getManagedConnectionFactory().getCircuitBreaker();
+    }
+
+    /**
+     * Record a send in the metrics of the managed connection factory
+     *
+     * @param start when the send started from {@link System#nanoTime()}
+     */
+    void sent(long start) {
+        JmsManagedConnection mc = this.mc;
+        if (mc != null)
+            mc.getManagedConnectionFactory().getMetrics().getSend().recordSince(start);
+    }
+
+    /**
+     * Record a failed send in the metrics of the managed connection factory
+     *
+     * @param start when the send started from {@link System#nanoTime()}
+     */
+    void sendFailed(long start) {
+        JmsManagedConnection mc = this.mc;
+        if (mc != null) {
+            JmsManagedConnectionFactoryMetrics metrics = mc.getManagedConnectionFactory().getMetrics();
+            metrics.getSend().recordSince(start);
+            metrics.sendFailed();
+        }
+    }
+
     void checkTransactionActive() throws IllegalStateException {
         if (sf != null)
             sf.checkTransactionActive();
@@ -167,7 +244,7 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         Session session = getSession();
         if (trace)
             log.trace("createBytesMessage" + session);
-        return session.createBytesMessage();
+        return new JmsBytesMessage(session.createBytesMessage(), this);
     }
 
     public MapMessage createMapMessage() throws JMSException {
@@ -188,6 +265,9 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         Session session = getSession();
         if (trace)
             log.trace("createObjectMessage" + session);
+        JmsObjectCodec codec = getObjectCodec();
+        if (codec != null)
+            return new JmsObjectMessage(session.createBytesMessage(), this, codec);
         return session.createObjectMessage();
     }
 
@@ -195,6 +275,12 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         Session session = getSession();
         if (trace)
             log.trace("createObjectMessage(Object)" + session);
+        JmsObjectCodec codec = getObjectCodec();
+        if (codec != null) {
+            ObjectMessage message = new JmsObjectMessage(session.createBytesMessage(), this, codec);
+            message.setObject(object);
+            return message;
+        }
         return session.createObjectMessage(object);
     }
 
@@ -273,7 +359,9 @@ public class JmsSession implements Session, QueueSession, TopicSession {
                 throw new IllegalStateException("Session is not transacted");
             if (trace)
                 log.trace("Commit session " + this);
+            long start = System.nanoTime();
             session.commit();
+            mc.getManagedConnectionFactory().getMetrics().getCommit().recordSince(start);
         } finally {
             unlock();
         }
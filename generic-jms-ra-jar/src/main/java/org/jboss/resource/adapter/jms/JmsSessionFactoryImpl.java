@@ -326,6 +326,9 @@ public class JmsSessionFactoryImpl implements JmsSessionFactory, Referenceable {
     }
 
     protected JmsSession allocateConnection(boolean transacted, int acknowledgeMode, int sessionType) throws JMSException {
+        JmsCircuitBreaker breaker = mcf.getCircuitBreaker();
+        if (breaker.isRejecting())
+            throw new ResourceAllocationException("Circuit breaker is open, failing fast: " + breaker);
         try {
             synchronized (sessions) {
                 if (mcf.isStrict() && sessions.isEmpty() == false)
@@ -55,7 +55,7 @@ public class JmsTopicPublisher extends JmsMessageProducer implements TopicPublis
         return ((TopicPublisher) producer).getTopic();
     }
 
-    public void publish(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+    public void publish(Message message, final int deliveryMode, final int priority, final long timeToLive) throws JMSException {
         session.lock();
         try {
         } finally {
@@ -63,8 +63,11 @@ public class JmsTopicPublisher extends JmsMessageProducer implements TopicPublis
         }
         if (trace)
             log.trace("send " + this + " message=" + message + " deliveryMode=" + deliveryMode + " priority=" + priority + " ttl=" + timeToLive);
-        checkState();
-        ((TopicPublisher) producer).publish(message, deliveryMode, priority, timeToLive);
+        message = send(null, message, deliveryMode, priority, timeToLive, new DirectSend() {
+            public void send(Message message) throws JMSException {
+                ((TopicPublisher) producer).publish(message, deliveryMode, priority, timeToLive);
+            }
+        });
         if (trace)
             log.trace("sent " + this + " result=" + message);
     }
@@ -74,8 +77,11 @@ public class JmsTopicPublisher extends JmsMessageProducer implements TopicPublis
         try {
             if (trace)
                 log.trace("send " + this + " message=" + message);
-            checkState();
-            ((TopicPublisher) producer).publish(message);
+            message = send(null, message, producer.getDeliveryMode(), producer.getPriority(), producer.getTimeToLive(), new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    ((TopicPublisher) producer).publish(message);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -83,14 +89,17 @@ public class JmsTopicPublisher extends JmsMessageProducer implements TopicPublis
         }
     }
 
-    public void publish(Topic destination, Message message, int deliveryMode, int priority, long timeToLive)
+    public void publish(final Topic destination, Message message, final int deliveryMode, final int priority, final long timeToLive)
             throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message + " deliveryMode=" + deliveryMode + " priority=" + priority + " ttl=" + timeToLive);
-            checkState();
-            ((TopicPublisher) producer).publish(destination, message, deliveryMode, priority, timeToLive);
+            message = send(destination, message, deliveryMode, priority, timeToLive, new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    ((TopicPublisher) producer).publish(destination, message, deliveryMode, priority, timeToLive);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
@@ -98,13 +107,16 @@ public class JmsTopicPublisher extends JmsMessageProducer implements TopicPublis
         }
     }
 
-    public void publish(Topic destination, Message message) throws JMSException {
+    public void publish(final Topic destination, Message message) throws JMSException {
         session.lock();
         try {
             if (trace)
                 log.trace("send " + this + " destination=" + destination + " message=" + message);
-            checkState();
-            ((TopicPublisher) producer).publish(destination, message);
+            message = send(destination, message, producer.getDeliveryMode(), producer.getPriority(), producer.getTimeToLive(), new DirectSend() {
+                public void send(Message message) throws JMSException {
+                    ((TopicPublisher) producer).publish(destination, message);
+                }
+            });
             if (trace)
                 log.trace("sent " + this + " result=" + message);
         } finally {
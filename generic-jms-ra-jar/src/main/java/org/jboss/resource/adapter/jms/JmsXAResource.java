@@ -55,7 +55,10 @@ public class JmsXAResource implements XAResource {
     public void start(Xid xid, int flags) throws XAException {
         managedConnection.lock();
         try {
+            long start = System.nanoTime();
             xaResource.start(xid, flags);
+            getMetrics().getXAStart().recordSince(start);
+            managedConnection.setInTransaction(true);
         } finally {
             managedConnection.unlock();
         }
@@ -64,8 +67,11 @@ public class JmsXAResource implements XAResource {
     public void end(Xid xid, int flags) throws XAException {
         managedConnection.lock();
         try {
+            long start = System.nanoTime();
             xaResource.end(xid, flags);
+            getMetrics().getXAEnd().recordSince(start);
         } finally {
+            managedConnection.setInTransaction(false);
             managedConnection.unlock();
         }
     }
@@ -73,7 +79,10 @@ public class JmsXAResource implements XAResource {
     public int prepare(Xid xid) throws XAException {
         managedConnection.lock();
         try {
-            return xaResource.prepare(xid);
+            long start = System.nanoTime();
+            int result = xaResource.prepare(xid);
+            getMetrics().getXAPrepare().recordSince(start);
+            return result;
         } finally {
             managedConnection.unlock();
         }
@@ -82,7 +91,9 @@ public class JmsXAResource implements XAResource {
     public void commit(Xid xid, boolean onePhase) throws XAException {
         managedConnection.lock();
         try {
+            long start = System.nanoTime();
             xaResource.commit(xid, onePhase);
+            getMetrics().getXACommit().recordSince(start);
         } finally {
             managedConnection.unlock();
         }
@@ -106,6 +117,10 @@ public class JmsXAResource implements XAResource {
         }
     }
 
+    private JmsManagedConnectionFactoryMetrics getMetrics() {
+        return managedConnection.getManagedConnectionFactory().getMetrics();
+    }
+
     public XAResource getUnderlyingXAResource() {
         return xaResource;
     }
@@ -22,7 +22,11 @@
 package org.jboss.resource.adapter.jms.inflow;
 
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.JmsManagement;
+import org.jboss.resource.adapter.jms.JmsObjectCodec;
+import org.jboss.resource.adapter.jms.JmsObjectCodecs;
 import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -34,17 +38,21 @@ import javax.jms.MessageListener;
 import javax.jms.Queue;
 import javax.jms.Topic;
 import javax.jms.XAConnectionFactory;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.resource.ResourceException;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
 import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkManager;
 import javax.transaction.TransactionManager;
 import java.lang.reflect.Method;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A generic jms Activation.
@@ -53,7 +61,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author <a href="jesper.pedersen@jboss.org">Jesper Pedersen</a>
  * @author <a href="jbertram@redhat.com">Justin Bertram</a>
  */
-public class JmsActivation implements ExceptionListener {
+public class JmsActivation implements ExceptionListener, JmsActivationMBean {
     /**
      * The log
      */
@@ -97,6 +105,16 @@ public class JmsActivation implements ExceptionListener {
      */
     protected Destination destination;
 
+    /**
+     * The destination of poison messages or null to discard them
+     */
+    protected Destination poisonDestination;
+
+    /**
+     * The destination of expired messages or null to discard them
+     */
+    protected Destination expiryDestination;
+
     /**
      * The destination type
      */
@@ -107,6 +125,21 @@ public class JmsActivation implements ExceptionListener {
      */
     protected Connection connection;
 
+    /**
+     * The connection established to fail over to, neither started nor configured
+     */
+    protected AtomicReference<Connection> standby = new AtomicReference<Connection>();
+
+    /**
+     * The index of the connection factory of the connection
+     */
+    private volatile int connectionFactoryIndex;
+
+    /**
+     * The index of the connection factory of the standby connection
+     */
+    private volatile int standbyFactoryIndex;
+
     /**
      * The server session pool
      */
@@ -122,6 +155,66 @@ public class JmsActivation implements ExceptionListener {
      */
     protected TransactionManager tm;
 
+    /**
+     * The assembler for large messages
+     */
+    protected JmsLargeMessageAssembler largeMessageAssembler;
+
+    /**
+     * The codec for encoded ObjectMessages or null to deliver them as BytesMessages
+     */
+    protected JmsObjectCodec objectCodec;
+
+    /**
+     * The message selector evaluated by the server sessions or null when the provider evaluates it
+     */
+    protected JmsSelector selector;
+
+    /**
+     * The delivery counts of the messages
+     */
+    protected JmsRedeliveryTracker redeliveryTracker;
+
+    /**
+     * The rate limit of the deliveries
+     */
+    protected JmsRateLimiter rateLimiter;
+
+    /**
+     * The keys of the messages delivered recently or null when duplicates are delivered
+     */
+    protected JmsDeduplicationCache deduplicationCache;
+
+    /**
+     * The delivery metrics
+     */
+    protected JmsActivationMetrics metrics;
+
+    /**
+     * The partitions of a topic delivered by this cluster node or null to deliver every message
+     */
+    protected JmsPartitionFilter partitionFilter;
+
+    /**
+     * The shared subscription or null when the activation has a consumer of its own
+     */
+    protected JmsSharedSubscription sharedSubscription;
+
+    /**
+     * Whether delivery is paused
+     */
+    protected volatile boolean paused;
+
+    /**
+     * The number of reconnect attempts
+     */
+    private AtomicInteger reconnects = new AtomicInteger();
+
+    /**
+     * The name of the MBean
+     */
+    private ObjectName objectName;
+
 
     static {
         try {
@@ -135,7 +228,19 @@ public class JmsActivation implements ExceptionListener {
         this.ra = ra;
         this.endpointFactory = endpointFactory;
         this.spec = spec;
+        if (spec.isLargeMessages())
+            this.largeMessageAssembler = new JmsLargeMessageAssembler(spec.getLargeMessageSpillThreshold(), spec.getLargeMessageTimeout());
+        this.metrics = new JmsActivationMetrics(this);
+        this.redeliveryTracker = new JmsRedeliveryTracker(spec.getRedeliveryDelay(), spec.getRedeliveryMultiplier(), spec.getMaxRedeliveryDelay(), spec.getMaxRedeliveries());
+        this.rateLimiter = new JmsRateLimiter(spec.getRateLimit(), spec.getRateLimitBurst());
+        if (spec.getDeduplication() != null)
+            this.deduplicationCache = new JmsDeduplicationCache(spec.getDeduplicationWindow(), spec.getDeduplicationCapacity());
         try {
+            this.objectCodec = JmsObjectCodecs.getCodec(spec.getObjectCodec(), spec.getObjectCodecAllowedClasses());
+            if (spec.isSelectorInRA())
+                this.selector = JmsSelector.compile(spec.getMessageSelector());
+            if (spec.getPartitions() > 0)
+                this.partitionFilter = new JmsPartitionFilter(spec.getPartitions(), spec.getPartitionKey(), spec.getClusterNodes(), spec.getClusterNode());
             this.isDeliveryTransacted = endpointFactory.isDeliveryTransacted(ONMESSAGE);
         } catch (Exception e) {
             throw new ResourceException(e);
@@ -163,6 +268,152 @@ public class JmsActivation implements ExceptionListener {
         return isDeliveryTransacted;
     }
 
+    /**
+     * @return the assembler for large messages or null when they are not reassembled
+     */
+    public JmsLargeMessageAssembler getLargeMessageAssembler() {
+        // the remaining chunks can only be received from a queue
+        return isTopic ? null : largeMessageAssembler;
+    }
+
+    /**
+     * @return the message selector evaluated by the server sessions or null when the provider evaluates it
+     */
+    public JmsSelector getSelector() {
+        return selector;
+    }
+
+    /**
+     * @return the partitions of a topic delivered by this cluster node or null when every message is delivered
+     */
+    public JmsPartitionFilter getPartitionFilter() {
+        return partitionFilter;
+    }
+
+    /**
+     * Whether a message belongs to the partitions of this node and the message selector of the activation
+     * matches it, counting the messages which are not delivered
+     *
+     * @param message the message
+     * @return true when the message is to be delivered
+     * @throws JMSException for any error
+     */
+    boolean selects(Message message) throws JMSException {
+        if ((partitionFilter == null || isTopic == false || partitionFilter.accepts(message))
+                && (selector == null || selector.matches(message))) {
+            return true;
+        }
+        metrics.filtered();
+        return false;
+    }
+
+    /**
+     * @return the shared subscription or null when the activation has a consumer of its own
+     */
+    public JmsSharedSubscription getSharedSubscription() {
+        return sharedSubscription;
+    }
+
+    /**
+     * @param sharedSubscription the shared subscription the activation joined
+     */
+    void setSharedSubscription(JmsSharedSubscription sharedSubscription) {
+        this.sharedSubscription = sharedSubscription;
+    }
+
+    /**
+     * @return whether the activation has a consumer, its own or the one of the shared subscription
+     */
+    protected boolean isConsuming() {
+        return sharedSubscription == null || sharedSubscription.isLeader(this);
+    }
+
+    /**
+     * @return the destination of poison messages or null to discard them
+     */
+    public Destination getPoisonDestination() {
+        return poisonDestination;
+    }
+
+    /**
+     * @return the destination of expired messages or null to discard them
+     */
+    public Destination getExpiryDestination() {
+        return expiryDestination;
+    }
+
+    /**
+     * Whether a message expired or is older than the maxMessageAge, so it is
+     * not worth delivering
+     *
+     * @param message the message
+     * @return whether the message is stale
+     * @throws JMSException for any error
+     */
+    boolean isStale(Message message) throws JMSException {
+        boolean checkExpiration = spec.isCheckExpiration();
+        long maxMessageAge = spec.getMaxMessageAge();
+        if (checkExpiration == false && maxMessageAge <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (checkExpiration) {
+            long expiration = message.getJMSExpiration();
+            if (expiration > 0 && expiration <= now) {
+                return true;
+            }
+        }
+        if (maxMessageAge > 0) {
+            long timestamp = message.getJMSTimestamp();
+            if (timestamp > 0 && now - timestamp > maxMessageAge) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the delivery counts of the messages
+     */
+    public JmsRedeliveryTracker getRedeliveryTracker() {
+        return redeliveryTracker;
+    }
+
+    /**
+     * @return the rate limit of the deliveries
+     */
+    public JmsRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the keys of the messages delivered recently or null when duplicates are delivered
+     */
+    public JmsDeduplicationCache getDeduplicationCache() {
+        return deduplicationCache;
+    }
+
+    /**
+     * @return the delivery metrics
+     */
+    public JmsActivationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the server session pool or null when not started
+     */
+    public JmsServerSessionPool getSessionPool() {
+        return pool;
+    }
+
+    /**
+     * @return the codec for encoded ObjectMessages or null when they are delivered as BytesMessages
+     */
+    public JmsObjectCodec getObjectCodec() {
+        return objectCodec;
+    }
+
     /**
      * @return the work manager
      */
@@ -213,17 +464,29 @@ public class JmsActivation implements ExceptionListener {
      */
     public void start() throws ResourceException {
         deliveryActive.set(true);
-        ra.getWorkManager().scheduleWork(new SetupActivation());
+        objectName = JmsManagement.register(JmsManagement.createObjectName("Activation", spec.getDestination(), JmsManagement.idOf(this)), this);
+        ra.scheduleSetup(new SetupActivation());
     }
 
     /**
      * Stop the activation
      */
     public void stop() {
+        JmsManagement.unregister(objectName);
+        objectName = null;
         deliveryActive.set(false);
         teardown();
     }
 
+    /**
+     * Start consuming the messages of the shared subscription after the member consuming them left
+     *
+     * @throws ResourceException for any error
+     */
+    void lead() throws ResourceException {
+        ra.scheduleSetup(new SetupActivation());
+    }
+
     /**
      * Handles any failure by trying to reconnect
      *
@@ -238,6 +501,15 @@ public class JmsActivation implements ExceptionListener {
             return;
         }
         try {
+            // the objects looked up before may be stale
+            JmsLookupCache lookupCache = ra.getLookupCache();
+            if (lookupCache != null) {
+                lookupCache.invalidate(spec.getJndiParameters());
+            }
+
+            if (deliveryActive.get() && failover()) {
+                return;
+            }
             while (deliveryActive.get() && (reconnectCount < spec.getReconnectAttempts() || spec.getReconnectAttempts() == -1)) {
                 teardown();
 
@@ -249,6 +521,7 @@ public class JmsActivation implements ExceptionListener {
                 }
 
                 log.info("Attempting to reconnect " + spec);
+                reconnects.incrementAndGet();
                 try {
                     setupActivation();
                     log.info("Reconnected with messaging provider.");
@@ -268,6 +541,165 @@ public class JmsActivation implements ExceptionListener {
         handleFailure(exception);
     }
 
+    // --- MBean API
+
+    public String getState() {
+        if (deliveryActive.get() == false)
+            return "STOPPED";
+        if (inFailure.get())
+            return "RECONNECTING";
+        if (pool == null && isConsuming())
+            return "STARTING";
+        return paused ? "PAUSED" : "ACTIVE";
+    }
+
+    public String getDestinationName() {
+        return spec.getDestination();
+    }
+
+    public String getDestinationType() {
+        return spec.getDestinationType();
+    }
+
+    public int getReconnectCount() {
+        return reconnects.get();
+    }
+
+    public boolean isStandbyConnected() {
+        return standby.get() != null;
+    }
+
+    public int getSessionCount() {
+        return metrics.getSessionCount();
+    }
+
+    public int getActiveSessions() {
+        return metrics.getActiveSessions();
+    }
+
+    public int getPeakActiveSessions() {
+        return metrics.getPeakActiveSessions();
+    }
+
+    public long getDeliveredCount() {
+        return metrics.getDeliveredCount();
+    }
+
+    public long getFailedCount() {
+        return metrics.getFailedCount();
+    }
+
+    public long getDuplicateCount() {
+        return metrics.getDuplicateCount();
+    }
+
+    public long getPoisonedCount() {
+        return metrics.getPoisonedCount();
+    }
+
+    public long getFilteredCount() {
+        return metrics.getFilteredCount();
+    }
+
+    public long getThrottledCount() {
+        return metrics.getThrottledCount();
+    }
+
+    public long getExpiredCount() {
+        return metrics.getExpiredCount();
+    }
+
+    public double getThroughput() {
+        return metrics.getThroughput();
+    }
+
+    public double getEndpointTimeMean() {
+        return metrics.getEndpointTime().getMean();
+    }
+
+    public long getEndpointTimeP99() {
+        return metrics.getEndpointTime().getPercentile(99);
+    }
+
+    public long getSessionWaitP99() {
+        return metrics.getSessionWait().getPercentile(99);
+    }
+
+    public long getDeliveryLagP99() {
+        return metrics.getDeliveryLag().getPercentile(99);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void pause() throws Exception {
+        paused = true;
+        log.info("Paused delivery for " + spec);
+    }
+
+    public void resume() throws Exception {
+        paused = false;
+        JmsSharedSubscription sharedSubscription = this.sharedSubscription;
+        if (sharedSubscription != null) {
+            sharedSubscription.resumed();
+        } else {
+            JmsServerSessionPool pool = this.pool;
+            if (pool != null)
+                pool.resumed();
+        }
+        log.info("Resumed delivery for " + spec);
+    }
+
+    /**
+     * The session pool hands out no server sessions while delivery is paused,
+     * so the connection, the sessions and the endpoints stay ready. The
+     * members of a shared subscription share the consumer, so it is paused
+     * while any of them is.
+     *
+     * @return whether delivery is paused
+     */
+    boolean isDeliveryPaused() {
+        JmsSharedSubscription sharedSubscription = this.sharedSubscription;
+        return sharedSubscription != null ? sharedSubscription.isPaused() : paused;
+    }
+
+    public double getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    public void setRateLimit(double rateLimit) {
+        // used when the activation is created again
+        spec.setRateLimit(rateLimit);
+        rateLimiter.setRate(rateLimit, spec.getRateLimitBurst());
+        log.info("Set the rate limit to " + rateLimit + " messages per second for " + spec);
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimiter.getBurst();
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        spec.setRateLimitBurst(rateLimitBurst);
+        rateLimiter.setRate(spec.getRateLimit(), rateLimitBurst);
+        log.info("Set the rate limit burst to " + rateLimitBurst + " messages for " + spec);
+    }
+
+    public void resizePool(int maxSession) throws Exception {
+        if (maxSession < 1)
+            throw new IllegalArgumentException("maxSession must be at least one: " + maxSession);
+        // used when the pool is recreated after a reconnect
+        spec.setMaxSession(maxSession);
+        JmsServerSessionPool pool = this.pool;
+        if (pool != null)
+            pool.resize(maxSession);
+        log.info("Resized session pool to " + maxSession + " for " + spec);
+    }
+
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
     public String toString() {
         StringBuffer buffer = new StringBuffer();
         buffer.append(defaultToString(this)).append('(');
@@ -293,21 +725,47 @@ public class JmsActivation implements ExceptionListener {
      *
      * @throws Exception for any error
      */
-    protected void setupActivation() throws Exception {
+    protected synchronized void setupActivation() throws Exception {
+        // the other members of a shared subscription only need the destinations
+        boolean consuming = isConsuming();
+        if (deliveryActive.get() == false || (consuming && connection != null)) {
+            log.debug("Not setting up " + this);
+            return;
+        }
+
         log.debug("Setting up " + spec);
-        Context ctx = convertStringToContext(spec.getJndiParameters());
-        log.debug("Using context " + ctx.getEnvironment() + " for " + spec);
+        Context ctx = createContext();
+        if (ctx != null) {
+            log.debug("Using context " + ctx.getEnvironment() + " for " + spec);
+        }
         try {
             setupDestination(ctx);
-            setupConnection(ctx);
+            if (consuming) {
+                setupConnection(ctx);
+            }
         } finally {
-            ctx.close();
+            if (ctx != null) {
+                ctx.close();
+            }
+        }
+        if (consuming) {
+            setupSessionPool();
+            scheduleStandby();
         }
-        setupSessionPool();
 
         log.debug("Setup complete " + this);
     }
 
+    /**
+     * Create the naming context of the lookups
+     *
+     * @return the context or null when the lookups go through the lookup cache of the resource adapter
+     * @throws NamingException for any error
+     */
+    protected Context createContext() throws NamingException {
+        return ra.getLookupCache() == null ? convertStringToContext(spec.getJndiParameters()) : null;
+    }
+
     public static Context convertStringToContext(String jndiParameters) throws NamingException {
         InitialContext result = null;
 
@@ -337,6 +795,7 @@ public class JmsActivation implements ExceptionListener {
 
         teardownSessionPool();
         teardownConnection();
+        teardownStandby();
         teardownDestination();
 
         log.debug("Tearing down complete " + this);
@@ -345,7 +804,7 @@ public class JmsActivation implements ExceptionListener {
     /**
      * Setup the Destination
      *
-     * @param ctx the naming context
+     * @param ctx the naming context or null for the lookup cache
      * @throws Exception for any error
      */
     protected void setupDestination(Context ctx) throws Exception {
@@ -370,6 +829,24 @@ public class JmsActivation implements ExceptionListener {
         }
 
         log.debug("Got destination " + destination + " from " + destinationName);
+        if (partitionFilter != null && isTopic == false) {
+            log.warn("Ignoring the partitions of " + destinationName + " which is not a topic");
+        }
+        if (largeMessageAssembler != null && isTopic) {
+            log.warn("Not reassembling the large messages of " + destinationName + " which is not a queue");
+        }
+
+        String poisonDestinationName = spec.getPoisonDestination();
+        if (poisonDestinationName != null && poisonDestinationName.trim().length() > 0) {
+            poisonDestination = (Destination) lookup(ctx, poisonDestinationName, Destination.class);
+            log.debug("Got poison destination " + poisonDestination + " from " + poisonDestinationName);
+        }
+
+        String expiryDestinationName = spec.getExpiryDestination();
+        if (expiryDestinationName != null && expiryDestinationName.trim().length() > 0) {
+            expiryDestination = (Destination) lookup(ctx, expiryDestinationName, Destination.class);
+            log.debug("Got expiry destination " + expiryDestination + " from " + expiryDestinationName);
+        }
     }
 
     /**
@@ -377,12 +854,14 @@ public class JmsActivation implements ExceptionListener {
      */
     protected void teardownDestination() {
         destination = null;
+        poisonDestination = null;
+        expiryDestination = null;
     }
 
     /**
      * Setup the Connection
      *
-     * @param ctx the naming context
+     * @param ctx the naming context or null for the lookup cache
      * @throws Exception for any error
      */
     protected void setupConnection(Context ctx) throws Exception {
@@ -390,18 +869,44 @@ public class JmsActivation implements ExceptionListener {
 
         String user = spec.getUser();
         String pass = spec.getPassword();
-        String clientID = spec.getClientId();
-        String connectionFactory = spec.getConnectionFactory();
+        String clientID = getClientID();
+        String[] connectionFactories = spec.getConnectionFactories();
 
-        connection = setupConnection(ctx, user, pass, clientID, connectionFactory);
+        // start with the connection factory which worked last
+        Exception failure = null;
+        for (int i = 0; i < connectionFactories.length && connection == null; ++i) {
+            int index = (connectionFactoryIndex + i) % connectionFactories.length;
+            try {
+                connection = setupConnection(ctx, user, pass, clientID, connectionFactories[index]);
+                connectionFactoryIndex = index;
+            } catch (Exception e) {
+                log.debug("Unable to connect with " + connectionFactories[index] + " for " + spec, e);
+                failure = e;
+            }
+        }
+        if (connection == null) {
+            throw failure;
+        }
 
         log.debug("established connection " + this);
     }
 
+    /**
+     * @return the client id of the connection
+     */
+    protected String getClientID() {
+        String clientID = spec.getClientId();
+        if (partitionFilter != null && isTopic) {
+            // every node has a subscription of its own
+            clientID = partitionFilter.qualify(clientID);
+        }
+        return clientID;
+    }
+
     /**
      * Setup a Generic JMS Connection
      *
-     * @param ctx               the naming context
+     * @param ctx               the naming context or null for the lookup cache
      * @param user              the user
      * @param pass              the password
      * @param clientID          the client id
@@ -410,6 +915,22 @@ public class JmsActivation implements ExceptionListener {
      * @throws Exception for any error
      */
     protected Connection setupConnection(Context ctx, String user, String pass, String clientID, String connectionFactory) throws Exception {
+        Connection result = createConnection(ctx, user, pass, connectionFactory);
+        configureConnection(result, clientID);
+        return result;
+    }
+
+    /**
+     * Create a Generic JMS Connection
+     *
+     * @param ctx               the naming context or null for the lookup cache
+     * @param user              the user
+     * @param pass              the password
+     * @param connectionFactory the connection factory from JNDI
+     * @return the connection
+     * @throws Exception for any error
+     */
+    protected Connection createConnection(Context ctx, String user, String pass, String connectionFactory) throws Exception {
         log.debug("Attempting to lookup connection factory " + connectionFactory);
         ConnectionFactory gcf = (ConnectionFactory) lookup(ctx, connectionFactory, ConnectionFactory.class);
         log.debug("Got connection factory " + gcf + " from " + connectionFactory);
@@ -429,13 +950,23 @@ public class JmsActivation implements ExceptionListener {
                 result = gcf.createConnection();
             }
         }
+        return result;
+    }
+
+    /**
+     * Set the client id and the exception listener of a connection, closing it on failure
+     *
+     * @param result   the connection
+     * @param clientID the client id
+     * @throws Exception for any error
+     */
+    protected void configureConnection(Connection result, String clientID) throws Exception {
         try {
             if (clientID != null) {
                 result.setClientID(clientID);
             }
             result.setExceptionListener(this);
             log.debug("Using generic connection " + result);
-            return result;
         } catch (Throwable t) {
             try {
                 result.close();
@@ -464,12 +995,126 @@ public class JmsActivation implements ExceptionListener {
         connection = null;
     }
 
+    /**
+     * Establish the standby connection in the background when hotStandby is set
+     */
+    protected void scheduleStandby() {
+        if (spec.isHotStandby() && isConsuming()) {
+            try {
+                ra.getWorkManager().scheduleWork(new SetupStandby());
+            } catch (WorkException e) {
+                log.warn("Unable to schedule the standby connection for " + spec, e);
+            }
+        }
+    }
+
+    /**
+     * Establish the standby connection, trying the connection factories after the
+     * one of the connection first so it usually is another broker. The client id and the
+     * exception listener of the activation are only set when failing over, as the
+     * connection still holds the client id; until then a failed standby connection is
+     * dropped and established again.
+     *
+     * @throws Exception for any error
+     */
+    protected void setupStandby() throws Exception {
+        if (deliveryActive.get() == false || standby.get() != null) {
+            return;
+        }
+
+        String[] connectionFactories = spec.getConnectionFactories();
+        int index = connectionFactoryIndex;
+        Connection result = null;
+        Exception failure = null;
+        Context ctx = createContext();
+        try {
+            for (int i = 1; i <= connectionFactories.length && result == null; ++i) {
+                index = (connectionFactoryIndex + i) % connectionFactories.length;
+                try {
+                    result = createConnection(ctx, spec.getUser(), spec.getPassword(), connectionFactories[index]);
+                } catch (Exception e) {
+                    log.debug("Unable to connect with " + connectionFactories[index] + " for " + spec, e);
+                    failure = e;
+                }
+            }
+        } finally {
+            if (ctx != null) {
+                ctx.close();
+            }
+        }
+        if (result == null) {
+            throw failure;
+        }
+
+        standbyFactoryIndex = index;
+        result.setExceptionListener(new StandbyExceptionListener(result));
+        if (standby.compareAndSet(null, result) == false) {
+            result.close();
+            return;
+        }
+        if (deliveryActive.get() == false) {
+            teardownStandby();
+            return;
+        }
+        log.debug("Established standby connection " + result + " from " + connectionFactories[index]);
+    }
+
+    /**
+     * Close the standby connection
+     */
+    protected void teardownStandby() {
+        Connection connection = standby.getAndSet(null);
+        try {
+            if (connection != null) {
+                log.debug("Closing the standby " + connection);
+                connection.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing the standby connection " + connection, t);
+        }
+    }
+
+    /**
+     * Replace a failed connection with the standby connection, rebuilding only the
+     * server session pool
+     *
+     * @return whether delivery resumed on the standby connection
+     */
+    protected synchronized boolean failover() {
+        Connection standby = this.standby.getAndSet(null);
+        if (standby == null) {
+            return false;
+        }
+
+        log.info("Failing over to the standby connection for " + spec);
+        teardownSessionPool();
+        teardownConnection();
+        try {
+            connection = standby;
+            connectionFactoryIndex = standbyFactoryIndex;
+            configureConnection(standby, getClientID());
+            setupSessionPool();
+        } catch (Throwable t) {
+            log.warn("Unable to fail over to the standby connection for " + spec, t);
+            return false;
+        }
+        reconnects.incrementAndGet();
+        log.info("Failed over to the standby connection for " + spec);
+        scheduleStandby();
+        return true;
+    }
+
     /**
      * Setup the server session pool
      *
      * @throws Exception for any error
      */
     protected void setupSessionPool() throws Exception {
+        redeliveryTracker.setReleased(false);
+        rateLimiter.setReleased(false);
+        if (sharedSubscription != null) {
+            sharedSubscription.setReleased(false);
+        }
         pool = new JmsServerSessionPool(this);
         log.debug("Created session pool " + pool);
 
@@ -477,6 +1122,7 @@ public class JmsActivation implements ExceptionListener {
         pool.start();
         log.debug("Started session pool " + pool);
 
+        // while paused the pool hands out no server sessions
         log.debug("Starting delivery " + connection);
         connection.start();
         log.debug("Started delivery " + connection);
@@ -486,6 +1132,24 @@ public class JmsActivation implements ExceptionListener {
      * Teardown the server session pool
      */
     protected void teardownSessionPool() {
+        // stopping the connection waits for the sessions delaying a redelivery or waiting for the rate limit
+        redeliveryTracker.setReleased(true);
+        rateLimiter.setReleased(true);
+        if (sharedSubscription != null && pool != null) {
+            sharedSubscription.setReleased(true);
+        }
+        // when deactivated the pool drains the sessions before the connection
+        // is stopped, since stopping it waits for the deliveries in progress
+        long drainTimeout = deliveryActive.get() ? 0 : spec.getDrainTimeout();
+        try {
+            if (pool != null && drainTimeout > 0) {
+                log.debug("Draining the session pool " + pool);
+                pool.stop(drainTimeout);
+            }
+        } catch (Throwable t) {
+            log.debug("Error draining the pool " + pool, t);
+        }
+
         try {
             if (connection != null) {
                 log.debug("Stopping delivery " + connection);
@@ -496,7 +1160,7 @@ public class JmsActivation implements ExceptionListener {
         }
 
         try {
-            if (pool != null) {
+            if (pool != null && drainTimeout == 0) {
                 log.debug("Stopping the session pool " + pool);
                 pool.stop();
             }
@@ -506,6 +1170,50 @@ public class JmsActivation implements ExceptionListener {
         pool = null;
     }
 
+    /**
+     * Handles the standby connection
+     */
+    private class SetupStandby implements Work {
+        public void run() {
+            try {
+                setupStandby();
+            } catch (Throwable t) {
+                log.warn("Unable to establish a standby connection for " + spec, t);
+            }
+        }
+
+        public void release() {
+        }
+    }
+
+    /**
+     * Drops a failed standby connection
+     */
+    private class StandbyExceptionListener implements ExceptionListener {
+        /**
+         * The standby connection
+         */
+        private final Connection connection;
+
+        StandbyExceptionListener(Connection connection) {
+            this.connection = connection;
+        }
+
+        public void onException(JMSException exception) {
+            // once failed over the listener of the activation replaced this one
+            if (standby.compareAndSet(connection, null) == false) {
+                return;
+            }
+            log.warn("Standby connection failed for " + spec, exception);
+            try {
+                connection.close();
+            } catch (Throwable t) {
+                log.debug("Error closing the standby connection " + connection, t);
+            }
+            scheduleStandby();
+        }
+    }
+
     /**
      * Handles the setup
      */
@@ -513,8 +1221,20 @@ public class JmsActivation implements ExceptionListener {
         public void run() {
             try {
                 setupActivation();
-            } catch (Throwable t) {
-                handleFailure(t);
+            } catch (final Throwable t) {
+                // reconnect on a work of its own so the other setups go on
+                try {
+                    ra.getWorkManager().scheduleWork(new Work() {
+                        public void run() {
+                            handleFailure(t);
+                        }
+
+                        public void release() {
+                        }
+                    });
+                } catch (WorkException e) {
+                    handleFailure(t);
+                }
             }
         }
 
@@ -530,13 +1250,13 @@ public class JmsActivation implements ExceptionListener {
         }
     }
 
-    private static Object lookup(Context context, String name, Class clazz) throws Exception {
-        Object result = context.lookup(name);
+    private Object lookup(Context context, String name, Class clazz) throws Exception {
+        Object result = context == null ? ra.getLookupCache().lookup(spec.getJndiParameters(), name) : context.lookup(name);
         Class objectClass = result.getClass();
         if (clazz.isAssignableFrom(objectClass) == false) {
             StringBuffer buffer = new StringBuffer(100);
             buffer.append("Object at '").append(name);
-            buffer.append("' in context ").append(context.getEnvironment());
+            buffer.append("' in context ").append(context == null ? spec.getJndiParameters() : context.getEnvironment());
             buffer.append(" is not an instance of ");
             appendClassInfo(buffer, clazz);
             buffer.append(" object class is ");
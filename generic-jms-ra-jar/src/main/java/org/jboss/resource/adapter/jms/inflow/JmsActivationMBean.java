@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+/**
+ * The management interface of an activation.
+ * Latencies are in nanoseconds.
+ */
+public interface JmsActivationMBean {
+    /**
+     * @return one of STARTING, ACTIVE, PAUSED, RECONNECTING or STOPPED
+     */
+    String getState();
+
+    String getDestinationName();
+
+    String getDestinationType();
+
+    int getReconnectCount();
+
+    /**
+     * @return whether a standby connection is established to fail over to
+     */
+    boolean isStandbyConnected();
+
+    int getSessionCount();
+
+    int getActiveSessions();
+
+    int getPeakActiveSessions();
+
+    long getDeliveredCount();
+
+    long getFailedCount();
+
+    /**
+     * @return the messages delivered before that were dropped or flagged
+     */
+    long getDuplicateCount();
+
+    /**
+     * @return the messages redelivered too often that were moved to the poison destination or discarded
+     */
+    long getPoisonedCount();
+
+    /**
+     * @return the messages not matching the message selector when the RA evaluates it
+     */
+    long getFilteredCount();
+
+    /**
+     * @return the messages which waited for the rate limit
+     */
+    long getThrottledCount();
+
+    /**
+     * @return the messages expired or older than the maxMessageAge that were not delivered
+     */
+    long getExpiredCount();
+
+    /**
+     * @return the messages delivered per second since the activation started or the metrics were reset
+     */
+    double getThroughput();
+
+    double getEndpointTimeMean();
+
+    long getEndpointTimeP99();
+
+    long getSessionWaitP99();
+
+    long getDeliveryLagP99();
+
+    /**
+     * @return the messages delivered per second, 0 for no limit
+     */
+    double getRateLimit();
+
+    void setRateLimit(double rateLimit);
+
+    /**
+     * @return the messages delivered at once after an idle period when the rate is limited
+     */
+    int getRateLimitBurst();
+
+    void setRateLimitBurst(int rateLimitBurst);
+
+    boolean isPaused();
+
+    /**
+     * Stop delivering messages, messages being delivered complete
+     *
+     * @throws Exception for any error
+     */
+    void pause() throws Exception;
+
+    /**
+     * Resume delivering messages
+     *
+     * @throws Exception for any error
+     */
+    void resume() throws Exception;
+
+    /**
+     * Change the number of server sessions
+     *
+     * @param maxSession the number of server sessions
+     * @throws Exception for any error
+     */
+    void resizePool(int maxSession) throws Exception;
+
+    void resetMetrics();
+}
@@ -0,0 +1,341 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+
+/**
+ * The delivery metrics of an activation.
+ * <p/>
+ * The server sessions and the session pool record into the counters and
+ * histograms as they deliver, the pool occupancy is read from the session
+ * pool when asked for. All latencies are in nanoseconds.
+ */
+public class JmsActivationMetrics {
+    /**
+     * The activation
+     */
+    private JmsActivation activation;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong poisoned = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * The outcome of the last drain of the server sessions
+     */
+    private volatile int drained;
+    private volatile int aborted;
+    private volatile int rolledBack;
+    private volatile int abandoned;
+    private volatile long drainTime = -1;
+
+    /**
+     * When the counters were last cleared
+     */
+    private volatile long since = System.currentTimeMillis();
+
+    /**
+     * The time from beforeDelivery to the return of afterDelivery
+     */
+    private final LatencyHistogram endpointTime = new LatencyHistogram("endpointTime");
+
+    /**
+     * The time the provider waited in getServerSession()
+     */
+    private final LatencyHistogram sessionWait = new LatencyHistogram("sessionWait");
+
+    /**
+     * The time from the JMSTimestamp of a message to its arrival at a server session
+     */
+    private final LatencyHistogram deliveryLag = new LatencyHistogram("deliveryLag");
+
+    /**
+     * Create new metrics
+     *
+     * @param activation the activation
+     */
+    public JmsActivationMetrics(JmsActivation activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * Record a message arriving at a server session, before the redelivery
+     * delay, the rate limit and beforeDelivery
+     *
+     * @param timestamp the JMSTimestamp of the message or zero
+     */
+    void arrived(long timestamp) {
+        if (timestamp > 0)
+            deliveryLag.record((System.currentTimeMillis() - timestamp) * 1000000L);
+    }
+
+    /**
+     * Record a message passed to the endpoint
+     *
+     * @param startNanos the time before beforeDelivery
+     * @param success    whether the delivery completed without error and its
+     *                   transaction, if any, was not marked for rollback
+     */
+    void delivered(long startNanos, boolean success) {
+        endpointTime.recordSince(startNanos);
+        if (success)
+            delivered.incrementAndGet();
+        else
+            failed.incrementAndGet();
+    }
+
+    /**
+     * Record a message delivered before
+     */
+    void duplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    /**
+     * Record a message redelivered too often
+     */
+    void poisoned() {
+        poisoned.incrementAndGet();
+    }
+
+    /**
+     * Record a message not matching the message selector
+     */
+    void filtered() {
+        filtered.incrementAndGet();
+    }
+
+    /**
+     * Record a stale message which was not delivered
+     */
+    void expired() {
+        expired.incrementAndGet();
+    }
+
+    /**
+     * Record a message which waited for the rate limit
+     */
+    void throttled() {
+        throttled.incrementAndGet();
+    }
+
+    /**
+     * Record the drain of the server sessions when the activation stopped
+     *
+     * @param drained    the deliveries which completed before the drain timeout
+     * @param aborted    the deliveries aborted after the drain timeout
+     * @param rolledBack the aborted deliveries whose transaction was marked for rollback
+     * @param abandoned  the deliveries still in progress when the pool was stopped
+     * @param time       the time the drain took in milliseconds
+     */
+    void drained(int drained, int aborted, int rolledBack, int abandoned, long time) {
+        this.drained = drained;
+        this.aborted = aborted;
+        this.rolledBack = rolledBack;
+        this.abandoned = abandoned;
+        this.drainTime = time;
+    }
+
+    /**
+     * Record the time spent waiting for a server session
+     *
+     * @param startNanos the time getServerSession() was called
+     */
+    void sessionObtained(long startNanos) {
+        sessionWait.recordSince(startNanos);
+    }
+
+    /**
+     * @return the number of messages delivered without error
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of messages whose delivery failed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of messages delivered before that were dropped or flagged
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return the number of messages redelivered too often
+     */
+    public long getPoisonedCount() {
+        return poisoned.get();
+    }
+
+    /**
+     * @return the number of messages not matching the message selector
+     */
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    /**
+     * @return the number of stale messages which were not delivered
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * @return the number of messages which waited for the rate limit
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the messages delivered per second since the metrics were created or reset
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - since;
+        return elapsed <= 0 ? 0 : delivered.get() * 1000d / elapsed;
+    }
+
+    /**
+     * @return the deliveries which completed during the last drain
+     */
+    public int getDrainedCount() {
+        return drained;
+    }
+
+    /**
+     * @return the deliveries aborted by the last drain
+     */
+    public int getAbortedCount() {
+        return aborted;
+    }
+
+    /**
+     * @return the deliveries aborted by the last drain whose transaction was marked for rollback
+     */
+    public int getRolledBackCount() {
+        return rolledBack;
+    }
+
+    /**
+     * @return the deliveries still in progress after the last drain
+     */
+    public int getAbandonedCount() {
+        return abandoned;
+    }
+
+    /**
+     * @return the time the last drain took in milliseconds, -1 when there was none
+     */
+    public long getDrainTime() {
+        return drainTime;
+    }
+
+    public LatencyHistogram getEndpointTime() {
+        return endpointTime;
+    }
+
+    public LatencyHistogram getSessionWait() {
+        return sessionWait;
+    }
+
+    public LatencyHistogram getDeliveryLag() {
+        return deliveryLag;
+    }
+
+    /**
+     * @return the number of server sessions delivering a message
+     */
+    public int getActiveSessions() {
+        JmsServerSessionPool pool = activation.getSessionPool();
+        return pool == null ? 0 : pool.getActiveSessionCount();
+    }
+
+    /**
+     * @return the number of server sessions of the pool
+     */
+    public int getSessionCount() {
+        JmsServerSessionPool pool = activation.getSessionPool();
+        return pool == null ? 0 : pool.getSessionCount();
+    }
+
+    /**
+     * @return the largest number of server sessions that were delivering at once
+     */
+    public int getPeakActiveSessions() {
+        JmsServerSessionPool pool = activation.getSessionPool();
+        return pool == null ? 0 : pool.getPeakActiveSessionCount();
+    }
+
+    /**
+     * Clear the counters and histograms
+     */
+    public void reset() {
+        since = System.currentTimeMillis();
+        delivered.set(0);
+        failed.set(0);
+        duplicates.set(0);
+        poisoned.set(0);
+        filtered.set(0);
+        throttled.set(0);
+        expired.set(0);
+        endpointTime.reset();
+        sessionWait.reset();
+        deliveryLag.reset();
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("JmsActivationMetrics(");
+        buffer.append("delivered=").append(getDeliveredCount());
+        buffer.append(" failed=").append(getFailedCount());
+        buffer.append(" duplicates=").append(getDuplicateCount());
+        buffer.append(" poisoned=").append(getPoisonedCount());
+        buffer.append(" filtered=").append(getFilteredCount());
+        buffer.append(" throttled=").append(getThrottledCount());
+        buffer.append(" expired=").append(getExpiredCount());
+        if (drainTime >= 0) {
+            buffer.append(" drained=").append(drained);
+            buffer.append(" aborted=").append(aborted);
+        }
+        buffer.append(" activeSessions=").append(getActiveSessions());
+        buffer.append('/').append(getSessionCount());
+        buffer.append(' ').append(endpointTime);
+        buffer.append(' ').append(sessionWait);
+        buffer.append(' ').append(deliveryLag);
+        buffer.append(')');
+        return buffer.toString();
+    }
+}
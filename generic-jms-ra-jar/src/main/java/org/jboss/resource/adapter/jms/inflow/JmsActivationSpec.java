@@ -29,6 +29,7 @@ import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
 import javax.resource.spi.InvalidPropertyException;
 import javax.resource.spi.ResourceAdapter;
+import java.util.ArrayList;
 
 import org.jboss.logging.Logger;
 //import org.jboss.util.Strings;
@@ -66,6 +67,16 @@ public class JmsActivationSpec implements ActivationSpec {
      */
     private String messageSelector;
 
+    /**
+     * Where the message selector is evaluated, Broker or RA
+     */
+    private String selectorMode = "Broker";
+
+    /**
+     * Whether the activation shares one consumer with the activations of the same destination
+     */
+    private boolean sharedSubscription;
+
     /**
      * The acknowledgement mode
      */
@@ -116,6 +127,11 @@ public class JmsActivationSpec implements ActivationSpec {
      */
     private int maxSession = 15;
 
+    /**
+     * The number of server sessions setup at once
+     */
+    private int sessionSetupConcurrency = 8;
+
     //Default to -1 attempts (i.e. infinite)
     private int reconnectAttempts = -1;
 
@@ -127,10 +143,140 @@ public class JmsActivationSpec implements ActivationSpec {
 
     private int forceClearAttempts = 0;
 
+    /**
+     * How long to let the deliveries in progress complete when deactivated, in milliseconds
+     */
+    private long drainTimeout = 0;
+
+    /**
+     * The messages delivered per second, 0 for no limit
+     */
+    private double rateLimit = 0;
+
+    /**
+     * The messages delivered at once when the rate is limited, 0 for one second of messages
+     */
+    private int rateLimitBurst = 0;
+
     private String jndiParameters;
 
     private String connectionFactory;
 
+    /**
+     * The JNDI names of the connection factories tried after the connectionFactory, separated by commas
+     */
+    private String alternateConnectionFactories;
+
+    /**
+     * Whether to keep a connection established to fail over to
+     */
+    private boolean hotStandby;
+
+    /**
+     * Whether to reassemble the chunks of large messages
+     */
+    private boolean largeMessages;
+
+    /**
+     * The size in bytes above which a reassembled large message is spilled to a temporary file
+     */
+    private long largeMessageSpillThreshold = 1024 * 1024;
+
+    /**
+     * How long to wait for the remaining chunks of a large message in milliseconds
+     */
+    private long largeMessageTimeout = 30000;
+
+    /**
+     * The registered name or class name of the codec for encoded ObjectMessages
+     */
+    private String objectCodec;
+
+    /**
+     * The class names and package prefixes the codec is allowed to decode, separated by commas
+     */
+    private String objectCodecAllowedClasses;
+
+    /**
+     * The delay before the first redelivery in milliseconds
+     */
+    private long redeliveryDelay;
+
+    /**
+     * The factor applied to the redelivery delay on every redelivery
+     */
+    private double redeliveryMultiplier = 2;
+
+    /**
+     * The longest redelivery delay in milliseconds
+     */
+    private long maxRedeliveryDelay = 60000;
+
+    /**
+     * The redeliveries after which a message is poison, -1 for no limit
+     */
+    private int maxRedeliveries = -1;
+
+    /**
+     * The JNDI name of the destination of poison messages
+     */
+    private String poisonDestination;
+
+    /**
+     * Whether messages past their JMSExpiration are not delivered
+     */
+    private boolean checkExpiration;
+
+    /**
+     * The age from the JMSTimestamp after which messages are not delivered in milliseconds, 0 for no limit
+     */
+    private long maxMessageAge = 0;
+
+    /**
+     * The JNDI name of the destination of expired messages
+     */
+    private String expiryDestination;
+
+    /**
+     * What to do with a message delivered before, null to deliver it
+     */
+    private String deduplication;
+
+    /**
+     * The property holding the key of a message, null for the JMSMessageID
+     */
+    private String deduplicationKey;
+
+    /**
+     * How long to remember the key of a delivered message in milliseconds
+     */
+    private long deduplicationWindow = 600000;
+
+    /**
+     * The number of keys to remember within the window
+     */
+    private int deduplicationCapacity = 100000;
+
+    /**
+     * The number of partitions of a topic spread across the cluster nodes, 0 to deliver every message
+     */
+    private int partitions;
+
+    /**
+     * The property holding the partition key of a message, null for the JMSMessageID
+     */
+    private String partitionKey;
+
+    /**
+     * The number of cluster nodes sharing the partitions
+     */
+    private int clusterNodes = 1;
+
+    /**
+     * The index of this cluster node, from 0
+     */
+    private int clusterNode;
+
     public void setForceClearOnShutdown(boolean forceClear) {
         this.forceClearOnShutdown = forceClear;
     }
@@ -155,6 +301,47 @@ public class JmsActivationSpec implements ActivationSpec {
         this.forceClearAttempts = forceClearAttempts;
     }
 
+    /**
+     * @return Broker when the provider evaluates the message selector, RA when the server sessions do
+     */
+    public String getSelectorMode() {
+        return selectorMode;
+    }
+
+    /**
+     * @param selectorMode Broker to pass the message selector to the provider, RA to evaluate it in the server sessions
+     */
+    public void setSelectorMode(String selectorMode) {
+        if (selectorMode == null || "Broker".equalsIgnoreCase(selectorMode)) {
+            this.selectorMode = "Broker";
+        } else if ("RA".equalsIgnoreCase(selectorMode)) {
+            this.selectorMode = "RA";
+        } else {
+            throw new IllegalArgumentException("Unsupported selector mode: " + selectorMode);
+        }
+    }
+
+    /**
+     * @return whether the server sessions evaluate the message selector, always the case for a shared subscription
+     */
+    public boolean isSelectorInRA() {
+        return ("RA".equals(selectorMode) || sharedSubscription) && messageSelector != null && messageSelector.trim().length() > 0;
+    }
+
+    /**
+     * @return whether the activation shares one consumer with the activations of the same destination
+     */
+    public boolean isSharedSubscription() {
+        return sharedSubscription;
+    }
+
+    /**
+     * @param sharedSubscription whether the activation shares one consumer with the activations of the same destination
+     */
+    public void setSharedSubscription(boolean sharedSubscription) {
+        this.sharedSubscription = sharedSubscription;
+    }
+
     /**
      * @return the acknowledgeMode.
      */
@@ -431,6 +618,7 @@ public class JmsActivationSpec implements ActivationSpec {
         buffer.append(" destinationType=").append(destinationType);
         if (messageSelector != null) {
             buffer.append(" messageSelector=").append(messageSelector);
+            buffer.append(" selectorMode=").append(selectorMode);
         }
         buffer.append(" acknowledgeMode=").append(getAcknowledgeMode());
         buffer.append(" subscriptionDurability=").append(subscriptionDurability);
@@ -440,6 +628,9 @@ public class JmsActivationSpec implements ActivationSpec {
         if (subscriptionName != null) {
             buffer.append(" subscriptionName=").append(subscriptionName);
         }
+        if (sharedSubscription) {
+            buffer.append(" sharedSubscription=true");
+        }
         buffer.append(" reconnectInterval=").append(reconnectInterval);
         buffer.append(" reconnectAttempts=").append(reconnectAttempts);
         buffer.append(" user=").append(user);
@@ -449,7 +640,49 @@ public class JmsActivationSpec implements ActivationSpec {
         buffer.append(" maxMessages=").append(maxMessages);
         buffer.append(" minSession=").append(minSession);
         buffer.append(" maxSession=").append(maxSession);
+        buffer.append(" sessionSetupConcurrency=").append(sessionSetupConcurrency);
+        if (drainTimeout > 0) {
+            buffer.append(" drainTimeout=").append(drainTimeout);
+        }
+        if (rateLimit > 0) {
+            buffer.append(" rateLimit=").append(rateLimit);
+            buffer.append(" rateLimitBurst=").append(rateLimitBurst);
+        }
+        if (redeliveryDelay > 0) {
+            buffer.append(" redeliveryDelay=").append(redeliveryDelay);
+        }
+        if (maxRedeliveries >= 0) {
+            buffer.append(" maxRedeliveries=").append(maxRedeliveries);
+        }
+        if (poisonDestination != null) {
+            buffer.append(" poisonDestination=").append(poisonDestination);
+        }
+        if (checkExpiration) {
+            buffer.append(" checkExpiration=true");
+        }
+        if (maxMessageAge > 0) {
+            buffer.append(" maxMessageAge=").append(maxMessageAge);
+        }
+        if (expiryDestination != null) {
+            buffer.append(" expiryDestination=").append(expiryDestination);
+        }
+        if (deduplication != null) {
+            buffer.append(" deduplication=").append(deduplication);
+        }
+        if (partitions > 0) {
+            buffer.append(" partitions=").append(partitions);
+            buffer.append(" clusterNode=").append(clusterNode).append('/').append(clusterNodes);
+        }
         buffer.append(" connectionFactory=").append(connectionFactory);
+        if (alternateConnectionFactories != null) {
+            buffer.append(" alternateConnectionFactories=").append(alternateConnectionFactories);
+        }
+        if (hotStandby) {
+            buffer.append(" hotStandby=true");
+        }
+        if (largeMessages) {
+            buffer.append(" largeMessages=true");
+        }
         buffer.append(" jndiParameters=").append(jndiParameters);
         buffer.append(')');
         return buffer.toString();
@@ -486,4 +719,250 @@ public class JmsActivationSpec implements ActivationSpec {
     public String getConnectionFactory() {
         return connectionFactory;
     }
+
+    public boolean isLargeMessages() {
+        return largeMessages;
+    }
+
+    public void setLargeMessages(boolean largeMessages) {
+        this.largeMessages = largeMessages;
+    }
+
+    public long getLargeMessageSpillThreshold() {
+        return largeMessageSpillThreshold;
+    }
+
+    public void setLargeMessageSpillThreshold(long largeMessageSpillThreshold) {
+        this.largeMessageSpillThreshold = largeMessageSpillThreshold;
+    }
+
+    public long getLargeMessageTimeout() {
+        return largeMessageTimeout;
+    }
+
+    public void setLargeMessageTimeout(long largeMessageTimeout) {
+        this.largeMessageTimeout = largeMessageTimeout;
+    }
+
+    public String getObjectCodec() {
+        return objectCodec;
+    }
+
+    public void setObjectCodec(String objectCodec) {
+        this.objectCodec = objectCodec;
+    }
+
+    public String getObjectCodecAllowedClasses() {
+        return objectCodecAllowedClasses;
+    }
+
+    public void setObjectCodecAllowedClasses(String objectCodecAllowedClasses) {
+        this.objectCodecAllowedClasses = objectCodecAllowedClasses;
+    }
+
+    public long getRedeliveryDelay() {
+        return redeliveryDelay;
+    }
+
+    public void setRedeliveryDelay(long redeliveryDelay) {
+        this.redeliveryDelay = redeliveryDelay;
+    }
+
+    public double getRedeliveryMultiplier() {
+        return redeliveryMultiplier;
+    }
+
+    public void setRedeliveryMultiplier(double redeliveryMultiplier) {
+        this.redeliveryMultiplier = redeliveryMultiplier;
+    }
+
+    public long getMaxRedeliveryDelay() {
+        return maxRedeliveryDelay;
+    }
+
+    public void setMaxRedeliveryDelay(long maxRedeliveryDelay) {
+        this.maxRedeliveryDelay = maxRedeliveryDelay;
+    }
+
+    public int getMaxRedeliveries() {
+        return maxRedeliveries;
+    }
+
+    public void setMaxRedeliveries(int maxRedeliveries) {
+        this.maxRedeliveries = maxRedeliveries;
+    }
+
+    public String getPoisonDestination() {
+        return poisonDestination;
+    }
+
+    public void setPoisonDestination(String poisonDestination) {
+        this.poisonDestination = poisonDestination;
+    }
+
+    /**
+     * @return Drop, Flag or null when duplicates are delivered
+     */
+    public String getDeduplication() {
+        return deduplication;
+    }
+
+    /**
+     * @param deduplication Drop to consume duplicates without delivering them, Flag to deliver them with the GenericJmsRA_Duplicate property set or None
+     */
+    public void setDeduplication(String deduplication) {
+        if (deduplication == null || deduplication.trim().length() == 0 || "None".equalsIgnoreCase(deduplication)) {
+            this.deduplication = null;
+        } else if ("Drop".equalsIgnoreCase(deduplication)) {
+            this.deduplication = "Drop";
+        } else if ("Flag".equalsIgnoreCase(deduplication)) {
+            this.deduplication = "Flag";
+        } else {
+            throw new IllegalArgumentException("Unsupported deduplication: " + deduplication);
+        }
+    }
+
+    public String getDeduplicationKey() {
+        return deduplicationKey;
+    }
+
+    public void setDeduplicationKey(String deduplicationKey) {
+        this.deduplicationKey = deduplicationKey;
+    }
+
+    public long getDeduplicationWindow() {
+        return deduplicationWindow;
+    }
+
+    public void setDeduplicationWindow(long deduplicationWindow) {
+        this.deduplicationWindow = deduplicationWindow;
+    }
+
+    public int getDeduplicationCapacity() {
+        return deduplicationCapacity;
+    }
+
+    public void setDeduplicationCapacity(int deduplicationCapacity) {
+        this.deduplicationCapacity = deduplicationCapacity;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public String getPartitionKey() {
+        return partitionKey;
+    }
+
+    public void setPartitionKey(String partitionKey) {
+        this.partitionKey = partitionKey;
+    }
+
+    public int getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public void setClusterNodes(int clusterNodes) {
+        this.clusterNodes = clusterNodes;
+    }
+
+    public int getClusterNode() {
+        return clusterNode;
+    }
+
+    public void setClusterNode(int clusterNode) {
+        this.clusterNode = clusterNode;
+    }
+
+    public String getAlternateConnectionFactories() {
+        return alternateConnectionFactories;
+    }
+
+    public void setAlternateConnectionFactories(String alternateConnectionFactories) {
+        this.alternateConnectionFactories = alternateConnectionFactories;
+    }
+
+    /**
+     * @return the JNDI names of the connectionFactory and of the alternate connection factories
+     */
+    public String[] getConnectionFactories() {
+        ArrayList<String> names = new ArrayList<String>();
+        names.add(connectionFactory);
+        if (alternateConnectionFactories != null) {
+            for (String name : alternateConnectionFactories.split(",")) {
+                if (name.trim().length() > 0) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public boolean isHotStandby() {
+        return hotStandby;
+    }
+
+    public void setHotStandby(boolean hotStandby) {
+        this.hotStandby = hotStandby;
+    }
+
+    public int getSessionSetupConcurrency() {
+        return sessionSetupConcurrency;
+    }
+
+    public void setSessionSetupConcurrency(int sessionSetupConcurrency) {
+        this.sessionSetupConcurrency = sessionSetupConcurrency;
+    }
+
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public boolean isCheckExpiration() {
+        return checkExpiration;
+    }
+
+    public void setCheckExpiration(boolean checkExpiration) {
+        this.checkExpiration = checkExpiration;
+    }
+
+    public long getMaxMessageAge() {
+        return maxMessageAge;
+    }
+
+    public void setMaxMessageAge(long maxMessageAge) {
+        this.maxMessageAge = maxMessageAge;
+    }
+
+    public String getExpiryDestination() {
+        return expiryDestination;
+    }
+
+    public void setExpiryDestination(String expiryDestination) {
+        this.expiryDestination = expiryDestination;
+    }
 }
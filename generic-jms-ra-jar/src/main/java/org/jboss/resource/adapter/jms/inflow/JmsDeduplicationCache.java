@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the keys of the messages an activation delivered recently.
+ * <p/>
+ * Keys are stored as 64 bit fingerprints in two open addressing tables of
+ * longs, the current generation and the previous one, so the cache holds no
+ * objects and its memory is allocated once. When the current generation is
+ * older than the window or holds the capacity, the previous one is dropped
+ * and the current one takes its place. A key is therefore remembered for at
+ * least the window unless more than the capacity of keys arrive within it.
+ */
+public class JmsDeduplicationCache {
+    /**
+     * Marks an empty slot
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * How long a generation lasts in milliseconds
+     */
+    private long window;
+
+    /**
+     * The number of keys of a generation
+     */
+    private int capacity;
+
+    private final int mask;
+    private long[] current;
+    private long[] previous;
+    private int size;
+    private long generationStart = System.currentTimeMillis();
+
+    /**
+     * Create a new cache
+     *
+     * @param window   how long to remember a key in milliseconds
+     * @param capacity the number of keys to remember within the window
+     */
+    public JmsDeduplicationCache(long window, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least one: " + capacity);
+        this.window = window;
+        this.capacity = capacity;
+        // at most half full, so probes stay short
+        int slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+        this.mask = slots - 1;
+        this.current = new long[slots];
+        this.previous = new long[slots];
+    }
+
+    /**
+     * @param key the key of a message
+     * @return whether the key was added within the window
+     */
+    public synchronized boolean contains(String key) {
+        long fingerprint = fingerprint(key);
+        rotate(System.currentTimeMillis());
+        return contains(current, fingerprint) || contains(previous, fingerprint);
+    }
+
+    /**
+     * Remember a key
+     *
+     * @param key the key of a delivered message
+     */
+    public synchronized void add(String key) {
+        long fingerprint = fingerprint(key);
+        rotate(System.currentTimeMillis());
+        if (contains(current, fingerprint))
+            return;
+        if (size == capacity)
+            rotate();
+        int i = (int) fingerprint & mask;
+        while (current[i] != EMPTY)
+            i = (i + 1) & mask;
+        current[i] = fingerprint;
+        ++size;
+    }
+
+    /**
+     * @return the number of keys remembered
+     */
+    public synchronized int size() {
+        int result = size;
+        for (long fingerprint : previous) {
+            if (fingerprint != EMPTY)
+                ++result;
+        }
+        return result;
+    }
+
+    /**
+     * Forget all keys
+     */
+    public synchronized void clear() {
+        Arrays.fill(current, EMPTY);
+        Arrays.fill(previous, EMPTY);
+        size = 0;
+        generationStart = System.currentTimeMillis();
+    }
+
+    private boolean contains(long[] table, long fingerprint) {
+        int i = (int) fingerprint & mask;
+        long slot;
+        while ((slot = table[i]) != EMPTY) {
+            if (slot == fingerprint)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    private void rotate(long now) {
+        if (now - generationStart < window)
+            return;
+        // a whole window without keys forgets both generations
+        if (now - generationStart >= window * 2)
+            Arrays.fill(current, EMPTY);
+        rotate();
+    }
+
+    private void rotate() {
+        long[] table = previous;
+        Arrays.fill(table, EMPTY);
+        previous = current;
+        current = table;
+        size = 0;
+        generationStart = System.currentTimeMillis();
+    }
+
+    /**
+     * The hash of the key, never {@link #EMPTY}
+     */
+    static long fingerprint(String key) {
+        long hash = JmsKeyHash.hash(key);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    public String toString() {
+        return "JmsDeduplicationCache(window=" + window + " capacity=" + capacity + ")";
+    }
+}
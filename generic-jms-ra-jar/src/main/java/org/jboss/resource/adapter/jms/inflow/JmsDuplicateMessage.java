@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+/**
+ * Flags a message delivered before with the {@link #DUPLICATE} property,
+ * leaving the headers of the provider message alone.
+ * <p/>
+ * The flagged message is a proxy implementing the <code>javax.jms</code>
+ * interfaces of the provider message, so an MDB can still cast it to
+ * <code>TextMessage</code> and the like but not to provider classes.
+ */
+public class JmsDuplicateMessage implements InvocationHandler {
+    /**
+     * The boolean property set on a duplicate delivered with deduplication Flag
+     */
+    public static final String DUPLICATE = "GenericJmsRA_Duplicate";
+
+    /**
+     * The message
+     */
+    private final Message message;
+
+    private JmsDuplicateMessage(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Flag a message as a duplicate
+     *
+     * @param message the message
+     * @return the flagged message
+     */
+    public static Message flag(Message message) {
+        LinkedHashSet<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = message.getClass(); c != null; c = c.getSuperclass()) {
+            addMessageInterfaces(c, interfaces);
+        }
+        interfaces.add(Message.class);
+        Class<?>[] array = interfaces.toArray(new Class<?>[interfaces.size()]);
+        return (Message) Proxy.newProxyInstance(JmsDuplicateMessage.class.getClassLoader(), array, new JmsDuplicateMessage(message));
+    }
+
+    /**
+     * Whether a message was flagged as a duplicate
+     *
+     * @param message the message
+     * @return true for a duplicate
+     */
+    public static boolean isDuplicate(Message message) {
+        return Proxy.isProxyClass(message.getClass()) && Proxy.getInvocationHandler(message) instanceof JmsDuplicateMessage;
+    }
+
+    private static void addMessageInterfaces(Class<?> c, LinkedHashSet<Class<?>> interfaces) {
+        Class<?>[] implemented = c.getInterfaces();
+        for (int i = 0; i < implemented.length; ++i) {
+            if (Message.class.isAssignableFrom(implemented[i]) && implemented[i].getName().startsWith("javax.jms.")) {
+                interfaces.add(implemented[i]);
+            }
+            addMessageInterfaces(implemented[i], interfaces);
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (args != null && args.length == 1 && DUPLICATE.equals(args[0])) {
+            if ("propertyExists".equals(name) || "getBooleanProperty".equals(name) || "getObjectProperty".equals(name)) {
+                return Boolean.TRUE;
+            }
+            if ("getStringProperty".equals(name)) {
+                return "true";
+            }
+            if (name.startsWith("get") && name.endsWith("Property")) {
+                throw new MessageFormatException("The property " + DUPLICATE + " is a boolean");
+            }
+        }
+        if ("getPropertyNames".equals(name)) {
+            return getPropertyNames();
+        }
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if ("hashCode".equals(name) && args == null) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        try {
+            return method.invoke(message, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Enumeration getPropertyNames() throws JMSException {
+        Vector<String> names = new Vector<String>();
+        for (Enumeration e = message.getPropertyNames(); e.hasMoreElements(); ) {
+            names.add((String) e.nextElement());
+        }
+        if (names.contains(DUPLICATE) == false) {
+            names.add(DUPLICATE);
+        }
+        return names.elements();
+    }
+}
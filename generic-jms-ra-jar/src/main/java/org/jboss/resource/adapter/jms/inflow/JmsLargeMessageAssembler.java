@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.JmsLargeMessage;
+
+/**
+ * Reassembles the chunks of large messages for an activation.
+ * <p/>
+ * The connection consumer of the activation only receives the first chunk
+ * of a large message, see {@link JmsLargeMessage#FIRST_CHUNK_SELECTOR}. The
+ * server session delivering it receives the remaining chunks with a session
+ * whose work belongs to the same transaction as the delivery, so all chunks
+ * are consumed once the message was delivered and they are all redelivered
+ * when the delivery is rolled back. Messages whose total size is above the
+ * spill threshold are written to a temporary file as the chunks arrive and
+ * are memory mapped once complete, smaller ones are kept on the heap.
+ */
+public class JmsLargeMessageAssembler {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsLargeMessageAssembler.class);
+
+    /**
+     * The size above which a message is spilled to a temporary file
+     */
+    private long spillThreshold;
+
+    /**
+     * How long to wait for the remaining chunks in milliseconds
+     */
+    private long timeout;
+
+    /**
+     * Create a new assembler
+     *
+     * @param spillThreshold the size above which a message is spilled to a temporary file
+     * @param timeout        how long to wait for the remaining chunks in milliseconds
+     */
+    public JmsLargeMessageAssembler(long spillThreshold, long timeout) {
+        this.spillThreshold = spillThreshold;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Receive the remaining chunks of a large message and reassemble it
+     *
+     * @param session     the session receiving the remaining chunks
+     * @param destination the destination of the chunks
+     * @param first       the first chunk
+     * @return the reassembled message
+     * @throws Exception for any error, e.g. when a chunk is not received in time
+     */
+    public JmsLargeMessage receive(Session session, Destination destination, Message first) throws Exception {
+        String id = first.getStringProperty(JmsLargeMessage.LARGE_MESSAGE_ID);
+        int chunkCount = first.getIntProperty(JmsLargeMessage.CHUNK_COUNT);
+        int chunkSize = first.getIntProperty(JmsLargeMessage.CHUNK_SIZE);
+        long totalSize = first.getLongProperty(JmsLargeMessage.TOTAL_SIZE);
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new JMSException("Large message " + id + " of " + totalSize + " bytes exceeds the maximum size");
+        }
+
+        PartialMessage partial = new PartialMessage(id, chunkCount, chunkSize, (int) totalSize, totalSize > spillThreshold);
+        try {
+            partial.add(first);
+            MessageConsumer consumer = createConsumer(session, destination, id);
+            try {
+                long deadline = System.currentTimeMillis() + timeout;
+                while (partial.isComplete() == false) {
+                    partial.add(receiveChunk(consumer, partial, deadline));
+                }
+            } finally {
+                consumer.close();
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("Reassembled " + partial);
+            }
+            return partial.complete(first);
+        } catch (Exception e) {
+            partial.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Receive the remaining chunks of a large message and send all chunks to
+     * another destination, or discard them
+     *
+     * @param session     the session receiving the remaining chunks
+     * @param destination the destination of the chunks
+     * @param first       the first chunk
+     * @param producer    the producer sending the chunks or null to discard them
+     * @throws Exception for any error, e.g. when a chunk is not received in time
+     */
+    public void forward(Session session, Destination destination, Message first, MessageProducer producer) throws Exception {
+        String id = first.getStringProperty(JmsLargeMessage.LARGE_MESSAGE_ID);
+        int chunkCount = first.getIntProperty(JmsLargeMessage.CHUNK_COUNT);
+        if (producer != null) {
+            producer.send(first);
+        }
+        MessageConsumer consumer = createConsumer(session, destination, id);
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            for (int i = 1; i < chunkCount; ++i) {
+                Message chunk = consumer.receive(Math.max(1, deadline - System.currentTimeMillis()));
+                if (chunk == null) {
+                    throw new JMSException("Received " + i + " of " + chunkCount + " chunks of large message " + id + " in " + timeout + " ms");
+                }
+                if (producer != null) {
+                    producer.send(chunk);
+                }
+            }
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private MessageConsumer createConsumer(Session session, Destination destination, String id) throws JMSException {
+        return session.createConsumer(destination, JmsLargeMessage.LARGE_MESSAGE_ID + " = '" + id.replace("'", "''") + "'");
+    }
+
+    private Message receiveChunk(MessageConsumer consumer, PartialMessage partial, long deadline) throws JMSException {
+        long wait = deadline - System.currentTimeMillis();
+        Message chunk = wait > 0 ? consumer.receive(wait) : null;
+        if (chunk == null) {
+            throw new JMSException("Missing chunks of " + partial + " after " + timeout + " ms");
+        }
+        return chunk;
+    }
+
+    /**
+     * The chunks received so far for a large message
+     */
+    private static class PartialMessage {
+        private String id;
+        private int chunkSize;
+        private int totalSize;
+        private boolean[] received;
+        private int remaining;
+
+        private byte[] body;
+        private File file;
+        private RandomAccessFile randomAccessFile;
+
+        PartialMessage(String id, int chunkCount, int chunkSize, int totalSize, boolean spill) throws IOException {
+            this.id = id;
+            this.chunkSize = chunkSize;
+            this.totalSize = totalSize;
+            this.received = new boolean[chunkCount];
+            this.remaining = chunkCount;
+            if (spill) {
+                file = File.createTempFile("generic-jms-ra-", ".chunks");
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFile.setLength(totalSize);
+            } else {
+                body = new byte[totalSize];
+            }
+        }
+
+        boolean isComplete() {
+            return remaining == 0;
+        }
+
+        void add(Message chunk) throws JMSException, IOException {
+            int index = chunk.getIntProperty(JmsLargeMessage.CHUNK_INDEX);
+            if (index < 0 || index >= received.length) {
+                throw new IOException("Chunk index " + index + " out of range for " + this);
+            }
+            if (received[index]) {
+                // a duplicate of a chunk sent twice
+                return;
+            }
+            BytesMessage bytes = (BytesMessage) chunk;
+            byte[] data = new byte[(int) bytes.getBodyLength()];
+            bytes.readBytes(data);
+            long offset = (long) index * chunkSize;
+            if (body != null) {
+                System.arraycopy(data, 0, body, (int) offset, data.length);
+            } else {
+                randomAccessFile.getChannel().write(ByteBuffer.wrap(data), offset);
+            }
+            received[index] = true;
+            --remaining;
+        }
+
+        JmsLargeMessage complete(Message message) throws IOException {
+            if (body != null) {
+                return new JmsLargeMessage(message, ByteBuffer.wrap(body), null);
+            }
+            try {
+                ByteBuffer mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, totalSize);
+                return new JmsLargeMessage(message, mapped, file);
+            } finally {
+                // the mapping stays valid after the file is closed
+                randomAccessFile.close();
+            }
+        }
+
+        void discard() {
+            body = null;
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    log.debug("Error closing " + file, e);
+                }
+                if (file.delete() == false) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+
+        public String toString() {
+            return "PartialMessage(id=" + id + " totalSize=" + totalSize + " remaining=" + remaining + (file != null ? " file=" + file : "") + ")";
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The JNDI objects looked up by the activations, shared by the activations
+ * with the same JNDI parameters for a while.
+ * <p/>
+ * The initial contexts are pooled per JNDI parameters, each used by one
+ * thread at a time, so hundreds of activations starting at once create as
+ * many contexts as run at once and look up each connection factory and
+ * destination about once. An activation which reconnects invalidates the
+ * objects and contexts of its JNDI parameters first.
+ */
+public class JmsLookupCache {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsLookupCache.class);
+
+    /**
+     * How long objects and contexts are kept in milliseconds
+     */
+    private final long timeout;
+
+    /**
+     * The idle contexts by JNDI parameters
+     */
+    private final Map<String, ContextPool> contexts = new HashMap<String, ContextPool>();
+
+    /**
+     * The objects by JNDI parameters and name
+     */
+    private final ConcurrentHashMap<String, Entry> objects = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Create a new lookup cache
+     *
+     * @param timeout how long objects and contexts are kept in milliseconds
+     */
+    public JmsLookupCache(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Look up an object
+     *
+     * @param jndiParameters the JNDI parameters, null for the default initial context
+     * @param name           the name
+     * @return the object
+     * @throws NamingException for any error
+     */
+    public Object lookup(String jndiParameters, String name) throws NamingException {
+        String key = jndiParameters + '\n' + name;
+        Entry entry = objects.get(key);
+        if (entry != null && entry.isValid(System.currentTimeMillis())) {
+            return entry.value;
+        }
+
+        ContextPool pool = getContextPool(jndiParameters);
+        Entry context = pool.borrow();
+        try {
+            Object value = ((Context) context.value).lookup(name);
+            objects.put(key, new Entry(value, System.currentTimeMillis() + timeout));
+            return value;
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    /**
+     * Forget the objects and close the contexts of some JNDI parameters
+     *
+     * @param jndiParameters the JNDI parameters
+     */
+    public void invalidate(String jndiParameters) {
+        String prefix = jndiParameters + '\n';
+        for (Iterator<String> i = objects.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+        ContextPool pool;
+        synchronized (contexts) {
+            pool = contexts.remove(jndiParameters);
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Forget all objects and close the contexts
+     */
+    public void clear() {
+        objects.clear();
+        ContextPool[] pools;
+        synchronized (contexts) {
+            pools = contexts.values().toArray(new ContextPool[contexts.size()]);
+            contexts.clear();
+        }
+        for (ContextPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    private ContextPool getContextPool(String jndiParameters) {
+        synchronized (contexts) {
+            ContextPool pool = contexts.get(jndiParameters);
+            if (pool == null) {
+                pool = new ContextPool(jndiParameters);
+                contexts.put(jndiParameters, pool);
+            }
+            return pool;
+        }
+    }
+
+    private static void close(Entry context) {
+        try {
+            ((Context) context.value).close();
+        } catch (Throwable t) {
+            log.debug("Error closing context " + context.value, t);
+        }
+    }
+
+    public String toString() {
+        return "JmsLookupCache(timeout=" + timeout + " objects=" + objects.size() + ")";
+    }
+
+    /**
+     * A cached object or context
+     */
+    private static class Entry {
+        final Object value;
+
+        final long expires;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean isValid(long now) {
+            return now < expires;
+        }
+    }
+
+    /**
+     * The idle contexts of some JNDI parameters
+     */
+    private class ContextPool {
+        private final String jndiParameters;
+
+        private final LinkedList<Entry> idle = new LinkedList<Entry>();
+
+        private boolean closed;
+
+        ContextPool(String jndiParameters) {
+            this.jndiParameters = jndiParameters;
+        }
+
+        Entry borrow() throws NamingException {
+            long now = System.currentTimeMillis();
+            while (true) {
+                Entry context;
+                synchronized (this) {
+                    context = idle.poll();
+                }
+                if (context == null) {
+                    return new Entry(JmsActivation.convertStringToContext(jndiParameters), now + timeout);
+                }
+                if (context.isValid(now)) {
+                    return context;
+                }
+                JmsLookupCache.close(context);
+            }
+        }
+
+        void release(Entry context) {
+            synchronized (this) {
+                if (closed == false && context.isValid(System.currentTimeMillis())) {
+                    idle.add(context);
+                    return;
+                }
+            }
+            JmsLookupCache.close(context);
+        }
+
+        void close() {
+            Entry[] entries;
+            synchronized (this) {
+                closed = true;
+                entries = idle.toArray(new Entry[idle.size()]);
+                idle.clear();
+            }
+            for (Entry context : entries) {
+                JmsLookupCache.close(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Spreads the messages of a topic across the nodes of a cluster.
+ * <p/>
+ * Every message is assigned to one of a fixed number of partitions by a hash
+ * of its key, the value of a property or the JMSMessageID, and partition p is
+ * owned by node p modulo the number of nodes. Each node consumes the topic
+ * with a durable subscription of its own, the client id and the subscription
+ * name qualified with its index, and delivers only the messages of the
+ * partitions it owns, so the subscription of a node keeps its messages while
+ * it is down.
+ */
+public class JmsPartitionFilter {
+    /**
+     * The number of partitions
+     */
+    private final int partitions;
+
+    /**
+     * The property holding the key of a message, null for the JMSMessageID
+     */
+    private final String key;
+
+    /**
+     * The index of this node
+     */
+    private final int node;
+
+    /**
+     * Whether this node owns a partition, by partition
+     */
+    private final boolean[] owned;
+
+    /**
+     * Create a new partition filter
+     *
+     * @param partitions the number of partitions
+     * @param key        the property holding the key of a message, null for the JMSMessageID
+     * @param nodes      the number of nodes
+     * @param node       the index of this node, from 0
+     */
+    public JmsPartitionFilter(int partitions, String key, int nodes, int node) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("partitions must be at least one: " + partitions);
+        if (nodes < 1)
+            throw new IllegalArgumentException("clusterNodes must be at least one: " + nodes);
+        if (node < 0 || node >= nodes)
+            throw new IllegalArgumentException("clusterNode must be between 0 and " + (nodes - 1) + ": " + node);
+        this.partitions = partitions;
+        this.key = key;
+        this.node = node;
+        this.owned = new boolean[partitions];
+        for (int p = node; p < partitions; p += nodes)
+            owned[p] = true;
+    }
+
+    /**
+     * Get the partition of a message
+     *
+     * @param message the message
+     * @return the partition, 0 for a message without key
+     * @throws JMSException for any error
+     */
+    public int getPartition(Message message) throws JMSException {
+        Object value = key == null ? message.getJMSMessageID() : message.getObjectProperty(key);
+        if (value == null)
+            return 0;
+        long hash = JmsKeyHash.hash(value.toString());
+        return (int) ((hash >>> 1) % partitions);
+    }
+
+    /**
+     * @param message the message
+     * @return whether this node owns the partition of the message
+     * @throws JMSException for any error
+     */
+    public boolean accepts(Message message) throws JMSException {
+        return owned[getPartition(message)];
+    }
+
+    /**
+     * Qualify a client id or subscription name with the index of this node
+     *
+     * @param name the name or null
+     * @return the qualified name or null
+     */
+    public String qualify(String name) {
+        return name == null ? null : name + '.' + node;
+    }
+
+    public String toString() {
+        return "JmsPartitionFilter(partitions=" + partitions + " key=" + key + " node=" + node + ")";
+    }
+}
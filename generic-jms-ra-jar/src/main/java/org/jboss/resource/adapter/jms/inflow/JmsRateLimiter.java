@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+/**
+ * Limits the rate at which an activation delivers messages.
+ * <p/>
+ * A token bucket holding up to the burst size is refilled at the rate, each
+ * delivery takes a token and the server session delivering waits for one
+ * when the bucket is empty. The rate and the burst size can be changed at
+ * any time, a rate of zero or less disables the limit.
+ */
+public class JmsRateLimiter {
+    /**
+     * The messages per second
+     */
+    private volatile double rate;
+
+    /**
+     * The largest number of messages delivered at once after an idle period
+     */
+    private int burst;
+
+    /**
+     * The tokens in the bucket
+     */
+    private double tokens;
+
+    /**
+     * When the bucket was last refilled in nanoseconds
+     */
+    private long refilled = System.nanoTime();
+
+    /**
+     * Whether the waits are cut short
+     */
+    private boolean released;
+
+    /**
+     * Create a new rate limiter
+     *
+     * @param rate  the messages per second, zero or less for no limit
+     * @param burst the largest number of messages delivered at once, zero or less for one second of messages
+     */
+    public JmsRateLimiter(double rate, int burst) {
+        setRate(rate, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Change the rate
+     *
+     * @param rate  the messages per second, zero or less for no limit
+     * @param burst the largest number of messages delivered at once, zero or less for one second of messages
+     */
+    public synchronized void setRate(double rate, int burst) {
+        refill();
+        this.rate = rate;
+        this.burst = burst > 0 ? burst : Math.max(1, (int) rate);
+        if (tokens > this.burst)
+            tokens = this.burst;
+        notifyAll();
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Take a token, waiting for one when the bucket is empty unless the
+     * waits are released
+     *
+     * @return whether it waited
+     * @throws InterruptedException when interrupted
+     */
+    public boolean acquire() throws InterruptedException {
+        if (rate <= 0)
+            return false;
+        boolean waited = false;
+        synchronized (this) {
+            while (true) {
+                if (released || rate <= 0)
+                    return waited;
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return waited;
+                }
+                long wait = (long) Math.ceil((1 - tokens) * 1000000000d / rate);
+                wait(wait / 1000000, (int) (wait % 1000000));
+                waited = true;
+            }
+        }
+    }
+
+    /**
+     * Add the tokens accumulated since the last refill
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / 1000000000d);
+        }
+        refilled = now;
+    }
+
+    /**
+     * Cut the waits short, e.g. so the sessions can be closed
+     *
+     * @param released whether messages are delivered without waiting
+     */
+    public synchronized void setReleased(boolean released) {
+        this.released = released;
+        notifyAll();
+    }
+
+    public String toString() {
+        return "JmsRateLimiter(rate=" + rate + " burst=" + burst + ")";
+    }
+}
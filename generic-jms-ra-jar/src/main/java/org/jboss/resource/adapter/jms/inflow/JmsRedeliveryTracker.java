@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Tracks how often the messages of an activation were delivered.
+ * <p/>
+ * The count is taken from the JMSXDeliveryCount property when the provider
+ * sets it, otherwise the failed deliveries are counted by JMSMessageID for
+ * the most recent failing messages. A message delivered again is delayed
+ * exponentially, from the initial delay to the maximum delay, by the server
+ * session delivering it so the other sessions keep delivering.
+ */
+public class JmsRedeliveryTracker {
+    /**
+     * The JMS defined delivery count property
+     */
+    public static final String DELIVERY_COUNT = "JMSXDeliveryCount";
+
+    /**
+     * How many failing messages to count when the provider does not
+     */
+    private static final int MAX_TRACKED = 10000;
+
+    /**
+     * The delay before the first redelivery in milliseconds
+     */
+    private long initialDelay;
+
+    /**
+     * The factor applied to the delay on every redelivery
+     */
+    private double multiplier;
+
+    /**
+     * The longest delay in milliseconds
+     */
+    private long maxDelay;
+
+    /**
+     * The redeliveries after which a message is poison, -1 for no limit
+     */
+    private int maxRedeliveries;
+
+    /**
+     * The failed deliveries by JMSMessageID
+     */
+    private final Map<String, Integer> failures = new LinkedHashMap<String, Integer>() {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    };
+
+    /**
+     * Whether the delays are cut short
+     */
+    private boolean released;
+
+    /**
+     * Create a new tracker
+     *
+     * @param initialDelay    the delay before the first redelivery in milliseconds
+     * @param multiplier      the factor applied to the delay on every redelivery
+     * @param maxDelay        the longest delay in milliseconds
+     * @param maxRedeliveries the redeliveries after which a message is poison, -1 for no limit
+     */
+    public JmsRedeliveryTracker(long initialDelay, double multiplier, long maxDelay, int maxRedeliveries) {
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.maxRedeliveries = maxRedeliveries;
+    }
+
+    /**
+     * Get the number of times a message was delivered, this delivery included
+     *
+     * @param message the message
+     * @return the delivery count
+     * @throws JMSException for any error
+     */
+    public int getDeliveryCount(Message message) throws JMSException {
+        if (message.propertyExists(DELIVERY_COUNT))
+            return Math.max(1, message.getIntProperty(DELIVERY_COUNT));
+        String id = message.getJMSMessageID();
+        if (id == null)
+            return 1;
+        synchronized (failures) {
+            Integer count = failures.get(id);
+            return count == null ? 1 : count.intValue() + 1;
+        }
+    }
+
+    /**
+     * Record the outcome of a delivery
+     *
+     * @param message the message
+     * @param success whether the delivery completed without error and its
+     *                transaction, if any, was not marked for rollback
+     * @throws JMSException for any error
+     */
+    public void delivered(Message message, boolean success) throws JMSException {
+        if (message.propertyExists(DELIVERY_COUNT))
+            return;
+        String id = message.getJMSMessageID();
+        if (id == null)
+            return;
+        synchronized (failures) {
+            Integer count = failures.remove(id);
+            if (success == false)
+                failures.put(id, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+    }
+
+    /**
+     * @param deliveryCount the delivery count of a message
+     * @return whether the message was redelivered too often
+     */
+    public boolean isPoison(int deliveryCount) {
+        return maxRedeliveries >= 0 && deliveryCount > maxRedeliveries + 1;
+    }
+
+    /**
+     * @param deliveryCount the delivery count of a message
+     * @return how long to wait before delivering it in milliseconds
+     */
+    public long getDelay(int deliveryCount) {
+        if (deliveryCount <= 1 || initialDelay <= 0)
+            return 0;
+        double delay = initialDelay * Math.pow(Math.max(1, multiplier), deliveryCount - 2);
+        return delay >= maxDelay ? maxDelay : (long) delay;
+    }
+
+    /**
+     * Wait before delivering a message again, unless the delays are released
+     *
+     * @param deliveryCount the delivery count of the message
+     * @throws InterruptedException when interrupted
+     */
+    public void delay(int deliveryCount) throws InterruptedException {
+        long delay = getDelay(deliveryCount);
+        if (delay <= 0)
+            return;
+        long end = System.currentTimeMillis() + delay;
+        synchronized (this) {
+            long wait;
+            while (released == false && (wait = end - System.currentTimeMillis()) > 0)
+                wait(wait);
+        }
+    }
+
+    /**
+     * Cut the delays short, e.g. so the sessions can be closed
+     *
+     * @param released whether messages are delivered without delay
+     */
+    public synchronized void setReleased(boolean released) {
+        this.released = released;
+        notifyAll();
+    }
+
+    public String toString() {
+        return "JmsRedeliveryTracker(initialDelay=" + initialDelay + " multiplier=" + multiplier + " maxDelay=" + maxDelay + " maxRedeliveries=" + maxRedeliveries + ")";
+    }
+}
@@ -22,11 +22,18 @@
 package org.jboss.resource.adapter.jms.inflow;
 
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.JmsLargeMessage;
+import org.jboss.resource.adapter.jms.JmsObjectCodec;
+import org.jboss.resource.adapter.jms.JmsObjectCodecs;
+import org.jboss.resource.adapter.jms.JmsObjectMessage;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
 import javax.jms.ServerSession;
 import javax.jms.Session;
 import javax.jms.XAConnection;
@@ -38,6 +45,9 @@ import javax.resource.spi.work.WorkEvent;
 import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkListener;
 import javax.resource.spi.work.WorkManager;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 
@@ -74,8 +84,33 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
      */
     MessageEndpoint endpoint;
 
+    /**
+     * The session receiving the remaining chunks of large messages
+     */
+    Session chunkSession;
+
+    /**
+     * Any XA session receiving the remaining chunks of large messages
+     */
+    XASession chunkXASession;
+
     TransactionManager tm;
 
+    /**
+     * The thread running the session
+     */
+    Thread thread;
+
+    /**
+     * The transaction of the delivery in progress
+     */
+    volatile Transaction transaction;
+
+    /**
+     * Whether the delivery in progress was aborted
+     */
+    boolean aborted;
+
     /**
      * Create a new JmsServerSession
      *
@@ -130,6 +165,16 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
             log.debug("Error releasing endpoint " + endpoint, t);
         }
 
+        try {
+            if (chunkXASession != null) {
+                chunkXASession.close();
+            } else if (chunkSession != null) {
+                chunkSession.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing chunk session " + chunkSession, t);
+        }
+
         try {
             if (xaSession != null) {
                 xaSession.close();
@@ -148,27 +193,415 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
     }
 
     public void onMessage(Message message) {
+        JmsActivation activation = pool.getActivation();
+        JmsLargeMessage largeMessage = null;
+        if (activation.isDeliveryTransacted() == false && hasRemainingChunks(activation, endpoint, message)) {
+            // the remaining chunks are consumed in a local transaction committed after the delivery
+            try {
+                largeMessage = activation.getLargeMessageAssembler().receive(getChunkSession(activation), activation.getDestination(), message);
+            } catch (Exception e) {
+                rollbackChunks();
+                // the provider redelivers the first chunk
+                throw new RuntimeException("Unable to receive the chunks of " + message, e);
+            }
+            message = largeMessage;
+        }
+        try {
+            JmsSharedSubscription sharedSubscription = activation.getSharedSubscription();
+            if (sharedSubscription != null) {
+                sharedSubscription.dispatch(this, message);
+            } else if (activation.selects(message) == false) {
+                skipDelivery(endpoint, message);
+            } else {
+                deliver(activation, endpoint, message);
+            }
+        } catch (Throwable t) {
+            log.error("Unexpected error delivering message " + message, t);
+        } finally {
+            if (largeMessage != null) {
+                largeMessage.release();
+                commitChunks();
+            }
+        }
+    }
+
+    /**
+     * Whether the remaining chunks of a large message are received by the
+     * server session: for the endpoint of the pool, the connection consumer
+     * only receives the first chunk
+     *
+     * @param activation the activation
+     * @param endpoint   the endpoint
+     * @param message    the message
+     * @return true when the message is the first chunk of a large message
+     */
+    boolean hasRemainingChunks(JmsActivation activation, MessageEndpoint endpoint, Message message) {
+        if (endpoint != this.endpoint || activation.getLargeMessageAssembler() == null || message instanceof JmsLargeMessage) {
+            return false;
+        }
         try {
-            final int timeout = pool.getActivation().getActivationSpec().getTransactionTimeout();
+            return JmsLargeMessage.isChunk(message);
+        } catch (JMSException e) {
+            log.debug("Error checking for a chunk " + message, e);
+            return false;
+        }
+    }
 
-            if (timeout > 0) {
-                log.trace("Setting transactionTimeout for JMSSessionPool to " + timeout);
-                tm.setTransactionTimeout(timeout);
+    /**
+     * Get the session receiving the remaining chunks of large messages, an XA
+     * session when delivery is transacted and a locally transacted one
+     * otherwise
+     *
+     * @param activation the activation
+     * @return the session
+     * @throws JMSException for any error
+     */
+    Session getChunkSession(JmsActivation activation) throws JMSException {
+        if (chunkSession == null) {
+            Connection connection = activation.getConnection();
+            if (activation.isDeliveryTransacted()) {
+                chunkXASession = ((XAConnection) connection).createXASession();
+                chunkSession = chunkXASession.getSession();
+            } else {
+                chunkSession = connection.createSession(true, Session.SESSION_TRANSACTED);
             }
+        }
+        return chunkSession;
+    }
+
+    /**
+     * Get the session receiving the remaining chunks of large messages in the
+     * transaction of the delivery in progress
+     *
+     * @param activation the activation
+     * @return the session
+     * @throws Exception for any error
+     */
+    Session enlistChunkSession(JmsActivation activation) throws Exception {
+        Session session = getChunkSession(activation);
+        Transaction transaction = tm == null ? null : tm.getTransaction();
+        if (transaction == null) {
+            throw new JMSException("No transaction to receive the chunks of a large message in");
+        }
+        transaction.enlistResource(chunkXASession.getXAResource());
+        return session;
+    }
+
+    private void commitChunks() {
+        try {
+            chunkSession.commit();
+        } catch (Throwable t) {
+            log.warn("Unable to commit the chunks of a large message", t);
+        }
+    }
 
+    private void rollbackChunks() {
+        try {
+            if (chunkSession != null) {
+                chunkSession.rollback();
+            }
+        } catch (Throwable t) {
+            log.debug("Error rolling back the chunks of a large message", t);
+        }
+    }
+
+    /**
+     * Deliver a message selected by an activation to one of its endpoints
+     *
+     * @param activation the activation, the one of the pool or a member of its shared subscription
+     * @param endpoint   the endpoint
+     * @param message    the message
+     * @throws Exception for any error
+     */
+    void deliver(JmsActivation activation, MessageEndpoint endpoint, Message message) throws Exception {
+        activation.getMetrics().arrived(message.getJMSTimestamp());
+
+        if (activation.isStale(message)) {
+            activation.getMetrics().expired();
+            expire(activation, endpoint, message);
+            return;
+        }
+
+        JmsRedeliveryTracker redeliveryTracker = activation.getRedeliveryTracker();
+        int deliveryCount = redeliveryTracker.getDeliveryCount(message);
+        if (redeliveryTracker.isPoison(deliveryCount)) {
+            activation.getMetrics().poisoned();
+            quarantine(activation, endpoint, message, deliveryCount);
+            return;
+        }
+        // the deliveries to the members of a shared subscription run one after another on the session
+        // of the leader, a redelivery delay or a rate limit of one member would hold up the others
+        boolean shared = activation.getSharedSubscription() != null;
+        if (shared == false) {
+            redeliveryTracker.delay(deliveryCount);
+        }
+
+        JmsDeduplicationCache deduplicationCache = activation.getDeduplicationCache();
+        String deduplicationKey = null;
+        if (deduplicationCache != null) {
+            deduplicationKey = getDeduplicationKey(activation, message);
+            if (deduplicationKey != null && deduplicationCache.contains(deduplicationKey)) {
+                activation.getMetrics().duplicate();
+                if ("Drop".equals(activation.getActivationSpec().getDeduplication())) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Dropping duplicate " + deduplicationKey);
+                    }
+                    skipDelivery(endpoint, message);
+                    return;
+                }
+                // the provider message keeps its JMSRedelivered header
+                message = JmsDuplicateMessage.flag(message);
+                deduplicationKey = null;
+            }
+        }
+
+        // wait for the rate limit before the transaction is started
+        if (shared == false && activation.getRateLimiter().acquire()) {
+            activation.getMetrics().throttled();
+        }
+
+        final int timeout = activation.getActivationSpec().getTransactionTimeout();
+
+        if (timeout > 0) {
+            log.trace("Setting transactionTimeout for JMSSessionPool to " + timeout);
+            tm.setTransactionTimeout(timeout);
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean rollbackOnly = false;
+        try {
             endpoint.beforeDelivery(JmsActivation.ONMESSAGE);
 
+            JmsLargeMessage largeMessage = null;
             try {
+                if (tm != null && activation.isDeliveryTransacted()) {
+                    transaction = tm.getTransaction();
+                }
+                if (hasRemainingChunks(activation, endpoint, message)) {
+                    // the remaining chunks are consumed in the transaction of the delivery
+                    largeMessage = receiveChunks(activation, message);
+                    message = largeMessage;
+                }
+
+                JmsObjectCodec codec = activation.getObjectCodec();
+                if (codec != null && JmsObjectCodecs.isEncoded(message)) {
+                    message = new JmsObjectMessage((BytesMessage) message, null, codec);
+                }
+
                 MessageListener listener = (MessageListener) endpoint;
                 listener.onMessage(message);
             } finally {
+                // the MDB or the RA may have marked the transaction for rollback without an error
+                rollbackOnly = isRollbackOnly(transaction);
+                transaction = null;
                 endpoint.afterDelivery();
+                if (largeMessage != null) {
+                    largeMessage.release();
+                }
             }
-        } catch (Throwable t) {
-            log.error("Unexpected error delivering message " + message, t);
+            success = rollbackOnly == false;
+        } finally {
+            activation.getMetrics().delivered(start, success);
+            redeliveryTracker.delivered(message, success);
+        }
+        // only once delivered, a message rolled back must not count as delivered
+        if (deduplicationKey != null && success) {
+            deduplicationCache.add(deduplicationKey);
+        }
+    }
+
+    /**
+     * Whether a transaction will not commit
+     *
+     * @param transaction the transaction or null
+     * @return true when it is marked for rollback or rolled back
+     */
+    private static boolean isRollbackOnly(Transaction transaction) {
+        if (transaction == null) {
+            return false;
+        }
+        try {
+            int status = transaction.getStatus();
+            return status == Status.STATUS_MARKED_ROLLBACK || status == Status.STATUS_ROLLING_BACK || status == Status.STATUS_ROLLEDBACK;
+        } catch (SystemException e) {
+            log.debug("Unable to get the status of " + transaction, e);
+            return false;
+        }
+    }
+
+    /**
+     * Consume a message without passing it to the endpoint. When delivery is
+     * transacted the message is consumed in a transaction of its own.
+     *
+     * @param endpoint the endpoint
+     * @param message  the message
+     * @throws Exception for any error
+     */
+    void skipDelivery(MessageEndpoint endpoint, Message message) throws Exception {
+        if (log.isTraceEnabled()) {
+            log.trace("Consuming without delivery " + message);
+        }
+
+        JmsActivation activation = pool.getActivation();
+        if (endpoint == this.endpoint && activation.isDeliveryTransacted()) {
+            endpoint.beforeDelivery(JmsActivation.ONMESSAGE);
+            try {
+                if (hasRemainingChunks(activation, endpoint, message)) {
+                    forwardChunks(activation, message, null);
+                }
+            } finally {
+                endpoint.afterDelivery();
+            }
+        }
+    }
+
+    /**
+     * Receive the remaining chunks of a large message in the transaction of
+     * the delivery in progress and reassemble it, the transaction is marked
+     * for rollback when they are missing
+     *
+     * @param activation the activation
+     * @param message    the first chunk
+     * @return the reassembled message
+     * @throws Exception for any error
+     */
+    JmsLargeMessage receiveChunks(JmsActivation activation, Message message) throws Exception {
+        try {
+            return activation.getLargeMessageAssembler().receive(enlistChunkSession(activation), activation.getDestination(), message);
+        } catch (Exception e) {
+            if (tm != null) {
+                tm.setRollbackOnly();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Receive the remaining chunks of a large message in the transaction of
+     * the delivery in progress and send them to another destination or
+     * discard them, the transaction is marked for rollback when they are
+     * missing
+     *
+     * @param activation the activation
+     * @param message    the first chunk
+     * @param producer   the producer sending the chunks or null to discard them
+     * @throws Exception for any error
+     */
+    void forwardChunks(JmsActivation activation, Message message, MessageProducer producer) throws Exception {
+        try {
+            activation.getLargeMessageAssembler().forward(enlistChunkSession(activation), activation.getDestination(), message, producer);
+        } catch (Exception e) {
+            if (tm != null) {
+                tm.setRollbackOnly();
+            }
+            throw e;
         }
     }
 
+    /**
+     * Move a message redelivered too often to the poison destination, in the
+     * transaction of the delivery when it is transacted, or discard it when
+     * there is none
+     *
+     * @param activation    the activation
+     * @param endpoint      the endpoint
+     * @param message       the message
+     * @param deliveryCount the number of times it was delivered
+     * @throws Exception for any error
+     */
+    void quarantine(JmsActivation activation, MessageEndpoint endpoint, Message message, int deliveryCount) throws Exception {
+        Destination poisonDestination = activation.getPoisonDestination();
+        if (poisonDestination == null) {
+            log.error("Discarding message " + message.getJMSMessageID() + " after " + deliveryCount + " deliveries");
+            skipDelivery(endpoint, message);
+            return;
+        }
+
+        log.warn("Moving message " + message.getJMSMessageID() + " to " + poisonDestination + " after " + deliveryCount + " deliveries");
+        forward(activation, endpoint, message, poisonDestination);
+    }
+
+    /**
+     * Move a stale message to the expiry destination, in the transaction of
+     * the delivery when it is transacted, or discard it when there is none
+     *
+     * @param activation the activation
+     * @param endpoint   the endpoint
+     * @param message    the message
+     * @throws Exception for any error
+     */
+    void expire(JmsActivation activation, MessageEndpoint endpoint, Message message) throws Exception {
+        Destination expiryDestination = activation.getExpiryDestination();
+        if (expiryDestination == null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Discarding stale message " + message.getJMSMessageID());
+            }
+            skipDelivery(endpoint, message);
+            return;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Moving stale message " + message.getJMSMessageID() + " to " + expiryDestination);
+        }
+        forward(activation, endpoint, message, expiryDestination);
+    }
+
+    /**
+     * Send a message to another destination instead of delivering it, in the
+     * transaction of the delivery when it is transacted
+     *
+     * @param activation  the activation
+     * @param endpoint    the endpoint
+     * @param message     the message
+     * @param destination the destination
+     * @throws Exception for any error
+     */
+    void forward(JmsActivation activation, MessageEndpoint endpoint, Message message, Destination destination) throws Exception {
+        boolean transacted = endpoint == this.endpoint && activation.isDeliveryTransacted();
+        if (transacted) {
+            endpoint.beforeDelivery(JmsActivation.ONMESSAGE);
+        }
+        try {
+            MessageProducer producer = session.createProducer(destination);
+            try {
+                if (transacted && hasRemainingChunks(activation, endpoint, message)) {
+                    forwardChunks(activation, message, producer);
+                } else {
+                    producer.send(message);
+                }
+            } finally {
+                producer.close();
+            }
+        } catch (Exception e) {
+            if (transacted && tm != null) {
+                tm.setRollbackOnly();
+            }
+            throw e;
+        } finally {
+            if (transacted) {
+                endpoint.afterDelivery();
+            }
+        }
+    }
+
+    /**
+     * Get the key identifying a message for deduplication
+     *
+     * @param activation the activation
+     * @param message    the message
+     * @return the value of the configured property or the JMSMessageID, null when there is none
+     * @throws JMSException for any error
+     */
+    String getDeduplicationKey(JmsActivation activation, Message message) throws JMSException {
+        String property = activation.getActivationSpec().getDeduplicationKey();
+        if (property == null) {
+            return message.getJMSMessageID();
+        }
+        Object value = message.getObjectProperty(property);
+        return value == null ? null : value.toString();
+    }
+
     public Session getSession() throws JMSException {
         return session;
     }
@@ -185,7 +618,45 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
     }
 
     public void run() {
-        session.run();
+        synchronized (this) {
+            thread = Thread.currentThread();
+        }
+        try {
+            session.run();
+        } finally {
+            synchronized (this) {
+                thread = null;
+                if (aborted) {
+                    // do not leave the interrupt to the next work of the thread
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Abort the delivery in progress: mark its transaction for rollback and
+     * interrupt the thread delivering it
+     *
+     * @return whether a transaction was marked for rollback
+     */
+    synchronized boolean abort() {
+        aborted = true;
+        boolean rolledBack = false;
+        Transaction transaction = this.transaction;
+        if (transaction != null) {
+            try {
+                transaction.setRollbackOnly();
+                rolledBack = true;
+            } catch (Throwable t) {
+                log.debug("Error marking the transaction for rollback " + transaction, t);
+            }
+        }
+        if (thread != null) {
+            log.debug("Interrupting the delivery of " + this + " in " + thread);
+            thread.interrupt();
+        }
+        return rolledBack;
     }
 
     public void release() {
@@ -22,6 +22,12 @@
 package org.jboss.resource.adapter.jms.inflow;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
@@ -30,20 +36,31 @@ import javax.jms.Queue;
 import javax.jms.ServerSession;
 import javax.jms.ServerSessionPool;
 import javax.jms.Topic;
+import javax.management.ObjectName;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
 
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.JmsLargeMessage;
+import org.jboss.resource.adapter.jms.JmsManagement;
 
 /**
  * A generic jms session pool.
  *
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  */
-public class JmsServerSessionPool implements ServerSessionPool {
+public class JmsServerSessionPool implements ServerSessionPool, JmsServerSessionPoolMBean {
     /**
      * The logger
      */
     private static final Logger log = Logger.getLogger(JmsServerSessionPool.class);
 
+    /**
+     * How long to wait for the deliveries aborted after the drain timeout
+     */
+    private static final long ABORT_WAIT = 1000;
+
     /**
      * The activation
      */
@@ -59,6 +76,11 @@ public class JmsServerSessionPool implements ServerSessionPool {
      */
     ArrayList serverSessions = new ArrayList();
 
+    /**
+     * The server sessions handed out to the provider
+     */
+    HashSet busySessions = new HashSet();
+
     /**
      * Whether the pool is stopped
      */
@@ -69,6 +91,21 @@ public class JmsServerSessionPool implements ServerSessionPool {
      */
     int sessionCount = 0;
 
+    /**
+     * The largest number of sessions in use at once
+     */
+    int peakActiveCount = 0;
+
+    /**
+     * The number of busy sessions to close when they are returned
+     */
+    int retiring = 0;
+
+    /**
+     * The name of the MBean
+     */
+    ObjectName objectName;
+
 
     /**
      * Create a new session pool
@@ -94,14 +131,33 @@ public class JmsServerSessionPool implements ServerSessionPool {
     public void start() throws Exception {
         setupSessions();
         setupConsumer();
+        objectName = JmsManagement.register(JmsManagement.createObjectName("ServerSessionPool", activation.getActivationSpec().getDestination(), JmsManagement.idOf(activation)), this);
     }
 
     /**
      * Stop the server session pool
      */
     public void stop() {
+        stop(0);
+    }
+
+    /**
+     * Stop the server session pool, letting the deliveries in progress
+     * complete until the drain timeout before aborting them
+     *
+     * @param drainTimeout the time to wait in milliseconds, 0 for the forceClearOnShutdown behaviour
+     */
+    public void stop(long drainTimeout) {
+        JmsManagement.unregister(objectName);
+        objectName = null;
+        // reject new work, the consumer may be waiting for a session while
+        // all are in use or delivery is paused
+        synchronized (serverSessions) {
+            stopped = true;
+            serverSessions.notifyAll();
+        }
         teardownConsumer();
-        teardownSessions();
+        teardownSessions(drainTimeout);
     }
 
     public ServerSession getServerSession() throws JMSException {
@@ -111,6 +167,7 @@ public class JmsServerSessionPool implements ServerSessionPool {
         }
 
         ServerSession result = null;
+        long start = System.nanoTime();
 
         try {
             synchronized (serverSessions) {
@@ -119,8 +176,12 @@ public class JmsServerSessionPool implements ServerSessionPool {
 
                     if (stopped) {
                         throw new Exception("Cannot get a server session after the pool is stopped");
-                    } else if (sessionsSize > 0) {
+                    } else if (sessionsSize > 0 && activation.isDeliveryPaused() == false) {
                         result = (ServerSession) serverSessions.remove(sessionsSize - 1);
+                        busySessions.add(result);
+                        int active = sessionCount - serverSessions.size();
+                        if (active > peakActiveCount)
+                            peakActiveCount = active;
                         break;
                     } else {
                         try {
@@ -134,6 +195,8 @@ public class JmsServerSessionPool implements ServerSessionPool {
             throw new JMSException("Unable to get a server session " + t);
         }
 
+        activation.getMetrics().sessionObtained(start);
+
         if (trace) {
             log.trace("Returning server session " + result);
         }
@@ -141,6 +204,109 @@ public class JmsServerSessionPool implements ServerSessionPool {
         return result;
     }
 
+    /**
+     * Wake up the provider waiting for a server session after the delivery was resumed
+     */
+    void resumed() {
+        synchronized (serverSessions) {
+            serverSessions.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        synchronized (serverSessions) {
+            return sessionCount;
+        }
+    }
+
+    /**
+     * @return the number of idle sessions
+     */
+    public int getIdleSessionCount() {
+        synchronized (serverSessions) {
+            return serverSessions.size();
+        }
+    }
+
+    public boolean isStopped() {
+        synchronized (serverSessions) {
+            return stopped;
+        }
+    }
+
+    public void resize(int size) throws Exception {
+        if (size < 1)
+            throw new IllegalArgumentException("The pool needs at least one session: " + size);
+
+        ArrayList added = new ArrayList();
+        ArrayList removed = new ArrayList();
+        synchronized (serverSessions) {
+            if (stopped)
+                throw new IllegalStateException("The pool is stopped");
+            int delta = size - (sessionCount - retiring);
+            if (delta < 0) {
+                int remove = -delta;
+                while (remove > 0 && serverSessions.isEmpty() == false) {
+                    removed.add(serverSessions.remove(serverSessions.size() - 1));
+                    --sessionCount;
+                    --remove;
+                }
+                retiring += remove;
+            } else if (delta > 0) {
+                int kept = Math.min(retiring, delta);
+                retiring -= kept;
+                for (int i = kept; i < delta; ++i)
+                    added.add(new JmsServerSession(this));
+                // counted as busy until they are setup
+                sessionCount += added.size();
+            }
+        }
+        // idle sessions taken out of the pool, closing them does not need the lock
+        for (int i = 0; i < removed.size(); ++i)
+            ((JmsServerSession) removed.get(i)).teardown();
+        log.debug("Resized " + this + " to " + size + " sessions");
+
+        Exception[] failures = setup(added);
+        Exception failure = null;
+        for (int i = 0; i < added.size(); ++i) {
+            JmsServerSession session = (JmsServerSession) added.get(i);
+            if (failures[i] != null) {
+                log.warn("Unable to setup an additional server session " + this, failures[i]);
+                failure = failures[i];
+                session.teardown();
+                synchronized (serverSessions) {
+                    --sessionCount;
+                    serverSessions.notifyAll();
+                }
+                continue;
+            }
+            returnServerSession(session);
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * @return the number of sessions delivering a message
+     */
+    public int getActiveSessionCount() {
+        synchronized (serverSessions) {
+            return stopped ? sessionCount : sessionCount - serverSessions.size();
+        }
+    }
+
+    /**
+     * @return the largest number of sessions that were delivering at once
+     */
+    public int getPeakActiveSessionCount() {
+        synchronized (serverSessions) {
+            return peakActiveCount;
+        }
+    }
+
     /**
      * Return the server session
      *
@@ -148,9 +314,14 @@ public class JmsServerSessionPool implements ServerSessionPool {
      */
     protected void returnServerSession(JmsServerSession session) {
         synchronized (serverSessions) {
+            busySessions.remove(session);
             if (stopped) {
                 session.teardown();
                 --sessionCount;
+            } else if (retiring > 0) {
+                session.teardown();
+                --sessionCount;
+                --retiring;
             } else {
                 serverSessions.add(session);
             }
@@ -178,16 +349,88 @@ public class JmsServerSessionPool implements ServerSessionPool {
         }
 
         // Start the sessions
-        for (int i = 0; i < clonedSessions.size(); ++i) {
-            JmsServerSession session = (JmsServerSession) clonedSessions.get(i);
-            session.setup();
+        Exception[] failures = setup(clonedSessions);
+        for (int i = 0; i < failures.length; ++i) {
+            if (failures[i] != null) {
+                // nothing uses the sessions yet, close the ones which were setup
+                synchronized (serverSessions) {
+                    for (int j = 0; j < serverSessions.size(); ++j) {
+                        JmsServerSession session = (JmsServerSession) serverSessions.get(j);
+                        session.teardown();
+                    }
+                    serverSessions.clear();
+                    sessionCount = 0;
+                }
+                throw failures[i];
+            }
         }
     }
 
+    /**
+     * Setup server sessions concurrently, as each creates a session with the
+     * provider and an endpoint. The calling thread and up to
+     * sessionSetupConcurrency - 1 work items of the work manager take the
+     * sessions in turn; after a failure the remaining ones are not setup.
+     *
+     * @param sessions the server sessions
+     * @return the failure by session, null for the sessions which were setup
+     * @throws Exception for any error
+     */
+    protected Exception[] setup(final List sessions) throws Exception {
+        final Exception[] failures = new Exception[sessions.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final CountDownLatch done = new CountDownLatch(sessions.size());
+        Work setup = new Work() {
+            public void run() {
+                for (int i = next.getAndIncrement(); i < sessions.size(); i = next.getAndIncrement()) {
+                    try {
+                        if (failure.get() != null) {
+                            failures[i] = failure.get();
+                        } else {
+                            ((JmsServerSession) sessions.get(i)).setup();
+                        }
+                    } catch (Throwable t) {
+                        failures[i] = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+                        failure.compareAndSet(null, failures[i]);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+
+            public void release() {
+            }
+        };
+
+        int helpers = Math.min(activation.getActivationSpec().getSessionSetupConcurrency(), sessions.size()) - 1;
+        WorkManager workManager = activation.getWorkManager();
+        for (int i = 0; i < helpers; ++i) {
+            try {
+                workManager.scheduleWork(setup);
+            } catch (WorkException e) {
+                log.debug("Setting up the sessions with fewer threads " + this, e);
+                break;
+            }
+        }
+        setup.run();
+        done.await();
+        return failures;
+    }
+
     /**
      * Stop the sessions
      */
     protected void teardownSessions() {
+        teardownSessions(0);
+    }
+
+    /**
+     * Stop the sessions
+     *
+     * @param drainTimeout the time to wait for the sessions in use in milliseconds, 0 for the forceClearOnShutdown behaviour
+     */
+    protected void teardownSessions(long drainTimeout) {
         synchronized (serverSessions) {
             // Disallow any new sessions
             stopped = true;
@@ -202,7 +445,9 @@ public class JmsServerSessionPool implements ServerSessionPool {
 
             serverSessions.clear();
 
-            if (activation.getActivationSpec().isForceClearOnShutdown()) {
+            if (drainTimeout > 0) {
+                drainSessions(drainTimeout);
+            } else if (activation.getActivationSpec().isForceClearOnShutdown()) {
                 int attempts = 0;
                 int forceClearAttempts = activation.getActivationSpec().getForceClearAttempts();
                 long forceClearInterval = activation.getActivationSpec().getForceClearOnShutdownInterval();
@@ -233,6 +478,56 @@ public class JmsServerSessionPool implements ServerSessionPool {
         }
     }
 
+    /**
+     * Wait for the sessions in use until the drain timeout, then roll back
+     * the transactions of their deliveries and interrupt them. Sessions still
+     * in use are closed when they are returned.
+     *
+     * @param drainTimeout the time to wait in milliseconds
+     */
+    private void drainSessions(long drainTimeout) {
+        int inFlight = sessionCount;
+        long start = System.currentTimeMillis();
+        long deadline = start + drainTimeout;
+        long now = start;
+        while (sessionCount > 0 && now < deadline) {
+            try {
+                serverSessions.wait(deadline - now);
+            } catch (InterruptedException ignore) {
+            }
+            now = System.currentTimeMillis();
+        }
+        int drained = inFlight - sessionCount;
+
+        int aborted = 0;
+        int rolledBack = 0;
+        if (sessionCount > 0) {
+            for (Iterator i = busySessions.iterator(); i.hasNext(); ) {
+                JmsServerSession session = (JmsServerSession) i.next();
+                ++aborted;
+                if (session.abort()) {
+                    ++rolledBack;
+                }
+            }
+            deadline = System.currentTimeMillis() + ABORT_WAIT;
+            now = System.currentTimeMillis();
+            while (sessionCount > 0 && now < deadline) {
+                try {
+                    serverSessions.wait(deadline - now);
+                } catch (InterruptedException ignore) {
+                }
+                now = System.currentTimeMillis();
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        activation.getMetrics().drained(drained, aborted, rolledBack, sessionCount, elapsed);
+        if (inFlight > 0) {
+            log.info("Drained " + drained + " of " + inFlight + " deliveries in " + elapsed + " ms from " + activation.getActivationSpec().getDestination()
+                    + ", aborted " + aborted + " (" + rolledBack + " rolled back), " + sessionCount + " still in progress");
+        }
+    }
+
     /**
      * Setup the connection consumer
      *
@@ -241,11 +536,24 @@ public class JmsServerSessionPool implements ServerSessionPool {
     protected void setupConsumer() throws Exception {
         Connection connection = activation.getConnection();
         JmsActivationSpec spec = activation.getActivationSpec();
-        String selector = spec.getMessageSelector();
+        // the server sessions evaluate the selector when the provider does not
+        String selector = spec.isSelectorInRA() ? null : spec.getMessageSelector();
+        if (activation.getLargeMessageAssembler() != null) {
+            // the server sessions receive the remaining chunks themselves
+            if (selector == null || selector.trim().length() == 0) {
+                selector = JmsLargeMessage.FIRST_CHUNK_SELECTOR;
+            } else {
+                selector = JmsLargeMessage.FIRST_CHUNK_SELECTOR + " AND (" + selector + ")";
+            }
+        }
         int maxMessages = spec.getMaxMessagesInt();
         if (activation.isTopic()) {
             Topic topic = (Topic) activation.getDestination();
             String subscriptionName = spec.getSubscriptionName();
+            JmsPartitionFilter partitionFilter = activation.getPartitionFilter();
+            if (partitionFilter != null) {
+                subscriptionName = partitionFilter.qualify(subscriptionName);
+            }
             if (spec.isDurable()) {
                 consumer = connection.createDurableConnectionConsumer(topic, subscriptionName, selector, this, maxMessages);
             } else {
@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.LinkedList;
+
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Runs the setup of the activations on a bounded number of work items.
+ * <p/>
+ * Setups are queued and taken in turn by up to the configured number of
+ * workers of the work manager, so starting hundreds of activations neither
+ * occupies every thread of the work manager nor runs one setup after the
+ * other. Setups scheduled while others are pending form a batch, whose
+ * duration is logged and kept as the readiness time once it completed.
+ * When the work manager rejects the last worker, the rejection notification
+ * runs the queued setups itself.
+ */
+public class JmsSetupScheduler {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsSetupScheduler.class);
+
+    /**
+     * The work manager
+     */
+    private final WorkManager workManager;
+
+    /**
+     * The largest number of setups run at once
+     */
+    private final int threads;
+
+    /**
+     * The setups not started yet
+     */
+    private final LinkedList<Work> pending = new LinkedList<Work>();
+
+    /**
+     * The number of workers
+     */
+    private int workers;
+
+    /**
+     * When the current batch started in nanoseconds
+     */
+    private long batchStart;
+
+    /**
+     * The number of setups in the current batch
+     */
+    private int batchSize;
+
+    /**
+     * How long the last batch took in milliseconds, -1 before the first completed
+     */
+    private long readinessTime = -1;
+
+    /**
+     * The number of setups in the last batch
+     */
+    private int readinessCount;
+
+    /**
+     * Create a new setup scheduler
+     *
+     * @param workManager the work manager
+     * @param threads     the largest number of setups run at once
+     */
+    public JmsSetupScheduler(WorkManager workManager, int threads) {
+        this.workManager = workManager;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Schedule a setup
+     *
+     * @param setup the setup
+     * @throws WorkException when no worker can be scheduled
+     */
+    public void schedule(Work setup) throws WorkException {
+        Worker worker;
+        synchronized (this) {
+            if (workers == 0) {
+                batchStart = System.nanoTime();
+                batchSize = 0;
+            }
+            pending.add(setup);
+            ++batchSize;
+            if (workers >= threads) {
+                return;
+            }
+            ++workers;
+            worker = new Worker();
+        }
+
+        // not holding the lock, the work manager may notify the rejection right away
+        try {
+            workManager.scheduleWork(worker, WorkManager.INDEFINITE, null, worker);
+        } catch (WorkException e) {
+            synchronized (this) {
+                if (worker.rejected == false) {
+                    worker.rejected = true;
+                    --workers;
+                }
+                if (workers == 0 && pending.remove(setup)) {
+                    --batchSize;
+                    throw e;
+                }
+            }
+            // the running workers take it
+            log.debug("Unable to schedule another setup worker", e);
+        }
+    }
+
+    /**
+     * Handle the rejection of a worker
+     *
+     * @param worker the worker
+     * @return true when it was the last worker and has to run the queued setups itself
+     */
+    private synchronized boolean rejected(Worker worker) {
+        if (worker.rejected) {
+            return false;
+        }
+        worker.rejected = true;
+        if (workers == 1 && pending.isEmpty() == false) {
+            return true;
+        }
+        if (--workers == 0) {
+            completed();
+        }
+        return false;
+    }
+
+    /**
+     * Record the end of a batch, with the lock held
+     */
+    private void completed() {
+        readinessTime = (System.nanoTime() - batchStart) / 1000000;
+        readinessCount = batchSize;
+        log.info("Set up " + batchSize + " activations in " + readinessTime + " ms");
+    }
+
+    /**
+     * @return how long the last batch of setups took in milliseconds, -1 before the first completed
+     */
+    public synchronized long getReadinessTime() {
+        return readinessTime;
+    }
+
+    /**
+     * @return the number of setups in the last batch
+     */
+    public synchronized int getReadinessCount() {
+        return readinessCount;
+    }
+
+    public String toString() {
+        return "JmsSetupScheduler(threads=" + threads + ")";
+    }
+
+    /**
+     * Takes setups until none is pending
+     */
+    private class Worker implements Work, WorkListener {
+        /**
+         * Whether the work manager rejected the worker, guarded by the scheduler
+         */
+        boolean rejected;
+
+        public void run() {
+            while (true) {
+                Work setup;
+                synchronized (JmsSetupScheduler.this) {
+                    setup = pending.poll();
+                    if (setup == null) {
+                        if (--workers == 0) {
+                            completed();
+                        }
+                        return;
+                    }
+                }
+                try {
+                    setup.run();
+                } catch (Throwable t) {
+                    log.warn("Unexpected error setting up " + setup, t);
+                }
+            }
+        }
+
+        public void release() {
+        }
+
+        public void workAccepted(WorkEvent event) {
+        }
+
+        public void workRejected(WorkEvent event) {
+            log.warn("The work manager rejected a setup worker", event.getException());
+            if (rejected(this)) {
+                run();
+            }
+        }
+
+        public void workStarted(WorkEvent event) {
+        }
+
+        public void workCompleted(WorkEvent event) {
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.StreamMessage;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Activations of the same destination sharing one consumer.
+ * <p/>
+ * The first member consumes the messages for all of them and its server
+ * sessions deliver every message to each member whose selector matches it,
+ * with endpoints of that member. Only activations with non transacted
+ * delivery share a consumer: the message is acknowledged by the consuming
+ * session whatever the outcome of the deliveries, so each member gets it at
+ * most once, and without the redelivery delay or the rate limit of the
+ * member, which would hold up the others. Only activations of a topic share a
+ * consumer. When the consuming member leaves, the next one takes over.
+ */
+public class JmsSharedSubscription {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(JmsSharedSubscription.class);
+
+    /**
+     * The key of the subscription
+     */
+    private final String key;
+
+    /**
+     * The members
+     */
+    private final CopyOnWriteArrayList<Member> members = new CopyOnWriteArrayList<Member>();
+
+    /**
+     * The member consuming the messages
+     */
+    private volatile JmsActivation leader;
+
+    /**
+     * Create a new shared subscription
+     *
+     * @param key the key of the subscription
+     */
+    public JmsSharedSubscription(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the key of the subscription an activation shares, activations with
+     * the same key can share a consumer
+     *
+     * @param activation the activation
+     * @return the key
+     */
+    public static String getKey(JmsActivation activation) {
+        JmsActivationSpec spec = activation.getActivationSpec();
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(spec.getJndiParameters());
+        buffer.append('|').append(spec.getConnectionFactory());
+        buffer.append('|').append(spec.getDestinationType());
+        buffer.append('|').append(spec.getDestination());
+        buffer.append('|').append(spec.isDurable());
+        buffer.append('|').append(spec.getSubscriptionName());
+        buffer.append('|').append(spec.getClientId());
+        buffer.append('|').append(spec.getUser());
+        return buffer.toString();
+    }
+
+    /**
+     * @return the key of the subscription
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @param activation the activation
+     * @return whether the activation consumes the messages
+     */
+    public boolean isLeader(JmsActivation activation) {
+        return leader == activation;
+    }
+
+    /**
+     * @return the member consuming the messages or null when there are none
+     */
+    public JmsActivation getLeader() {
+        return leader;
+    }
+
+    /**
+     * @return the number of members
+     */
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    /**
+     * Add an activation and start it, the first one consumes the messages
+     *
+     * @param activation the activation
+     * @throws ResourceException for any error
+     */
+    public synchronized void join(JmsActivation activation) throws ResourceException {
+        activation.setSharedSubscription(this);
+        Member member = new Member(activation);
+        members.add(member);
+        if (leader == null) {
+            leader = activation;
+        }
+        try {
+            activation.start();
+        } catch (ResourceException e) {
+            members.remove(member);
+            if (leader == activation) {
+                leader = null;
+            }
+            throw e;
+        }
+        log.debug("Joined " + activation + " to shared subscription " + key + " consumed by " + leader);
+    }
+
+    /**
+     * Remove an activation, when it consumed the messages the next member is
+     * chosen to take over. Nothing is waited for here, the activation is
+     * stopped by {@link Departure#complete()}.
+     *
+     * @param activation the activation
+     * @return the departure of the activation
+     */
+    public synchronized Departure leave(JmsActivation activation) {
+        Member member = null;
+        for (Member candidate : members) {
+            if (candidate.activation == activation) {
+                member = candidate;
+                members.remove(candidate);
+                break;
+            }
+        }
+        JmsActivation next = null;
+        if (leader == activation) {
+            leader = members.isEmpty() ? null : members.get(0).activation;
+            next = leader;
+        }
+        return new Departure(activation, member, next, members.isEmpty());
+    }
+
+    /**
+     * Deliver a message to every member whose selector matches it, a failed
+     * delivery does not affect the others
+     *
+     * @param serverSession the server session of the leader
+     * @param message       the message
+     * @throws Exception for any error
+     */
+    void dispatch(JmsServerSession serverSession, Message message) throws Exception {
+        for (Member member : members) {
+            if (member.activation.selects(message) == false) {
+                continue;
+            }
+            MessageEndpoint endpoint = member.acquire();
+            if (endpoint == null) {
+                continue;
+            }
+            try {
+                // every member reads the message from the start
+                if (message instanceof BytesMessage) {
+                    ((BytesMessage) message).reset();
+                } else if (message instanceof StreamMessage) {
+                    ((StreamMessage) message).reset();
+                }
+                serverSession.deliver(member.activation, endpoint, message);
+            } catch (Throwable t) {
+                log.error("Unexpected error delivering message " + message + " to " + member.activation, t);
+            } finally {
+                member.release(endpoint);
+            }
+        }
+    }
+
+    /**
+     * Release or restore the redelivery delays and the rate limits of the members
+     *
+     * @param released whether messages are delivered without delay
+     */
+    void setReleased(boolean released) {
+        for (Member member : members) {
+            member.activation.getRedeliveryTracker().setReleased(released);
+            member.activation.getRateLimiter().setReleased(released);
+        }
+    }
+
+    /**
+     * @return whether any member is paused, the consumer of all of them is then paused
+     */
+    boolean isPaused() {
+        for (Member member : members) {
+            if (member.activation.isPaused()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Let the server sessions of the leader deliver again after a member resumed
+     */
+    void resumed() {
+        JmsActivation leader = this.leader;
+        if (leader != null) {
+            JmsServerSessionPool pool = leader.getSessionPool();
+            if (pool != null) {
+                pool.resumed();
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(JmsActivation.defaultToString(this)).append('(');
+        buffer.append("key=").append(key);
+        buffer.append(" members=").append(members.size());
+        buffer.append(" leader=").append(JmsActivation.defaultToString(leader));
+        buffer.append(')');
+        return buffer.toString();
+    }
+
+    /**
+     * An activation which left the subscription
+     */
+    public class Departure {
+        /**
+         * The activation
+         */
+        private final JmsActivation activation;
+
+        /**
+         * The member of the activation or null when it was not one
+         */
+        private final Member member;
+
+        /**
+         * The member taking over or null when the activation did not consume the messages
+         */
+        private final JmsActivation next;
+
+        /**
+         * Whether there are no members left
+         */
+        private final boolean last;
+
+        Departure(JmsActivation activation, Member member, JmsActivation next, boolean last) {
+            this.activation = activation;
+            this.member = member;
+            this.next = next;
+            this.last = last;
+        }
+
+        /**
+         * @return whether there were no members left when the activation left
+         */
+        public boolean isLast() {
+            return last;
+        }
+
+        /**
+         * Stop the activation once its deliveries completed and let the next
+         * member consume the messages if it did
+         */
+        public void complete() {
+            if (member != null) {
+                member.close();
+            }
+            activation.stop();
+
+            if (next != null) {
+                log.debug("Shared subscription " + key + " is now consumed by " + next);
+                try {
+                    next.lead();
+                } catch (Throwable t) {
+                    next.handleFailure(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A member with the endpoints it is not using
+     */
+    private static class Member {
+        /**
+         * The activation
+         */
+        final JmsActivation activation;
+
+        /**
+         * The endpoints not in use
+         */
+        private final LinkedList<MessageEndpoint> idle = new LinkedList<MessageEndpoint>();
+
+        /**
+         * The number of endpoints in use
+         */
+        private int inUse;
+
+        /**
+         * Whether the member left
+         */
+        private boolean closed;
+
+        Member(JmsActivation activation) {
+            this.activation = activation;
+        }
+
+        /**
+         * Get an endpoint, creating one when none is idle
+         *
+         * @return the endpoint or null when the member left
+         * @throws Exception for any error
+         */
+        MessageEndpoint acquire() throws Exception {
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                ++inUse;
+                if (idle.isEmpty() == false) {
+                    return idle.removeLast();
+                }
+            }
+            try {
+                return activation.getMessageEndpointFactory().createEndpoint(null);
+            } catch (Exception e) {
+                release(null);
+                throw e;
+            }
+        }
+
+        /**
+         * Return an endpoint, it is released when the member left
+         *
+         * @param endpoint the endpoint or null when none was created
+         */
+        void release(MessageEndpoint endpoint) {
+            boolean keep;
+            synchronized (this) {
+                --inUse;
+                keep = endpoint != null && closed == false;
+                if (keep) {
+                    idle.add(endpoint);
+                }
+                notifyAll();
+            }
+            if (endpoint != null && keep == false) {
+                release(activation, endpoint);
+            }
+        }
+
+        /**
+         * Wait for the endpoints in use and release the idle ones
+         */
+        void close() {
+            List<MessageEndpoint> endpoints;
+            synchronized (this) {
+                closed = true;
+                while (inUse > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                endpoints = new ArrayList<MessageEndpoint>(idle);
+                idle.clear();
+            }
+            for (MessageEndpoint endpoint : endpoints) {
+                release(activation, endpoint);
+            }
+        }
+
+        private static void release(JmsActivation activation, MessageEndpoint endpoint) {
+            try {
+                endpoint.release();
+            } catch (Throwable t) {
+                log.debug("Error releasing endpoint " + endpoint + " of " + activation, t);
+            }
+        }
+    }
+}
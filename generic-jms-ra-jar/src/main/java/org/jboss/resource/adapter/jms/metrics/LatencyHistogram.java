@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies in nanoseconds.
+ * <p/>
+ * Values are counted in buckets of eight sub-buckets per power of two, so
+ * a value is known to within 12.5% and the histogram covers the full range
+ * of a long in 488 counters. Recording a value takes a few atomic increments
+ * and never allocates; the percentiles are only computed when read.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // the largest long has exponent 62
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * The name
+     */
+    private String name;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Create a new histogram
+     *
+     * @param name the name
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a value
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && max.compareAndSet(current, nanos) == false)
+            current = max.get();
+    }
+
+    /**
+     * Record the time elapsed since a start time
+     *
+     * @param startNanos the start time from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the recorded values in nanoseconds
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the largest recorded value in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values in nanoseconds
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Get the value at a percentile
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile in nanoseconds, zero when empty
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the number of values per bucket
+     */
+    public long[] getCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i)
+            snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    /**
+     * Get the smallest value counted in a bucket
+     *
+     * @param index the bucket
+     * @return the lower bound in nanoseconds
+     */
+    public static long lowerBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Get the largest value counted in a bucket
+     *
+     * @param index the bucket
+     * @return the upper bound in nanoseconds
+     */
+    public static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Clear the recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(name);
+        buffer.append("(count=").append(getCount());
+        buffer.append(" mean=").append((long) getMean());
+        buffer.append(" p50=").append(getPercentile(50));
+        buffer.append(" p99=").append(getPercentile(99));
+        buffer.append(" max=").append(getMax());
+        buffer.append(" ns)");
+        return buffer.toString();
+    }
+}
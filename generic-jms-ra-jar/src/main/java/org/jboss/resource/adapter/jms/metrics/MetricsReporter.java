@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes metrics of the resource adapter to a monitoring system.
+ * Implementations need a public no-argument constructor and are called
+ * periodically from a single timer thread, so {@link #report} should not block.
+ */
+public interface MetricsReporter {
+    /**
+     * Report the current metrics
+     *
+     * @param source     the name of what the metrics belong to
+     * @param counters   the counters by name
+     * @param histograms the latency histograms, in nanoseconds
+     */
+    void report(String source, Map<String, Long> counters, List<LatencyHistogram> histograms);
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.metrics;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Periodically passes metrics to their {@link MetricsReporter}.
+ */
+public class MetricsReporting {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(MetricsReporting.class);
+
+    /**
+     * The name of the built in reporter which logs the metrics
+     */
+    public static final String LOG = "log";
+
+    /**
+     * The timer, created with the first report
+     */
+    private static Timer timer;
+
+    /**
+     * The scheduled reports by source
+     */
+    private static final ConcurrentMap<String, TimerTask> tasks = new ConcurrentHashMap<String, TimerTask>();
+
+    /**
+     * Create a reporter
+     *
+     * @param name {@link #LOG} or the class name of the reporter
+     * @return the reporter or null when the name is empty
+     * @throws Exception when the reporter cannot be created
+     */
+    public static MetricsReporter createReporter(String name) throws Exception {
+        if (name == null || name.trim().length() == 0)
+            return null;
+        name = name.trim();
+        if (LOG.equals(name))
+            return new LoggingMetricsReporter();
+
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl == null)
+            cl = MetricsReporting.class.getClassLoader();
+        return (MetricsReporter) Class.forName(name, true, cl).newInstance();
+    }
+
+    /**
+     * Report the metrics of a source periodically, replacing any reports
+     * scheduled before for the same source
+     *
+     * @param source   the name of what the metrics belong to
+     * @param metrics  the metrics
+     * @param reporter the reporter
+     * @param interval the interval in milliseconds
+     */
+    public static void schedule(final String source, final ReportableMetrics metrics, final MetricsReporter reporter, long interval) {
+        TimerTask task = new TimerTask() {
+            public void run() {
+                try {
+                    reporter.report(source, metrics.getCounters(), metrics.getHistograms());
+                } catch (Throwable t) {
+                    log.warn("Error reporting metrics of " + source, t);
+                }
+            }
+        };
+        TimerTask previous = tasks.put(source, task);
+        if (previous != null)
+            previous.cancel();
+        getTimer().schedule(task, interval, interval);
+    }
+
+    /**
+     * Stop reporting the metrics of a source
+     *
+     * @param source the name of what the metrics belong to
+     */
+    public static void cancel(String source) {
+        TimerTask task = tasks.remove(source);
+        if (task != null)
+            task.cancel();
+    }
+
+    private static synchronized Timer getTimer() {
+        if (timer == null)
+            timer = new Timer("GenericJmsRA-MetricsReporting", true);
+        return timer;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.selector;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * A compiled JMS message selector.
+ * <p/>
+ * The selector is parsed once into a tree of predicates: headers and
+ * properties are bound to their accessor, LIKE patterns are compiled and IN
+ * lists hashed, so evaluating it only reads the message. A selector is
+ * immutable and can be shared between threads.
+ */
+public final class JmsSelector {
+    private final String selector;
+    private final JmsSelectorExpression expression;
+
+    private JmsSelector(String selector, JmsSelectorExpression expression) {
+        this.selector = selector;
+        this.expression = expression;
+    }
+
+    /**
+     * Compile a selector
+     *
+     * @param selector the selector
+     * @return the compiled selector or null when the selector is empty
+     * @throws InvalidSelectorException when the selector is not valid
+     */
+    public static JmsSelector compile(String selector) throws InvalidSelectorException {
+        if (selector == null || selector.trim().length() == 0)
+            return null;
+        return new JmsSelector(selector, new JmsSelectorParser(selector).parse());
+    }
+
+    /**
+     * Evaluate the selector
+     *
+     * @param message the message
+     * @return whether the selector is true for the message, false when it is false or unknown
+     * @throws JMSException for any error reading the message
+     */
+    public boolean matches(Message message) throws JMSException {
+        return Boolean.TRUE.equals(expression.evaluate(message));
+    }
+
+    /**
+     * @return the selector
+     */
+    public String getSelector() {
+        return selector;
+    }
+
+    public String toString() {
+        return "JmsSelector(" + expression + ")";
+    }
+}
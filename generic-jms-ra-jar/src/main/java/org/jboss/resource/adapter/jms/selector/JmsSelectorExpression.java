@@ -0,0 +1,547 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.selector;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * A node of a compiled selector.
+ * <p/>
+ * Values are Long, Double, String, Boolean or null, the integral and floating
+ * point property types are widened to Long and Double when read. A boolean
+ * null is the unknown value of SQL three-valued logic.
+ */
+abstract class JmsSelectorExpression {
+    /**
+     * Evaluate the expression
+     *
+     * @param message the message
+     * @return the value
+     * @throws JMSException for any error reading the message
+     */
+    abstract Object evaluate(Message message) throws JMSException;
+
+    /**
+     * @return whether the expression is known to produce a boolean
+     */
+    boolean isBoolean() {
+        return false;
+    }
+
+    static Boolean valueOf(boolean value) {
+        return value ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    /**
+     * Compare two values of the same kind
+     *
+     * @return the comparison or null when the values cannot be compared
+     */
+    static Integer compare(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            if (left instanceof Long && right instanceof Long) {
+                long l = ((Long) left).longValue();
+                long r = ((Long) right).longValue();
+                return Integer.valueOf(l < r ? -1 : l == r ? 0 : 1);
+            }
+            return Integer.valueOf(Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue()));
+        }
+        return null;
+    }
+
+    /**
+     * Widen a value read from a message to the types of the selector
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Long || value instanceof Double || value instanceof String || value instanceof Boolean)
+            return value;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return Long.valueOf(((Number) value).longValue());
+        if (value instanceof Float)
+            return Double.valueOf(((Float) value).doubleValue());
+        return null;
+    }
+
+    /**
+     * A literal
+     */
+    static class Literal extends JmsSelectorExpression {
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        Object evaluate(Message message) {
+            return value;
+        }
+
+        boolean isBoolean() {
+            return value instanceof Boolean;
+        }
+
+        public String toString() {
+            return value instanceof String ? "'" + value + "'" : String.valueOf(value);
+        }
+    }
+
+    /**
+     * A message property, its name is resolved once
+     */
+    static class Property extends JmsSelectorExpression {
+        final String name;
+
+        Property(String name) {
+            this.name = name;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            return normalize(message.getObjectProperty(name));
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A message header usable in a selector
+     */
+    static class Header extends JmsSelectorExpression {
+        static final int DELIVERY_MODE = 0;
+        static final int PRIORITY = 1;
+        static final int MESSAGE_ID = 2;
+        static final int TIMESTAMP = 3;
+        static final int CORRELATION_ID = 4;
+        static final int TYPE = 5;
+
+        final String name;
+        final int header;
+
+        Header(String name, int header) {
+            this.name = name;
+            this.header = header;
+        }
+
+        /**
+         * @param name an identifier
+         * @return the header or null when the identifier is a property
+         */
+        static Header forName(String name) {
+            if ("JMSDeliveryMode".equals(name))
+                return new Header(name, DELIVERY_MODE);
+            if ("JMSPriority".equals(name))
+                return new Header(name, PRIORITY);
+            if ("JMSMessageID".equals(name))
+                return new Header(name, MESSAGE_ID);
+            if ("JMSTimestamp".equals(name))
+                return new Header(name, TIMESTAMP);
+            if ("JMSCorrelationID".equals(name))
+                return new Header(name, CORRELATION_ID);
+            if ("JMSType".equals(name))
+                return new Header(name, TYPE);
+            return null;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            switch (header) {
+                case DELIVERY_MODE:
+                    return message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT";
+                case PRIORITY:
+                    return Long.valueOf(message.getJMSPriority());
+                case MESSAGE_ID:
+                    return message.getJMSMessageID();
+                case TIMESTAMP:
+                    return Long.valueOf(message.getJMSTimestamp());
+                case CORRELATION_ID:
+                    return message.getJMSCorrelationID();
+                default:
+                    return message.getJMSType();
+            }
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * AND, OR
+     */
+    static class Logical extends JmsSelectorExpression {
+        final boolean and;
+        final JmsSelectorExpression left;
+        final JmsSelectorExpression right;
+
+        Logical(boolean and, JmsSelectorExpression left, JmsSelectorExpression right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object l = left.evaluate(message);
+            // short circuit on the value deciding the result
+            if (l instanceof Boolean && ((Boolean) l).booleanValue() != and)
+                return l;
+            Object r = right.evaluate(message);
+            if (r instanceof Boolean && ((Boolean) r).booleanValue() != and)
+                return r;
+            if (l instanceof Boolean && r instanceof Boolean)
+                return valueOf(and);
+            return null;
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return "(" + left + (and ? " AND " : " OR ") + right + ")";
+        }
+    }
+
+    /**
+     * NOT
+     */
+    static class Not extends JmsSelectorExpression {
+        final JmsSelectorExpression operand;
+
+        Not(JmsSelectorExpression operand) {
+            this.operand = operand;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object value = operand.evaluate(message);
+            return value instanceof Boolean ? valueOf(((Boolean) value).booleanValue() == false) : null;
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    /**
+     * =, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=
+     */
+    static class Comparison extends JmsSelectorExpression {
+        static final int EQ = 0;
+        static final int NE = 1;
+        static final int LT = 2;
+        static final int LE = 3;
+        static final int GT = 4;
+        static final int GE = 5;
+        private static final String[] OPERATORS = {"=", "<>", "<", "<=", ">", ">="};
+
+        final int operator;
+        final JmsSelectorExpression left;
+        final JmsSelectorExpression right;
+
+        Comparison(int operator, JmsSelectorExpression left, JmsSelectorExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object l = left.evaluate(message);
+            if (l == null)
+                return null;
+            Object r = right.evaluate(message);
+            if (r == null)
+                return null;
+            Integer comparison = compare(l, r);
+            if (comparison == null) {
+                // strings and booleans only support equality, other types never match
+                if (operator == EQ)
+                    return valueOf(l.getClass() == r.getClass() && l.equals(r));
+                if (operator == NE)
+                    return valueOf(l.getClass() == r.getClass() && l.equals(r) == false);
+                return Boolean.FALSE;
+            }
+            int c = comparison.intValue();
+            switch (operator) {
+                case EQ:
+                    return valueOf(c == 0);
+                case NE:
+                    return valueOf(c != 0);
+                case LT:
+                    return valueOf(c < 0);
+                case LE:
+                    return valueOf(c <= 0);
+                case GT:
+                    return valueOf(c > 0);
+                default:
+                    return valueOf(c >= 0);
+            }
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return left + " " + OPERATORS[operator] + " " + right;
+        }
+    }
+
+    /**
+     * +, -, *, /
+     */
+    static class Arithmetic extends JmsSelectorExpression {
+        final char operator;
+        final JmsSelectorExpression left;
+        final JmsSelectorExpression right;
+
+        Arithmetic(char operator, JmsSelectorExpression left, JmsSelectorExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object l = left.evaluate(message);
+            if (l instanceof Number == false)
+                return null;
+            Object r = right.evaluate(message);
+            if (r instanceof Number == false)
+                return null;
+            if (l instanceof Long && r instanceof Long) {
+                long a = ((Long) l).longValue();
+                long b = ((Long) r).longValue();
+                switch (operator) {
+                    case '+':
+                        return Long.valueOf(a + b);
+                    case '-':
+                        return Long.valueOf(a - b);
+                    case '*':
+                        return Long.valueOf(a * b);
+                    default:
+                        return b == 0 ? null : Long.valueOf(a / b);
+                }
+            }
+            double a = ((Number) l).doubleValue();
+            double b = ((Number) r).doubleValue();
+            switch (operator) {
+                case '+':
+                    return Double.valueOf(a + b);
+                case '-':
+                    return Double.valueOf(a - b);
+                case '*':
+                    return Double.valueOf(a * b);
+                default:
+                    return Double.valueOf(a / b);
+            }
+        }
+
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * Unary minus
+     */
+    static class Negate extends JmsSelectorExpression {
+        final JmsSelectorExpression operand;
+
+        Negate(JmsSelectorExpression operand) {
+            this.operand = operand;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object value = operand.evaluate(message);
+            if (value instanceof Long)
+                return Long.valueOf(-((Long) value).longValue());
+            if (value instanceof Double)
+                return Double.valueOf(-((Double) value).doubleValue());
+            return null;
+        }
+
+        public String toString() {
+            return "-" + operand;
+        }
+    }
+
+    /**
+     * [NOT] BETWEEN
+     */
+    static class Between extends JmsSelectorExpression {
+        final JmsSelectorExpression value;
+        final JmsSelectorExpression low;
+        final JmsSelectorExpression high;
+        final boolean not;
+
+        Between(JmsSelectorExpression value, JmsSelectorExpression low, JmsSelectorExpression high, boolean not) {
+            this.value = value;
+            this.low = low;
+            this.high = high;
+            this.not = not;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object v = value.evaluate(message);
+            if (v == null)
+                return null;
+            Object l = low.evaluate(message);
+            Object h = high.evaluate(message);
+            if (l == null || h == null)
+                return null;
+            Integer c1 = compare(v, l);
+            Integer c2 = compare(v, h);
+            if (c1 == null || c2 == null)
+                return Boolean.FALSE;
+            boolean between = c1.intValue() >= 0 && c2.intValue() <= 0;
+            return valueOf(between != not);
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return value + (not ? " NOT" : "") + " BETWEEN " + low + " AND " + high;
+        }
+    }
+
+    /**
+     * [NOT] IN, the values are hashed once
+     */
+    static class In extends JmsSelectorExpression {
+        final JmsSelectorExpression value;
+        final Set<String> values;
+        final boolean not;
+
+        In(JmsSelectorExpression value, Set<String> values, boolean not) {
+            this.value = value;
+            this.values = values;
+            this.not = not;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object v = value.evaluate(message);
+            if (v == null)
+                return null;
+            if (v instanceof String == false)
+                return Boolean.FALSE;
+            return valueOf(values.contains(v) != not);
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return value + (not ? " NOT" : "") + " IN " + values;
+        }
+    }
+
+    /**
+     * [NOT] LIKE, the pattern is compiled once
+     */
+    static class Like extends JmsSelectorExpression {
+        final JmsSelectorExpression value;
+        final String pattern;
+        final Pattern regex;
+        final boolean not;
+
+        Like(JmsSelectorExpression value, String pattern, Character escape, boolean not) {
+            this.value = value;
+            this.pattern = pattern;
+            this.regex = toRegex(pattern, escape);
+            this.not = not;
+        }
+
+        static Pattern toRegex(String pattern, Character escape) {
+            StringBuffer buffer = new StringBuffer(pattern.length() * 2);
+            StringBuffer literal = new StringBuffer();
+            for (int i = 0; i < pattern.length(); ++i) {
+                char c = pattern.charAt(i);
+                if (escape != null && c == escape.charValue() && i + 1 < pattern.length()) {
+                    literal.append(pattern.charAt(++i));
+                } else if (c == '%' || c == '_') {
+                    if (literal.length() > 0) {
+                        buffer.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    buffer.append(c == '%' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0)
+                buffer.append(Pattern.quote(literal.toString()));
+            return Pattern.compile(buffer.toString(), Pattern.DOTALL);
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object v = value.evaluate(message);
+            if (v == null)
+                return null;
+            if (v instanceof String == false)
+                return Boolean.FALSE;
+            return valueOf(regex.matcher((String) v).matches() != not);
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return value + (not ? " NOT" : "") + " LIKE '" + pattern + "'";
+        }
+    }
+
+    /**
+     * IS [NOT] NULL
+     */
+    static class IsNull extends JmsSelectorExpression {
+        final JmsSelectorExpression value;
+        final boolean not;
+
+        IsNull(JmsSelectorExpression value, boolean not) {
+            this.value = value;
+            this.not = not;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            return valueOf((value.evaluate(message) == null) != not);
+        }
+
+        boolean isBoolean() {
+            return true;
+        }
+
+        public String toString() {
+            return value + (not ? " IS NOT NULL" : " IS NULL");
+        }
+    }
+}
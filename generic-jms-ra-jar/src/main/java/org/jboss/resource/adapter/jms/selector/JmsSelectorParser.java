@@ -0,0 +1,397 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.selector;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.InvalidSelectorException;
+
+/**
+ * A recursive descent parser of the JMS 1.1 message selector syntax, a
+ * subset of SQL-92 conditional expressions:
+ * <pre>
+ * or         := and (OR and)*
+ * and        := not (AND not)*
+ * not        := NOT not | predicate
+ * predicate  := sum [comparison | [NOT] BETWEEN sum AND sum | [NOT] IN (string, ...)
+ *               | [NOT] LIKE string [ESCAPE string] | IS [NOT] NULL]
+ * sum        := product ((+|-) product)*
+ * product    := unary ((*|/) unary)*
+ * unary      := (+|-) unary | ( or ) | literal | identifier
+ * </pre>
+ */
+class JmsSelectorParser {
+    private static final int END = 0;
+    private static final int IDENTIFIER = 1;
+    private static final int STRING = 2;
+    private static final int EXACT = 3;
+    private static final int APPROXIMATE = 4;
+    private static final int OPERATOR = 5;
+
+    private final String selector;
+    private int position;
+
+    /**
+     * The current token
+     */
+    private int type;
+    private String text;
+
+    JmsSelectorParser(String selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Parse the selector
+     *
+     * @return the expression
+     * @throws InvalidSelectorException when the selector is not valid
+     */
+    JmsSelectorExpression parse() throws InvalidSelectorException {
+        next();
+        JmsSelectorExpression result = parseOr();
+        if (type != END)
+            throw error("Unexpected " + text);
+        if (result.isBoolean() == false && (result instanceof JmsSelectorExpression.Literal || result instanceof JmsSelectorExpression.Arithmetic
+                || result instanceof JmsSelectorExpression.Negate))
+            throw error("Not a conditional expression");
+        return result;
+    }
+
+    private JmsSelectorExpression parseOr() throws InvalidSelectorException {
+        JmsSelectorExpression result = parseAnd();
+        while (isKeyword("OR")) {
+            next();
+            result = new JmsSelectorExpression.Logical(false, result, parseAnd());
+        }
+        return result;
+    }
+
+    private JmsSelectorExpression parseAnd() throws InvalidSelectorException {
+        JmsSelectorExpression result = parseNot();
+        while (isKeyword("AND")) {
+            next();
+            result = new JmsSelectorExpression.Logical(true, result, parseNot());
+        }
+        return result;
+    }
+
+    private JmsSelectorExpression parseNot() throws InvalidSelectorException {
+        if (isKeyword("NOT")) {
+            next();
+            return new JmsSelectorExpression.Not(parseNot());
+        }
+        return parsePredicate();
+    }
+
+    private JmsSelectorExpression parsePredicate() throws InvalidSelectorException {
+        JmsSelectorExpression left = parseSum();
+        if (type == OPERATOR) {
+            int operator = comparisonOperator(text);
+            if (operator >= 0) {
+                next();
+                return new JmsSelectorExpression.Comparison(operator, left, parseSum());
+            }
+            return left;
+        }
+        if (isKeyword("IS")) {
+            next();
+            boolean not = false;
+            if (isKeyword("NOT")) {
+                next();
+                not = true;
+            }
+            expectKeyword("NULL");
+            return new JmsSelectorExpression.IsNull(left, not);
+        }
+        boolean not = false;
+        if (isKeyword("NOT")) {
+            next();
+            not = true;
+        }
+        if (isKeyword("BETWEEN")) {
+            next();
+            JmsSelectorExpression low = parseSum();
+            expectKeyword("AND");
+            return new JmsSelectorExpression.Between(left, low, parseSum(), not);
+        }
+        if (isKeyword("IN")) {
+            next();
+            expectOperator("(");
+            Set<String> values = new HashSet<String>();
+            values.add(expectString());
+            while (isOperator(",")) {
+                next();
+                values.add(expectString());
+            }
+            expectOperator(")");
+            return new JmsSelectorExpression.In(left, values, not);
+        }
+        if (isKeyword("LIKE")) {
+            next();
+            String pattern = expectString();
+            Character escape = null;
+            if (isKeyword("ESCAPE")) {
+                next();
+                String value = expectString();
+                if (value.length() != 1)
+                    throw error("The escape must be a single character: " + value);
+                escape = Character.valueOf(value.charAt(0));
+            }
+            return new JmsSelectorExpression.Like(left, pattern, escape, not);
+        }
+        if (not)
+            throw error("Expected BETWEEN, IN or LIKE after NOT");
+        return left;
+    }
+
+    private JmsSelectorExpression parseSum() throws InvalidSelectorException {
+        JmsSelectorExpression result = parseProduct();
+        while (isOperator("+") || isOperator("-")) {
+            char operator = text.charAt(0);
+            next();
+            result = new JmsSelectorExpression.Arithmetic(operator, result, parseProduct());
+        }
+        return result;
+    }
+
+    private JmsSelectorExpression parseProduct() throws InvalidSelectorException {
+        JmsSelectorExpression result = parseUnary();
+        while (isOperator("*") || isOperator("/")) {
+            char operator = text.charAt(0);
+            next();
+            result = new JmsSelectorExpression.Arithmetic(operator, result, parseUnary());
+        }
+        return result;
+    }
+
+    private JmsSelectorExpression parseUnary() throws InvalidSelectorException {
+        if (isOperator("+")) {
+            next();
+            return parseUnary();
+        }
+        if (isOperator("-")) {
+            next();
+            // the smallest long can only be written negated
+            if (type == EXACT && "9223372036854775808".equals(text)) {
+                next();
+                return new JmsSelectorExpression.Literal(Long.valueOf(Long.MIN_VALUE));
+            }
+            JmsSelectorExpression operand = parseUnary();
+            // fold negative literals
+            if (operand instanceof JmsSelectorExpression.Literal) {
+                Object value = ((JmsSelectorExpression.Literal) operand).value;
+                if (value instanceof Long) {
+                    long l = ((Long) value).longValue();
+                    if (l == Long.MIN_VALUE)
+                        throw error("Invalid number -(" + l + ")");
+                    return new JmsSelectorExpression.Literal(Long.valueOf(-l));
+                }
+                if (value instanceof Double)
+                    return new JmsSelectorExpression.Literal(Double.valueOf(-((Double) value).doubleValue()));
+            }
+            return new JmsSelectorExpression.Negate(operand);
+        }
+        if (isOperator("(")) {
+            next();
+            JmsSelectorExpression result = parseOr();
+            expectOperator(")");
+            return result;
+        }
+        JmsSelectorExpression result;
+        switch (type) {
+            case STRING:
+                result = new JmsSelectorExpression.Literal(text);
+                break;
+            case EXACT:
+                result = new JmsSelectorExpression.Literal(parseExact(text));
+                break;
+            case APPROXIMATE:
+                try {
+                    result = new JmsSelectorExpression.Literal(Double.valueOf(text));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number " + text);
+                }
+                break;
+            case IDENTIFIER:
+                if (isKeyword("TRUE")) {
+                    result = new JmsSelectorExpression.Literal(Boolean.TRUE);
+                } else if (isKeyword("FALSE")) {
+                    result = new JmsSelectorExpression.Literal(Boolean.FALSE);
+                } else if (isReserved(text)) {
+                    throw error("Unexpected " + text);
+                } else {
+                    JmsSelectorExpression header = JmsSelectorExpression.Header.forName(text);
+                    result = header != null ? header : new JmsSelectorExpression.Property(text);
+                }
+                break;
+            default:
+                throw error(type == END ? "Unexpected end" : "Unexpected " + text);
+        }
+        next();
+        return result;
+    }
+
+    private Long parseExact(String value) throws InvalidSelectorException {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + value);
+        }
+    }
+
+    private static int comparisonOperator(String operator) {
+        if ("=".equals(operator))
+            return JmsSelectorExpression.Comparison.EQ;
+        if ("<>".equals(operator))
+            return JmsSelectorExpression.Comparison.NE;
+        if ("<".equals(operator))
+            return JmsSelectorExpression.Comparison.LT;
+        if ("<=".equals(operator))
+            return JmsSelectorExpression.Comparison.LE;
+        if (">".equals(operator))
+            return JmsSelectorExpression.Comparison.GT;
+        if (">=".equals(operator))
+            return JmsSelectorExpression.Comparison.GE;
+        return -1;
+    }
+
+    private static boolean isReserved(String identifier) {
+        String upper = identifier.toUpperCase();
+        return "NOT".equals(upper) || "AND".equals(upper) || "OR".equals(upper) || "BETWEEN".equals(upper) || "LIKE".equals(upper)
+                || "IN".equals(upper) || "IS".equals(upper) || "NULL".equals(upper) || "ESCAPE".equals(upper);
+    }
+
+    private boolean isKeyword(String keyword) {
+        return type == IDENTIFIER && keyword.equalsIgnoreCase(text);
+    }
+
+    private boolean isOperator(String operator) {
+        return type == OPERATOR && operator.equals(text);
+    }
+
+    private void expectKeyword(String keyword) throws InvalidSelectorException {
+        if (isKeyword(keyword) == false)
+            throw error("Expected " + keyword);
+        next();
+    }
+
+    private void expectOperator(String operator) throws InvalidSelectorException {
+        if (isOperator(operator) == false)
+            throw error("Expected " + operator);
+        next();
+    }
+
+    private String expectString() throws InvalidSelectorException {
+        if (type != STRING)
+            throw error("Expected a string literal");
+        String result = text;
+        next();
+        return result;
+    }
+
+    /**
+     * Read the next token
+     */
+    private void next() throws InvalidSelectorException {
+        int length = selector.length();
+        while (position < length && Character.isWhitespace(selector.charAt(position)))
+            ++position;
+        if (position == length) {
+            type = END;
+            text = "";
+            return;
+        }
+        int start = position;
+        char c = selector.charAt(position);
+        if (Character.isJavaIdentifierStart(c)) {
+            while (position < length && Character.isJavaIdentifierPart(selector.charAt(position)))
+                ++position;
+            type = IDENTIFIER;
+            text = selector.substring(start, position);
+        } else if (c == '\'') {
+            StringBuffer buffer = new StringBuffer();
+            ++position;
+            while (true) {
+                if (position == length)
+                    throw error("Unterminated string");
+                char s = selector.charAt(position++);
+                if (s == '\'') {
+                    if (position < length && selector.charAt(position) == '\'') {
+                        buffer.append('\'');
+                        ++position;
+                    } else {
+                        break;
+                    }
+                } else {
+                    buffer.append(s);
+                }
+            }
+            type = STRING;
+            text = buffer.toString();
+        } else if (Character.isDigit(c) || (c == '.' && position + 1 < length && Character.isDigit(selector.charAt(position + 1)))) {
+            boolean approximate = false;
+            while (position < length && Character.isDigit(selector.charAt(position)))
+                ++position;
+            if (position < length && selector.charAt(position) == '.') {
+                approximate = true;
+                ++position;
+                while (position < length && Character.isDigit(selector.charAt(position)))
+                    ++position;
+            }
+            if (position < length && (selector.charAt(position) == 'e' || selector.charAt(position) == 'E')) {
+                approximate = true;
+                ++position;
+                if (position < length && (selector.charAt(position) == '+' || selector.charAt(position) == '-'))
+                    ++position;
+                while (position < length && Character.isDigit(selector.charAt(position)))
+                    ++position;
+            }
+            type = approximate ? APPROXIMATE : EXACT;
+            text = selector.substring(start, position);
+            if (position < length) {
+                char suffix = Character.toUpperCase(selector.charAt(position));
+                if (suffix == 'L' && approximate == false) {
+                    ++position;
+                } else if (suffix == 'F' || suffix == 'D') {
+                    ++position;
+                    type = APPROXIMATE;
+                }
+            }
+        } else {
+            ++position;
+            if ((c == '<' || c == '>') && position < length && selector.charAt(position) == '=')
+                ++position;
+            else if (c == '<' && position < length && selector.charAt(position) == '>')
+                ++position;
+            else if ("=()+-*/,".indexOf(c) < 0 && c != '<' && c != '>')
+                throw error("Unexpected character " + c);
+            type = OPERATOR;
+            text = selector.substring(start, position);
+        }
+    }
+
+    private InvalidSelectorException error(String reason) {
+        return new InvalidSelectorException(reason + " at position " + position + " of selector: " + selector);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the state transitions of the circuit breaker
+ */
+public class JmsCircuitBreakerTestCase {
+    private static final long COOL_DOWN = 50;
+    private static final long LONG_COOL_DOWN = 60000;
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        JmsCircuitBreaker breaker = new JmsCircuitBreaker("test", 3, LONG_COOL_DOWN);
+        breaker.failure(new JMSException("down"));
+        breaker.failure(new JMSException("down"));
+        breaker.success();
+        breaker.failure(new JMSException("down"));
+        breaker.failure(new JMSException("down"));
+        assertEquals(JmsCircuitBreaker.CLOSED, breaker.getState());
+
+        breaker.failure(new JMSException("down"));
+        assertEquals(JmsCircuitBreaker.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTripCount());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testProbeClosesTheBreaker() throws Exception {
+        JmsCircuitBreaker breaker = trip();
+        Thread.sleep(COOL_DOWN * 2);
+        assertTrue(breaker.allowRequest());
+        assertEquals(JmsCircuitBreaker.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertFalse(breaker.allowRequest());
+
+        breaker.success();
+        assertEquals(JmsCircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedProbeOpensTheBreakerAgain() throws Exception {
+        JmsCircuitBreaker breaker = trip();
+        Thread.sleep(COOL_DOWN * 2);
+        assertTrue(breaker.allowRequest());
+        breaker.failure(new JMSException("still down"));
+        assertEquals(JmsCircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testStaleSuccessDoesNotClose() throws Exception {
+        JmsCircuitBreaker breaker = trip();
+        // a request let through before the breaker opened
+        breaker.success();
+        assertEquals(JmsCircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testCancelledProbeLetsAnotherThrough() throws Exception {
+        JmsCircuitBreaker breaker = trip();
+        Thread.sleep(COOL_DOWN * 2);
+        assertTrue(breaker.allowRequest());
+        breaker.cancel();
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testApplicationErrorsAreNotFailures() throws Exception {
+        JmsCircuitBreaker breaker = new JmsCircuitBreaker("test", 1, COOL_DOWN);
+        breaker.failure(new javax.jms.IllegalStateException("session closed"));
+        breaker.failure(new InvalidDestinationException("no such queue"));
+        breaker.failure(new UnsupportedOperationException("no destination"));
+        assertEquals(JmsCircuitBreaker.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+
+        breaker.failure(new JMSException("down"));
+        assertEquals(JmsCircuitBreaker.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testProviderRuntimeErrorsAreFailures() throws Exception {
+        Throwable[] errors = { new NullPointerException(), new ClassCastException(), new IllegalStateException("closed"), new IllegalArgumentException() };
+        for (int i = 0; i < errors.length; ++i) {
+            JmsCircuitBreaker breaker = new JmsCircuitBreaker("test", 1, LONG_COOL_DOWN);
+            breaker.failure(errors[i]);
+            assertEquals(errors[i].toString(), JmsCircuitBreaker.OPEN, breaker.getState());
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        JmsCircuitBreaker breaker = trip();
+        breaker.setFailureThreshold(0);
+        assertEquals(JmsCircuitBreaker.CLOSED, breaker.getState());
+        for (int i = 0; i < 10; ++i)
+            breaker.failure(new JMSException("down"));
+        assertTrue(breaker.allowRequest());
+    }
+
+    private static JmsCircuitBreaker trip() {
+        JmsCircuitBreaker breaker = new JmsCircuitBreaker("test", 1, COOL_DOWN);
+        breaker.failure(new JMSException("down"));
+        assertEquals(JmsCircuitBreaker.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the deduplication cache
+ */
+public class JmsDeduplicationCacheTestCase {
+    @Test
+    public void testContains() throws Exception {
+        JmsDeduplicationCache cache = new JmsDeduplicationCache(60000, 100);
+        assertFalse(cache.contains("a"));
+        cache.add("a");
+        cache.add("a");
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        JmsDeduplicationCache cache = new JmsDeduplicationCache(60000, 4);
+        for (int i = 0; i < 8; ++i)
+            cache.add("key" + i);
+        // the previous generation is still remembered
+        for (int i = 0; i < 8; ++i)
+            assertTrue("key" + i, cache.contains("key" + i));
+
+        cache.add("key8");
+        assertFalse(cache.contains("key0"));
+        assertTrue(cache.contains("key4"));
+        assertTrue(cache.contains("key8"));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        JmsDeduplicationCache cache = new JmsDeduplicationCache(50, 100);
+        cache.add("a");
+        Thread.sleep(60);
+        // remembered for at least the window
+        assertTrue(cache.contains("a"));
+        Thread.sleep(120);
+        assertFalse(cache.contains("a"));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        JmsDeduplicationCache cache = new JmsDeduplicationCache(60000, 100);
+        cache.add("a");
+        cache.clear();
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        int capacity = 100000;
+        JmsDeduplicationCache cache = new JmsDeduplicationCache(60000, capacity);
+        for (int i = 0; i < capacity; ++i)
+            cache.add("ID:message-" + i);
+        for (int i = 0; i < capacity; ++i)
+            assertTrue(cache.contains("ID:message-" + i));
+        int falsePositives = 0;
+        for (int i = capacity; i < capacity * 2; ++i) {
+            if (cache.contains("ID:message-" + i))
+                ++falsePositives;
+        }
+        assertEquals(0, falsePositives);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the rate limiter
+ */
+public class JmsRateLimiterTestCase {
+    @Test
+    public void testDisabled() throws Exception {
+        JmsRateLimiter limiter = new JmsRateLimiter(0, 0);
+        for (int i = 0; i < 10000; ++i)
+            assertFalse(limiter.acquire());
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        JmsRateLimiter limiter = new JmsRateLimiter(1, 5);
+        for (int i = 0; i < 5; ++i)
+            assertFalse(limiter.acquire());
+    }
+
+    @Test
+    public void testDefaultBurst() throws Exception {
+        assertEquals(20, new JmsRateLimiter(20, 0).getBurst());
+        assertEquals(1, new JmsRateLimiter(0.5, 0).getBurst());
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        JmsRateLimiter limiter = new JmsRateLimiter(100, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 21; ++i)
+            limiter.acquire();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // the first token is in the bucket, the others come every 10 ms
+        assertTrue(String.valueOf(elapsed), elapsed >= 190);
+        assertTrue(String.valueOf(elapsed), elapsed < 1000);
+    }
+
+    @Test
+    public void testSetRate() throws Exception {
+        final JmsRateLimiter limiter = new JmsRateLimiter(0.01, 1);
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    assertTrue(limiter.acquire());
+                    acquired.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.setRate(1000, 1);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void testReleased() throws Exception {
+        final JmsRateLimiter limiter = new JmsRateLimiter(0.01, 1);
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.setReleased(true);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+        assertFalse(limiter.acquire());
+    }
+}
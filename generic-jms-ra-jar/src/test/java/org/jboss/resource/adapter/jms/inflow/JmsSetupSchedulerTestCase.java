@@ -0,0 +1,286 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the bounded setup of activations
+ */
+public class JmsSetupSchedulerTestCase {
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        Manager manager = new Manager(Manager.ACCEPT);
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(manager, 3);
+        Setups setups = new Setups(20, 20);
+        setups.schedule(scheduler);
+        setups.await();
+        assertTrue("peak " + setups.peak.get(), setups.peak.get() <= 3);
+        assertTrue("peak " + setups.peak.get(), setups.peak.get() > 1);
+        assertTrue("workers " + manager.scheduled.get(), manager.scheduled.get() <= 20);
+    }
+
+    @Test
+    public void testReadiness() throws Exception {
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(new Manager(Manager.ACCEPT), 1);
+        assertEquals(-1, scheduler.getReadinessTime());
+        assertEquals(0, scheduler.getReadinessCount());
+
+        Setups setups = new Setups(5, 20);
+        setups.schedule(scheduler);
+        setups.await();
+        awaitReadiness(scheduler, 5);
+        assertEquals(1, setups.peak.get());
+        assertTrue("readiness " + scheduler.getReadinessTime(), scheduler.getReadinessTime() >= 90);
+
+        // the next batch replaces the readiness of the previous one
+        setups = new Setups(2, 0);
+        setups.schedule(scheduler);
+        setups.await();
+        awaitReadiness(scheduler, 2);
+    }
+
+    @Test
+    public void testRejectedWithoutWorkers() throws Exception {
+        Manager manager = new Manager(Manager.REJECT);
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(manager, 2);
+        Setups rejected = new Setups(1, 0);
+        try {
+            rejected.schedule(scheduler);
+            fail("Expected the setup to be rejected");
+        } catch (WorkRejectedException expected) {
+        }
+
+        // the rejected setup is not left pending
+        manager.mode = Manager.ACCEPT;
+        Setups setups = new Setups(1, 0);
+        setups.schedule(scheduler);
+        setups.await();
+        awaitReadiness(scheduler, 1);
+        assertEquals(0, rejected.run.get());
+    }
+
+    @Test
+    public void testRejectionNotifiedBeforeThrowing() throws Exception {
+        Manager manager = new Manager(Manager.NOTIFY_AND_REJECT);
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(manager, 2);
+        Setups setups = new Setups(3, 0);
+        // the notification of the last worker runs the setup itself, before schedule returns
+        setups.schedule(scheduler);
+        assertEquals(3, setups.run.get());
+        // so every setup is a batch of its own
+        awaitReadiness(scheduler, 1);
+    }
+
+    @Test
+    public void testLastWorkerRejectedLater() throws Exception {
+        Manager manager = new Manager(Manager.NOTIFY_LATER);
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(manager, 2);
+        Setups setups = new Setups(5, 10);
+        setups.schedule(scheduler);
+        // no worker ever runs, the rejection notification takes the setups
+        setups.await();
+        awaitReadiness(scheduler, 5);
+        assertEquals(2, manager.scheduled.get());
+    }
+
+    @Test
+    public void testRejectedWhileAnotherWorkerRuns() throws Exception {
+        Manager manager = new Manager(Manager.ACCEPT);
+        JmsSetupScheduler scheduler = new JmsSetupScheduler(manager, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger run = new AtomicInteger();
+        scheduler.schedule(new Setup() {
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                run.incrementAndGet();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        manager.mode = Manager.REJECT;
+        scheduler.schedule(new Setup() {
+            public void run() {
+                run.incrementAndGet();
+            }
+        });
+        blocked.countDown();
+        awaitReadiness(scheduler, 2);
+        assertEquals(2, run.get());
+    }
+
+    private static void awaitReadiness(JmsSetupScheduler scheduler, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (scheduler.getReadinessCount() != count || scheduler.getReadinessTime() < 0) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Readiness " + scheduler.getReadinessCount() + " setups in " + scheduler.getReadinessTime() + " ms");
+            Thread.sleep(5);
+        }
+    }
+
+    private abstract static class Setup implements Work {
+        public void release() {
+        }
+    }
+
+    /**
+     * Setups taking some time and recording how many run at once
+     */
+    private static class Setups {
+        final int count;
+        final long sleep;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger run = new AtomicInteger();
+        final CountDownLatch done;
+
+        Setups(int count, long sleep) {
+            this.count = count;
+            this.sleep = sleep;
+            this.done = new CountDownLatch(count);
+        }
+
+        void schedule(JmsSetupScheduler scheduler) throws WorkException {
+            for (int i = 0; i < count; ++i) {
+                scheduler.schedule(new Setup() {
+                    public void run() {
+                        int current = running.incrementAndGet();
+                        int previous;
+                        while (current > (previous = peak.get()) && peak.compareAndSet(previous, current) == false) {
+                        }
+                        try {
+                            Thread.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        run.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("run " + run.get() + " of " + count, done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * A work manager accepting or rejecting work in the ways a container may
+     */
+    private static class Manager implements WorkManager {
+        /**
+         * The work runs on a thread of its own
+         */
+        static final int ACCEPT = 0;
+
+        /**
+         * scheduleWork throws
+         */
+        static final int REJECT = 1;
+
+        /**
+         * The listener is notified of the rejection, then scheduleWork throws
+         */
+        static final int NOTIFY_AND_REJECT = 2;
+
+        /**
+         * scheduleWork returns, the rejection is notified later from another thread
+         */
+        static final int NOTIFY_LATER = 3;
+
+        volatile int mode;
+        final AtomicInteger scheduled = new AtomicInteger();
+
+        Manager(int mode) {
+            this.mode = mode;
+        }
+
+        public void scheduleWork(final Work work, long startTimeout, ExecutionContext execContext, final WorkListener workListener) throws WorkException {
+            scheduled.incrementAndGet();
+            final WorkRejectedException rejected = new WorkRejectedException("rejected");
+            switch (mode) {
+                case ACCEPT:
+                    new Thread(work).start();
+                    return;
+                case REJECT:
+                    throw rejected;
+                case NOTIFY_AND_REJECT:
+                    workListener.workRejected(new WorkEvent(this, WorkEvent.WORK_REJECTED, work, rejected));
+                    throw rejected;
+                default:
+                    new Thread() {
+                        public void run() {
+                            try {
+                                Thread.sleep(20);
+                            } catch (InterruptedException ignored) {
+                            }
+                            workListener.workRejected(new WorkEvent(Manager.this, WorkEvent.WORK_REJECTED, work, rejected));
+                        }
+                    }.start();
+            }
+        }
+
+        public void scheduleWork(Work work) throws WorkException {
+            scheduleWork(work, INDEFINITE, null, null);
+        }
+
+        public void doWork(Work work) throws WorkException {
+            throw new WorkException("Not supported");
+        }
+
+        public void doWork(Work work, long startTimeout, ExecutionContext execContext, WorkListener workListener) throws WorkException {
+            throw new WorkException("Not supported");
+        }
+
+        public long startWork(Work work) throws WorkException {
+            throw new WorkException("Not supported");
+        }
+
+        public long startWork(Work work, long startTimeout, ExecutionContext execContext, WorkListener workListener) throws WorkException {
+            throw new WorkException("Not supported");
+        }
+    }
+}
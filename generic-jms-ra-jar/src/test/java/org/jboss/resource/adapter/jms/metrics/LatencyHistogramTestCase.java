@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the bucket indexing and percentiles of the latency histogram
+ */
+public class LatencyHistogramTestCase {
+    private static final int BUCKETS = new LatencyHistogram("buckets").getCounts().length;
+
+    @Test
+    public void testSmallValuesHaveTheirOwnBucket() throws Exception {
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(i, LatencyHistogram.indexOf(i));
+            assertEquals(i, LatencyHistogram.lowerBound(i));
+            assertEquals(i, LatencyHistogram.upperBound(i));
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous() throws Exception {
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int i = 0; i + 1 < BUCKETS; ++i) {
+            assertTrue("bucket " + i, LatencyHistogram.lowerBound(i) <= LatencyHistogram.upperBound(i));
+            assertEquals("bucket " + i, LatencyHistogram.upperBound(i) + 1, LatencyHistogram.lowerBound(i + 1));
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.lowerBound(i)));
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.upperBound(i)));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(BUCKETS - 1));
+    }
+
+    @Test
+    public void testPowersOfTwo() throws Exception {
+        for (int exponent = 3; exponent < 63; ++exponent) {
+            long value = 1L << exponent;
+            int index = LatencyHistogram.indexOf(value);
+            assertEquals("2^" + exponent, value, LatencyHistogram.lowerBound(index));
+            assertEquals("2^" + exponent, index - 1, LatencyHistogram.indexOf(value - 1));
+            assertEquals("2^" + exponent, value - 1, LatencyHistogram.upperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void testRelativeError() throws Exception {
+        for (int i = 8; i < BUCKETS; ++i) {
+            long lower = LatencyHistogram.lowerBound(i);
+            long width = LatencyHistogram.upperBound(i) - lower + 1;
+            assertTrue("bucket " + i, width <= lower / 8 || width == 1);
+        }
+    }
+
+    @Test
+    public void testExtremes() throws Exception {
+        assertEquals(0, LatencyHistogram.indexOf(0));
+        assertEquals(BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(100));
+        assertEquals(0, histogram.getMax());
+        assertEquals(1, histogram.getCounts()[0]);
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(1, histogram.getCounts()[BUCKETS - 1]);
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 100; ++i)
+            histogram.record(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50.5, histogram.getMean(), 0);
+
+        // the percentile is the upper bound of its bucket
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1, histogram.getPercentile(1));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.indexOf(50)), histogram.getPercentile(50));
+        assertEquals(51, histogram.getPercentile(50));
+        // 64 starts a bucket of width 8
+        assertEquals(71, histogram.getPercentile(64));
+        assertEquals(71, histogram.getPercentile(65));
+        // never above the largest value
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+        assertEquals(100, histogram.getPercentile(250));
+    }
+
+    @Test
+    public void testPercentileAtBucketEdge() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(63);
+        histogram.record(64);
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(64, histogram.getPercentile(50.1));
+        assertEquals(64, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+}
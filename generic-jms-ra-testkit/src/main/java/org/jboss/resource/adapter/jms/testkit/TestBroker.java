@@ -0,0 +1,657 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidClientIDException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.JMSSecurityException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * An in-memory JMS broker for tests and benchmarks. Brokers are looked up by
+ * name and live until they are destroyed. The latency and failure of each
+ * {@link Operation} can be configured to simulate a slow or failing broker.
+ */
+public class TestBroker {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestBroker.class);
+
+    /**
+     * The name of the default broker
+     */
+    public static final String DEFAULT = "default";
+
+    /**
+     * The operations whose latency and failures can be simulated
+     */
+    public enum Operation {
+        /**
+         * Creating a connection
+         */
+        CONNECT,
+        /**
+         * Sending a message, inside a transaction or not
+         */
+        SEND,
+        /**
+         * Delivering a message to a listener, only the latency applies
+         */
+        DELIVER,
+        /**
+         * Committing a local transaction or an XA transaction
+         */
+        COMMIT,
+        /**
+         * Preparing an XA transaction
+         */
+        PREPARE
+    }
+
+    /**
+     * The brokers by name
+     */
+    private static final ConcurrentMap<String, TestBroker> brokers = new ConcurrentHashMap<String, TestBroker>();
+
+    /**
+     * The name
+     */
+    private final String name;
+
+    private final ConcurrentMap<String, TestQueue> queues = new ConcurrentHashMap<String, TestQueue>();
+    private final ConcurrentMap<String, TestTopic> topics = new ConcurrentHashMap<String, TestTopic>();
+    private final ConcurrentMap<String, TestDestination> temporaryDestinations = new ConcurrentHashMap<String, TestDestination>();
+
+    /**
+     * The durable subscriptions by client id and name
+     */
+    private final ConcurrentMap<String, TestSubscription> durableSubscriptions = new ConcurrentHashMap<String, TestSubscription>();
+
+    /**
+     * The open connections
+     */
+    private final Set<TestConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<TestConnection, Boolean>());
+
+    /**
+     * The XA transaction branches by xid
+     */
+    private final ConcurrentMap<XidKey, TestTransactionBranch> branches = new ConcurrentHashMap<XidKey, TestTransactionBranch>();
+
+    /**
+     * The passwords by user, when empty any user can connect
+     */
+    private final Map<String, String> users = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong connectionIds = new AtomicLong();
+
+    /**
+     * The simulated latency in microseconds by operation
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(Operation.values().length);
+
+    /**
+     * The simulated failure rate by operation, as the bits of a double
+     */
+    private final AtomicLongArray failureRates = new AtomicLongArray(Operation.values().length);
+
+    /**
+     * The number of operations that will fail next by operation
+     */
+    private final AtomicIntegerArray failNext = new AtomicIntegerArray(Operation.values().length);
+
+    private final Random random = new Random();
+
+    /**
+     * Whether connections can be created
+     */
+    private volatile boolean available = true;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rolledBack = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private TestBroker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get a broker, creating it when it does not exist
+     *
+     * @param name the name
+     * @return the broker
+     */
+    public static TestBroker getBroker(String name) {
+        TestBroker broker = brokers.get(name);
+        if (broker == null) {
+            broker = new TestBroker(name);
+            TestBroker previous = brokers.putIfAbsent(name, broker);
+            if (previous != null)
+                broker = previous;
+        }
+        return broker;
+    }
+
+    /**
+     * @return the default broker
+     */
+    public static TestBroker getDefault() {
+        return getBroker(DEFAULT);
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Destroy the broker, its connections fail and its messages are lost
+     */
+    public void destroy() {
+        brokers.remove(name, this);
+        reset();
+    }
+
+    /**
+     * Fail all connections, remove all destinations and messages and clear
+     * the simulated latencies and failures and the counters
+     */
+    public void reset() {
+        failConnections("Broker " + name + " was reset");
+        queues.clear();
+        topics.clear();
+        temporaryDestinations.clear();
+        durableSubscriptions.clear();
+        branches.clear();
+        users.clear();
+        for (Operation operation : Operation.values()) {
+            latencies.set(operation.ordinal(), 0);
+            failureRates.set(operation.ordinal(), 0);
+            failNext.set(operation.ordinal(), 0);
+        }
+        sent.set(0);
+        delivered.set(0);
+        committed.set(0);
+        rolledBack.set(0);
+        expired.set(0);
+        available = true;
+    }
+
+    /**
+     * @return a non XA connection factory for this broker
+     */
+    public TestConnectionFactory createConnectionFactory() {
+        return new TestConnectionFactory(name);
+    }
+
+    /**
+     * @return an XA connection factory for this broker
+     */
+    public TestXAConnectionFactory createXAConnectionFactory() {
+        return new TestXAConnectionFactory(name);
+    }
+
+    /**
+     * Get a queue, creating it when it does not exist
+     *
+     * @param name the name
+     * @return the queue
+     */
+    public TestQueue getQueue(String name) {
+        TestQueue queue = queues.get(name);
+        if (queue == null) {
+            queue = new TestQueue(this.name, name);
+            TestQueue previous = queues.putIfAbsent(name, queue);
+            if (previous != null)
+                queue = previous;
+        }
+        return queue;
+    }
+
+    /**
+     * Get a topic, creating it when it does not exist
+     *
+     * @param name the name
+     * @return the topic
+     */
+    public TestTopic getTopic(String name) {
+        TestTopic topic = topics.get(name);
+        if (topic == null) {
+            topic = new TestTopic(this.name, name);
+            TestTopic previous = topics.putIfAbsent(name, topic);
+            if (previous != null)
+                topic = previous;
+        }
+        return topic;
+    }
+
+    /**
+     * @return the queues
+     */
+    public List<TestQueue> getQueues() {
+        return new ArrayList<TestQueue>(queues.values());
+    }
+
+    /**
+     * @return the topics
+     */
+    public List<TestTopic> getTopics() {
+        return new ArrayList<TestTopic>(topics.values());
+    }
+
+    TestDestination getTemporaryDestination(String name) {
+        return temporaryDestinations.get(name);
+    }
+
+    TestTemporaryQueue createTemporaryQueue() {
+        TestTemporaryQueue queue = new TestTemporaryQueue(name, "TemporaryQueue-" + ids.incrementAndGet());
+        temporaryDestinations.put(queue.getName(), queue);
+        return queue;
+    }
+
+    TestTemporaryTopic createTemporaryTopic() {
+        TestTemporaryTopic topic = new TestTemporaryTopic(name, "TemporaryTopic-" + ids.incrementAndGet());
+        temporaryDestinations.put(topic.getName(), topic);
+        return topic;
+    }
+
+    void removeDestination(TestDestination destination) {
+        temporaryDestinations.remove(destination.getName(), destination);
+    }
+
+    /**
+     * Get a durable subscription, creating it when it does not exist or
+     * when it was created with a different topic, noLocal or selector
+     *
+     * @param topic    the topic
+     * @param clientID the client id
+     * @param name     the name of the subscription
+     * @param noLocal  whether messages sent by the connection are skipped
+     * @param selector the selector or null
+     * @param connection the subscribing connection
+     * @return the subscription
+     * @throws JMSException when the subscription has to be replaced while it has consumers
+     */
+    TestSubscription getDurableSubscription(TestTopic topic, String clientID, String name, boolean noLocal, JmsSelector selector, TestConnection connection) throws JMSException {
+        String key = clientID + '.' + name;
+        synchronized (durableSubscriptions) {
+            TestSubscription subscription = durableSubscriptions.get(key);
+            if (subscription != null && subscription.getDestination() == topic && subscription.isNoLocal() == noLocal && sameSelector(subscription.getSelector(), selector))
+                return subscription;
+            if (subscription != null) {
+                if (subscription.getConsumerCount() > 0)
+                    throw new IllegalStateException("Durable subscription " + name + " is in use");
+                ((TestTopic) subscription.getDestination()).removeSubscription(subscription);
+            }
+            subscription = new TestSubscription(topic, name, connection.getId(), noLocal, selector);
+            durableSubscriptions.put(key, subscription);
+            topic.addSubscription(subscription);
+            return subscription;
+        }
+    }
+
+    private static boolean sameSelector(JmsSelector a, JmsSelector b) {
+        return a == null ? b == null : b != null && a.getSelector().equals(b.getSelector());
+    }
+
+    void unsubscribe(String clientID, String name) throws JMSException {
+        String key = clientID + '.' + name;
+        synchronized (durableSubscriptions) {
+            TestSubscription subscription = durableSubscriptions.get(key);
+            if (subscription == null)
+                throw new InvalidDestinationException("No durable subscription " + name + " for " + clientID);
+            if (subscription.getConsumerCount() > 0)
+                throw new IllegalStateException("Durable subscription " + name + " is in use");
+            durableSubscriptions.remove(key);
+            ((TestTopic) subscription.getDestination()).removeSubscription(subscription);
+        }
+    }
+
+    /**
+     * Add a user, once users are added connections must use one of them
+     *
+     * @param user     the user
+     * @param password the password
+     */
+    public void addUser(String user, String password) {
+        users.put(user, password == null ? "" : password);
+    }
+
+    TestConnection connect(String user, String password, boolean xa) throws JMSException {
+        simulate(Operation.CONNECT);
+        if (available == false)
+            throw new JMSException("Broker " + name + " is not available");
+        if (users.isEmpty() == false) {
+            String expected = user == null ? null : users.get(user);
+            if (expected == null || expected.equals(password == null ? "" : password) == false)
+                throw new JMSSecurityException("Invalid user or password for " + user);
+        }
+        long id = connectionIds.incrementAndGet();
+        TestConnection connection = xa ? new TestXAConnection(this, id, user) : new TestConnection(this, id, user);
+        connections.add(connection);
+        return connection;
+    }
+
+    void removeConnection(TestConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * @return the open connections
+     */
+    public List<TestConnection> getConnections() {
+        return new ArrayList<TestConnection>(connections);
+    }
+
+    void checkClientID(TestConnection connection, String clientID) throws JMSException {
+        for (TestConnection other : connections) {
+            if (other != connection && clientID.equals(other.getClientIDInternal()))
+                throw new InvalidClientIDException("Client id " + clientID + " is already in use");
+        }
+    }
+
+    /**
+     * Stop the broker: new connections are refused and the open connections
+     * fail, the messages are kept
+     */
+    public void stop() {
+        available = false;
+        failConnections("Broker " + name + " stopped");
+    }
+
+    /**
+     * Crash the broker: like {@link #stop()} but also drops the non
+     * persistent messages and rolls back the transactions not prepared
+     */
+    public void crash() {
+        stop();
+        for (TestQueue queue : queues.values())
+            queue.removeNonPersistent();
+        for (TestTopic topic : topics.values())
+            topic.removeNonPersistent();
+        for (TestTransactionBranch branch : branches.values()) {
+            if (branch.isPrepared() == false) {
+                branches.remove(new XidKey(branch.getXid()));
+                branch.rollback();
+            }
+        }
+    }
+
+    /**
+     * Accept connections again after {@link #stop()} or {@link #crash()}
+     */
+    public void start() {
+        available = true;
+    }
+
+    /**
+     * @return whether connections are accepted
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Fail all open connections, their exception listeners are notified
+     *
+     * @param reason the reason
+     */
+    public void failConnections(String reason) {
+        for (TestConnection connection : connections)
+            connection.fail(new JMSException(reason));
+    }
+
+    /**
+     * Set the simulated latency of an operation
+     *
+     * @param operation the operation
+     * @param micros    the latency in microseconds
+     */
+    public void setLatency(Operation operation, long micros) {
+        latencies.set(operation.ordinal(), micros);
+    }
+
+    /**
+     * @param operation the operation
+     * @return the simulated latency in microseconds
+     */
+    public long getLatency(Operation operation) {
+        return latencies.get(operation.ordinal());
+    }
+
+    /**
+     * Set the probability that an operation fails
+     *
+     * @param operation the operation
+     * @param rate      the probability between 0 and 1
+     */
+    public void setFailureRate(Operation operation, double rate) {
+        failureRates.set(operation.ordinal(), Double.doubleToLongBits(rate));
+    }
+
+    /**
+     * @param operation the operation
+     * @return the probability that the operation fails
+     */
+    public double getFailureRate(Operation operation) {
+        return Double.longBitsToDouble(failureRates.get(operation.ordinal()));
+    }
+
+    /**
+     * Make the next operations fail
+     *
+     * @param operation the operation
+     * @param count     the number of operations that fail
+     */
+    public void failNext(Operation operation, int count) {
+        failNext.set(operation.ordinal(), count);
+    }
+
+    /**
+     * Apply the simulated latency and failures of an operation
+     *
+     * @param operation the operation
+     * @throws JMSException when the operation fails
+     */
+    void simulate(Operation operation) throws JMSException {
+        int index = operation.ordinal();
+        long latency = latencies.get(index);
+        if (latency > 0)
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latency));
+        if (operation == Operation.DELIVER)
+            return;
+
+        boolean fail = false;
+        int remaining = failNext.get(index);
+        while (remaining > 0 && fail == false) {
+            fail = failNext.compareAndSet(index, remaining, remaining - 1);
+            remaining = failNext.get(index);
+        }
+        if (fail == false) {
+            double rate = Double.longBitsToDouble(failureRates.get(index));
+            if (rate > 0) {
+                synchronized (random) {
+                    fail = random.nextDouble() < rate;
+                }
+            }
+        }
+        if (fail) {
+            if (log.isTraceEnabled())
+                log.trace("Simulating " + operation + " failure on " + this);
+            throw new JMSException("Simulated " + operation + " failure on broker " + name);
+        }
+    }
+
+    /**
+     * Make a message available to the consumers of a destination
+     *
+     * @param destination the destination
+     * @param message     the message
+     * @throws JMSException for any error
+     */
+    void deliver(TestDestination destination, TestMessage message) throws JMSException {
+        if (destination instanceof TestTemporaryQueue || destination instanceof TestTemporaryTopic) {
+            if (temporaryDestinations.get(destination.getName()) != destination)
+                throw new InvalidDestinationException("Temporary destination was deleted " + destination);
+        }
+        destination.deliver(message);
+        sent.incrementAndGet();
+    }
+
+    String nextMessageID() {
+        return "ID:" + name + '-' + ids.incrementAndGet();
+    }
+
+    TestTransactionBranch createBranch(Xid xid) throws XAException {
+        TestTransactionBranch branch = new TestTransactionBranch(this, xid);
+        if (branches.putIfAbsent(new XidKey(xid), branch) != null)
+            throw TestXAResource.xaException(XAException.XAER_DUPID, "Duplicate xid " + xid);
+        return branch;
+    }
+
+    TestTransactionBranch getBranch(Xid xid) {
+        return branches.get(new XidKey(xid));
+    }
+
+    void removeBranch(Xid xid) {
+        branches.remove(new XidKey(xid));
+    }
+
+    Xid[] getPreparedXids() {
+        List<Xid> result = new ArrayList<Xid>();
+        for (TestTransactionBranch branch : branches.values()) {
+            if (branch.isPrepared())
+                result.add(branch.getXid());
+        }
+        return result.toArray(new Xid[result.size()]);
+    }
+
+    void delivered() {
+        delivered.incrementAndGet();
+    }
+
+    void committed() {
+        committed.incrementAndGet();
+    }
+
+    void rolledBack() {
+        rolledBack.incrementAndGet();
+    }
+
+    void expired() {
+        expired.incrementAndGet();
+    }
+
+    /**
+     * @return the number of messages made available to consumers
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of messages delivered to consumers, including redeliveries
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of committed transactions
+     */
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    /**
+     * @return the number of rolled back transactions
+     */
+    public long getRolledBackCount() {
+        return rolledBack.get();
+    }
+
+    /**
+     * @return the number of expired messages that were dropped
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public String toString() {
+        return "TestBroker[" + name + "]";
+    }
+
+    /**
+     * Compares xids by value
+     */
+    private static class XidKey {
+        private final int formatId;
+        private final byte[] globalTransactionId;
+        private final byte[] branchQualifier;
+        private final int hashCode;
+
+        XidKey(Xid xid) {
+            formatId = xid.getFormatId();
+            globalTransactionId = xid.getGlobalTransactionId();
+            branchQualifier = xid.getBranchQualifier();
+            hashCode = 31 * (31 * formatId + Arrays.hashCode(globalTransactionId)) + Arrays.hashCode(branchQualifier);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof XidKey == false)
+                return false;
+            XidKey other = (XidKey) obj;
+            return formatId == other.formatId && Arrays.equals(globalTransactionId, other.globalTransactionId)
+                    && Arrays.equals(branchQualifier, other.branchQualifier);
+        }
+    }
+}
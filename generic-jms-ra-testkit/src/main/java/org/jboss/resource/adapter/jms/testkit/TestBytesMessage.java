@@ -0,0 +1,345 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+
+/**
+ * A bytes message of the test broker.
+ */
+public class TestBytesMessage extends TestMessage implements BytesMessage {
+    /**
+     * The body written so far
+     */
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * The stream writing the body
+     */
+    private DataOutputStream dataOut = new DataOutputStream(out);
+
+    /**
+     * The body once it is read only
+     */
+    private byte[] body;
+
+    /**
+     * The stream reading the body
+     */
+    private DataInputStream dataIn;
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        out = new ByteArrayOutputStream();
+        dataOut = new DataOutputStream(out);
+        body = null;
+        dataIn = null;
+    }
+
+    public long getBodyLength() throws JMSException {
+        checkRead();
+        return body.length;
+    }
+
+    public boolean readBoolean() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readBoolean();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public byte readByte() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readByte();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public int readUnsignedByte() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readUnsignedByte();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public short readShort() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readShort();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public int readUnsignedShort() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readUnsignedShort();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public char readChar() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readChar();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public int readInt() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readInt();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public long readLong() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readLong();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public float readFloat() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readFloat();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public double readDouble() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readDouble();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public String readUTF() throws JMSException {
+        checkRead();
+        try {
+            return dataIn.readUTF();
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public int readBytes(byte[] value) throws JMSException {
+        return readBytes(value, value.length);
+    }
+
+    public int readBytes(byte[] value, int length) throws JMSException {
+        checkRead();
+        if (length < 0 || length > value.length)
+            throw new IndexOutOfBoundsException("Invalid length " + length);
+        try {
+            int result = dataIn.read(value, 0, length);
+            return length == 0 && dataIn.available() == 0 ? -1 : result;
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeBoolean(boolean value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeBoolean(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeByte(byte value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeByte(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeShort(short value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeShort(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeChar(char value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeChar(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeInt(int value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeInt(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeLong(long value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeLong(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeFloat(float value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeFloat(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeDouble(double value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeDouble(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeUTF(String value) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.writeUTF(value);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeBytes(byte[] value) throws JMSException {
+        writeBytes(value, 0, value.length);
+    }
+
+    public void writeBytes(byte[] value, int offset, int length) throws JMSException {
+        checkWrite();
+        try {
+            dataOut.write(value, offset, length);
+        } catch (IOException e) {
+            throw convert(e);
+        }
+    }
+
+    public void writeObject(Object value) throws JMSException {
+        if (value instanceof Boolean)
+            writeBoolean(((Boolean) value).booleanValue());
+        else if (value instanceof Byte)
+            writeByte(((Byte) value).byteValue());
+        else if (value instanceof Short)
+            writeShort(((Short) value).shortValue());
+        else if (value instanceof Character)
+            writeChar(((Character) value).charValue());
+        else if (value instanceof Integer)
+            writeInt(((Integer) value).intValue());
+        else if (value instanceof Long)
+            writeLong(((Long) value).longValue());
+        else if (value instanceof Float)
+            writeFloat(((Float) value).floatValue());
+        else if (value instanceof Double)
+            writeDouble(((Double) value).doubleValue());
+        else if (value instanceof String)
+            writeUTF((String) value);
+        else if (value instanceof byte[])
+            writeBytes((byte[]) value);
+        else if (value == null)
+            throw new NullPointerException("Cannot write null");
+        else
+            throw new MessageFormatException("Cannot write " + value.getClass().getName());
+    }
+
+    public void reset() throws JMSException {
+        bodyReadOnly = true;
+        resetBody();
+    }
+
+    /**
+     * @return the body
+     */
+    private byte[] getBody() {
+        return body != null ? body : out.toByteArray();
+    }
+
+    protected TestMessage newInstance() {
+        return new TestBytesMessage();
+    }
+
+    protected void copyBody(TestMessage copy) throws JMSException {
+        TestBytesMessage result = (TestBytesMessage) copy;
+        byte[] bytes = getBody();
+        result.out.write(bytes, 0, bytes.length);
+    }
+
+    protected void resetBody() throws JMSException {
+        if (body == null) {
+            body = out.toByteArray();
+            out = null;
+            dataOut = null;
+        }
+        dataIn = new DataInputStream(new ByteArrayInputStream(body));
+    }
+
+    private static JMSException convert(IOException e) {
+        JMSException result = e instanceof EOFException ? new MessageEOFException("End of message") : new JMSException(e.toString());
+        result.setLinkedException(e);
+        return result;
+    }
+}
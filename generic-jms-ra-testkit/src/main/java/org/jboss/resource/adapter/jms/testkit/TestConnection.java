@@ -0,0 +1,347 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.ConnectionConsumer;
+import javax.jms.ConnectionMetaData;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSession;
+import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicSession;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A connection to the test broker.
+ */
+public class TestConnection implements QueueConnection, TopicConnection {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestConnection.class);
+
+    private final TestBroker broker;
+    private final long id;
+    private final String user;
+
+    private volatile String clientID;
+
+    /**
+     * Whether the client id can still be set
+     */
+    private volatile boolean clientIDSettable = true;
+
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    /**
+     * Why the connection failed
+     */
+    private volatile JMSException failure;
+
+    private volatile ExceptionListener exceptionListener;
+
+    private final Set<TestSession> sessions = Collections.newSetFromMap(new ConcurrentHashMap<TestSession, Boolean>());
+    private final Set<TestConnectionConsumer> connectionConsumers = Collections.newSetFromMap(new ConcurrentHashMap<TestConnectionConsumer, Boolean>());
+    private final List<TestDestination> temporaryDestinations = new CopyOnWriteArrayList<TestDestination>();
+
+    /**
+     * Signalled when the connection is started or closed
+     */
+    private final Object startLock = new Object();
+
+    TestConnection(TestBroker broker, long id, String user) {
+        this.broker = broker;
+        this.id = id;
+        this.user = user;
+    }
+
+    /**
+     * @return the broker
+     */
+    public TestBroker getBroker() {
+        return broker;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * @return the user
+     */
+    public String getUser() {
+        return user;
+    }
+
+    public Session createSession(boolean transacted, int acknowledgeMode) throws JMSException {
+        return createTestSession(transacted, acknowledgeMode);
+    }
+
+    public QueueSession createQueueSession(boolean transacted, int acknowledgeMode) throws JMSException {
+        return createTestSession(transacted, acknowledgeMode);
+    }
+
+    public TopicSession createTopicSession(boolean transacted, int acknowledgeMode) throws JMSException {
+        return createTestSession(transacted, acknowledgeMode);
+    }
+
+    private TestSession createTestSession(boolean transacted, int acknowledgeMode) throws JMSException {
+        checkOpen();
+        if (transacted == false && (acknowledgeMode < Session.AUTO_ACKNOWLEDGE || acknowledgeMode > Session.DUPS_OK_ACKNOWLEDGE))
+            throw new JMSException("Invalid acknowledge mode " + acknowledgeMode);
+        return addSession(new TestSession(this, transacted, transacted ? Session.SESSION_TRANSACTED : acknowledgeMode));
+    }
+
+    TestSession addSession(TestSession session) {
+        clientIDSettable = false;
+        sessions.add(session);
+        return session;
+    }
+
+    void removeSession(TestSession session) {
+        sessions.remove(session);
+    }
+
+    public String getClientID() throws JMSException {
+        checkOpen();
+        return clientID;
+    }
+
+    String getClientIDInternal() {
+        return clientID;
+    }
+
+    public void setClientID(String clientID) throws JMSException {
+        checkOpen();
+        if (clientIDSettable == false)
+            throw new IllegalStateException("The client id can only be set before the connection is used");
+        broker.checkClientID(this, clientID);
+        this.clientID = clientID;
+        clientIDSettable = false;
+    }
+
+    public ConnectionMetaData getMetaData() throws JMSException {
+        checkOpen();
+        return new TestConnectionMetaData();
+    }
+
+    public ExceptionListener getExceptionListener() throws JMSException {
+        checkOpen();
+        return exceptionListener;
+    }
+
+    public void setExceptionListener(ExceptionListener listener) throws JMSException {
+        checkOpen();
+        this.exceptionListener = listener;
+    }
+
+    public void start() throws JMSException {
+        checkOpen();
+        clientIDSettable = false;
+        synchronized (startLock) {
+            started = true;
+            startLock.notifyAll();
+        }
+    }
+
+    public void stop() throws JMSException {
+        checkOpen();
+        clientIDSettable = false;
+        synchronized (startLock) {
+            started = false;
+        }
+    }
+
+    public void close() throws JMSException {
+        if (closed)
+            return;
+        synchronized (startLock) {
+            closed = true;
+            started = false;
+            startLock.notifyAll();
+        }
+        for (TestConnectionConsumer consumer : new ArrayList<TestConnectionConsumer>(connectionConsumers))
+            consumer.close();
+        for (TestSession session : new ArrayList<TestSession>(sessions))
+            session.close();
+        for (TestDestination destination : temporaryDestinations)
+            broker.removeDestination(destination);
+        broker.removeConnection(this);
+    }
+
+    public ConnectionConsumer createConnectionConsumer(Destination destination, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException {
+        checkOpen();
+        JmsSelector selector = TestSelector.compile(messageSelector);
+        clientIDSettable = false;
+        if (destination instanceof TestQueue)
+            return addConnectionConsumer(new TestConnectionConsumer(this, ((TestQueue) destination).getSubscription(), selector, sessionPool, maxMessages));
+        if (destination instanceof TestTopic)
+            return addConnectionConsumer(new TestConnectionConsumer(this, ((TestTopic) destination).subscribe(id, false, selector), null, sessionPool, maxMessages));
+        throw new InvalidDestinationException("Not a destination of the test broker: " + destination);
+    }
+
+    public ConnectionConsumer createConnectionConsumer(Queue queue, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException {
+        return createConnectionConsumer((Destination) queue, messageSelector, sessionPool, maxMessages);
+    }
+
+    public ConnectionConsumer createConnectionConsumer(Topic topic, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException {
+        return createConnectionConsumer((Destination) topic, messageSelector, sessionPool, maxMessages);
+    }
+
+    public ConnectionConsumer createDurableConnectionConsumer(Topic topic, String subscriptionName, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException {
+        checkOpen();
+        TestSubscription subscription = getDurableSubscription(topic, subscriptionName, false, TestSelector.compile(messageSelector));
+        return addConnectionConsumer(new TestConnectionConsumer(this, subscription, null, sessionPool, maxMessages));
+    }
+
+    private ConnectionConsumer addConnectionConsumer(TestConnectionConsumer consumer) {
+        connectionConsumers.add(consumer);
+        consumer.start();
+        return consumer;
+    }
+
+    void removeConnectionConsumer(TestConnectionConsumer consumer) {
+        connectionConsumers.remove(consumer);
+    }
+
+    TestSubscription getDurableSubscription(Topic topic, String name, boolean noLocal, JmsSelector selector) throws JMSException {
+        if (topic instanceof TestTopic == false)
+            throw new InvalidDestinationException("Not a topic of the test broker: " + topic);
+        if (clientID == null)
+            throw new IllegalStateException("A durable subscription needs a client id");
+        clientIDSettable = false;
+        return broker.getDurableSubscription((TestTopic) topic, clientID, name, noLocal, selector, this);
+    }
+
+    void addTemporaryDestination(TestDestination destination) {
+        temporaryDestinations.add(destination);
+    }
+
+    /**
+     * @return whether the connection is started
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return whether the connection is closed or failed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Wait until the connection is started
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true when it is started, false when it is closed or still stopped
+     * @throws InterruptedException when interrupted
+     */
+    boolean awaitStarted(long timeout) throws InterruptedException {
+        if (started)
+            return true;
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (startLock) {
+            while (started == false && closed == false) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                startLock.wait(remaining);
+            }
+            return started;
+        }
+    }
+
+    /**
+     * Fail the connection as if the network or broker failed, the exception
+     * listener is notified from another thread
+     *
+     * @param reason the error passed to the exception listener
+     */
+    public void fail(final JMSException reason) {
+        if (closed)
+            return;
+        failure = reason;
+        final ExceptionListener listener = exceptionListener;
+        try {
+            close();
+        } catch (JMSException e) {
+            log.debug("Error closing failed connection " + this, e);
+        }
+        if (listener != null) {
+            Thread thread = new Thread("TestBroker exception listener " + this) {
+                public void run() {
+                    listener.onException(reason);
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    void checkOpen() throws JMSException {
+        JMSException failure = this.failure;
+        if (failure != null) {
+            JMSException result = new IllegalStateException("The connection failed: " + failure.getMessage());
+            result.setLinkedException(failure);
+            throw result;
+        }
+        if (closed)
+            throw new IllegalStateException("The connection is closed");
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(getClass().getSimpleName());
+        buffer.append('[').append(id).append('@').append(broker.getName());
+        if (clientID != null)
+            buffer.append(" clientID=").append(clientID);
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.ConnectionConsumer;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.ServerSession;
+import javax.jms.ServerSessionPool;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A connection consumer of the test broker. A daemon thread takes the
+ * messages of the subscription, loads up to maxMessages of them into a
+ * server session of the pool and starts it.
+ */
+public class TestConnectionConsumer implements ConnectionConsumer {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestConnectionConsumer.class);
+
+    /**
+     * How long to poll before checking the state again
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final TestConnection connection;
+    private final TestSubscription subscription;
+    private final JmsSelector selector;
+    private final ServerSessionPool serverSessionPool;
+    private final int maxMessages;
+    private volatile boolean closed;
+    private final Thread thread;
+
+    TestConnectionConsumer(TestConnection connection, TestSubscription subscription, JmsSelector selector, ServerSessionPool serverSessionPool, int maxMessages) {
+        this.connection = connection;
+        this.subscription = subscription;
+        this.selector = selector;
+        this.serverSessionPool = serverSessionPool;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, "TestConnectionConsumer-" + subscription.getDestination().getName());
+        thread.setDaemon(true);
+        subscription.addConsumer();
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public ServerSessionPool getServerSessionPool() throws JMSException {
+        if (closed)
+            throw new IllegalStateException("The connection consumer is closed");
+        return serverSessionPool;
+    }
+
+    public void close() throws JMSException {
+        if (closed)
+            return;
+        closed = true;
+        if (thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join(POLL_INTERVAL * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscription.removeConsumer();
+        if (subscription.getName() == null && subscription.getDestination() instanceof TestTopic)
+            ((TestTopic) subscription.getDestination()).removeSubscription(subscription);
+        connection.removeConnectionConsumer(this);
+    }
+
+    private void consume() {
+        try {
+            while (closed == false) {
+                if (connection.awaitStarted(POLL_INTERVAL) == false)
+                    continue;
+                TestMessage first = subscription.poll(POLL_INTERVAL, selector);
+                if (first == null)
+                    continue;
+                List<TestMessage> batch = new ArrayList<TestMessage>(maxMessages);
+                batch.add(first);
+                dispatch(batch);
+            }
+        } catch (InterruptedException e) {
+            if (closed == false)
+                log.debug("Interrupted consuming from " + subscription);
+        }
+    }
+
+    private void dispatch(List<TestMessage> batch) throws InterruptedException {
+        ServerSession serverSession;
+        try {
+            serverSession = serverSessionPool.getServerSession();
+        } catch (JMSException e) {
+            if (closed == false)
+                log.debug("Unable to get a server session for " + subscription, e);
+            // before sleeping, closing interrupts it
+            putBack(batch);
+            Thread.sleep(POLL_INTERVAL);
+            return;
+        }
+        if (closed || connection.isStarted() == false) {
+            // start it empty, the pool only gets a server session back once it ran
+            putBack(batch);
+            try {
+                serverSession.start();
+            } catch (JMSException e) {
+                log.debug("Unable to give back the server session for " + subscription, e);
+            }
+            return;
+        }
+
+        while (batch.size() < maxMessages) {
+            TestMessage message = subscription.poll(0, selector);
+            if (message == null)
+                break;
+            batch.add(message);
+        }
+
+        TestSession session = null;
+        try {
+            Object candidate = serverSession.getSession();
+            while (candidate instanceof Delegating)
+                candidate = ((Delegating) candidate).getDelegate();
+            if (candidate instanceof TestSession == false)
+                throw new IllegalStateException("Not a session of the test broker: " + candidate);
+            session = (TestSession) candidate;
+            session.load(batch);
+            serverSession.start();
+        } catch (JMSException e) {
+            log.warn("Unable to start the server session for " + subscription, e);
+            if (session != null)
+                session.unload();
+            else
+                putBack(batch);
+        }
+    }
+
+    private void putBack(List<TestMessage> batch) {
+        for (int i = batch.size() - 1; i >= 0; --i)
+            subscription.putBack(batch.get(i));
+    }
+
+    public String toString() {
+        return "TestConnectionConsumer[" + subscription + " maxMessages=" + maxMessages + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.Serializable;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+
+/**
+ * A connection factory of the test broker. It only holds the name of the
+ * broker so it can be bound into JNDI and serialized.
+ */
+public class TestConnectionFactory implements ConnectionFactory, QueueConnectionFactory, TopicConnectionFactory, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String brokerName;
+
+    public TestConnectionFactory(String brokerName) {
+        this.brokerName = brokerName;
+    }
+
+    /**
+     * @return the broker
+     */
+    public TestBroker getBroker() {
+        return TestBroker.getBroker(brokerName);
+    }
+
+    public Connection createConnection() throws JMSException {
+        return connect(null, null);
+    }
+
+    public Connection createConnection(String userName, String password) throws JMSException {
+        return connect(userName, password);
+    }
+
+    public QueueConnection createQueueConnection() throws JMSException {
+        return connect(null, null);
+    }
+
+    public QueueConnection createQueueConnection(String userName, String password) throws JMSException {
+        return connect(userName, password);
+    }
+
+    public TopicConnection createTopicConnection() throws JMSException {
+        return connect(null, null);
+    }
+
+    public TopicConnection createTopicConnection(String userName, String password) throws JMSException {
+        return connect(userName, password);
+    }
+
+    /**
+     * Connect to the broker
+     *
+     * @param userName the user name
+     * @param password the password
+     * @return the connection
+     * @throws JMSException for any error
+     */
+    protected TestConnection connect(String userName, String password) throws JMSException {
+        return getBroker().connect(userName, password, false);
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "[" + brokerName + "]";
+    }
+}
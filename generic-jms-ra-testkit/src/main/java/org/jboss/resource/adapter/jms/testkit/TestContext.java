@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+/**
+ * A flat naming context over the bindings of {@link TestInitialContextFactory}.
+ */
+public class TestContext implements Context {
+    private static final NameParser PARSER = new NameParser() {
+        public Name parse(String name) throws NamingException {
+            return new CompositeName(name);
+        }
+    };
+
+    private final Hashtable<Object, Object> environment;
+
+    public TestContext(Hashtable<?, ?> environment) {
+        this.environment = environment == null ? new Hashtable<Object, Object>() : new Hashtable<Object, Object>(environment);
+    }
+
+    public Object lookup(Name name) throws NamingException {
+        return lookup(name.toString());
+    }
+
+    public Object lookup(String name) throws NamingException {
+        if (name.length() == 0)
+            return new TestContext(environment);
+        Object result = TestInitialContextFactory.bindings.get(name);
+        if (result != null)
+            return result;
+
+        TestBroker broker = TestBroker.getBroker(getBrokerName());
+        if (TestInitialContextFactory.CONNECTION_FACTORY.equals(name))
+            return broker.createConnectionFactory();
+        if (TestInitialContextFactory.XA_CONNECTION_FACTORY.equals(name))
+            return broker.createXAConnectionFactory();
+        if (name.startsWith(TestInitialContextFactory.QUEUE_PREFIX) && name.length() > TestInitialContextFactory.QUEUE_PREFIX.length())
+            return broker.getQueue(name.substring(TestInitialContextFactory.QUEUE_PREFIX.length()));
+        if (name.startsWith(TestInitialContextFactory.TOPIC_PREFIX) && name.length() > TestInitialContextFactory.TOPIC_PREFIX.length())
+            return broker.getTopic(name.substring(TestInitialContextFactory.TOPIC_PREFIX.length()));
+        throw new NameNotFoundException(name);
+    }
+
+    private String getBrokerName() {
+        Object result = environment.get(TestInitialContextFactory.BROKER);
+        return result != null ? result.toString() : TestBroker.DEFAULT;
+    }
+
+    public void bind(Name name, Object obj) throws NamingException {
+        bind(name.toString(), obj);
+    }
+
+    public void bind(String name, Object obj) throws NamingException {
+        if (TestInitialContextFactory.bindings.putIfAbsent(name, obj) != null)
+            throw new NameAlreadyBoundException(name);
+    }
+
+    public void rebind(Name name, Object obj) throws NamingException {
+        rebind(name.toString(), obj);
+    }
+
+    public void rebind(String name, Object obj) throws NamingException {
+        TestInitialContextFactory.bindings.put(name, obj);
+    }
+
+    public void unbind(Name name) throws NamingException {
+        unbind(name.toString());
+    }
+
+    public void unbind(String name) throws NamingException {
+        TestInitialContextFactory.bindings.remove(name);
+    }
+
+    public void rename(Name oldName, Name newName) throws NamingException {
+        rename(oldName.toString(), newName.toString());
+    }
+
+    public void rename(String oldName, String newName) throws NamingException {
+        Object obj = TestInitialContextFactory.bindings.get(oldName);
+        if (obj == null)
+            throw new NameNotFoundException(oldName);
+        bind(newName, obj);
+        TestInitialContextFactory.bindings.remove(oldName, obj);
+    }
+
+    public NamingEnumeration<NameClassPair> list(Name name) throws NamingException {
+        return list(name.toString());
+    }
+
+    public NamingEnumeration<NameClassPair> list(String name) throws NamingException {
+        final Iterator<Map.Entry<String, Object>> entries = TestInitialContextFactory.bindings.entrySet().iterator();
+        return new IteratorEnumeration<NameClassPair>() {
+            public NameClassPair next() {
+                Map.Entry<String, Object> entry = entries.next();
+                return new NameClassPair(entry.getKey(), entry.getValue().getClass().getName());
+            }
+
+            public boolean hasMore() {
+                return entries.hasNext();
+            }
+        };
+    }
+
+    public NamingEnumeration<Binding> listBindings(Name name) throws NamingException {
+        return listBindings(name.toString());
+    }
+
+    public NamingEnumeration<Binding> listBindings(String name) throws NamingException {
+        final Iterator<Map.Entry<String, Object>> entries = TestInitialContextFactory.bindings.entrySet().iterator();
+        return new IteratorEnumeration<Binding>() {
+            public Binding next() {
+                Map.Entry<String, Object> entry = entries.next();
+                return new Binding(entry.getKey(), entry.getValue());
+            }
+
+            public boolean hasMore() {
+                return entries.hasNext();
+            }
+        };
+    }
+
+    public void destroySubcontext(Name name) throws NamingException {
+        throw new OperationNotSupportedException("Subcontexts are not supported");
+    }
+
+    public void destroySubcontext(String name) throws NamingException {
+        throw new OperationNotSupportedException("Subcontexts are not supported");
+    }
+
+    public Context createSubcontext(Name name) throws NamingException {
+        throw new OperationNotSupportedException("Subcontexts are not supported");
+    }
+
+    public Context createSubcontext(String name) throws NamingException {
+        throw new OperationNotSupportedException("Subcontexts are not supported");
+    }
+
+    public Object lookupLink(Name name) throws NamingException {
+        return lookup(name);
+    }
+
+    public Object lookupLink(String name) throws NamingException {
+        return lookup(name);
+    }
+
+    public NameParser getNameParser(Name name) throws NamingException {
+        return PARSER;
+    }
+
+    public NameParser getNameParser(String name) throws NamingException {
+        return PARSER;
+    }
+
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        return ((Name) prefix.clone()).addAll(name);
+    }
+
+    public String composeName(String name, String prefix) throws NamingException {
+        return prefix.length() == 0 ? name : prefix + "/" + name;
+    }
+
+    public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        return environment.put(propName, propVal);
+    }
+
+    public Object removeFromEnvironment(String propName) throws NamingException {
+        return environment.remove(propName);
+    }
+
+    public Hashtable<?, ?> getEnvironment() throws NamingException {
+        return new Hashtable<Object, Object>(environment);
+    }
+
+    public void close() throws NamingException {
+    }
+
+    public String getNameInNamespace() throws NamingException {
+        return "";
+    }
+
+    private abstract static class IteratorEnumeration<T> implements NamingEnumeration<T> {
+        public boolean hasMoreElements() {
+            return hasMore();
+        }
+
+        public T nextElement() {
+            if (hasMore() == false)
+                throw new NoSuchElementException();
+            return next();
+        }
+
+        public abstract T next();
+
+        public abstract boolean hasMore();
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.Serializable;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * A destination of the test broker. There is one instance per name and
+ * broker, deserialized destinations resolve to it.
+ */
+public abstract class TestDestination implements Destination, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the broker
+     */
+    private final String brokerName;
+
+    /**
+     * The name
+     */
+    private final String name;
+
+    protected TestDestination(String brokerName, String name) {
+        this.brokerName = brokerName;
+        this.name = name;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the broker
+     */
+    public TestBroker getBroker() {
+        return TestBroker.getBroker(brokerName);
+    }
+
+    String getBrokerName() {
+        return brokerName;
+    }
+
+    /**
+     * @return the number of messages waiting to be consumed
+     */
+    public abstract int getMessageCount();
+
+    /**
+     * Remove all messages
+     */
+    public abstract void clear();
+
+    /**
+     * Make a message available to the consumers
+     *
+     * @param message the message
+     * @throws JMSException for any error
+     */
+    abstract void deliver(TestMessage message) throws JMSException;
+
+    /**
+     * Drop the messages which are not persistent
+     */
+    abstract void removeNonPersistent();
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(getClass().getSimpleName());
+        buffer.append('[').append(name).append('@').append(brokerName).append(']');
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * A local JNDI for the test broker. Objects can be bound explicitly, names
+ * that are not bound resolve to the test broker named by {@link #BROKER}:
+ * <ul>
+ * <li>{@link #CONNECTION_FACTORY} to a connection factory</li>
+ * <li>{@link #XA_CONNECTION_FACTORY} to an XA connection factory</li>
+ * <li>{@link #QUEUE_PREFIX}name to a queue</li>
+ * <li>{@link #TOPIC_PREFIX}name to a topic</li>
+ * </ul>
+ * The bindings are shared by all contexts of the JVM.
+ */
+public class TestInitialContextFactory implements InitialContextFactory {
+    /**
+     * The environment property naming the broker, the default broker is used otherwise
+     */
+    public static final String BROKER = "org.jboss.resource.adapter.jms.testkit.broker";
+
+    public static final String CONNECTION_FACTORY = "ConnectionFactory";
+    public static final String XA_CONNECTION_FACTORY = "XAConnectionFactory";
+    public static final String QUEUE_PREFIX = "dynamicQueues/";
+    public static final String TOPIC_PREFIX = "dynamicTopics/";
+
+    /**
+     * The bindings
+     */
+    static final ConcurrentMap<String, Object> bindings = new ConcurrentHashMap<String, Object>();
+
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        return new TestContext(environment);
+    }
+
+    /**
+     * Make this the initial context factory of the JVM
+     */
+    public static void install() {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, TestInitialContextFactory.class.getName());
+    }
+
+    /**
+     * Bind an object, replacing any previous binding
+     *
+     * @param name  the name
+     * @param value the object
+     */
+    public static void bind(String name, Object value) {
+        bindings.put(name, value);
+    }
+
+    /**
+     * Remove a binding
+     *
+     * @param name the name
+     */
+    public static void unbind(String name) {
+        bindings.remove(name);
+    }
+
+    /**
+     * Remove all bindings
+     */
+    public static void clear() {
+        bindings.clear();
+    }
+}
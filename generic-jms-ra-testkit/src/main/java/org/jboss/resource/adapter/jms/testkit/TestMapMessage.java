@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.MessageFormatException;
+
+/**
+ * A map message of the test broker.
+ */
+public class TestMapMessage extends TestMessage implements MapMessage {
+    /**
+     * The values
+     */
+    private Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        values.clear();
+    }
+
+    public boolean getBoolean(String name) throws JMSException {
+        return toBoolean(values.get(name));
+    }
+
+    public byte getByte(String name) throws JMSException {
+        return toByte(values.get(name));
+    }
+
+    public short getShort(String name) throws JMSException {
+        return toShort(values.get(name));
+    }
+
+    public char getChar(String name) throws JMSException {
+        return toChar(values.get(name));
+    }
+
+    public int getInt(String name) throws JMSException {
+        return toInt(values.get(name));
+    }
+
+    public long getLong(String name) throws JMSException {
+        return toLong(values.get(name));
+    }
+
+    public float getFloat(String name) throws JMSException {
+        return toFloat(values.get(name));
+    }
+
+    public double getDouble(String name) throws JMSException {
+        return toDouble(values.get(name));
+    }
+
+    public String getString(String name) throws JMSException {
+        return toString(values.get(name));
+    }
+
+    public byte[] getBytes(String name) throws JMSException {
+        Object value = values.get(name);
+        if (value == null || value instanceof byte[])
+            return value == null ? null : ((byte[]) value).clone();
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to byte[]");
+    }
+
+    public Object getObject(String name) throws JMSException {
+        Object value = values.get(name);
+        return value instanceof byte[] ? ((byte[]) value).clone() : value;
+    }
+
+    public Enumeration getMapNames() throws JMSException {
+        return Collections.enumeration(values.keySet());
+    }
+
+    public boolean itemExists(String name) throws JMSException {
+        return values.containsKey(name);
+    }
+
+    public void setBoolean(String name, boolean value) throws JMSException {
+        set(name, Boolean.valueOf(value));
+    }
+
+    public void setByte(String name, byte value) throws JMSException {
+        set(name, Byte.valueOf(value));
+    }
+
+    public void setShort(String name, short value) throws JMSException {
+        set(name, Short.valueOf(value));
+    }
+
+    public void setChar(String name, char value) throws JMSException {
+        set(name, Character.valueOf(value));
+    }
+
+    public void setInt(String name, int value) throws JMSException {
+        set(name, Integer.valueOf(value));
+    }
+
+    public void setLong(String name, long value) throws JMSException {
+        set(name, Long.valueOf(value));
+    }
+
+    public void setFloat(String name, float value) throws JMSException {
+        set(name, Float.valueOf(value));
+    }
+
+    public void setDouble(String name, double value) throws JMSException {
+        set(name, Double.valueOf(value));
+    }
+
+    public void setString(String name, String value) throws JMSException {
+        set(name, value);
+    }
+
+    public void setBytes(String name, byte[] value) throws JMSException {
+        set(name, value == null ? null : value.clone());
+    }
+
+    public void setBytes(String name, byte[] value, int offset, int length) throws JMSException {
+        byte[] copy = new byte[length];
+        System.arraycopy(value, offset, copy, 0, length);
+        set(name, copy);
+    }
+
+    public void setObject(String name, Object value) throws JMSException {
+        if (value instanceof byte[])
+            value = ((byte[]) value).clone();
+        else if (value != null && value instanceof Boolean == false && value instanceof Byte == false
+                && value instanceof Short == false && value instanceof Character == false && value instanceof Integer == false
+                && value instanceof Long == false && value instanceof Float == false && value instanceof Double == false
+                && value instanceof String == false)
+            throw new MessageFormatException("Invalid type " + value.getClass().getName() + " for " + name);
+        set(name, value);
+    }
+
+    private void set(String name, Object value) throws JMSException {
+        checkWrite();
+        if (name == null || name.length() == 0)
+            throw new IllegalArgumentException("Invalid name: " + name);
+        values.put(name, value);
+    }
+
+    protected TestMessage newInstance() {
+        return new TestMapMessage();
+    }
+
+    protected void copyBody(TestMessage copy) throws JMSException {
+        ((TestMapMessage) copy).values.putAll(values);
+    }
+}
@@ -0,0 +1,562 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotWriteableException;
+import javax.jms.ObjectMessage;
+import javax.jms.StreamMessage;
+import javax.jms.TextMessage;
+
+/**
+ * A message of the test broker.
+ */
+public class TestMessage implements Message {
+    /**
+     * The name of the delivery count property
+     */
+    public static final String DELIVERY_COUNT = "JMSXDeliveryCount";
+
+    private String messageID;
+    private long timestamp;
+    private String correlationID;
+    private byte[] correlationIDBytes;
+    private Destination replyTo;
+    private Destination destination;
+    private int deliveryMode = DeliveryMode.PERSISTENT;
+    private boolean redelivered;
+    private String type;
+    private long expiration;
+    private int priority = DEFAULT_PRIORITY;
+
+    /**
+     * The properties
+     */
+    private Map<String, Object> properties = new LinkedHashMap<String, Object>();
+
+    /**
+     * Whether the properties are read only
+     */
+    private boolean propertiesReadOnly;
+
+    /**
+     * Whether the body is read only
+     */
+    protected boolean bodyReadOnly;
+
+    /**
+     * The id of the connection that sent the message
+     */
+    private long connectionId;
+
+    /**
+     * The subscription the message was delivered from
+     */
+    private TestSubscription subscription;
+
+    /**
+     * The session the message was delivered to
+     */
+    private TestSession session;
+
+    public void acknowledge() throws JMSException {
+        TestSession session = this.session;
+        if (session != null)
+            session.acknowledge();
+    }
+
+    public void clearBody() throws JMSException {
+        bodyReadOnly = false;
+    }
+
+    public void clearProperties() throws JMSException {
+        properties.clear();
+        propertiesReadOnly = false;
+    }
+
+    public String getJMSMessageID() throws JMSException {
+        return messageID;
+    }
+
+    public void setJMSMessageID(String id) throws JMSException {
+        this.messageID = id;
+    }
+
+    public long getJMSTimestamp() throws JMSException {
+        return timestamp;
+    }
+
+    public void setJMSTimestamp(long timestamp) throws JMSException {
+        this.timestamp = timestamp;
+    }
+
+    public byte[] getJMSCorrelationIDAsBytes() throws JMSException {
+        if (correlationIDBytes != null)
+            return correlationIDBytes.clone();
+        return correlationID == null ? null : correlationID.getBytes();
+    }
+
+    public void setJMSCorrelationIDAsBytes(byte[] correlationID) throws JMSException {
+        this.correlationIDBytes = correlationID == null ? null : correlationID.clone();
+        this.correlationID = null;
+    }
+
+    public void setJMSCorrelationID(String correlationID) throws JMSException {
+        this.correlationID = correlationID;
+        this.correlationIDBytes = null;
+    }
+
+    public String getJMSCorrelationID() throws JMSException {
+        if (correlationIDBytes != null)
+            return new String(correlationIDBytes);
+        return correlationID;
+    }
+
+    public Destination getJMSReplyTo() throws JMSException {
+        return replyTo;
+    }
+
+    public void setJMSReplyTo(Destination replyTo) throws JMSException {
+        this.replyTo = replyTo;
+    }
+
+    public Destination getJMSDestination() throws JMSException {
+        return destination;
+    }
+
+    public void setJMSDestination(Destination destination) throws JMSException {
+        this.destination = destination;
+    }
+
+    public int getJMSDeliveryMode() throws JMSException {
+        return deliveryMode;
+    }
+
+    public void setJMSDeliveryMode(int deliveryMode) throws JMSException {
+        this.deliveryMode = deliveryMode;
+    }
+
+    public boolean getJMSRedelivered() throws JMSException {
+        return redelivered;
+    }
+
+    public void setJMSRedelivered(boolean redelivered) throws JMSException {
+        this.redelivered = redelivered;
+    }
+
+    public String getJMSType() throws JMSException {
+        return type;
+    }
+
+    public void setJMSType(String type) throws JMSException {
+        this.type = type;
+    }
+
+    public long getJMSExpiration() throws JMSException {
+        return expiration;
+    }
+
+    public void setJMSExpiration(long expiration) throws JMSException {
+        this.expiration = expiration;
+    }
+
+    public int getJMSPriority() throws JMSException {
+        return priority;
+    }
+
+    public void setJMSPriority(int priority) throws JMSException {
+        this.priority = priority;
+    }
+
+    public boolean propertyExists(String name) throws JMSException {
+        return properties.containsKey(name);
+    }
+
+    public boolean getBooleanProperty(String name) throws JMSException {
+        return toBoolean(properties.get(name));
+    }
+
+    public byte getByteProperty(String name) throws JMSException {
+        return toByte(properties.get(name));
+    }
+
+    public short getShortProperty(String name) throws JMSException {
+        return toShort(properties.get(name));
+    }
+
+    public int getIntProperty(String name) throws JMSException {
+        return toInt(properties.get(name));
+    }
+
+    public long getLongProperty(String name) throws JMSException {
+        return toLong(properties.get(name));
+    }
+
+    public float getFloatProperty(String name) throws JMSException {
+        return toFloat(properties.get(name));
+    }
+
+    public double getDoubleProperty(String name) throws JMSException {
+        return toDouble(properties.get(name));
+    }
+
+    public String getStringProperty(String name) throws JMSException {
+        return toString(properties.get(name));
+    }
+
+    public Object getObjectProperty(String name) throws JMSException {
+        return properties.get(name);
+    }
+
+    public Enumeration getPropertyNames() throws JMSException {
+        return Collections.enumeration(properties.keySet());
+    }
+
+    public void setBooleanProperty(String name, boolean value) throws JMSException {
+        setProperty(name, Boolean.valueOf(value));
+    }
+
+    public void setByteProperty(String name, byte value) throws JMSException {
+        setProperty(name, Byte.valueOf(value));
+    }
+
+    public void setShortProperty(String name, short value) throws JMSException {
+        setProperty(name, Short.valueOf(value));
+    }
+
+    public void setIntProperty(String name, int value) throws JMSException {
+        setProperty(name, Integer.valueOf(value));
+    }
+
+    public void setLongProperty(String name, long value) throws JMSException {
+        setProperty(name, Long.valueOf(value));
+    }
+
+    public void setFloatProperty(String name, float value) throws JMSException {
+        setProperty(name, Float.valueOf(value));
+    }
+
+    public void setDoubleProperty(String name, double value) throws JMSException {
+        setProperty(name, Double.valueOf(value));
+    }
+
+    public void setStringProperty(String name, String value) throws JMSException {
+        setProperty(name, value);
+    }
+
+    public void setObjectProperty(String name, Object value) throws JMSException {
+        if (value != null && value instanceof Boolean == false && value instanceof Number == false && value instanceof String == false)
+            throw new MessageFormatException("Invalid property type " + value.getClass().getName() + " for " + name);
+        if (value instanceof Number && (value instanceof Byte || value instanceof Short || value instanceof Integer
+                || value instanceof Long || value instanceof Float || value instanceof Double) == false)
+            throw new MessageFormatException("Invalid property type " + value.getClass().getName() + " for " + name);
+        setProperty(name, value);
+    }
+
+    private void setProperty(String name, Object value) throws JMSException {
+        if (propertiesReadOnly)
+            throw new MessageNotWriteableException("The properties are read only");
+        if (name == null || name.length() == 0)
+            throw new IllegalArgumentException("Invalid property name: " + name);
+        properties.put(name, value);
+    }
+
+    /**
+     * Create an empty message of the same type
+     *
+     * @return the message
+     */
+    protected TestMessage newInstance() {
+        return new TestMessage();
+    }
+
+    /**
+     * Copy the body into a message of the same type
+     *
+     * @param copy the copy
+     * @throws JMSException for any error
+     */
+    protected void copyBody(TestMessage copy) throws JMSException {
+    }
+
+    /**
+     * Make the body readable from its start
+     *
+     * @throws JMSException for any error
+     */
+    protected void resetBody() throws JMSException {
+    }
+
+    /**
+     * Copy the message, the copy is independent of this message
+     *
+     * @return the copy
+     * @throws JMSException for any error
+     */
+    public TestMessage copy() throws JMSException {
+        TestMessage copy = newInstance();
+        copy.messageID = messageID;
+        copy.timestamp = timestamp;
+        copy.correlationID = correlationID;
+        copy.correlationIDBytes = correlationIDBytes;
+        copy.replyTo = replyTo;
+        copy.destination = destination;
+        copy.deliveryMode = deliveryMode;
+        copy.redelivered = redelivered;
+        copy.type = type;
+        copy.expiration = expiration;
+        copy.priority = priority;
+        copy.properties.putAll(properties);
+        copy.connectionId = connectionId;
+        copyBody(copy);
+        return copy;
+    }
+
+    /**
+     * Copy a message of any provider into a message of the test broker
+     *
+     * @param message the message
+     * @return the copy
+     * @throws JMSException for any error
+     */
+    public static TestMessage copyOf(Message message) throws JMSException {
+        if (message instanceof TestMessage)
+            return ((TestMessage) message).copy();
+
+        TestMessage copy;
+        if (message instanceof BytesMessage) {
+            BytesMessage bytes = (BytesMessage) message;
+            bytes.reset();
+            byte[] body = new byte[(int) bytes.getBodyLength()];
+            bytes.readBytes(body);
+            bytes.reset();
+            TestBytesMessage result = new TestBytesMessage();
+            result.writeBytes(body);
+            copy = result;
+        } else if (message instanceof TextMessage) {
+            copy = new TestTextMessage(((TextMessage) message).getText());
+        } else if (message instanceof ObjectMessage) {
+            copy = new TestObjectMessage(((ObjectMessage) message).getObject());
+        } else if (message instanceof MapMessage) {
+            MapMessage map = (MapMessage) message;
+            TestMapMessage result = new TestMapMessage();
+            for (Enumeration e = map.getMapNames(); e.hasMoreElements(); ) {
+                String name = (String) e.nextElement();
+                result.setObject(name, map.getObject(name));
+            }
+            copy = result;
+        } else if (message instanceof StreamMessage) {
+            StreamMessage stream = (StreamMessage) message;
+            stream.reset();
+            TestStreamMessage result = new TestStreamMessage();
+            try {
+                while (true)
+                    result.writeObject(stream.readObject());
+            } catch (javax.jms.MessageEOFException e) {
+                // end of the stream
+            }
+            stream.reset();
+            copy = result;
+        } else {
+            copy = new TestMessage();
+        }
+
+        copy.messageID = message.getJMSMessageID();
+        copy.timestamp = message.getJMSTimestamp();
+        copy.correlationID = message.getJMSCorrelationID();
+        copy.replyTo = message.getJMSReplyTo();
+        copy.destination = message.getJMSDestination();
+        copy.deliveryMode = message.getJMSDeliveryMode();
+        copy.redelivered = message.getJMSRedelivered();
+        copy.type = message.getJMSType();
+        copy.expiration = message.getJMSExpiration();
+        copy.priority = message.getJMSPriority();
+        for (Enumeration e = message.getPropertyNames(); e.hasMoreElements(); ) {
+            String name = (String) e.nextElement();
+            copy.properties.put(name, message.getObjectProperty(name));
+        }
+        return copy;
+    }
+
+    /**
+     * Make the message ready to be received: read only and readable from
+     * the start of its body
+     *
+     * @throws JMSException for any error
+     */
+    void prepareForDelivery() throws JMSException {
+        propertiesReadOnly = true;
+        bodyReadOnly = true;
+        resetBody();
+    }
+
+    /**
+     * Mark the message as delivered once more
+     *
+     * @throws JMSException for any error
+     */
+    void redelivered() throws JMSException {
+        redelivered = true;
+        Object count = properties.get(DELIVERY_COUNT);
+        properties.put(DELIVERY_COUNT, Integer.valueOf(count == null ? 2 : ((Integer) count).intValue() + 1));
+        resetBody();
+    }
+
+    /**
+     * @return whether the message expired
+     */
+    boolean isExpired() {
+        return expiration != 0 && expiration <= System.currentTimeMillis();
+    }
+
+    long getConnectionId() {
+        return connectionId;
+    }
+
+    void setConnectionId(long connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    TestSubscription getSubscription() {
+        return subscription;
+    }
+
+    void setSubscription(TestSubscription subscription) {
+        this.subscription = subscription;
+    }
+
+    void setSession(TestSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Check the body can be written
+     *
+     * @throws JMSException when the body is read only
+     */
+    protected void checkWrite() throws JMSException {
+        if (bodyReadOnly)
+            throw new MessageNotWriteableException("The body is read only");
+    }
+
+    /**
+     * Check the body can be read
+     *
+     * @throws JMSException when the body is write only
+     */
+    protected void checkRead() throws JMSException {
+        if (bodyReadOnly == false)
+            throw new javax.jms.MessageNotReadableException("The body is write only");
+    }
+
+    static boolean toBoolean(Object value) throws JMSException {
+        if (value instanceof Boolean)
+            return ((Boolean) value).booleanValue();
+        if (value == null || value instanceof String)
+            return Boolean.valueOf((String) value).booleanValue();
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to boolean");
+    }
+
+    static byte toByte(Object value) throws JMSException {
+        if (value instanceof Byte)
+            return ((Byte) value).byteValue();
+        if (value == null || value instanceof String)
+            return Byte.parseByte((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to byte");
+    }
+
+    static short toShort(Object value) throws JMSException {
+        if (value instanceof Short || value instanceof Byte)
+            return ((Number) value).shortValue();
+        if (value == null || value instanceof String)
+            return Short.parseShort((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to short");
+    }
+
+    static char toChar(Object value) throws JMSException {
+        if (value instanceof Character)
+            return ((Character) value).charValue();
+        if (value == null)
+            throw new NullPointerException("Cannot convert null to char");
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to char");
+    }
+
+    static int toInt(Object value) throws JMSException {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).intValue();
+        if (value == null || value instanceof String)
+            return Integer.parseInt((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to int");
+    }
+
+    static long toLong(Object value) throws JMSException {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        if (value == null || value instanceof String)
+            return Long.parseLong((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to long");
+    }
+
+    static float toFloat(Object value) throws JMSException {
+        if (value instanceof Float)
+            return ((Float) value).floatValue();
+        if (value == null)
+            throw new NullPointerException("Cannot convert null to float");
+        if (value instanceof String)
+            return Float.parseFloat((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to float");
+    }
+
+    static double toDouble(Object value) throws JMSException {
+        if (value instanceof Double || value instanceof Float)
+            return ((Number) value).doubleValue();
+        if (value == null)
+            throw new NullPointerException("Cannot convert null to double");
+        if (value instanceof String)
+            return Double.parseDouble((String) value);
+        throw new MessageFormatException("Cannot convert " + value.getClass().getName() + " to double");
+    }
+
+    static String toString(Object value) throws JMSException {
+        if (value instanceof byte[])
+            throw new MessageFormatException("Cannot convert byte[] to String");
+        return value == null ? null : value.toString();
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(getClass().getSimpleName());
+        buffer.append('[').append(messageID).append(']');
+        return buffer.toString();
+    }
+}
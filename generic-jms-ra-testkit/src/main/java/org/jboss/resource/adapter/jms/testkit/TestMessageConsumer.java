@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueReceiver;
+import javax.jms.Topic;
+import javax.jms.TopicSubscriber;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A consumer of the test broker. A message listener is driven by a daemon
+ * thread of the consumer, the delivery is serialized by the session.
+ */
+public class TestMessageConsumer implements QueueReceiver, TopicSubscriber {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestMessageConsumer.class);
+
+    /**
+     * How long to poll before checking the state again
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final TestSession session;
+    private final TestDestination destination;
+    private final TestSubscription subscription;
+    private final String messageSelector;
+    private final JmsSelector selector;
+    private final boolean noLocal;
+    private final boolean durable;
+    private volatile boolean closed;
+    private volatile MessageListener messageListener;
+    private Thread listenerThread;
+
+    TestMessageConsumer(TestSession session, TestDestination destination, TestSubscription subscription,
+                        String messageSelector, JmsSelector selector, boolean noLocal, boolean durable) {
+        this.session = session;
+        this.destination = destination;
+        this.subscription = subscription;
+        this.messageSelector = messageSelector;
+        this.selector = selector;
+        this.noLocal = noLocal;
+        this.durable = durable;
+        subscription.addConsumer();
+    }
+
+    public String getMessageSelector() throws JMSException {
+        checkOpen();
+        return messageSelector;
+    }
+
+    public MessageListener getMessageListener() throws JMSException {
+        checkOpen();
+        return messageListener;
+    }
+
+    public synchronized void setMessageListener(MessageListener listener) throws JMSException {
+        checkOpen();
+        this.messageListener = listener;
+        if (listener != null && listenerThread == null) {
+            listenerThread = new Thread(new Runnable() {
+                public void run() {
+                    listen();
+                }
+            }, "TestMessageConsumer-" + destination.getName());
+            listenerThread.setDaemon(true);
+            listenerThread.start();
+        }
+    }
+
+    public Message receive() throws JMSException {
+        return take(Long.MAX_VALUE);
+    }
+
+    public Message receive(long timeout) throws JMSException {
+        return take(timeout <= 0 ? Long.MAX_VALUE : timeout);
+    }
+
+    public Message receiveNoWait() throws JMSException {
+        return take(0);
+    }
+
+    public Queue getQueue() throws JMSException {
+        checkOpen();
+        return (Queue) destination;
+    }
+
+    public Topic getTopic() throws JMSException {
+        checkOpen();
+        return (Topic) destination;
+    }
+
+    public boolean getNoLocal() throws JMSException {
+        checkOpen();
+        return noLocal;
+    }
+
+    public void close() throws JMSException {
+        Thread thread;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            messageListener = null;
+            thread = listenerThread;
+            listenerThread = null;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(POLL_INTERVAL * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscription.removeConsumer();
+        if (durable == false && destination instanceof TestTopic)
+            ((TestTopic) destination).removeSubscription(subscription);
+        session.removeConsumer(this);
+    }
+
+    /**
+     * Receive a message synchronously
+     *
+     * @param timeout the maximum time to wait in milliseconds, zero does not wait
+     * @return the message or null
+     * @throws JMSException for any error
+     */
+    private Message take(long timeout) throws JMSException {
+        checkOpen();
+        if (messageListener != null)
+            throw new IllegalStateException("The consumer has a message listener");
+        long now = System.currentTimeMillis();
+        long deadline = Long.MAX_VALUE - now > timeout ? now + timeout : Long.MAX_VALUE;
+        TestConnection connection = session.getConnection();
+        try {
+            while (closed == false && session.isClosed() == false) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (connection.isStarted()) {
+                    TestMessage message = subscription.poll(Math.min(remaining, POLL_INTERVAL), selector);
+                    if (message != null) {
+                        if (closed || connection.isStarted() == false) {
+                            subscription.putBack(message);
+                            continue;
+                        }
+                        session.received(message);
+                        session.consumed(message);
+                        return message;
+                    }
+                } else if (remaining > 0) {
+                    connection.awaitStarted(Math.min(remaining, POLL_INTERVAL));
+                }
+                if (remaining <= 0)
+                    return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void listen() {
+        TestConnection connection = session.getConnection();
+        try {
+            while (true) {
+                MessageListener listener = messageListener;
+                if (closed || listener == null || session.isClosed())
+                    break;
+                if (connection.awaitStarted(POLL_INTERVAL) == false)
+                    continue;
+                TestMessage message = subscription.poll(POLL_INTERVAL, selector);
+                if (message == null)
+                    continue;
+                if (closed || messageListener == null || connection.isStarted() == false) {
+                    subscription.putBack(message);
+                    continue;
+                }
+                session.deliver(message, listener);
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted listening to " + destination);
+        } finally {
+            synchronized (this) {
+                if (listenerThread == Thread.currentThread())
+                    listenerThread = null;
+            }
+        }
+    }
+
+    private void checkOpen() throws JMSException {
+        session.checkOpen();
+        if (closed)
+            throw new IllegalStateException("The consumer is closed");
+    }
+
+    public String toString() {
+        return "TestMessageConsumer[" + subscription + "]";
+    }
+}
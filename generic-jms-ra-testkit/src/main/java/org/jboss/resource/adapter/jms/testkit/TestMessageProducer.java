@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueSender;
+import javax.jms.Topic;
+import javax.jms.TopicPublisher;
+
+/**
+ * A producer of the test broker.
+ */
+public class TestMessageProducer implements QueueSender, TopicPublisher {
+    private final TestSession session;
+    private final TestDestination destination;
+    private volatile boolean closed;
+    private boolean disableMessageID;
+    private boolean disableMessageTimestamp;
+    private int deliveryMode = DeliveryMode.PERSISTENT;
+    private int priority = Message.DEFAULT_PRIORITY;
+    private long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+
+    TestMessageProducer(TestSession session, TestDestination destination) {
+        this.session = session;
+        this.destination = destination;
+    }
+
+    public void setDisableMessageID(boolean value) throws JMSException {
+        checkOpen();
+        this.disableMessageID = value;
+    }
+
+    public boolean getDisableMessageID() throws JMSException {
+        checkOpen();
+        return disableMessageID;
+    }
+
+    public void setDisableMessageTimestamp(boolean value) throws JMSException {
+        checkOpen();
+        this.disableMessageTimestamp = value;
+    }
+
+    public boolean getDisableMessageTimestamp() throws JMSException {
+        checkOpen();
+        return disableMessageTimestamp;
+    }
+
+    public void setDeliveryMode(int deliveryMode) throws JMSException {
+        checkOpen();
+        this.deliveryMode = deliveryMode;
+    }
+
+    public int getDeliveryMode() throws JMSException {
+        checkOpen();
+        return deliveryMode;
+    }
+
+    public void setPriority(int defaultPriority) throws JMSException {
+        checkOpen();
+        this.priority = defaultPriority;
+    }
+
+    public int getPriority() throws JMSException {
+        checkOpen();
+        return priority;
+    }
+
+    public void setTimeToLive(long timeToLive) throws JMSException {
+        checkOpen();
+        this.timeToLive = timeToLive;
+    }
+
+    public long getTimeToLive() throws JMSException {
+        checkOpen();
+        return timeToLive;
+    }
+
+    public Destination getDestination() throws JMSException {
+        checkOpen();
+        return destination;
+    }
+
+    public Queue getQueue() throws JMSException {
+        return (Queue) getDestination();
+    }
+
+    public Topic getTopic() throws JMSException {
+        return (Topic) getDestination();
+    }
+
+    public void close() throws JMSException {
+        closed = true;
+        session.removeProducer(this);
+    }
+
+    public void send(Message message) throws JMSException {
+        send(message, deliveryMode, priority, timeToLive);
+    }
+
+    public void send(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        checkOpen();
+        if (destination == null)
+            throw new UnsupportedOperationException("The producer has no destination");
+        session.send(destination, message, deliveryMode, priority, timeToLive, disableMessageID, disableMessageTimestamp);
+    }
+
+    public void send(Destination destination, Message message) throws JMSException {
+        send(destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        checkOpen();
+        if (this.destination != null)
+            throw new UnsupportedOperationException("The producer has a destination");
+        session.send(session.toDestination(destination), message, deliveryMode, priority, timeToLive, disableMessageID, disableMessageTimestamp);
+    }
+
+    public void send(Queue queue, Message message) throws JMSException {
+        send((Destination) queue, message);
+    }
+
+    public void send(Queue queue, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        send((Destination) queue, message, deliveryMode, priority, timeToLive);
+    }
+
+    public void publish(Message message) throws JMSException {
+        send(message);
+    }
+
+    public void publish(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        send(message, deliveryMode, priority, timeToLive);
+    }
+
+    public void publish(Topic topic, Message message) throws JMSException {
+        send(topic, message);
+    }
+
+    public void publish(Topic topic, Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        send(topic, message, deliveryMode, priority, timeToLive);
+    }
+
+    private void checkOpen() throws JMSException {
+        session.checkOpen();
+        if (closed)
+            throw new IllegalStateException("The producer is closed");
+    }
+
+    public String toString() {
+        return "TestMessageProducer[" + destination + "]";
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+
+/**
+ * An object message of the test broker, the object is serialized when it is
+ * set so later changes to it are not seen by the receivers.
+ */
+public class TestObjectMessage extends TestMessage implements ObjectMessage {
+    /**
+     * The serialized object
+     */
+    private byte[] bytes;
+
+    public TestObjectMessage() {
+    }
+
+    public TestObjectMessage(Serializable object) throws JMSException {
+        setObject(object);
+    }
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        bytes = null;
+    }
+
+    public void setObject(Serializable object) throws JMSException {
+        checkWrite();
+        if (object == null) {
+            bytes = null;
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(object);
+            oos.close();
+            bytes = out.toByteArray();
+        } catch (IOException e) {
+            MessageFormatException result = new MessageFormatException("Unable to serialize " + object.getClass().getName());
+            result.setLinkedException(e);
+            throw result;
+        }
+    }
+
+    public Serializable getObject() throws JMSException {
+        if (bytes == null)
+            return null;
+        try {
+            ObjectInputStream ois = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (Serializable) ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } catch (Exception e) {
+            MessageFormatException result = new MessageFormatException("Unable to deserialize the object: " + e);
+            result.setLinkedException(e);
+            throw result;
+        }
+    }
+
+    protected TestMessage newInstance() {
+        return new TestObjectMessage();
+    }
+
+    protected void copyBody(TestMessage copy) throws JMSException {
+        ((TestObjectMessage) copy).bytes = bytes;
+    }
+
+    /**
+     * Resolves classes with the thread context classloader
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream {
+        ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException ignored) {
+                    // fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
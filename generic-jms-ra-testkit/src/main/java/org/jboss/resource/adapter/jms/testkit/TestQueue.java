@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.ObjectStreamException;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+
+/**
+ * A queue of the test broker.
+ */
+public class TestQueue extends TestDestination implements Queue {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The messages
+     */
+    private final transient TestSubscription subscription = new TestSubscription(this, null, 0, false, null);
+
+    TestQueue(String brokerName, String name) {
+        super(brokerName, name);
+    }
+
+    public String getQueueName() throws JMSException {
+        return getName();
+    }
+
+    /**
+     * @return the messages of the queue
+     */
+    public TestSubscription getSubscription() {
+        return subscription;
+    }
+
+    public int getMessageCount() {
+        return subscription.getMessageCount();
+    }
+
+    public void clear() {
+        subscription.clear();
+    }
+
+    void deliver(TestMessage message) throws JMSException {
+        subscription.add(message);
+    }
+
+    void removeNonPersistent() {
+        subscription.removeNonPersistent();
+    }
+
+    protected Object readResolve() throws ObjectStreamException {
+        return getBroker().getQueue(getName());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A browser of the test broker, it browses a snapshot of the queue.
+ */
+public class TestQueueBrowser implements QueueBrowser {
+    private final TestQueue queue;
+    private final String messageSelector;
+    private final JmsSelector selector;
+
+    TestQueueBrowser(TestQueue queue, String messageSelector, JmsSelector selector) {
+        this.queue = queue;
+        this.messageSelector = messageSelector;
+        this.selector = selector;
+    }
+
+    public Queue getQueue() throws JMSException {
+        return queue;
+    }
+
+    public String getMessageSelector() throws JMSException {
+        return messageSelector;
+    }
+
+    public Enumeration getEnumeration() throws JMSException {
+        List<TestMessage> messages = queue.getSubscription().browse();
+        List<TestMessage> copies = new ArrayList<TestMessage>(messages.size());
+        for (TestMessage message : messages) {
+            if (TestSelector.matches(selector, message))
+                copies.add(message.copy());
+        }
+        return Collections.enumeration(copies);
+    }
+
+    public void close() throws JMSException {
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * Message selectors of the test broker, evaluated with the selector engine
+ * of the resource adapter.
+ */
+final class TestSelector {
+    private TestSelector() {
+    }
+
+    /**
+     * Compile a selector
+     *
+     * @param selector the selector
+     * @return the compiled selector or null when the selector is empty
+     * @throws InvalidSelectorException when the selector is not valid
+     */
+    static JmsSelector compile(String selector) throws InvalidSelectorException {
+        return JmsSelector.compile(selector);
+    }
+
+    /**
+     * @param selector the selector or null
+     * @param message  the message
+     * @return whether the message is selected
+     */
+    static boolean matches(JmsSelector selector, TestMessage message) {
+        if (selector == null)
+            return true;
+        try {
+            return selector.matches(message);
+        } catch (JMSException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+import javax.jms.TransactionRolledBackException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A session of the test broker. Besides the usual consumers it can be the
+ * session of a server session: messages loaded by a connection consumer are
+ * passed to the message listener of the session by {@link #run()}.
+ */
+public class TestSession implements QueueSession, TopicSession {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestSession.class);
+
+    protected final TestConnection connection;
+    protected final TestBroker broker;
+    private final boolean transacted;
+    private final int acknowledgeMode;
+    private volatile boolean closed;
+
+    /**
+     * The local transaction
+     */
+    private TestTransactionBranch transaction;
+
+    /**
+     * The messages delivered outside a transaction and not acknowledged yet
+     */
+    private final List<TestMessage> unacknowledged = new ArrayList<TestMessage>();
+
+    /**
+     * The messages loaded by a connection consumer
+     */
+    private final List<TestMessage> loaded = new ArrayList<TestMessage>();
+
+    private volatile MessageListener messageListener;
+
+    private final Set<TestMessageConsumer> consumers = Collections.newSetFromMap(new ConcurrentHashMap<TestMessageConsumer, Boolean>());
+    private final Set<TestMessageProducer> producers = Collections.newSetFromMap(new ConcurrentHashMap<TestMessageProducer, Boolean>());
+
+    /**
+     * Serializes the delivery to message listeners
+     */
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
+    TestSession(TestConnection connection, boolean transacted, int acknowledgeMode) {
+        this.connection = connection;
+        this.broker = connection.getBroker();
+        this.transacted = transacted;
+        this.acknowledgeMode = acknowledgeMode;
+    }
+
+    TestBroker getBroker() {
+        return broker;
+    }
+
+    TestConnection getConnection() {
+        return connection;
+    }
+
+    public BytesMessage createBytesMessage() throws JMSException {
+        checkOpen();
+        return new TestBytesMessage();
+    }
+
+    public MapMessage createMapMessage() throws JMSException {
+        checkOpen();
+        return new TestMapMessage();
+    }
+
+    public Message createMessage() throws JMSException {
+        checkOpen();
+        return new TestMessage();
+    }
+
+    public ObjectMessage createObjectMessage() throws JMSException {
+        checkOpen();
+        return new TestObjectMessage();
+    }
+
+    public ObjectMessage createObjectMessage(Serializable object) throws JMSException {
+        checkOpen();
+        return new TestObjectMessage(object);
+    }
+
+    public StreamMessage createStreamMessage() throws JMSException {
+        checkOpen();
+        return new TestStreamMessage();
+    }
+
+    public TextMessage createTextMessage() throws JMSException {
+        checkOpen();
+        return new TestTextMessage();
+    }
+
+    public TextMessage createTextMessage(String text) throws JMSException {
+        checkOpen();
+        return new TestTextMessage(text);
+    }
+
+    public boolean getTransacted() throws JMSException {
+        checkOpen();
+        return transacted;
+    }
+
+    public int getAcknowledgeMode() throws JMSException {
+        checkOpen();
+        return acknowledgeMode;
+    }
+
+    public void commit() throws JMSException {
+        checkOpen();
+        if (transacted == false)
+            throw new IllegalStateException("The session is not transacted");
+        TestTransactionBranch tx = swapTransaction();
+        try {
+            broker.simulate(TestBroker.Operation.COMMIT);
+        } catch (JMSException e) {
+            tx.rollback();
+            TransactionRolledBackException result = new TransactionRolledBackException("Commit failed: " + e.getMessage());
+            result.setLinkedException(e);
+            throw result;
+        }
+        tx.commit();
+    }
+
+    public void rollback() throws JMSException {
+        checkOpen();
+        if (transacted == false)
+            throw new IllegalStateException("The session is not transacted");
+        swapTransaction().rollback();
+    }
+
+    private synchronized TestTransactionBranch swapTransaction() {
+        TestTransactionBranch result = transaction;
+        transaction = new TestTransactionBranch(broker, null);
+        return result != null ? result : transaction;
+    }
+
+    public void close() throws JMSException {
+        if (closed)
+            return;
+        closed = true;
+        for (TestMessageConsumer consumer : new ArrayList<TestMessageConsumer>(consumers))
+            consumer.close();
+        for (TestMessageProducer producer : new ArrayList<TestMessageProducer>(producers))
+            producer.close();
+        TestTransactionBranch tx;
+        synchronized (this) {
+            tx = transaction;
+            transaction = null;
+        }
+        if (tx != null)
+            tx.rollback();
+        redeliverUnacknowledged();
+        unload();
+        connection.removeSession(this);
+    }
+
+    public void recover() throws JMSException {
+        checkOpen();
+        if (transacted)
+            throw new IllegalStateException("The session is transacted");
+        redeliverUnacknowledged();
+    }
+
+    public MessageListener getMessageListener() throws JMSException {
+        checkOpen();
+        return messageListener;
+    }
+
+    public void setMessageListener(MessageListener listener) throws JMSException {
+        checkOpen();
+        this.messageListener = listener;
+    }
+
+    public void run() {
+        List<TestMessage> batch;
+        synchronized (this) {
+            batch = new ArrayList<TestMessage>(loaded);
+            loaded.clear();
+        }
+        MessageListener listener = messageListener;
+        for (int i = 0; i < batch.size(); ++i) {
+            if (closed || listener == null) {
+                for (int j = batch.size() - 1; j >= i; --j)
+                    batch.get(j).getSubscription().putBack(batch.get(j));
+                return;
+            }
+            deliver(batch.get(i), listener);
+        }
+    }
+
+    public MessageProducer createProducer(Destination destination) throws JMSException {
+        checkOpen();
+        TestMessageProducer producer = new TestMessageProducer(this, destination == null ? null : toDestination(destination));
+        producers.add(producer);
+        return producer;
+    }
+
+    void removeProducer(TestMessageProducer producer) {
+        producers.remove(producer);
+    }
+
+    public MessageConsumer createConsumer(Destination destination) throws JMSException {
+        return createConsumer(destination, null, false);
+    }
+
+    public MessageConsumer createConsumer(Destination destination, String messageSelector) throws JMSException {
+        return createConsumer(destination, messageSelector, false);
+    }
+
+    public MessageConsumer createConsumer(Destination destination, String messageSelector, boolean noLocal) throws JMSException {
+        checkOpen();
+        JmsSelector selector = TestSelector.compile(messageSelector);
+        TestDestination testDestination = toDestination(destination);
+        if (testDestination instanceof TestQueue)
+            return addConsumer(new TestMessageConsumer(this, testDestination, ((TestQueue) testDestination).getSubscription(), messageSelector, selector, noLocal, false));
+        TestSubscription subscription = ((TestTopic) testDestination).subscribe(connection.getId(), noLocal, selector);
+        return addConsumer(new TestMessageConsumer(this, testDestination, subscription, messageSelector, null, noLocal, false));
+    }
+
+    private TestMessageConsumer addConsumer(TestMessageConsumer consumer) {
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    void removeConsumer(TestMessageConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    public Queue createQueue(String queueName) throws JMSException {
+        checkOpen();
+        return broker.getQueue(queueName);
+    }
+
+    public Topic createTopic(String topicName) throws JMSException {
+        checkOpen();
+        return broker.getTopic(topicName);
+    }
+
+    public TopicSubscriber createDurableSubscriber(Topic topic, String name) throws JMSException {
+        return createDurableSubscriber(topic, name, null, false);
+    }
+
+    public TopicSubscriber createDurableSubscriber(Topic topic, String name, String messageSelector, boolean noLocal) throws JMSException {
+        checkOpen();
+        TestSubscription subscription = connection.getDurableSubscription(topic, name, noLocal, TestSelector.compile(messageSelector));
+        return addConsumer(new TestMessageConsumer(this, (TestTopic) topic, subscription, messageSelector, null, noLocal, true));
+    }
+
+    public QueueBrowser createBrowser(Queue queue) throws JMSException {
+        return createBrowser(queue, null);
+    }
+
+    public QueueBrowser createBrowser(Queue queue, String messageSelector) throws JMSException {
+        checkOpen();
+        JmsSelector selector = TestSelector.compile(messageSelector);
+        if (queue instanceof TestQueue == false)
+            throw new InvalidDestinationException("Not a queue of the test broker: " + queue);
+        return new TestQueueBrowser((TestQueue) queue, messageSelector, selector);
+    }
+
+    public TemporaryQueue createTemporaryQueue() throws JMSException {
+        checkOpen();
+        TestTemporaryQueue queue = broker.createTemporaryQueue();
+        connection.addTemporaryDestination(queue);
+        return queue;
+    }
+
+    public TemporaryTopic createTemporaryTopic() throws JMSException {
+        checkOpen();
+        TestTemporaryTopic topic = broker.createTemporaryTopic();
+        connection.addTemporaryDestination(topic);
+        return topic;
+    }
+
+    public void unsubscribe(String name) throws JMSException {
+        checkOpen();
+        String clientID = connection.getClientID();
+        if (clientID == null)
+            throw new IllegalStateException("A durable subscription needs a client id");
+        broker.unsubscribe(clientID, name);
+    }
+
+    public QueueReceiver createReceiver(Queue queue) throws JMSException {
+        return (QueueReceiver) createConsumer(queue, null, false);
+    }
+
+    public QueueReceiver createReceiver(Queue queue, String messageSelector) throws JMSException {
+        return (QueueReceiver) createConsumer(queue, messageSelector, false);
+    }
+
+    public QueueSender createSender(Queue queue) throws JMSException {
+        return (QueueSender) createProducer(queue);
+    }
+
+    public TopicSubscriber createSubscriber(Topic topic) throws JMSException {
+        return (TopicSubscriber) createConsumer(topic, null, false);
+    }
+
+    public TopicSubscriber createSubscriber(Topic topic, String messageSelector, boolean noLocal) throws JMSException {
+        return (TopicSubscriber) createConsumer(topic, messageSelector, noLocal);
+    }
+
+    public TopicPublisher createPublisher(Topic topic) throws JMSException {
+        return (TopicPublisher) createProducer(topic);
+    }
+
+    /**
+     * Get the transaction the work of the session belongs to
+     *
+     * @return the transaction or null when the work is not transacted
+     */
+    protected synchronized TestTransactionBranch getTransaction() {
+        if (transacted && transaction == null)
+            transaction = new TestTransactionBranch(broker, null);
+        return transaction;
+    }
+
+    /**
+     * Send a message
+     *
+     * @param destination           the destination
+     * @param message               the message
+     * @param deliveryMode          the delivery mode
+     * @param priority              the priority
+     * @param timeToLive            the time to live in milliseconds
+     * @param disableMessageID      whether no message id is needed
+     * @param disableTimestamp      whether no timestamp is needed
+     * @throws JMSException for any error
+     */
+    void send(TestDestination destination, Message message, int deliveryMode, int priority, long timeToLive,
+              boolean disableMessageID, boolean disableTimestamp) throws JMSException {
+        checkOpen();
+        broker.simulate(TestBroker.Operation.SEND);
+        long now = System.currentTimeMillis();
+        message.setJMSDestination(destination);
+        message.setJMSDeliveryMode(deliveryMode);
+        message.setJMSPriority(priority);
+        message.setJMSExpiration(timeToLive > 0 ? now + timeToLive : 0);
+        message.setJMSTimestamp(disableTimestamp ? 0 : now);
+        message.setJMSMessageID(disableMessageID ? null : broker.nextMessageID());
+
+        TestMessage copy = TestMessage.copyOf(message);
+        copy.setConnectionId(connection.getId());
+        TestTransactionBranch tx = getTransaction();
+        if (tx != null)
+            tx.sent(destination, copy);
+        else
+            broker.deliver(destination, copy);
+    }
+
+    /**
+     * Record the delivery of a message to this session
+     *
+     * @param message the message
+     */
+    void received(TestMessage message) {
+        message.setSession(this);
+        broker.delivered();
+        TestTransactionBranch tx = getTransaction();
+        if (tx != null) {
+            tx.received(message);
+        } else {
+            synchronized (this) {
+                unacknowledged.add(message);
+            }
+        }
+    }
+
+    /**
+     * Acknowledge a message once it was received or its listener returned,
+     * unless the session acknowledges by client
+     *
+     * @param message the message
+     */
+    void consumed(TestMessage message) {
+        if (acknowledgeMode != Session.CLIENT_ACKNOWLEDGE) {
+            synchronized (this) {
+                unacknowledged.remove(message);
+            }
+        }
+    }
+
+    /**
+     * Acknowledge all messages delivered to the session
+     */
+    void acknowledge() {
+        synchronized (this) {
+            unacknowledged.clear();
+        }
+    }
+
+    /**
+     * Take the messages not acknowledged yet
+     *
+     * @return the messages
+     */
+    synchronized List<TestMessage> takeUnacknowledged() {
+        List<TestMessage> result = new ArrayList<TestMessage>(unacknowledged);
+        unacknowledged.clear();
+        return result;
+    }
+
+    private void redeliverUnacknowledged() {
+        List<TestMessage> messages = takeUnacknowledged();
+        for (int i = messages.size() - 1; i >= 0; --i) {
+            TestMessage message = messages.get(i);
+            try {
+                message.getSubscription().redeliver(message);
+            } catch (JMSException e) {
+                log.warn("Unable to redeliver " + message, e);
+            }
+        }
+    }
+
+    /**
+     * Load messages to pass to the message listener with {@link #run()}
+     *
+     * @param messages the messages
+     */
+    synchronized void load(List<TestMessage> messages) {
+        loaded.addAll(messages);
+    }
+
+    /**
+     * Put back the messages loaded but not delivered
+     */
+    void unload() {
+        List<TestMessage> messages;
+        synchronized (this) {
+            messages = new ArrayList<TestMessage>(loaded);
+            loaded.clear();
+        }
+        for (int i = messages.size() - 1; i >= 0; --i)
+            messages.get(i).getSubscription().putBack(messages.get(i));
+    }
+
+    /**
+     * Pass a message to a listener. A message that is not transacted is
+     * redelivered when the listener throws a runtime exception.
+     *
+     * @param message  the message
+     * @param listener the listener
+     */
+    void deliver(TestMessage message, MessageListener listener) {
+        deliveryLock.lock();
+        try {
+            try {
+                broker.simulate(TestBroker.Operation.DELIVER);
+            } catch (JMSException ignored) {
+                // only the latency is simulated
+            }
+            received(message);
+            boolean success = false;
+            try {
+                listener.onMessage(message);
+                success = true;
+            } catch (RuntimeException e) {
+                log.debug("Message listener failed for " + message, e);
+            }
+            if (success) {
+                consumed(message);
+            } else if (acknowledgeMode != Session.CLIENT_ACKNOWLEDGE) {
+                boolean redeliver;
+                synchronized (this) {
+                    redeliver = unacknowledged.remove(message);
+                }
+                if (redeliver) {
+                    try {
+                        message.getSubscription().redeliver(message);
+                    } catch (JMSException e) {
+                        log.warn("Unable to redeliver " + message, e);
+                    }
+                }
+            }
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    TestDestination toDestination(Destination destination) throws JMSException {
+        if (destination instanceof TestDestination == false)
+            throw new InvalidDestinationException("Not a destination of the test broker: " + destination);
+        return (TestDestination) destination;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void checkOpen() throws JMSException {
+        connection.checkOpen();
+        if (closed)
+            throw new IllegalStateException("The session is closed");
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(getClass().getSimpleName());
+        buffer.append('[').append(connection);
+        buffer.append(" transacted=").append(transacted);
+        buffer.append(" acknowledgeMode=").append(acknowledgeMode);
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
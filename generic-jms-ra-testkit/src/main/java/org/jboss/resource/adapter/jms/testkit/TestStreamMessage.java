@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+
+/**
+ * A stream message of the test broker.
+ */
+public class TestStreamMessage extends TestMessage implements StreamMessage {
+    /**
+     * The values
+     */
+    private List<Object> values = new ArrayList<Object>();
+
+    /**
+     * The index of the next value to read
+     */
+    private int index;
+
+    /**
+     * The number of bytes of the current byte[] already read, -1 when
+     * none was read
+     */
+    private int bytesRead = -1;
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        values.clear();
+        index = 0;
+        bytesRead = -1;
+    }
+
+    public boolean readBoolean() throws JMSException {
+        boolean result = toBoolean(peek());
+        index++;
+        return result;
+    }
+
+    public byte readByte() throws JMSException {
+        byte result = toByte(peek());
+        index++;
+        return result;
+    }
+
+    public short readShort() throws JMSException {
+        short result = toShort(peek());
+        index++;
+        return result;
+    }
+
+    public char readChar() throws JMSException {
+        char result = toChar(peek());
+        index++;
+        return result;
+    }
+
+    public int readInt() throws JMSException {
+        int result = toInt(peek());
+        index++;
+        return result;
+    }
+
+    public long readLong() throws JMSException {
+        long result = toLong(peek());
+        index++;
+        return result;
+    }
+
+    public float readFloat() throws JMSException {
+        float result = toFloat(peek());
+        index++;
+        return result;
+    }
+
+    public double readDouble() throws JMSException {
+        double result = toDouble(peek());
+        index++;
+        return result;
+    }
+
+    public String readString() throws JMSException {
+        String result = toString(peek());
+        index++;
+        return result;
+    }
+
+    public int readBytes(byte[] value) throws JMSException {
+        checkRead();
+        if (bytesRead == -1 && index >= values.size())
+            throw new MessageEOFException("End of message");
+        Object current = index < values.size() ? values.get(index) : null;
+        if (current != null && current instanceof byte[] == false)
+            throw new MessageFormatException("Cannot convert " + current.getClass().getName() + " to byte[]");
+        byte[] bytes = (byte[]) current;
+        if (bytes == null) {
+            index++;
+            return -1;
+        }
+        if (bytesRead == -1)
+            bytesRead = 0;
+        int length = Math.min(value.length, bytes.length - bytesRead);
+        if (length == 0 && bytesRead == bytes.length) {
+            index++;
+            bytesRead = -1;
+            return -1;
+        }
+        System.arraycopy(bytes, bytesRead, value, 0, length);
+        bytesRead += length;
+        if (length < value.length) {
+            index++;
+            bytesRead = -1;
+        }
+        return length;
+    }
+
+    public Object readObject() throws JMSException {
+        Object result = peek();
+        index++;
+        return result instanceof byte[] ? ((byte[]) result).clone() : result;
+    }
+
+    public void writeBoolean(boolean value) throws JMSException {
+        write(Boolean.valueOf(value));
+    }
+
+    public void writeByte(byte value) throws JMSException {
+        write(Byte.valueOf(value));
+    }
+
+    public void writeShort(short value) throws JMSException {
+        write(Short.valueOf(value));
+    }
+
+    public void writeChar(char value) throws JMSException {
+        write(Character.valueOf(value));
+    }
+
+    public void writeInt(int value) throws JMSException {
+        write(Integer.valueOf(value));
+    }
+
+    public void writeLong(long value) throws JMSException {
+        write(Long.valueOf(value));
+    }
+
+    public void writeFloat(float value) throws JMSException {
+        write(Float.valueOf(value));
+    }
+
+    public void writeDouble(double value) throws JMSException {
+        write(Double.valueOf(value));
+    }
+
+    public void writeString(String value) throws JMSException {
+        write(value);
+    }
+
+    public void writeBytes(byte[] value) throws JMSException {
+        write(value.clone());
+    }
+
+    public void writeBytes(byte[] value, int offset, int length) throws JMSException {
+        byte[] copy = new byte[length];
+        System.arraycopy(value, offset, copy, 0, length);
+        write(copy);
+    }
+
+    public void writeObject(Object value) throws JMSException {
+        if (value instanceof byte[])
+            value = ((byte[]) value).clone();
+        else if (value != null && value instanceof Boolean == false && value instanceof Byte == false
+                && value instanceof Short == false && value instanceof Character == false && value instanceof Integer == false
+                && value instanceof Long == false && value instanceof Float == false && value instanceof Double == false
+                && value instanceof String == false)
+            throw new MessageFormatException("Cannot write " + value.getClass().getName());
+        write(value);
+    }
+
+    public void reset() throws JMSException {
+        bodyReadOnly = true;
+        resetBody();
+    }
+
+    private Object peek() throws JMSException {
+        checkRead();
+        if (bytesRead != -1)
+            throw new MessageFormatException("A byte[] is partially read");
+        if (index >= values.size())
+            throw new MessageEOFException("End of message");
+        return values.get(index);
+    }
+
+    private void write(Object value) throws JMSException {
+        checkWrite();
+        values.add(value);
+    }
+
+    protected TestMessage newInstance() {
+        return new TestStreamMessage();
+    }
+
+    protected void copyBody(TestMessage copy) throws JMSException {
+        ((TestStreamMessage) copy).values.addAll(values);
+    }
+
+    protected void resetBody() throws JMSException {
+        index = 0;
+        bytesRead = -1;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * The messages waiting for the consumers of a queue or of one subscription
+ * to a topic.
+ */
+public class TestSubscription {
+    /**
+     * The destination
+     */
+    private final TestDestination destination;
+
+    /**
+     * The name of a durable subscription
+     */
+    private final String name;
+
+    /**
+     * The id of the subscribing connection
+     */
+    private final long connectionId;
+
+    /**
+     * Whether messages sent by the subscribing connection are skipped
+     */
+    private final boolean noLocal;
+
+    /**
+     * The selector of a topic subscription, messages not selected are not added
+     */
+    private final JmsSelector selector;
+
+    /**
+     * The messages
+     */
+    private final LinkedBlockingDeque<TestMessage> messages = new LinkedBlockingDeque<TestMessage>();
+
+    /**
+     * The number of open consumers
+     */
+    private final AtomicInteger consumers = new AtomicInteger();
+
+    /**
+     * The number of consumers with a selector waiting for a message
+     */
+    private final AtomicInteger selectorWaiters = new AtomicInteger();
+
+    TestSubscription(TestDestination destination, String name, long connectionId, boolean noLocal, JmsSelector selector) {
+        this.destination = destination;
+        this.name = name;
+        this.connectionId = connectionId;
+        this.noLocal = noLocal;
+        this.selector = selector;
+    }
+
+    /**
+     * @return the destination
+     */
+    public TestDestination getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return the name of a durable subscription, otherwise null
+     */
+    public String getName() {
+        return name;
+    }
+
+    long getConnectionId() {
+        return connectionId;
+    }
+
+    boolean isNoLocal() {
+        return noLocal;
+    }
+
+    JmsSelector getSelector() {
+        return selector;
+    }
+
+    /**
+     * @param message a message sent to the topic
+     * @return whether the message is selected by the subscription
+     */
+    boolean accepts(TestMessage message) {
+        if (noLocal && connectionId == message.getConnectionId())
+            return false;
+        return TestSelector.matches(selector, message);
+    }
+
+    /**
+     * @return the number of messages waiting
+     */
+    public int getMessageCount() {
+        return messages.size();
+    }
+
+    /**
+     * @return the number of open consumers
+     */
+    public int getConsumerCount() {
+        return consumers.get();
+    }
+
+    void addConsumer() {
+        consumers.incrementAndGet();
+    }
+
+    void removeConsumer() {
+        consumers.decrementAndGet();
+    }
+
+    /**
+     * Remove all messages
+     */
+    public void clear() {
+        messages.clear();
+    }
+
+    void add(TestMessage message) throws JMSException {
+        message.setSubscription(this);
+        message.prepareForDelivery();
+        messages.add(message);
+        arrived();
+    }
+
+    /**
+     * Put back a message that was taken but not delivered
+     *
+     * @param message the message
+     */
+    void putBack(TestMessage message) {
+        messages.addFirst(message);
+        arrived();
+    }
+
+    /**
+     * Put back a message that was delivered but not acknowledged
+     *
+     * @param message the message
+     * @throws JMSException for any error
+     */
+    void redeliver(TestMessage message) throws JMSException {
+        message.setSession(null);
+        message.redelivered();
+        messages.addFirst(message);
+        arrived();
+    }
+
+    private void arrived() {
+        if (selectorWaiters.get() > 0) {
+            synchronized (selectorWaiters) {
+                selectorWaiters.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Take the next message which did not expire
+     *
+     * @param timeout how long to wait in milliseconds, zero or less does not wait
+     * @return the message or null when there was none in time
+     * @throws InterruptedException when interrupted
+     */
+    TestMessage poll(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            TestMessage message = remaining > 0 ? messages.poll(remaining, TimeUnit.MILLISECONDS) : messages.poll();
+            if (message == null)
+                return null;
+            if (message.isExpired() == false)
+                return message;
+            destination.getBroker().expired();
+        }
+    }
+
+    /**
+     * Take the next message selected by a selector which did not expire,
+     * the messages before it are left for the other consumers
+     *
+     * @param timeout  how long to wait in milliseconds, zero or less does not wait
+     * @param selector the selector, null selects every message
+     * @return the message or null when there was none in time
+     * @throws InterruptedException when interrupted
+     */
+    TestMessage poll(long timeout, JmsSelector selector) throws InterruptedException {
+        if (selector == null)
+            return poll(timeout);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            for (TestMessage message : messages) {
+                if (message.isExpired()) {
+                    if (messages.removeFirstOccurrence(message))
+                        destination.getBroker().expired();
+                } else if (TestSelector.matches(selector, message) && messages.removeFirstOccurrence(message)) {
+                    return message;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return null;
+            selectorWaiters.incrementAndGet();
+            try {
+                synchronized (selectorWaiters) {
+                    selectorWaiters.wait(remaining);
+                }
+            } finally {
+                selectorWaiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the messages waiting, excluding the expired ones
+     */
+    List<TestMessage> browse() {
+        List<TestMessage> result = new ArrayList<TestMessage>();
+        for (TestMessage message : messages) {
+            if (message.isExpired() == false)
+                result.add(message);
+        }
+        return result;
+    }
+
+    void removeNonPersistent() {
+        for (Iterator<TestMessage> i = messages.iterator(); i.hasNext(); ) {
+            try {
+                if (i.next().getJMSDeliveryMode() == DeliveryMode.NON_PERSISTENT)
+                    i.remove();
+            } catch (JMSException ignored) {
+                // not thrown by test messages
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("TestSubscription[").append(destination.getName());
+        if (name != null)
+            buffer.append(" name=").append(name);
+        buffer.append(" messages=").append(messages.size());
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
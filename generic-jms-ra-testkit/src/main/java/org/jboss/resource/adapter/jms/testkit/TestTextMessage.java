@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+
+/**
+ * A text message of the test broker.
+ */
+public class TestTextMessage extends TestMessage implements TextMessage {
+    /**
+     * The text
+     */
+    private String text;
+
+    public TestTextMessage() {
+    }
+
+    public TestTextMessage(String text) {
+        this.text = text;
+    }
+
+    public void clearBody() throws JMSException {
+        super.clearBody();
+        text = null;
+    }
+
+    public String getText() throws JMSException {
+        return text;
+    }
+
+    public void setText(String text) throws JMSException {
+        checkWrite();
+        this.text = text;
+    }
+
+    protected TestMessage newInstance() {
+        return new TestTextMessage();
+    }
+
+    protected void copyBody(TestMessage copy) throws JMSException {
+        ((TestTextMessage) copy).text = text;
+    }
+}
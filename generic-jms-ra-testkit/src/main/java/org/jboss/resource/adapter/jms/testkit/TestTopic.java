@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.io.ObjectStreamException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.JMSException;
+import javax.jms.Topic;
+
+import org.jboss.resource.adapter.jms.selector.JmsSelector;
+
+/**
+ * A topic of the test broker, every subscription gets its own copy of a
+ * published message.
+ */
+public class TestTopic extends TestDestination implements Topic {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The subscriptions
+     */
+    private final transient List<TestSubscription> subscriptions = new CopyOnWriteArrayList<TestSubscription>();
+
+    TestTopic(String brokerName, String name) {
+        super(brokerName, name);
+    }
+
+    public String getTopicName() throws JMSException {
+        return getName();
+    }
+
+    /**
+     * @return the subscriptions, durable or not
+     */
+    public List<TestSubscription> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public int getMessageCount() {
+        int result = 0;
+        for (TestSubscription subscription : subscriptions)
+            result += subscription.getMessageCount();
+        return result;
+    }
+
+    public void clear() {
+        for (TestSubscription subscription : subscriptions)
+            subscription.clear();
+    }
+
+    /**
+     * Create a non durable subscription
+     *
+     * @param connectionId the id of the subscribing connection
+     * @param noLocal      whether messages sent by that connection are skipped
+     * @param selector     the selector or null
+     * @return the subscription
+     */
+    TestSubscription subscribe(long connectionId, boolean noLocal, JmsSelector selector) {
+        TestSubscription subscription = new TestSubscription(this, null, connectionId, noLocal, selector);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void addSubscription(TestSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    void removeSubscription(TestSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    void deliver(TestMessage message) throws JMSException {
+        for (TestSubscription subscription : subscriptions) {
+            if (subscription.accepts(message))
+                subscription.add(message.copy());
+        }
+    }
+
+    void removeNonPersistent() {
+        for (TestSubscription subscription : subscriptions)
+            subscription.removeNonPersistent();
+    }
+
+    protected Object readResolve() throws ObjectStreamException {
+        return getBroker().getTopic(getName());
+    }
+}
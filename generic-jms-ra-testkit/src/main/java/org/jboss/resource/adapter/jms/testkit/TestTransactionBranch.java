@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.transaction.xa.Xid;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The messages sent and received in a local transaction or an XA
+ * transaction branch.
+ */
+class TestTransactionBranch {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestTransactionBranch.class);
+
+    private final TestBroker broker;
+
+    /**
+     * The xid or null for a local transaction
+     */
+    private final Xid xid;
+
+    private final List<TestDestination> destinations = new ArrayList<TestDestination>();
+    private final List<TestMessage> sent = new ArrayList<TestMessage>();
+    private final List<TestMessage> received = new ArrayList<TestMessage>();
+
+    private boolean prepared;
+    private boolean rollbackOnly;
+
+    TestTransactionBranch(TestBroker broker, Xid xid) {
+        this.broker = broker;
+        this.xid = xid;
+    }
+
+    Xid getXid() {
+        return xid;
+    }
+
+    synchronized void sent(TestDestination destination, TestMessage message) {
+        destinations.add(destination);
+        sent.add(message);
+    }
+
+    synchronized void received(TestMessage message) {
+        received.add(message);
+    }
+
+    synchronized void received(List<TestMessage> messages) {
+        received.addAll(messages);
+    }
+
+    synchronized boolean isEmpty() {
+        return sent.isEmpty() && received.isEmpty();
+    }
+
+    synchronized boolean isPrepared() {
+        return prepared;
+    }
+
+    synchronized void setPrepared() {
+        prepared = true;
+    }
+
+    synchronized boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    synchronized void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    /**
+     * Make the sent messages available and forget the received ones
+     *
+     * @throws JMSException for any error
+     */
+    synchronized void commit() throws JMSException {
+        try {
+            for (int i = 0; i < sent.size(); ++i)
+                broker.deliver(destinations.get(i), sent.get(i));
+        } finally {
+            destinations.clear();
+            sent.clear();
+            received.clear();
+        }
+        broker.committed();
+    }
+
+    /**
+     * Drop the sent messages and redeliver the received ones
+     */
+    synchronized void rollback() {
+        for (int i = received.size() - 1; i >= 0; --i) {
+            TestMessage message = received.get(i);
+            try {
+                message.getSubscription().redeliver(message);
+            } catch (JMSException e) {
+                log.warn("Unable to redeliver " + message, e);
+            }
+        }
+        destinations.clear();
+        sent.clear();
+        received.clear();
+        broker.rolledBack();
+    }
+
+    public String toString() {
+        return "TestTransactionBranch[xid=" + xid + " prepared=" + prepared + "]";
+    }
+}
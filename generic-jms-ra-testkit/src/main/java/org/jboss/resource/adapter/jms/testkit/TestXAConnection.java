@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.JMSException;
+import javax.jms.XAQueueConnection;
+import javax.jms.XAQueueSession;
+import javax.jms.XASession;
+import javax.jms.XATopicConnection;
+import javax.jms.XATopicSession;
+
+/**
+ * An XA connection to the test broker.
+ */
+public class TestXAConnection extends TestConnection implements XAQueueConnection, XATopicConnection {
+    TestXAConnection(TestBroker broker, long id, String user) {
+        super(broker, id, user);
+    }
+
+    public XASession createXASession() throws JMSException {
+        return createTestXASession();
+    }
+
+    public XAQueueSession createXAQueueSession() throws JMSException {
+        return createTestXASession();
+    }
+
+    public XATopicSession createXATopicSession() throws JMSException {
+        return createTestXASession();
+    }
+
+    private TestXASession createTestXASession() throws JMSException {
+        checkOpen();
+        return (TestXASession) addSession(new TestXASession(this));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.JMSException;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.jms.XAQueueConnection;
+import javax.jms.XAQueueConnectionFactory;
+import javax.jms.XATopicConnection;
+import javax.jms.XATopicConnectionFactory;
+
+/**
+ * An XA connection factory of the test broker, all its connections are XA
+ * connections.
+ */
+public class TestXAConnectionFactory extends TestConnectionFactory implements XAConnectionFactory, XAQueueConnectionFactory, XATopicConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    public TestXAConnectionFactory(String brokerName) {
+        super(brokerName);
+    }
+
+    public XAConnection createXAConnection() throws JMSException {
+        return xaConnect(null, null);
+    }
+
+    public XAConnection createXAConnection(String userName, String password) throws JMSException {
+        return xaConnect(userName, password);
+    }
+
+    public XAQueueConnection createXAQueueConnection() throws JMSException {
+        return xaConnect(null, null);
+    }
+
+    public XAQueueConnection createXAQueueConnection(String userName, String password) throws JMSException {
+        return xaConnect(userName, password);
+    }
+
+    public XATopicConnection createXATopicConnection() throws JMSException {
+        return xaConnect(null, null);
+    }
+
+    public XATopicConnection createXATopicConnection(String userName, String password) throws JMSException {
+        return xaConnect(userName, password);
+    }
+
+    protected TestConnection connect(String userName, String password) throws JMSException {
+        return xaConnect(userName, password);
+    }
+
+    private TestXAConnection xaConnect(String userName, String password) throws JMSException {
+        return (TestXAConnection) getBroker().connect(userName, password, true);
+    }
+}
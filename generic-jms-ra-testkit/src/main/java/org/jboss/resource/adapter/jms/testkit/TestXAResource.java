@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.JMSException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * The XA resource of a session of the test broker. Branches are kept by the
+ * broker, so a branch can be completed from any resource of the same broker.
+ */
+public class TestXAResource implements XAResource {
+    private final TestXASession session;
+    private final TestBroker broker;
+    private int transactionTimeout;
+
+    TestXAResource(TestXASession session) {
+        this.session = session;
+        this.broker = session.getBroker();
+    }
+
+    public void start(Xid xid, int flags) throws XAException {
+        if (session.getBranch() != null)
+            throw xaException(XAException.XAER_PROTO, "Session is already associated with " + session.getBranch());
+        TestTransactionBranch branch;
+        if ((flags & (TMJOIN | TMRESUME)) != 0) {
+            branch = broker.getBranch(xid);
+            if (branch == null)
+                throw xaException(XAException.XAER_NOTA, "Unknown xid " + xid);
+        } else {
+            branch = broker.createBranch(xid);
+        }
+        // messages delivered just before the branch started belong to it
+        branch.received(session.takeUnacknowledged());
+        session.setBranch(branch);
+    }
+
+    public void end(Xid xid, int flags) throws XAException {
+        TestTransactionBranch branch = session.getBranch();
+        if (branch == null || branch != broker.getBranch(xid))
+            throw xaException(XAException.XAER_PROTO, "Session is not associated with " + xid);
+        if ((flags & TMFAIL) != 0)
+            branch.setRollbackOnly();
+        session.setBranch(null);
+    }
+
+    public int prepare(Xid xid) throws XAException {
+        TestTransactionBranch branch = getBranch(xid);
+        if (branch.isRollbackOnly()) {
+            rollback(branch);
+            throw xaException(XAException.XA_RBROLLBACK, "Branch is rollback only " + xid);
+        }
+        try {
+            broker.simulate(TestBroker.Operation.PREPARE);
+        } catch (JMSException e) {
+            rollback(branch);
+            throw xaException(XAException.XA_RBROLLBACK, e.getMessage());
+        }
+        if (branch.isEmpty()) {
+            broker.removeBranch(xid);
+            return XA_RDONLY;
+        }
+        branch.setPrepared();
+        return XA_OK;
+    }
+
+    public void commit(Xid xid, boolean onePhase) throws XAException {
+        TestTransactionBranch branch = getBranch(xid);
+        if (onePhase) {
+            if (branch.isRollbackOnly()) {
+                rollback(branch);
+                throw xaException(XAException.XA_RBROLLBACK, "Branch is rollback only " + xid);
+            }
+        } else if (branch.isPrepared() == false) {
+            throw xaException(XAException.XAER_PROTO, "Branch is not prepared " + xid);
+        }
+        try {
+            broker.simulate(TestBroker.Operation.COMMIT);
+        } catch (JMSException e) {
+            if (onePhase) {
+                rollback(branch);
+                throw xaException(XAException.XA_RBROLLBACK, e.getMessage());
+            }
+            // a prepared branch stays in doubt until it is recovered
+            throw xaException(XAException.XAER_RMFAIL, e.getMessage());
+        }
+        broker.removeBranch(xid);
+        try {
+            branch.commit();
+        } catch (JMSException e) {
+            throw xaException(XAException.XAER_RMERR, e.getMessage());
+        }
+    }
+
+    public void rollback(Xid xid) throws XAException {
+        rollback(getBranch(xid));
+    }
+
+    private void rollback(TestTransactionBranch branch) {
+        broker.removeBranch(branch.getXid());
+        if (session.getBranch() == branch)
+            session.setBranch(null);
+        branch.rollback();
+    }
+
+    public void forget(Xid xid) throws XAException {
+        broker.removeBranch(xid);
+    }
+
+    public Xid[] recover(int flag) throws XAException {
+        if ((flag & TMSTARTRSCAN) != 0)
+            return broker.getPreparedXids();
+        return new Xid[0];
+    }
+
+    public boolean isSameRM(XAResource xaResource) throws XAException {
+        return xaResource instanceof TestXAResource && ((TestXAResource) xaResource).broker == broker;
+    }
+
+    public int getTransactionTimeout() throws XAException {
+        return transactionTimeout;
+    }
+
+    public boolean setTransactionTimeout(int seconds) throws XAException {
+        transactionTimeout = seconds;
+        return true;
+    }
+
+    private TestTransactionBranch getBranch(Xid xid) throws XAException {
+        TestTransactionBranch branch = broker.getBranch(xid);
+        if (branch == null)
+            throw xaException(XAException.XAER_NOTA, "Unknown xid " + xid);
+        return branch;
+    }
+
+    static XAException xaException(int errorCode, String message) {
+        XAException result = new XAException(message);
+        result.errorCode = errorCode;
+        return result;
+    }
+}
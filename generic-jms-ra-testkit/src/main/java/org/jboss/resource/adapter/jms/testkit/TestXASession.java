@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import javax.jms.JMSException;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TopicSession;
+import javax.jms.TransactionInProgressException;
+import javax.jms.XAQueueSession;
+import javax.jms.XATopicSession;
+import javax.transaction.xa.XAResource;
+
+/**
+ * An XA session of the test broker. Outside a transaction branch it behaves
+ * like a session acknowledging automatically.
+ */
+public class TestXASession extends TestSession implements XAQueueSession, XATopicSession {
+    private final TestXAResource xaResource;
+
+    /**
+     * The transaction branch the session is associated with
+     */
+    private volatile TestTransactionBranch branch;
+
+    TestXASession(TestXAConnection connection) {
+        super(connection, false, Session.AUTO_ACKNOWLEDGE);
+        xaResource = new TestXAResource(this);
+    }
+
+    public Session getSession() throws JMSException {
+        checkOpen();
+        return this;
+    }
+
+    public QueueSession getQueueSession() throws JMSException {
+        checkOpen();
+        return this;
+    }
+
+    public TopicSession getTopicSession() throws JMSException {
+        checkOpen();
+        return this;
+    }
+
+    public XAResource getXAResource() {
+        return xaResource;
+    }
+
+    public boolean getTransacted() throws JMSException {
+        checkOpen();
+        return true;
+    }
+
+    public int getAcknowledgeMode() throws JMSException {
+        checkOpen();
+        return Session.SESSION_TRANSACTED;
+    }
+
+    public void commit() throws JMSException {
+        throw new TransactionInProgressException("XA sessions are committed with their XAResource");
+    }
+
+    public void rollback() throws JMSException {
+        throw new TransactionInProgressException("XA sessions are rolled back with their XAResource");
+    }
+
+    protected TestTransactionBranch getTransaction() {
+        return branch;
+    }
+
+    TestTransactionBranch getBranch() {
+        return branch;
+    }
+
+    void setBranch(TestTransactionBranch branch) {
+        this.branch = branch;
+    }
+}
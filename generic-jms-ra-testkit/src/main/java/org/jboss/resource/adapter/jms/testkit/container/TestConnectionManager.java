@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.resource.NotSupportedException;
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A pooling connection manager for the outbound connections of the test
+ * container. With a transaction manager a managed connection is enlisted in
+ * the transaction of the caller and returned to the pool when both its
+ * handles are closed and the transaction completed.
+ */
+public class TestConnectionManager implements ConnectionManager, ConnectionEventListener {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestConnectionManager.class);
+
+    private final transient TransactionManager tm;
+
+    /**
+     * The managed connections that can be allocated
+     */
+    private final transient Set<ManagedConnection> idle = new HashSet<ManagedConnection>();
+
+    /**
+     * The state of all live managed connections
+     */
+    private final transient Map<ManagedConnection, Slot> slots = new ConcurrentHashMap<ManagedConnection, Slot>();
+
+    /**
+     * The managed connections enlisted by transaction
+     */
+    private final transient Map<Transaction, List<ManagedConnection>> enlisted = new ConcurrentHashMap<Transaction, List<ManagedConnection>>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+
+    /**
+     * Create a connection manager
+     *
+     * @param tm the transaction manager or null when connections are not enlisted
+     */
+    public TestConnectionManager(TransactionManager tm) {
+        this.tm = tm;
+    }
+
+    public Object allocateConnection(ManagedConnectionFactory mcf, ConnectionRequestInfo info) throws ResourceException {
+        Transaction tx = getTransaction();
+        ManagedConnection mc = null;
+        if (tx != null) {
+            List<ManagedConnection> candidates = enlisted.get(tx);
+            if (candidates != null)
+                mc = mcf.matchManagedConnections(new HashSet<ManagedConnection>(candidates), null, info);
+        }
+        if (mc == null) {
+            synchronized (idle) {
+                if (idle.isEmpty() == false) {
+                    mc = mcf.matchManagedConnections(idle, null, info);
+                    if (mc != null)
+                        idle.remove(mc);
+                }
+            }
+            if (mc == null) {
+                mc = mcf.createManagedConnection(null, info);
+                mc.addConnectionEventListener(this);
+                slots.put(mc, new Slot());
+                created.incrementAndGet();
+            }
+            if (tx != null)
+                enlist(tx, mc);
+        }
+
+        Slot slot = slots.get(mc);
+        Object handle = mc.getConnection(null, info);
+        synchronized (slot) {
+            ++slot.handles;
+        }
+        return handle;
+    }
+
+    private Transaction getTransaction() throws ResourceException {
+        if (tm == null)
+            return null;
+        try {
+            Transaction tx = tm.getTransaction();
+            return tx != null && tx.getStatus() == Status.STATUS_ACTIVE ? tx : null;
+        } catch (Exception e) {
+            throw new ResourceException("Unable to get the transaction", e);
+        }
+    }
+
+    private void enlist(final Transaction tx, final ManagedConnection mc) throws ResourceException {
+        final Slot slot = slots.get(mc);
+        try {
+            if (slot.xaResource == null)
+                slot.xaResource = mc.getXAResource();
+        } catch (NotSupportedException e) {
+            // not an XA connection, it is used outside the transaction
+            return;
+        }
+        try {
+            tx.enlistResource(slot.xaResource);
+            tx.registerSynchronization(new Synchronization() {
+                public void beforeCompletion() {
+                }
+
+                public void afterCompletion(int status) {
+                    enlisted.remove(tx);
+                    boolean release;
+                    synchronized (slot) {
+                        slot.tx = null;
+                        release = slot.handles == 0;
+                    }
+                    if (release)
+                        release(mc);
+                }
+            });
+        } catch (Exception e) {
+            release(mc);
+            throw new ResourceException("Unable to enlist " + mc, e);
+        }
+        synchronized (slot) {
+            slot.tx = tx;
+        }
+        List<ManagedConnection> connections = enlisted.get(tx);
+        if (connections == null) {
+            connections = Collections.synchronizedList(new ArrayList<ManagedConnection>());
+            enlisted.put(tx, connections);
+        }
+        connections.add(mc);
+    }
+
+    public void connectionClosed(ConnectionEvent event) {
+        ManagedConnection mc = (ManagedConnection) event.getSource();
+        Slot slot = slots.get(mc);
+        if (slot == null)
+            return;
+        boolean release;
+        synchronized (slot) {
+            --slot.handles;
+            release = slot.handles <= 0 && slot.tx == null;
+        }
+        if (release)
+            release(mc);
+    }
+
+    public void connectionErrorOccurred(ConnectionEvent event) {
+        destroy((ManagedConnection) event.getSource());
+    }
+
+    public void localTransactionStarted(ConnectionEvent event) {
+    }
+
+    public void localTransactionCommitted(ConnectionEvent event) {
+    }
+
+    public void localTransactionRolledback(ConnectionEvent event) {
+    }
+
+    private void release(ManagedConnection mc) {
+        Slot slot = slots.get(mc);
+        if (slot == null)
+            return;
+        synchronized (slot) {
+            slot.handles = 0;
+        }
+        try {
+            mc.cleanup();
+        } catch (ResourceException e) {
+            log.debug("Unable to clean up " + mc, e);
+            destroy(mc);
+            return;
+        }
+        synchronized (idle) {
+            idle.add(mc);
+        }
+    }
+
+    private void destroy(ManagedConnection mc) {
+        if (slots.remove(mc) == null)
+            return;
+        synchronized (idle) {
+            idle.remove(mc);
+        }
+        destroyed.incrementAndGet();
+        try {
+            mc.destroy();
+        } catch (ResourceException e) {
+            log.debug("Unable to destroy " + mc, e);
+        }
+    }
+
+    /**
+     * @return the number of idle managed connections
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return the number of managed connections created
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of managed connections destroyed
+     */
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    /**
+     * Destroy all managed connections
+     */
+    public void shutdown() {
+        for (ManagedConnection mc : new ArrayList<ManagedConnection>(slots.keySet()))
+            destroy(mc);
+    }
+
+    /**
+     * The state of a managed connection
+     */
+    private static class Slot {
+        int handles;
+        Transaction tx;
+        XAResource xaResource;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.Topic;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerInvocationHandler;
+import javax.management.ObjectName;
+import javax.naming.Context;
+import javax.resource.ResourceException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.JmsManagedConnectionFactory;
+import org.jboss.resource.adapter.jms.JmsManagement;
+import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationMBean;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestInitialContextFactory;
+
+/**
+ * Runs the resource adapter against a test broker on one machine: it
+ * installs the local JNDI, binds a transaction manager where the adapter
+ * looks it up and starts the adapter with a work manager of its own.
+ */
+public class TestContainer {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestContainer.class);
+
+    /**
+     * Where the resource adapter looks up the transaction manager
+     */
+    public static final String TRANSACTION_MANAGER = "java:jboss/TransactionManager";
+
+    private final TestBroker broker;
+    private final TestWorkManager workManager;
+    private final TestTransactionManager tm = new TestTransactionManager();
+    private final JmsResourceAdapter ra = new JmsResourceAdapter();
+    private final Map<JmsActivationSpec, TestMessageEndpointFactory> activations = new ConcurrentHashMap<JmsActivationSpec, TestMessageEndpointFactory>();
+    private final List<TestConnectionManager> connectionManagers = new ArrayList<TestConnectionManager>();
+
+    /**
+     * Create a container for the default broker
+     *
+     * @throws ResourceException for any error
+     */
+    public TestContainer() throws ResourceException {
+        this(TestBroker.getDefault(), 32);
+    }
+
+    /**
+     * Create a container
+     *
+     * @param broker     the broker
+     * @param maxThreads the maximum number of threads of the work manager
+     * @throws ResourceException for any error
+     */
+    public TestContainer(TestBroker broker, int maxThreads) throws ResourceException {
+        this.broker = broker;
+        this.workManager = new TestWorkManager(maxThreads);
+        TestInitialContextFactory.install();
+        TestInitialContextFactory.bind(TRANSACTION_MANAGER, tm);
+        ra.start(new TestBootstrapContext(workManager));
+    }
+
+    public TestBroker getBroker() {
+        return broker;
+    }
+
+    public TestWorkManager getWorkManager() {
+        return workManager;
+    }
+
+    public TestTransactionManager getTransactionManager() {
+        return tm;
+    }
+
+    public JmsResourceAdapter getResourceAdapter() {
+        return ra;
+    }
+
+    /**
+     * @return the JNDI parameters of activation specs and managed connection factories using the broker
+     */
+    public String getJndiParameters() {
+        return Context.INITIAL_CONTEXT_FACTORY + "=" + TestInitialContextFactory.class.getName() + ";"
+                + TestInitialContextFactory.BROKER + "=" + broker.getName();
+    }
+
+    /**
+     * Create an activation spec for a queue
+     *
+     * @param queue       the name of the queue
+     * @param transacted  whether it uses the XA connection factory
+     * @return the activation spec
+     * @throws ResourceException for any error
+     */
+    public JmsActivationSpec createQueueActivationSpec(String queue, boolean transacted) throws ResourceException {
+        return createActivationSpec(TestInitialContextFactory.QUEUE_PREFIX + queue, Queue.class, transacted);
+    }
+
+    /**
+     * Create an activation spec for a topic
+     *
+     * @param topic       the name of the topic
+     * @param transacted  whether it uses the XA connection factory
+     * @return the activation spec
+     * @throws ResourceException for any error
+     */
+    public JmsActivationSpec createTopicActivationSpec(String topic, boolean transacted) throws ResourceException {
+        return createActivationSpec(TestInitialContextFactory.TOPIC_PREFIX + topic, Topic.class, transacted);
+    }
+
+    private JmsActivationSpec createActivationSpec(String destination, Class<?> destinationType, boolean transacted) throws ResourceException {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setResourceAdapter(ra);
+        spec.setJndiParameters(getJndiParameters());
+        spec.setConnectionFactory(transacted ? TestInitialContextFactory.XA_CONNECTION_FACTORY : TestInitialContextFactory.CONNECTION_FACTORY);
+        spec.setDestination(destination);
+        spec.setDestinationType(destinationType.getName());
+        return spec;
+    }
+
+    /**
+     * Activate an endpoint
+     *
+     * @param spec       the activation spec
+     * @param listener   the listener receiving the messages
+     * @param transacted whether the delivery is transacted
+     * @return the message endpoint factory
+     * @throws ResourceException for any error
+     */
+    public TestMessageEndpointFactory activate(JmsActivationSpec spec, MessageListener listener, boolean transacted) throws ResourceException {
+        TestMessageEndpointFactory endpointFactory = new TestMessageEndpointFactory(listener, transacted ? tm : null);
+        activations.put(spec, endpointFactory);
+        ra.endpointActivation(endpointFactory, spec);
+        return endpointFactory;
+    }
+
+    /**
+     * Deactivate an endpoint
+     *
+     * @param spec the activation spec
+     */
+    public void deactivate(JmsActivationSpec spec) {
+        TestMessageEndpointFactory endpointFactory = activations.remove(spec);
+        if (endpointFactory != null)
+            ra.endpointDeactivation(endpointFactory, spec);
+    }
+
+    /**
+     * Get the MBean of the only activation of a destination, as registered
+     * with the platform MBeanServer
+     *
+     * @param spec the activation spec
+     * @return a proxy of the MBean
+     * @throws JMException when there is not exactly one activation of the destination
+     */
+    public JmsActivationMBean getActivationMBean(JmsActivationSpec spec) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName(JmsManagement.DOMAIN + ":type=Activation,name=" + ObjectName.quote(spec.getDestination()) + ",*");
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        if (names.size() != 1)
+            throw new JMException("Expected one activation of " + spec.getDestination() + " but got " + names);
+        return MBeanServerInvocationHandler.newProxyInstance(server, names.iterator().next(), JmsActivationMBean.class, false);
+    }
+
+    /**
+     * Create a managed connection factory for the broker, associated with
+     * the resource adapter
+     *
+     * @param transacted whether it uses the XA connection factory
+     * @return the managed connection factory
+     * @throws ResourceException for any error
+     */
+    public JmsManagedConnectionFactory createManagedConnectionFactory(boolean transacted) throws ResourceException {
+        JmsManagedConnectionFactory mcf = new JmsManagedConnectionFactory();
+        mcf.setJndiParameters(getJndiParameters());
+        mcf.setConnectionFactory(transacted ? TestInitialContextFactory.XA_CONNECTION_FACTORY : TestInitialContextFactory.CONNECTION_FACTORY);
+        mcf.setResourceAdapter(ra);
+        return mcf;
+    }
+
+    /**
+     * Create the connection factory of a managed connection factory, its
+     * connections are pooled and enlisted in the transaction of the caller
+     *
+     * @param mcf the managed connection factory
+     * @return the connection factory
+     * @throws ResourceException for any error
+     */
+    public Object createConnectionFactory(JmsManagedConnectionFactory mcf) throws ResourceException {
+        TestConnectionManager cm = new TestConnectionManager(tm);
+        synchronized (connectionManagers) {
+            connectionManagers.add(cm);
+        }
+        return mcf.createConnectionFactory(cm);
+    }
+
+    /**
+     * Deactivate all endpoints, destroy the outbound connections and stop
+     * the resource adapter
+     */
+    public void stop() {
+        for (JmsActivationSpec spec : new ArrayList<JmsActivationSpec>(activations.keySet()))
+            deactivate(spec);
+        synchronized (connectionManagers) {
+            for (TestConnectionManager cm : connectionManagers)
+                cm.shutdown();
+            connectionManagers.clear();
+        }
+        ra.stop();
+        if (workManager.shutdown(10000) == false)
+            log.warn("Work still running after stopping " + this);
+        TestInitialContextFactory.unbind(TRANSACTION_MANAGER);
+    }
+
+    public String toString() {
+        return "TestContainer[" + broker.getName() + "]";
+    }
+}
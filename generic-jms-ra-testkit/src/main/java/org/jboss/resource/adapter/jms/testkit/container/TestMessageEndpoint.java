@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.lang.reflect.Method;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.transaction.Status;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+
+/**
+ * A message endpoint of the test container. A transacted delivery begins
+ * a transaction in beforeDelivery, enlists the XAResource of the session and
+ * completes the transaction in afterDelivery, like a container managed
+ * message driven bean.
+ */
+public class TestMessageEndpoint implements MessageEndpoint, MessageListener {
+    private final TestMessageEndpointFactory factory;
+    private final XAResource xaResource;
+    private Transaction transaction;
+    private boolean failed;
+
+    TestMessageEndpoint(TestMessageEndpointFactory factory, XAResource xaResource) {
+        this.factory = factory;
+        this.xaResource = xaResource;
+    }
+
+    public void beforeDelivery(Method method) throws NoSuchMethodException, ResourceException {
+        failed = false;
+        TransactionManager tm = factory.getTransactionManager();
+        if (tm == null)
+            return;
+        try {
+            tm.begin();
+            transaction = tm.getTransaction();
+            if (xaResource != null)
+                transaction.enlistResource(xaResource);
+        } catch (Exception e) {
+            throw new ResourceException("Unable to begin the transaction", e);
+        }
+    }
+
+    public void onMessage(Message message) {
+        try {
+            factory.getListener().onMessage(message);
+        } catch (RuntimeException e) {
+            failed = true;
+            if (transaction != null) {
+                try {
+                    transaction.setRollbackOnly();
+                } catch (Exception ignored) {
+                    // the transaction is rolled back anyway
+                }
+            }
+            throw e;
+        }
+    }
+
+    public void afterDelivery() throws ResourceException {
+        Transaction tx = transaction;
+        transaction = null;
+        if (tx == null) {
+            if (failed)
+                factory.failed();
+            else
+                factory.delivered();
+            return;
+        }
+
+        TransactionManager tm = factory.getTransactionManager();
+        try {
+            if (xaResource != null)
+                tx.delistResource(xaResource, failed ? XAResource.TMFAIL : XAResource.TMSUCCESS);
+            if (tx.getStatus() == Status.STATUS_ACTIVE) {
+                tm.commit();
+                factory.delivered();
+            } else {
+                tm.rollback();
+                factory.failed();
+            }
+        } catch (Exception e) {
+            factory.failed();
+            throw new ResourceException("Unable to complete the transaction", e);
+        } finally {
+            try {
+                if (tm.getTransaction() == tx)
+                    tm.suspend();
+            } catch (Exception ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    public void release() {
+    }
+}
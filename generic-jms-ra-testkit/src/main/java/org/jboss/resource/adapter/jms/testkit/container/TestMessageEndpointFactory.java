@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.MessageListener;
+import javax.resource.spi.UnavailableException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+
+/**
+ * A message endpoint factory passing the messages to a listener. With a
+ * transaction manager the delivery is transacted.
+ */
+public class TestMessageEndpointFactory implements MessageEndpointFactory {
+    private final MessageListener listener;
+    private final TransactionManager tm;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Object deliveredLock = new Object();
+    private volatile int waiters;
+
+    /**
+     * Create a message endpoint factory
+     *
+     * @param listener the listener receiving the messages
+     * @param tm       the transaction manager or null when the delivery is not transacted
+     */
+    public TestMessageEndpointFactory(MessageListener listener, TransactionManager tm) {
+        this.listener = listener;
+        this.tm = tm;
+    }
+
+    public MessageEndpoint createEndpoint(XAResource xaResource) throws UnavailableException {
+        return new TestMessageEndpoint(this, xaResource);
+    }
+
+    public boolean isDeliveryTransacted(Method method) throws NoSuchMethodException {
+        return tm != null;
+    }
+
+    MessageListener getListener() {
+        return listener;
+    }
+
+    TransactionManager getTransactionManager() {
+        return tm;
+    }
+
+    void delivered() {
+        delivered.incrementAndGet();
+        if (waiters > 0) {
+            synchronized (deliveredLock) {
+                deliveredLock.notifyAll();
+            }
+        }
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * @return the number of messages delivered successfully
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of deliveries that failed or were rolled back
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Wait until a number of messages were delivered successfully
+     *
+     * @param count   the number of messages
+     * @param timeout the maximum time to wait in milliseconds
+     * @return whether the messages were delivered in time
+     * @throws InterruptedException when interrupted
+     */
+    public boolean awaitDelivered(long count, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (deliveredLock) {
+            ++waiters;
+            try {
+                while (delivered.get() < count) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return false;
+                    deliveredLock.wait(Math.min(remaining, 100));
+                }
+                return true;
+            } finally {
+                --waiters;
+            }
+        }
+    }
+}
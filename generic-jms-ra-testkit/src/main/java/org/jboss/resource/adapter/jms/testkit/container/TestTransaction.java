@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A transaction of the test transaction manager. Every enlisted resource
+ * gets a branch of its own, a single branch is committed in one phase.
+ */
+public class TestTransaction implements Transaction {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestTransaction.class);
+
+    private final TestTransactionManager tm;
+    private final TestXid xid;
+    private final long deadline;
+    private int status = Status.STATUS_ACTIVE;
+    private final List<Branch> branches = new ArrayList<Branch>();
+    private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+    TestTransaction(TestTransactionManager tm, int timeout) {
+        this.tm = tm;
+        this.xid = TestXid.create();
+        this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+    }
+
+    public synchronized int getStatus() {
+        if (status == Status.STATUS_ACTIVE && System.currentTimeMillis() > deadline)
+            status = Status.STATUS_MARKED_ROLLBACK;
+        return status;
+    }
+
+    public synchronized void setRollbackOnly() {
+        if (status == Status.STATUS_ACTIVE || status == Status.STATUS_MARKED_ROLLBACK)
+            status = Status.STATUS_MARKED_ROLLBACK;
+        else
+            throw new IllegalStateException("Transaction is completing " + this);
+    }
+
+    public synchronized boolean enlistResource(XAResource xaResource) throws RollbackException, SystemException {
+        int current = getStatus();
+        if (current == Status.STATUS_MARKED_ROLLBACK)
+            throw new RollbackException("Transaction is marked for rollback " + this);
+        if (current != Status.STATUS_ACTIVE)
+            throw new IllegalStateException("Transaction is not active " + this);
+
+        Branch branch = getBranch(xaResource);
+        try {
+            if (branch == null) {
+                branch = new Branch(xaResource, xid.branch(branches.size() + 1));
+                xaResource.start(branch.xid, XAResource.TMNOFLAGS);
+                branches.add(branch);
+            } else if (branch.active == false) {
+                xaResource.start(branch.xid, branch.suspended ? XAResource.TMRESUME : XAResource.TMJOIN);
+            }
+        } catch (XAException e) {
+            throw systemException("Unable to enlist " + xaResource, e);
+        }
+        branch.active = true;
+        branch.suspended = false;
+        return true;
+    }
+
+    public synchronized boolean delistResource(XAResource xaResource, int flag) throws SystemException {
+        Branch branch = getBranch(xaResource);
+        if (branch == null || branch.active == false)
+            return false;
+        try {
+            xaResource.end(branch.xid, flag);
+        } catch (XAException e) {
+            status = Status.STATUS_MARKED_ROLLBACK;
+            throw systemException("Unable to delist " + xaResource, e);
+        }
+        branch.active = false;
+        branch.suspended = flag == XAResource.TMSUSPEND;
+        if (flag == XAResource.TMFAIL)
+            status = Status.STATUS_MARKED_ROLLBACK;
+        return true;
+    }
+
+    public synchronized void registerSynchronization(Synchronization synchronization) throws RollbackException {
+        int current = getStatus();
+        if (current == Status.STATUS_MARKED_ROLLBACK)
+            throw new RollbackException("Transaction is marked for rollback " + this);
+        if (current != Status.STATUS_ACTIVE)
+            throw new IllegalStateException("Transaction is not active " + this);
+        synchronizations.add(synchronization);
+    }
+
+    public void commit() throws RollbackException, HeuristicMixedException, SystemException {
+        try {
+            if (getStatus() == Status.STATUS_ACTIVE)
+                beforeCompletion();
+            synchronized (this) {
+                endBranches();
+                if (getStatus() != Status.STATUS_ACTIVE) {
+                    rollbackBranches();
+                    throw new RollbackException("Transaction was rolled back " + this);
+                }
+                if (branches.size() == 1) {
+                    commitOnePhase(branches.get(0));
+                } else {
+                    prepareBranches();
+                    commitBranches();
+                }
+            }
+        } finally {
+            afterCompletion();
+        }
+    }
+
+    public void rollback() throws SystemException {
+        try {
+            synchronized (this) {
+                if (status != Status.STATUS_ACTIVE && status != Status.STATUS_MARKED_ROLLBACK)
+                    throw new IllegalStateException("Transaction is completing " + this);
+                endBranches();
+                rollbackBranches();
+            }
+        } finally {
+            afterCompletion();
+        }
+    }
+
+    private void beforeCompletion() {
+        List<Synchronization> copy;
+        synchronized (this) {
+            copy = new ArrayList<Synchronization>(synchronizations);
+        }
+        for (Synchronization synchronization : copy) {
+            try {
+                synchronization.beforeCompletion();
+            } catch (RuntimeException e) {
+                log.debug("beforeCompletion failed " + synchronization, e);
+                setRollbackOnly();
+            }
+        }
+    }
+
+    private void afterCompletion() {
+        List<Synchronization> copy;
+        int result;
+        synchronized (this) {
+            copy = new ArrayList<Synchronization>(synchronizations);
+            if (status != Status.STATUS_COMMITTED)
+                status = Status.STATUS_ROLLEDBACK;
+            result = status;
+        }
+        for (Synchronization synchronization : copy) {
+            try {
+                synchronization.afterCompletion(result);
+            } catch (RuntimeException e) {
+                log.debug("afterCompletion failed " + synchronization, e);
+            }
+        }
+        tm.completed(this, result == Status.STATUS_COMMITTED);
+    }
+
+    private void endBranches() {
+        for (Branch branch : branches) {
+            if (branch.active || branch.suspended) {
+                try {
+                    branch.resource.end(branch.xid, XAResource.TMSUCCESS);
+                } catch (XAException e) {
+                    log.debug("Unable to end " + branch.xid, e);
+                    status = Status.STATUS_MARKED_ROLLBACK;
+                }
+                branch.active = false;
+                branch.suspended = false;
+            }
+        }
+    }
+
+    private void commitOnePhase(Branch branch) throws RollbackException, SystemException {
+        status = Status.STATUS_COMMITTING;
+        try {
+            branch.resource.commit(branch.xid, true);
+        } catch (XAException e) {
+            status = Status.STATUS_ROLLEDBACK;
+            if (e.errorCode >= XAException.XA_RBBASE && e.errorCode <= XAException.XA_RBEND) {
+                RollbackException rollback = new RollbackException("One phase commit was rolled back " + this);
+                rollback.initCause(e);
+                throw rollback;
+            }
+            throw systemException("One phase commit failed " + this, e);
+        }
+        status = Status.STATUS_COMMITTED;
+    }
+
+    private void prepareBranches() throws RollbackException {
+        status = Status.STATUS_PREPARING;
+        for (Branch branch : branches) {
+            try {
+                branch.readOnly = branch.resource.prepare(branch.xid) == XAResource.XA_RDONLY;
+            } catch (XAException e) {
+                log.debug("Prepare failed for " + branch.xid, e);
+                branch.readOnly = e.errorCode >= XAException.XA_RBBASE && e.errorCode <= XAException.XA_RBEND;
+                rollbackBranches();
+                RollbackException rollback = new RollbackException("Prepare failed " + this);
+                rollback.initCause(e);
+                throw rollback;
+            }
+        }
+        status = Status.STATUS_PREPARED;
+    }
+
+    private void commitBranches() throws HeuristicMixedException {
+        status = Status.STATUS_COMMITTING;
+        XAException failure = null;
+        for (Branch branch : branches) {
+            if (branch.readOnly)
+                continue;
+            try {
+                branch.resource.commit(branch.xid, false);
+            } catch (XAException e) {
+                log.warn("Commit failed for " + branch.xid + ", the branch is in doubt", e);
+                failure = e;
+            }
+        }
+        status = Status.STATUS_COMMITTED;
+        if (failure != null) {
+            HeuristicMixedException mixed = new HeuristicMixedException("Commit failed for a branch of " + this);
+            mixed.initCause(failure);
+            throw mixed;
+        }
+    }
+
+    private void rollbackBranches() {
+        status = Status.STATUS_ROLLING_BACK;
+        for (Branch branch : branches) {
+            if (branch.readOnly)
+                continue;
+            try {
+                branch.resource.rollback(branch.xid);
+            } catch (XAException e) {
+                log.debug("Rollback failed for " + branch.xid, e);
+            }
+        }
+        status = Status.STATUS_ROLLEDBACK;
+    }
+
+    private Branch getBranch(XAResource xaResource) {
+        for (Branch branch : branches) {
+            if (branch.resource == xaResource)
+                return branch;
+        }
+        return null;
+    }
+
+    private static SystemException systemException(String message, XAException cause) {
+        SystemException result = new SystemException(message + ": " + cause.errorCode);
+        result.initCause(cause);
+        return result;
+    }
+
+    public String toString() {
+        return "TestTransaction[" + xid + " status=" + status + " branches=" + branches.size() + "]";
+    }
+
+    /**
+     * An enlisted resource
+     */
+    private static class Branch {
+        final XAResource resource;
+        final TestXid xid;
+        boolean active;
+        boolean suspended;
+        boolean readOnly;
+
+        Branch(XAResource resource, TestXid xid) {
+            this.resource = resource;
+            this.xid = xid;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.InvalidTransactionException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+/**
+ * A transaction manager for tests, transactions are associated with threads
+ * and are not recovered.
+ */
+public class TestTransactionManager implements TransactionManager {
+    /**
+     * The default transaction timeout in seconds
+     */
+    public static final int DEFAULT_TIMEOUT = 300;
+
+    private final ThreadLocal<TestTransaction> current = new ThreadLocal<TestTransaction>();
+    private final ThreadLocal<Integer> timeout = new ThreadLocal<Integer>();
+
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rolledBack = new AtomicLong();
+
+    public void begin() throws NotSupportedException, SystemException {
+        if (current.get() != null)
+            throw new NotSupportedException("Nested transactions are not supported");
+        Integer seconds = timeout.get();
+        current.set(new TestTransaction(this, seconds != null ? seconds : DEFAULT_TIMEOUT));
+    }
+
+    public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, IllegalStateException, SystemException {
+        TestTransaction tx = current.get();
+        if (tx == null)
+            throw new IllegalStateException("No transaction");
+        try {
+            tx.commit();
+        } finally {
+            current.remove();
+        }
+    }
+
+    public void rollback() throws IllegalStateException, SecurityException, SystemException {
+        TestTransaction tx = current.get();
+        if (tx == null)
+            throw new IllegalStateException("No transaction");
+        try {
+            tx.rollback();
+        } finally {
+            current.remove();
+        }
+    }
+
+    public int getStatus() throws SystemException {
+        TestTransaction tx = current.get();
+        return tx != null ? tx.getStatus() : Status.STATUS_NO_TRANSACTION;
+    }
+
+    public Transaction getTransaction() throws SystemException {
+        return current.get();
+    }
+
+    public void resume(Transaction tobj) throws InvalidTransactionException, IllegalStateException, SystemException {
+        if (current.get() != null)
+            throw new IllegalStateException("The thread is associated with a transaction");
+        if (tobj != null && tobj instanceof TestTransaction == false)
+            throw new InvalidTransactionException("Not a test transaction " + tobj);
+        current.set((TestTransaction) tobj);
+    }
+
+    public Transaction suspend() throws SystemException {
+        TestTransaction tx = current.get();
+        current.remove();
+        return tx;
+    }
+
+    public void setRollbackOnly() throws IllegalStateException, SystemException {
+        TestTransaction tx = current.get();
+        if (tx == null)
+            throw new IllegalStateException("No transaction");
+        tx.setRollbackOnly();
+    }
+
+    public void setTransactionTimeout(int seconds) throws SystemException {
+        if (seconds == 0)
+            timeout.remove();
+        else
+            timeout.set(seconds);
+    }
+
+    void completed(TestTransaction tx, boolean commit) {
+        if (commit)
+            committed.incrementAndGet();
+        else
+            rolledBack.incrementAndGet();
+    }
+
+    /**
+     * @return the number of transactions committed
+     */
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    /**
+     * @return the number of transactions rolled back
+     */
+    public long getRolledBackCount() {
+        return rolledBack.get();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkCompletedException;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A work manager running the work on a pool of daemon threads.
+ */
+public class TestWorkManager implements WorkManager {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(TestWorkManager.class);
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a work manager
+     *
+     * @param maxThreads the maximum number of threads
+     */
+    public TestWorkManager(int maxThreads) {
+        final AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TestWorkManager-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void doWork(Work work) throws WorkException {
+        doWork(work, INDEFINITE, null, null);
+    }
+
+    public void doWork(Work work, long startTimeout, ExecutionContext execContext, WorkListener workListener) throws WorkException {
+        fire(workListener, WorkEvent.WORK_ACCEPTED, work, null);
+        fire(workListener, WorkEvent.WORK_STARTED, work, null);
+        WorkException failure = null;
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            failure = new WorkCompletedException(e);
+        } finally {
+            fire(workListener, WorkEvent.WORK_COMPLETED, work, failure);
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    public long startWork(Work work) throws WorkException {
+        return startWork(work, INDEFINITE, null, null);
+    }
+
+    public long startWork(Work work, long startTimeout, ExecutionContext execContext, WorkListener workListener) throws WorkException {
+        long start = System.currentTimeMillis();
+        CountDownLatch started = new CountDownLatch(1);
+        submit(work, workListener, started);
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WorkException("Interrupted waiting for the work to start", e);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    public void scheduleWork(Work work) throws WorkException {
+        scheduleWork(work, INDEFINITE, null, null);
+    }
+
+    public void scheduleWork(Work work, long startTimeout, ExecutionContext execContext, WorkListener workListener) throws WorkException {
+        submit(work, workListener, null);
+    }
+
+    private void submit(final Work work, final WorkListener workListener, final CountDownLatch started) throws WorkException {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    fire(workListener, WorkEvent.WORK_STARTED, work, null);
+                    if (started != null)
+                        started.countDown();
+                    WorkException failure = null;
+                    try {
+                        work.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Work failed " + work, e);
+                        failure = new WorkCompletedException(e);
+                    } finally {
+                        fire(workListener, WorkEvent.WORK_COMPLETED, work, failure);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            WorkRejectedException rejected = new WorkRejectedException(e);
+            fire(workListener, WorkEvent.WORK_REJECTED, work, rejected);
+            throw rejected;
+        }
+        fire(workListener, WorkEvent.WORK_ACCEPTED, work, null);
+    }
+
+    private void fire(WorkListener workListener, int type, Work work, WorkException exception) {
+        if (workListener == null)
+            return;
+        WorkEvent event = new WorkEvent(this, type, work, exception);
+        switch (type) {
+            case WorkEvent.WORK_ACCEPTED:
+                workListener.workAccepted(event);
+                break;
+            case WorkEvent.WORK_STARTED:
+                workListener.workStarted(event);
+                break;
+            case WorkEvent.WORK_COMPLETED:
+                workListener.workCompleted(event);
+                break;
+            case WorkEvent.WORK_REJECTED:
+                workListener.workRejected(event);
+                break;
+        }
+    }
+
+    /**
+     * @return the number of threads running work
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stop accepting work and wait for the running work to complete
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return whether all work completed in time
+     */
+    public boolean shutdown(long timeout) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
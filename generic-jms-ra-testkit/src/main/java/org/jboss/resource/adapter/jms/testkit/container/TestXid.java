@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * The xid of a transaction branch of the test transaction manager.
+ */
+public class TestXid implements Xid, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The format id
+     */
+    public static final int FORMAT_ID = 0x4a4d5352;
+
+    private static final AtomicLong ids = new AtomicLong();
+
+    private final byte[] globalTransactionId;
+    private final byte[] branchQualifier;
+
+    private TestXid(byte[] globalTransactionId, byte[] branchQualifier) {
+        this.globalTransactionId = globalTransactionId;
+        this.branchQualifier = branchQualifier;
+    }
+
+    /**
+     * Create the xid of the first branch of a new transaction
+     *
+     * @return the xid
+     */
+    public static TestXid create() {
+        return new TestXid(toBytes(ids.incrementAndGet()), toBytes(1));
+    }
+
+    /**
+     * Create the xid of another branch of the same transaction
+     *
+     * @param branch the number of the branch
+     * @return the xid
+     */
+    public TestXid branch(int branch) {
+        return new TestXid(globalTransactionId, toBytes(branch));
+    }
+
+    private static byte[] toBytes(long value) {
+        byte[] result = new byte[8];
+        for (int i = 7; i >= 0; --i) {
+            result[i] = (byte) value;
+            value >>>= 8;
+        }
+        return result;
+    }
+
+    public int getFormatId() {
+        return FORMAT_ID;
+    }
+
+    public byte[] getGlobalTransactionId() {
+        return globalTransactionId.clone();
+    }
+
+    public byte[] getBranchQualifier() {
+        return branchQualifier.clone();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(globalTransactionId) * 31 + Arrays.hashCode(branchQualifier);
+    }
+
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj instanceof TestXid == false)
+            return false;
+        TestXid other = (TestXid) obj;
+        return Arrays.equals(globalTransactionId, other.globalTransactionId) && Arrays.equals(branchQualifier, other.branchQualifier);
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("TestXid[");
+        for (byte b : globalTransactionId)
+            buffer.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        buffer.append(':');
+        for (byte b : branchQualifier)
+            buffer.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
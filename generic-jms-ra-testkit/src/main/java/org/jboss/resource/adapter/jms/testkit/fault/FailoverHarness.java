@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Timer;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+
+/**
+ * Runs an endpoint through a {@link FaultSchedule} while a producer keeps
+ * sending numbered messages, and reports how the resource adapter coped:
+ * the time it took to deliver again after each fault, the messages lost or
+ * delivered twice and the threads held up on the way.
+ */
+public class FailoverHarness {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(FailoverHarness.class);
+
+    /**
+     * The property holding the sequence number of a message
+     */
+    public static final String SEQUENCE = "sequence";
+
+    private static final String QUEUE = "failover";
+
+    private final TestBroker broker;
+    private final FaultInjector injector;
+    private int messages = 1000;
+    private long sendInterval = 5;
+    private boolean transacted;
+    private int maxSession = 15;
+    private long settleTimeout = 30000;
+
+    /**
+     * Create a harness
+     *
+     * @param broker   the broker
+     * @param injector the injector wrapping the connection factories of the resource adapter
+     */
+    public FailoverHarness(TestBroker broker, FaultInjector injector) {
+        this.broker = broker;
+        this.injector = injector;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public void setMessages(int messages) {
+        this.messages = messages;
+    }
+
+    public long getSendInterval() {
+        return sendInterval;
+    }
+
+    /**
+     * @param sendInterval the pause between two messages in milliseconds
+     */
+    public void setSendInterval(long sendInterval) {
+        this.sendInterval = sendInterval;
+    }
+
+    public boolean isTransacted() {
+        return transacted;
+    }
+
+    public void setTransacted(boolean transacted) {
+        this.transacted = transacted;
+    }
+
+    public int getMaxSession() {
+        return maxSession;
+    }
+
+    public void setMaxSession(int maxSession) {
+        this.maxSession = maxSession;
+    }
+
+    public long getSettleTimeout() {
+        return settleTimeout;
+    }
+
+    /**
+     * @param settleTimeout how long to wait for outstanding messages after the last one was sent in milliseconds
+     */
+    public void setSettleTimeout(long settleTimeout) {
+        this.settleTimeout = settleTimeout;
+    }
+
+    /**
+     * Run a schedule
+     *
+     * @param schedule the schedule
+     * @return the report
+     * @throws Exception for any error
+     */
+    public FailoverReport run(FaultSchedule schedule) throws Exception {
+        broker.getQueue(QUEUE).clear();
+        injector.clearAll();
+        Recorder recorder = new Recorder(messages);
+        Sampler sampler = new Sampler();
+        TestContainer container = new TestContainer(broker, maxSession * 2);
+        long start = System.nanoTime();
+        long deactivationTime = -1;
+        try {
+            JmsActivationSpec spec = container.createQueueActivationSpec(QUEUE, transacted);
+            spec.setJndiParameters(injector.getJndiParameters(broker));
+            spec.setMaxSession(maxSession);
+            spec.setReconnectInterval(1);
+            container.activate(spec, recorder, transacted);
+            sampler.start();
+            Timer timer = schedule.start(injector);
+            try {
+                send();
+                recorder.await(System.currentTimeMillis() + Math.max(settleTimeout, schedule.getLength()));
+            } finally {
+                timer.cancel();
+                injector.clearAll();
+            }
+            long deactivating = System.nanoTime();
+            container.deactivate(spec);
+            deactivationTime = (System.nanoTime() - deactivating) / 1000000;
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+            container.stop();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        List<Long> recoveryTimes = new ArrayList<Long>();
+        for (FaultSchedule.Step step : schedule.getSteps())
+            recoveryTimes.add(recorder.getRecoveryTime(step.getClearedAt()));
+        FailoverReport report = new FailoverReport(messages, recorder.getDistinct(), recorder.getDeliveries(), recoveryTimes,
+                sampler.peakStalled, sampler.peakBlocked, deactivationTime, elapsed);
+        log.info(schedule.getSteps() + " " + report);
+        return report;
+    }
+
+    /**
+     * Send the messages straight to the broker so the faults only hit the
+     * resource adapter
+     */
+    private void send() throws JMSException, InterruptedException {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue(QUEUE));
+            for (int i = 0; i < messages; ++i) {
+                TextMessage message = session.createTextMessage("message " + i);
+                message.setIntProperty(SEQUENCE, i);
+                producer.send(message);
+                if (sendInterval > 0)
+                    Thread.sleep(sendInterval);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Records which messages were delivered and when
+     */
+    private static class Recorder implements MessageListener {
+        private final BitSet seen;
+        private final int expected;
+        private final List<Long> times = new ArrayList<Long>();
+        private int distinct;
+        private int deliveries;
+
+        Recorder(int expected) {
+            this.expected = expected;
+            this.seen = new BitSet(expected);
+        }
+
+        public void onMessage(Message message) {
+            int sequence;
+            try {
+                sequence = message.getIntProperty(SEQUENCE);
+            } catch (JMSException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (this) {
+                ++deliveries;
+                times.add(System.nanoTime());
+                if (seen.get(sequence) == false) {
+                    seen.set(sequence);
+                    if (++distinct == expected)
+                        notifyAll();
+                }
+            }
+        }
+
+        synchronized void await(long deadline) throws InterruptedException {
+            long wait;
+            while (distinct < expected && (wait = deadline - System.currentTimeMillis()) > 0)
+                wait(wait);
+        }
+
+        synchronized int getDistinct() {
+            return distinct;
+        }
+
+        synchronized int getDeliveries() {
+            return deliveries;
+        }
+
+        /**
+         * @param since the System.nanoTime() a fault was cleared
+         * @return the milliseconds to the first delivery after it, -1 when there was none
+         */
+        synchronized long getRecoveryTime(long since) {
+            if (since == 0)
+                return -1;
+            for (Long time : times) {
+                if (time >= since)
+                    return (time - since) / 1000000;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Samples the threads held up by a fault or blocked on a monitor
+     */
+    private class Sampler extends Thread {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private int peakStalled;
+        private int peakBlocked;
+
+        Sampler() {
+            super("FailoverHarness.Sampler");
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (isInterrupted() == false) {
+                peakStalled = Math.max(peakStalled, injector.getStalledThreads());
+                int blocked = 0;
+                for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+                    if (info != null && info.getThreadState() == Thread.State.BLOCKED)
+                        ++blocked;
+                }
+                peakBlocked = Math.max(peakBlocked, blocked);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
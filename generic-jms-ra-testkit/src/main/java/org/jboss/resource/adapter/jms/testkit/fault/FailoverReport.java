@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a {@link FailoverHarness} run.
+ */
+public class FailoverReport {
+    private final int sent;
+    private final int delivered;
+    private final int deliveries;
+    private final List<Long> recoveryTimes;
+    private final int peakStalledThreads;
+    private final int peakBlockedThreads;
+    private final long deactivationTime;
+    private final long elapsed;
+
+    FailoverReport(int sent, int delivered, int deliveries, List<Long> recoveryTimes,
+                   int peakStalledThreads, int peakBlockedThreads, long deactivationTime, long elapsed) {
+        this.sent = sent;
+        this.delivered = delivered;
+        this.deliveries = deliveries;
+        this.recoveryTimes = Collections.unmodifiableList(recoveryTimes);
+        this.peakStalledThreads = peakStalledThreads;
+        this.peakBlockedThreads = peakBlockedThreads;
+        this.deactivationTime = deactivationTime;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return the number of messages sent
+     */
+    public int getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of distinct messages delivered
+     */
+    public int getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of messages never delivered
+     */
+    public int getLost() {
+        return sent - delivered;
+    }
+
+    /**
+     * @return the number of deliveries of a message delivered before
+     */
+    public int getDuplicates() {
+        return deliveries - delivered;
+    }
+
+    /**
+     * @return for each fault of the schedule the time from its end to the next delivery in milliseconds, -1 when there was none
+     */
+    public List<Long> getRecoveryTimes() {
+        return recoveryTimes;
+    }
+
+    /**
+     * @return the longest time to recover in milliseconds, -1 when a fault was never recovered from
+     */
+    public long getMaxRecoveryTime() {
+        long result = 0;
+        for (Long time : recoveryTimes) {
+            if (time < 0)
+                return -1;
+            result = Math.max(result, time);
+        }
+        return result;
+    }
+
+    /**
+     * @return the most threads held up by a fault at once
+     */
+    public int getPeakStalledThreads() {
+        return peakStalledThreads;
+    }
+
+    /**
+     * @return the most threads blocked on a monitor at once
+     */
+    public int getPeakBlockedThreads() {
+        return peakBlockedThreads;
+    }
+
+    /**
+     * @return how long deactivating the endpoint took in milliseconds
+     */
+    public long getDeactivationTime() {
+        return deactivationTime;
+    }
+
+    /**
+     * @return how long the run took in milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("FailoverReport[sent=").append(sent);
+        buffer.append(" lost=").append(getLost());
+        buffer.append(" duplicates=").append(getDuplicates());
+        buffer.append(" recoveryTimes=").append(recoveryTimes);
+        buffer.append(" peakStalledThreads=").append(peakStalledThreads);
+        buffer.append(" peakBlockedThreads=").append(peakBlockedThreads);
+        buffer.append(" deactivationTime=").append(deactivationTime);
+        buffer.append(" elapsed=").append(elapsed);
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionConsumer;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.XAConnectionFactory;
+import javax.naming.Context;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.testkit.Delegating;
+import org.jboss.resource.adapter.jms.testkit.TestConnection;
+
+/**
+ * Applies the faults of an injector to the calls of a wrapped JNDI context,
+ * connection factory, connection, session or consumer and wraps the objects
+ * they create.
+ */
+class FaultHandler implements InvocationHandler {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(FaultHandler.class);
+
+    private final FaultInjector injector;
+    private final Object target;
+
+    /**
+     * The handler of the connection a session or consumer belongs to
+     */
+    private final FaultHandler connection;
+
+    private volatile boolean dropped;
+    private volatile ExceptionListener exceptionListener;
+
+    FaultHandler(FaultInjector injector, Object target, FaultHandler parent) {
+        this.injector = injector;
+        this.target = target;
+        if (target instanceof Connection) {
+            this.connection = this;
+            injector.addConnection(this);
+        } else {
+            this.connection = parent != null ? parent.connection : null;
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            if ("equals".equals(name))
+                return proxy == args[0];
+            if ("hashCode".equals(name))
+                return System.identityHashCode(proxy);
+            return "Fault" + target;
+        }
+        if (method.getDeclaringClass() == Delegating.class)
+            return target;
+
+        if ("close".equals(name)) {
+            injector.slowClose();
+            if (connection == this)
+                injector.removeConnection(this);
+        } else {
+            checkDropped();
+            if (target instanceof Context && name.startsWith("lookup"))
+                injector.checkLookup(String.valueOf(args[0]));
+            else if ((target instanceof ConnectionFactory || target instanceof XAConnectionFactory) && name.startsWith("create"))
+                injector.checkConnect();
+            else if ("createConnectionConsumer".equals(name) || "createDurableConnectionConsumer".equals(name))
+                injector.checkConnectionConsumer();
+            else if (target instanceof MessageConsumer && "receive".equals(name))
+                injector.hangReceive();
+            else if ("setExceptionListener".equals(name))
+                exceptionListener = (ExceptionListener) args[0];
+        }
+
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result == target)
+            return proxy;
+        if (result instanceof ConnectionFactory || result instanceof XAConnectionFactory || result instanceof Connection
+                || result instanceof Session || result instanceof MessageConsumer || result instanceof ConnectionConsumer)
+            return injector.wrap(result, this);
+        return result;
+    }
+
+    private void checkDropped() throws JMSException {
+        if (connection != null && connection.dropped)
+            throw new IllegalStateException("The connection was dropped by " + injector);
+    }
+
+    /**
+     * Drop the connection, the provider or the injector notifies the exception listener
+     *
+     * @param reason the error passed to the exception listener
+     */
+    void drop(final JMSException reason) {
+        if (dropped)
+            return;
+        dropped = true;
+        injector.removeConnection(this);
+        if (target instanceof TestConnection) {
+            ((TestConnection) target).fail(reason);
+            return;
+        }
+        final ExceptionListener listener = exceptionListener;
+        Thread thread = new Thread("FaultInjector exception listener " + target) {
+            public void run() {
+                try {
+                    ((Connection) target).close();
+                } catch (JMSException e) {
+                    log.debug("Error closing dropped connection " + target, e);
+                }
+                if (listener != null)
+                    listener.onException(reason);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+
+import org.jboss.resource.adapter.jms.testkit.TestContext;
+
+/**
+ * The local JNDI of the test broker with the faults of the injector named by
+ * {@link FaultInjector#INJECTOR}: lookups apply {@link Fault#JNDI_TIMEOUT}
+ * and the connection factories looked up are wrapped.
+ */
+public class FaultInitialContextFactory implements InitialContextFactory {
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        Object name = environment != null ? environment.get(FaultInjector.INJECTOR) : null;
+        FaultInjector injector = FaultInjector.getInjector(name != null ? name.toString() : FaultInjector.DEFAULT);
+        return (Context) injector.wrap(new TestContext(environment));
+    }
+}
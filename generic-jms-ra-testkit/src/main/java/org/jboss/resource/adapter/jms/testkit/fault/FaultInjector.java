@@ -0,0 +1,294 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.jms.JMSException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.testkit.Delegating;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestInitialContextFactory;
+
+/**
+ * Injects {@link Fault}s into a JMS provider. The connection factories
+ * looked up through {@link FaultInitialContextFactory} or passed to
+ * {@link #wrap(Object)} are wrapped, as are the connections, sessions and
+ * consumers created from them, and the wrappers apply the active faults.
+ * Injectors are looked up by name like the brokers.
+ */
+public class FaultInjector {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(FaultInjector.class);
+
+    /**
+     * The JNDI environment property naming the injector
+     */
+    public static final String INJECTOR = "org.jboss.resource.adapter.jms.testkit.fault";
+
+    /**
+     * The name of the default injector
+     */
+    public static final String DEFAULT = "default";
+
+    private static final ConcurrentMap<String, FaultInjector> injectors = new ConcurrentHashMap<String, FaultInjector>();
+
+    private final String name;
+    private final Set<Fault> active = Collections.synchronizedSet(EnumSet.noneOf(Fault.class));
+    private final Object lock = new Object();
+    private final Set<FaultHandler> connections = Collections.newSetFromMap(new ConcurrentHashMap<FaultHandler, Boolean>());
+    private final AtomicLongArray triggered = new AtomicLongArray(Fault.values().length);
+    private final AtomicInteger stalled = new AtomicInteger();
+    private volatile long slowCloseTime = 5000;
+    private volatile long jndiTimeout = 5000;
+
+    private FaultInjector(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get an injector, creating it when it does not exist
+     *
+     * @param name the name
+     * @return the injector
+     */
+    public static FaultInjector getInjector(String name) {
+        FaultInjector injector = injectors.get(name);
+        if (injector == null) {
+            injector = new FaultInjector(name);
+            FaultInjector previous = injectors.putIfAbsent(name, injector);
+            if (previous != null)
+                injector = previous;
+        }
+        return injector;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the JNDI parameters of activation specs and managed connection
+     * factories using a broker through this injector
+     *
+     * @param broker the broker
+     * @return the JNDI parameters
+     */
+    public String getJndiParameters(TestBroker broker) {
+        return Context.INITIAL_CONTEXT_FACTORY + "=" + FaultInitialContextFactory.class.getName() + ";"
+                + TestInitialContextFactory.BROKER + "=" + broker.getName() + ";"
+                + INJECTOR + "=" + name;
+    }
+
+    /**
+     * Wrap a connection factory or a JNDI context
+     *
+     * @param target the object to wrap
+     * @return the wrapper
+     */
+    public Object wrap(Object target) {
+        return wrap(target, null);
+    }
+
+    Object wrap(Object target, FaultHandler parent) {
+        FaultHandler handler = new FaultHandler(this, target, parent);
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass())
+            Collections.addAll(interfaces, type.getInterfaces());
+        interfaces.add(Delegating.class);
+        return Proxy.newProxyInstance(FaultInjector.class.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]), handler);
+    }
+
+    /**
+     * Inject a fault, a connection drop drops the current connections
+     *
+     * @param fault the fault
+     */
+    public void inject(Fault fault) {
+        log.info("Injecting " + fault + " with " + this);
+        active.add(fault);
+        if (fault == Fault.CONNECTION_DROP)
+            dropConnections();
+    }
+
+    /**
+     * Clear a fault
+     *
+     * @param fault the fault
+     */
+    public void clear(Fault fault) {
+        log.info("Clearing " + fault + " with " + this);
+        active.remove(fault);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Clear all faults
+     */
+    public void clearAll() {
+        for (Fault fault : Fault.values())
+            clear(fault);
+    }
+
+    public boolean isActive(Fault fault) {
+        return active.contains(fault);
+    }
+
+    /**
+     * Drop the current connections, their exception listeners are notified
+     */
+    public void dropConnections() {
+        triggered.incrementAndGet(Fault.CONNECTION_DROP.ordinal());
+        for (FaultHandler connection : new ArrayList<FaultHandler>(connections))
+            connection.drop(new JMSException("Connection dropped by " + this));
+    }
+
+    public long getSlowCloseTime() {
+        return slowCloseTime;
+    }
+
+    /**
+     * @param slowCloseTime how long closing takes with {@link Fault#SLOW_CLOSE} in milliseconds
+     */
+    public void setSlowCloseTime(long slowCloseTime) {
+        this.slowCloseTime = slowCloseTime;
+    }
+
+    public long getJndiTimeout() {
+        return jndiTimeout;
+    }
+
+    /**
+     * @param jndiTimeout how long a lookup takes to fail with {@link Fault#JNDI_TIMEOUT} in milliseconds
+     */
+    public void setJndiTimeout(long jndiTimeout) {
+        this.jndiTimeout = jndiTimeout;
+    }
+
+    /**
+     * @param fault the fault
+     * @return how many times the fault affected an operation
+     */
+    public long getTriggeredCount(Fault fault) {
+        return triggered.get(fault.ordinal());
+    }
+
+    /**
+     * @return the number of threads currently held up by a fault
+     */
+    public int getStalledThreads() {
+        return stalled.get();
+    }
+
+    /**
+     * @return the number of live connections created through the injector
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    void addConnection(FaultHandler connection) {
+        connections.add(connection);
+    }
+
+    void removeConnection(FaultHandler connection) {
+        connections.remove(connection);
+    }
+
+    void checkConnect() throws JMSException {
+        if (isActive(Fault.CONNECTION_DROP)) {
+            triggered.incrementAndGet(Fault.CONNECTION_DROP.ordinal());
+            throw new JMSException("Broker unreachable, simulated by " + this);
+        }
+    }
+
+    void checkConnectionConsumer() throws JMSException {
+        if (isActive(Fault.CONNECTION_CONSUMER_FAILURE)) {
+            triggered.incrementAndGet(Fault.CONNECTION_CONSUMER_FAILURE.ordinal());
+            throw new JMSException("Connection consumer failure simulated by " + this);
+        }
+    }
+
+    void checkLookup(String name) throws NamingException {
+        if (isActive(Fault.JNDI_TIMEOUT) == false)
+            return;
+        triggered.incrementAndGet(Fault.JNDI_TIMEOUT.ordinal());
+        stall(jndiTimeout);
+        throw new CommunicationException("Lookup of " + name + " timed out, simulated by " + this);
+    }
+
+    void slowClose() {
+        if (isActive(Fault.SLOW_CLOSE)) {
+            triggered.incrementAndGet(Fault.SLOW_CLOSE.ordinal());
+            stall(slowCloseTime);
+        }
+    }
+
+    void hangReceive() {
+        if (isActive(Fault.HANGING_RECEIVE) == false)
+            return;
+        triggered.incrementAndGet(Fault.HANGING_RECEIVE.ordinal());
+        stalled.incrementAndGet();
+        try {
+            synchronized (lock) {
+                while (isActive(Fault.HANGING_RECEIVE))
+                    lock.wait(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stalled.decrementAndGet();
+        }
+    }
+
+    private void stall(long millis) {
+        stalled.incrementAndGet();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stalled.decrementAndGet();
+        }
+    }
+
+    public String toString() {
+        return "FaultInjector[" + name + " active=" + active + "]";
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A schedule of faults, each injected after a delay and cleared after a
+ * duration. A connection drop with no duration only drops the current
+ * connections.
+ */
+public class FaultSchedule {
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * Add a fault to the schedule
+     *
+     * @param delay    the time from the start of the schedule in milliseconds
+     * @param fault    the fault
+     * @param duration how long the fault is active in milliseconds
+     * @return this schedule
+     */
+    public FaultSchedule at(long delay, Fault fault, long duration) {
+        steps.add(new Step(delay, fault, duration));
+        return this;
+    }
+
+    /**
+     * @return the steps
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return the time until the last fault is cleared in milliseconds
+     */
+    public long getLength() {
+        long result = 0;
+        for (Step step : steps)
+            result = Math.max(result, step.delay + step.duration);
+        return result;
+    }
+
+    /**
+     * Start the schedule
+     *
+     * @param injector the injector
+     * @return the timer running the schedule, cancel it to stop the schedule
+     */
+    public Timer start(final FaultInjector injector) {
+        Timer timer = new Timer("FaultSchedule", true);
+        for (final Step step : steps) {
+            step.injectedAt = 0;
+            step.clearedAt = 0;
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    step.injectedAt = System.nanoTime();
+                    injector.inject(step.fault);
+                    if (step.duration <= 0) {
+                        injector.clear(step.fault);
+                        step.clearedAt = System.nanoTime();
+                    }
+                }
+            }, step.delay);
+            if (step.duration > 0) {
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        injector.clear(step.fault);
+                        step.clearedAt = System.nanoTime();
+                    }
+                }, step.delay + step.duration);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * A fault of the schedule
+     */
+    public static class Step {
+        private final long delay;
+        private final Fault fault;
+        private final long duration;
+        private volatile long injectedAt;
+        private volatile long clearedAt;
+
+        Step(long delay, Fault fault, long duration) {
+            this.delay = delay;
+            this.fault = fault;
+            this.duration = duration;
+        }
+
+        public long getDelay() {
+            return delay;
+        }
+
+        public Fault getFault() {
+            return fault;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the System.nanoTime() the fault was injected or zero
+         */
+        public long getInjectedAt() {
+            return injectedAt;
+        }
+
+        /**
+         * @return the System.nanoTime() the fault was cleared or zero
+         */
+        public long getClearedAt() {
+            return clearedAt;
+        }
+
+        public String toString() {
+            return fault + "@" + delay + "ms+" + duration + "ms";
+        }
+    }
+}
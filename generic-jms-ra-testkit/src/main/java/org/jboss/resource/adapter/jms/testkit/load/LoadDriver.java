@@ -0,0 +1,448 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.load;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.transaction.TransactionManager;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestQueue;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+
+/**
+ * A soak test: activates endpoints on a number of queues of the test broker,
+ * sends to them from a number of producers through the outbound connection
+ * factory of the resource adapter and samples the JVM while it runs.
+ * <p/>
+ * Every producer sends at a fixed rate on a connection of its own for every
+ * message, like a request of an application, in a JTA transaction when
+ * transacted. The latency is measured from the time a message was due to be
+ * sent rather than the time it was sent, so a producer falling behind adds to
+ * the latency instead of hiding it.
+ */
+public class LoadDriver {
+    /**
+     * The log
+     */
+    private static final Logger log = Logger.getLogger(LoadDriver.class);
+
+    /**
+     * The property holding the System.nanoTime() a message was due to be sent
+     */
+    public static final String SCHEDULED = "scheduled";
+
+    private static final String QUEUE_PREFIX = "load-";
+
+    private final TestBroker broker;
+    private int activations = 4;
+    private int producers = 8;
+    private int rate = 1000;
+    private int messageSize = 1024;
+    private int maxSession = 15;
+    private boolean transacted;
+    private long warmup = 10000;
+    private long duration = 60000;
+    private long sampleInterval = 1000;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram("latency");
+    private volatile long measureFrom;
+    private volatile boolean running;
+
+    /**
+     * Create a driver
+     *
+     * @param broker the broker
+     */
+    public LoadDriver(TestBroker broker) {
+        this.broker = broker;
+    }
+
+    public int getActivations() {
+        return activations;
+    }
+
+    /**
+     * @param activations the number of endpoints, each on a queue of its own
+     */
+    public void setActivations(int activations) {
+        this.activations = activations;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    /**
+     * @param producers the number of producers, sending to the queues in turn
+     */
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate the messages per second of every producer, zero to send as fast as possible
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    public int getMaxSession() {
+        return maxSession;
+    }
+
+    public void setMaxSession(int maxSession) {
+        this.maxSession = maxSession;
+    }
+
+    public boolean isTransacted() {
+        return transacted;
+    }
+
+    public void setTransacted(boolean transacted) {
+        this.transacted = transacted;
+    }
+
+    public long getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @param warmup the milliseconds to run before measuring
+     */
+    public void setWarmup(long warmup) {
+        this.warmup = warmup;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @param duration the milliseconds to measure
+     */
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @param sampleInterval the milliseconds between two samples
+     */
+    public void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Run the load
+     *
+     * @return the report
+     * @throws Exception for any error
+     */
+    public LoadReport run() throws Exception {
+        sent.set(0);
+        delivered.set(0);
+        sendFailures.set(0);
+        latency.reset();
+        measureFrom = Long.MAX_VALUE;
+
+        TestContainer container = new TestContainer(broker, activations * maxSession + 2);
+        List<Producer> threads = new ArrayList<Producer>();
+        Sampler sampler = new Sampler(container);
+        try {
+            MessageListener listener = new LatencyListener();
+            for (int i = 0; i < activations; ++i) {
+                broker.getQueue(QUEUE_PREFIX + i).clear();
+                JmsActivationSpec spec = container.createQueueActivationSpec(QUEUE_PREFIX + i, transacted);
+                spec.setMaxSession(maxSession);
+                container.activate(spec, listener, transacted);
+            }
+
+            ConnectionFactory cf = (ConnectionFactory) container.createConnectionFactory(container.createManagedConnectionFactory(transacted));
+            String text = createText();
+            running = true;
+            for (int i = 0; i < producers; ++i)
+                threads.add(new Producer(i, cf, transacted ? container.getTransactionManager() : null, broker.getQueue(QUEUE_PREFIX + i % activations), text));
+            sampler.start();
+            for (Producer producer : threads)
+                producer.start();
+
+            Thread.sleep(warmup);
+            long[] gcFrom = gc();
+            long sentFrom = sent.get();
+            long deliveredFrom = delivered.get();
+            long failuresFrom = sendFailures.get();
+            measureFrom = System.nanoTime();
+            latency.reset();
+
+            Thread.sleep(duration);
+            long[] gcTo = gc();
+            long measured = (System.nanoTime() - measureFrom) / 1000000;
+            LoadReport report = new LoadReport(measured, sent.get() - sentFrom, delivered.get() - deliveredFrom, sendFailures.get() - failuresFrom,
+                    latency, gcTo[0] - gcFrom[0], gcTo[1] - gcFrom[1], sampler.peakThreads, sampler.getSamples());
+            log.info(report);
+            return report;
+        } finally {
+            running = false;
+            for (Producer producer : threads)
+                producer.join();
+            sampler.interrupt();
+            sampler.join();
+            container.stop();
+        }
+    }
+
+    private String createText() {
+        StringBuffer buffer = new StringBuffer(messageSize);
+        for (int i = 0; i < messageSize; ++i)
+            buffer.append((char) ('a' + i % 26));
+        return buffer.toString();
+    }
+
+    /**
+     * @return the number of collections and the milliseconds spent collecting
+     */
+    private static long[] gc() {
+        long[] result = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result[0] += Math.max(0, gc.getCollectionCount());
+            result[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /**
+     * Records the latency of the messages due after the warmup
+     */
+    private class LatencyListener implements MessageListener {
+        public void onMessage(Message message) {
+            long now = System.nanoTime();
+            delivered.incrementAndGet();
+            try {
+                long scheduled = message.getLongProperty(SCHEDULED);
+                if (scheduled >= measureFrom)
+                    latency.record(now - scheduled);
+            } catch (JMSException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Sends at a fixed rate until the driver stops
+     */
+    private class Producer extends Thread {
+        private final ConnectionFactory cf;
+        private final TransactionManager tm;
+        private final Queue queue;
+        private final String text;
+
+        Producer(int index, ConnectionFactory cf, TransactionManager tm, Queue queue, String text) {
+            super("LoadDriver.Producer-" + index);
+            setDaemon(true);
+            this.cf = cf;
+            this.tm = tm;
+            this.queue = queue;
+            this.text = text;
+        }
+
+        public void run() {
+            long interval = rate > 0 ? 1000000000L / rate : 0;
+            long next = System.nanoTime();
+            while (running) {
+                if (interval > 0) {
+                    long wait;
+                    while ((wait = next - System.nanoTime()) > 0 && running)
+                        LockSupport.parkNanos(wait);
+                } else {
+                    next = System.nanoTime();
+                }
+                try {
+                    send(next);
+                    sent.incrementAndGet();
+                } catch (Exception e) {
+                    if (sendFailures.incrementAndGet() == 1)
+                        log.warn("Unable to send to " + queue, e);
+                }
+                next += interval;
+            }
+        }
+
+        private void send(long scheduled) throws Exception {
+            if (tm != null)
+                tm.begin();
+            try {
+                Connection connection = cf.createConnection();
+                try {
+                    Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    Message message = session.createTextMessage(text);
+                    message.setLongProperty(SCHEDULED, scheduled);
+                    session.createProducer(queue).send(message);
+                } finally {
+                    connection.close();
+                }
+            } catch (Exception e) {
+                if (tm != null)
+                    tm.rollback();
+                throw e;
+            }
+            if (tm != null)
+                tm.commit();
+        }
+    }
+
+    /**
+     * Samples the throughput, the backlog and the JVM
+     */
+    private class Sampler extends Thread {
+        private final TestContainer container;
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final List<LoadSample> samples = new ArrayList<LoadSample>();
+        private volatile int peakThreads;
+
+        Sampler(TestContainer container) {
+            super("LoadDriver.Sampler");
+            setDaemon(true);
+            this.container = container;
+        }
+
+        List<LoadSample> getSamples() {
+            synchronized (samples) {
+                return new ArrayList<LoadSample>(samples);
+            }
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            long lastSent = 0;
+            long lastDelivered = 0;
+            long[] lastGc = gc();
+            while (isInterrupted() == false) {
+                try {
+                    Thread.sleep(sampleInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long nowSent = sent.get();
+                long nowDelivered = delivered.get();
+                long[] nowGc = gc();
+                long backlog = 0;
+                for (int i = 0; i < activations; ++i) {
+                    TestQueue queue = broker.getQueue(QUEUE_PREFIX + i);
+                    backlog += queue.getMessageCount();
+                }
+                int threadCount = threads.getThreadCount();
+                peakThreads = Math.max(peakThreads, threadCount);
+                LoadSample sample = new LoadSample((System.nanoTime() - start) / 1000000, nowSent - lastSent, nowDelivered - lastDelivered,
+                        backlog, threadCount, container.getWorkManager().getActiveCount(), nowGc[0] - lastGc[0], nowGc[1] - lastGc[1],
+                        Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+                synchronized (samples) {
+                    samples.add(sample);
+                }
+                log.info(sample);
+                lastSent = nowSent;
+                lastDelivered = nowDelivered;
+                lastGc = nowGc;
+            }
+        }
+    }
+
+    /**
+     * Run the load against the default broker and print the report, the
+     * options are -activations, -producers, -rate, -messageSize,
+     * -maxSession, -warmup, -duration and -sampleInterval followed by a
+     * number, the times in seconds, and -transacted
+     *
+     * @param args the options
+     * @throws Exception for any error
+     */
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver(TestBroker.getDefault());
+        for (int i = 0; i < args.length; ++i) {
+            String option = args[i];
+            if ("-transacted".equals(option)) {
+                driver.setTransacted(true);
+                continue;
+            }
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing the value of " + option);
+            long value = Long.parseLong(args[++i]);
+            if ("-activations".equals(option))
+                driver.setActivations((int) value);
+            else if ("-producers".equals(option))
+                driver.setProducers((int) value);
+            else if ("-rate".equals(option))
+                driver.setRate((int) value);
+            else if ("-messageSize".equals(option))
+                driver.setMessageSize((int) value);
+            else if ("-maxSession".equals(option))
+                driver.setMaxSession((int) value);
+            else if ("-warmup".equals(option))
+                driver.setWarmup(value * 1000);
+            else if ("-duration".equals(option))
+                driver.setDuration(value * 1000);
+            else if ("-sampleInterval".equals(option))
+                driver.setSampleInterval(value * 1000);
+            else
+                throw new IllegalArgumentException("Unknown option " + option);
+        }
+        LoadReport report = driver.run();
+        for (LoadSample sample : report.getSamples())
+            System.out.println(sample);
+        System.out.println(report);
+        System.exit(0);
+    }
+}
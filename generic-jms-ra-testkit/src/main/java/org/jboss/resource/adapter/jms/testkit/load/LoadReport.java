@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.load;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+
+/**
+ * The outcome of a {@link LoadDriver} run, measured after the warmup.
+ */
+public class LoadReport {
+    private final long duration;
+    private final long sent;
+    private final long delivered;
+    private final long sendFailures;
+    private final LatencyHistogram latency;
+    private final long gcCount;
+    private final long gcTime;
+    private final int peakThreads;
+    private final List<LoadSample> samples;
+
+    LoadReport(long duration, long sent, long delivered, long sendFailures, LatencyHistogram latency,
+               long gcCount, long gcTime, int peakThreads, List<LoadSample> samples) {
+        this.duration = duration;
+        this.sent = sent;
+        this.delivered = delivered;
+        this.sendFailures = sendFailures;
+        this.latency = latency;
+        this.gcCount = gcCount;
+        this.gcTime = gcTime;
+        this.peakThreads = peakThreads;
+        this.samples = Collections.unmodifiableList(samples);
+    }
+
+    /**
+     * @return the milliseconds measured
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getSendFailures() {
+        return sendFailures;
+    }
+
+    /**
+     * @return the messages sent per second
+     */
+    public double getSendThroughput() {
+        return duration == 0 ? 0 : sent * 1000d / duration;
+    }
+
+    /**
+     * @return the messages delivered per second
+     */
+    public double getDeliveryThroughput() {
+        return duration == 0 ? 0 : delivered * 1000d / duration;
+    }
+
+    /**
+     * @return the time from the scheduled send of a message to its delivery in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the garbage collections
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return the milliseconds spent in garbage collection
+     */
+    public long getGcTime() {
+        return gcTime;
+    }
+
+    /**
+     * @return the most live threads of a sample
+     */
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+
+    /**
+     * @return the samples of the whole run, warmup included
+     */
+    public List<LoadSample> getSamples() {
+        return samples;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("LoadReport[duration=").append(duration).append("ms");
+        buffer.append(" sent=").append(sent).append(" (").append((long) getSendThroughput()).append("/s)");
+        buffer.append(" delivered=").append(delivered).append(" (").append((long) getDeliveryThroughput()).append("/s)");
+        buffer.append(" sendFailures=").append(sendFailures);
+        buffer.append(" p50=").append(latency.getPercentile(50) / 1000);
+        buffer.append(" p99=").append(latency.getPercentile(99) / 1000);
+        buffer.append(" p999=").append(latency.getPercentile(99.9) / 1000);
+        buffer.append(" max=").append(latency.getMax() / 1000).append("us");
+        buffer.append(" gc=").append(gcCount).append('/').append(gcTime).append("ms");
+        buffer.append(" peakThreads=").append(peakThreads);
+        buffer.append(']');
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.load;
+
+/**
+ * The state of a {@link LoadDriver} run at one point in time.
+ */
+public class LoadSample {
+    private final long time;
+    private final long sent;
+    private final long delivered;
+    private final long backlog;
+    private final int threads;
+    private final int activeWork;
+    private final long gcCount;
+    private final long gcTime;
+    private final long heapUsed;
+
+    LoadSample(long time, long sent, long delivered, long backlog, int threads, int activeWork, long gcCount, long gcTime, long heapUsed) {
+        this.time = time;
+        this.sent = sent;
+        this.delivered = delivered;
+        this.backlog = backlog;
+        this.threads = threads;
+        this.activeWork = activeWork;
+        this.gcCount = gcCount;
+        this.gcTime = gcTime;
+        this.heapUsed = heapUsed;
+    }
+
+    /**
+     * @return the milliseconds since the start of the run
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the messages sent since the previous sample
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the messages delivered since the previous sample
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the messages waiting in the queues
+     */
+    public long getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return the live threads of the JVM
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the threads of the work manager running a work
+     */
+    public int getActiveWork() {
+        return activeWork;
+    }
+
+    /**
+     * @return the garbage collections since the previous sample
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return the milliseconds spent in garbage collection since the previous sample
+     */
+    public long getGcTime() {
+        return gcTime;
+    }
+
+    /**
+     * @return the bytes of heap in use
+     */
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(time).append("ms");
+        buffer.append(" sent=").append(sent);
+        buffer.append(" delivered=").append(delivered);
+        buffer.append(" backlog=").append(backlog);
+        buffer.append(" threads=").append(threads);
+        buffer.append(" activeWork=").append(activeWork);
+        buffer.append(" gc=").append(gcCount).append('/').append(gcTime).append("ms");
+        buffer.append(" heap=").append(heapUsed / (1024 * 1024)).append("MB");
+        return buffer.toString();
+    }
+}
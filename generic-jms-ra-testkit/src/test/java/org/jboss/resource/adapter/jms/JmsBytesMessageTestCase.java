@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageNotWriteableException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestBytesMessage;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the ByteBuffer accessors of bytes messages
+ */
+public class JmsBytesMessageTestCase {
+    // larger than the scratch array
+    private static final int SIZE = 20000;
+
+    private TestBroker broker;
+    private TestContainer container;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 4);
+        JmsManagedConnectionFactory mcf = container.createManagedConnectionFactory(false);
+        connection = ((ConnectionFactory) container.createConnectionFactory(mcf)).createConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testHeapBufferInPlace() throws Exception {
+        JmsBytesMessage message = createMessage(ByteBuffer.wrap(body()));
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE + 10);
+        assertEquals(SIZE, message.readBytes(buffer));
+        assertEquals(SIZE, buffer.position());
+        assertBody(buffer);
+        assertEquals(-1, message.readBytes(buffer));
+    }
+
+    @Test
+    public void testHeapBufferThroughScratch() throws Exception {
+        JmsBytesMessage message = createMessage(ByteBuffer.wrap(body()));
+        // neither starts at the beginning of its array
+        ByteBuffer offset = ByteBuffer.allocate(SIZE + 1);
+        offset.position(1);
+        ByteBuffer slice = ByteBuffer.allocate(SIZE + 5);
+        slice.position(5);
+        slice = slice.slice();
+
+        assertEquals(SIZE, message.readBytes(offset));
+        assertBody(offset, 1);
+        assertEquals(-1, message.readBytes(ByteBuffer.allocate(1)));
+
+        message.reset();
+        assertEquals(SIZE, message.readBytes(slice));
+        assertBody(slice);
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        ByteBuffer write = ByteBuffer.allocateDirect(SIZE);
+        write.put(body());
+        write.flip();
+        JmsBytesMessage message = createMessage(write);
+        assertEquals(SIZE, write.position());
+
+        ByteBuffer read = ByteBuffer.allocateDirect(SIZE);
+        assertEquals(SIZE, message.readBytes(read));
+        assertBody(read);
+        assertEquals(-1, message.readBytes(ByteBuffer.allocateDirect(1)));
+    }
+
+    @Test
+    public void testPartialReads() throws Exception {
+        JmsBytesMessage message = createMessage(ByteBuffer.wrap(body()));
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(Math.min(buffer.limit(), buffer.position() + 3000));
+            int read = message.readBytes(chunk);
+            assertTrue(read > 0);
+            buffer.position(buffer.position() + read);
+            total += read;
+        }
+        assertEquals(SIZE, total);
+        assertBody(buffer);
+        assertEquals(0, message.readBytes(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void testWriteFromAnOffset() throws Exception {
+        byte[] array = new byte[SIZE + 100];
+        System.arraycopy(body(), 0, array, 50, SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(array, 50, SIZE);
+        JmsBytesMessage message = createMessage(buffer.slice());
+        assertEquals(SIZE, message.getBodyLength());
+        ByteBuffer read = ByteBuffer.allocate(SIZE);
+        message.readBytes(read);
+        assertBody(read);
+    }
+
+    @Test
+    public void testWrittenLength() throws Exception {
+        JmsBytesMessage message = new JmsBytesMessage(new TestBytesMessage(), null);
+        message.writeBoolean(true);
+        message.writeByte((byte) 1);
+        message.writeBytes(new byte[10]);
+        message.writeBytes(new byte[10], 2, 5);
+        ByteBuffer direct = ByteBuffer.allocateDirect(SIZE);
+        message.writeBytes(direct);
+        message.writeChar('c');
+        message.writeDouble(1);
+        message.writeFloat(1);
+        message.writeInt(1);
+        message.writeLong(1);
+        message.writeShort((short) 1);
+        message.writeUTF("a\u00e9\u20ac");
+        message.writeObject(Integer.valueOf(1));
+        message.writeObject("\u0000");
+        // counted while the body can not be read
+        long written = message.getWrittenLength();
+        message.reset();
+        assertEquals(message.getBodyLength(), written);
+
+        message.clearBody();
+        assertEquals(0, message.getWrittenLength());
+    }
+
+    @Test
+    public void testLargeMessage() throws Exception {
+        ByteBuffer body = ByteBuffer.wrap(body());
+        JmsLargeMessage large = new JmsLargeMessage(new TestBytesMessage(), body, null);
+        JmsBytesMessage message = new JmsBytesMessage(large, null);
+        assertEquals(SIZE, message.getBodyLength());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(SIZE / 2);
+        assertEquals(SIZE / 2, message.readBytes(direct));
+        ByteBuffer heap = ByteBuffer.allocate(SIZE);
+        direct.flip();
+        heap.put(direct);
+        assertEquals(SIZE / 2, message.readBytes(heap));
+        assertBody(heap);
+        assertEquals(-1, message.readBytes(ByteBuffer.allocate(1)));
+        // the body itself is not consumed
+        assertEquals(0, body.position());
+
+        try {
+            message.writeBytes(ByteBuffer.allocate(1));
+            fail("Expected a reassembled message to be read only");
+        } catch (MessageNotWriteableException expected) {
+        }
+    }
+
+    @Test
+    public void testOutboundMessages() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        BytesMessage message = session.createBytesMessage();
+        assertTrue(message instanceof JmsBytesMessage);
+        ByteBuffer direct = ByteBuffer.allocateDirect(SIZE);
+        direct.put(body());
+        direct.flip();
+        ((JmsBytesMessage) message).writeBytes(direct);
+        message.setStringProperty("kind", "buffer");
+        message.setJMSCorrelationID("42");
+
+        MessageProducer producer = session.createProducer(broker.getQueue("q"));
+        producer.send(message);
+        assertTrue(message.getJMSMessageID() != null);
+
+        MessageConsumer consumer = session.createConsumer(broker.getQueue("q"));
+        connection.start();
+        BytesMessage received = (BytesMessage) consumer.receive(5000);
+        assertTrue(received instanceof JmsBytesMessage);
+        assertEquals("buffer", received.getStringProperty("kind"));
+        assertEquals("42", received.getJMSCorrelationID());
+        assertEquals(message.getJMSMessageID(), received.getJMSMessageID());
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        assertEquals(SIZE, ((JmsBytesMessage) received).readBytes(buffer));
+        assertBody(buffer);
+    }
+
+    @Test
+    public void testOutboundMessageWithProviderProducer() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(body());
+
+        // the wrapper is sent by a producer outside the RA
+        Connection direct = broker.createConnectionFactory().createConnection();
+        try {
+            Session directSession = direct.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            directSession.createProducer(broker.getQueue("q")).send(((JmsBytesMessage) message).message);
+            direct.start();
+            BytesMessage received = (BytesMessage) directSession.createConsumer(broker.getQueue("q")).receive(5000);
+            byte[] read = new byte[SIZE];
+            assertEquals(SIZE, received.readBytes(read));
+            assertArrayEquals(body(), read);
+        } finally {
+            direct.close();
+        }
+    }
+
+    private static JmsBytesMessage createMessage(ByteBuffer body) throws Exception {
+        JmsBytesMessage message = new JmsBytesMessage(new TestBytesMessage(), null);
+        message.writeBytes(body);
+        message.reset();
+        return message;
+    }
+
+    private static byte[] body() {
+        byte[] body = new byte[SIZE];
+        for (int i = 0; i < SIZE; ++i)
+            body[i] = (byte) (i * 31 + i / 256);
+        return body;
+    }
+
+    private static void assertBody(ByteBuffer buffer) {
+        assertBody(buffer, 0);
+    }
+
+    private static void assertBody(ByteBuffer buffer, int start) {
+        ByteBuffer read = buffer.duplicate();
+        read.flip();
+        read.position(start);
+        byte[] array = new byte[read.remaining()];
+        read.get(array);
+        assertArrayEquals(body(), array);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.ResourceAllocationException;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the circuit breaker around outbound sends
+ */
+public class JmsCircuitBreakerSendTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+    private JmsManagedConnectionFactory mcf;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 4);
+        mcf = container.createManagedConnectionFactory(false);
+        mcf.setCircuitBreakerFailureThreshold(2);
+        mcf.setCircuitBreakerCoolDown(60000);
+        connection = ((ConnectionFactory) container.createConnectionFactory(mcf)).createConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testSendFailuresOpenTheBreaker() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(broker.getQueue("q"));
+        broker.failNext(TestBroker.Operation.SEND, 2);
+        for (int i = 0; i < 2; ++i) {
+            try {
+                producer.send(session.createTextMessage("lost"));
+                fail("Expected the send to fail");
+            } catch (ResourceAllocationException e) {
+                fail("The breaker opened too early");
+            } catch (JMSException expected) {
+            }
+        }
+        assertEquals(JmsCircuitBreaker.OPEN, mcf.getCircuitBreaker().getState());
+
+        try {
+            producer.send(session.createTextMessage("rejected"));
+            fail("Expected the send to be rejected");
+        } catch (ResourceAllocationException expected) {
+        }
+        assertEquals(0, broker.getQueue("q").getMessageCount());
+    }
+
+    @Test
+    public void testApplicationErrorsDoNotOpenTheBreaker() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(null);
+        for (int i = 0; i < 3; ++i) {
+            try {
+                producer.send(session.createTextMessage("nowhere"));
+                fail("Expected the send without a destination to fail");
+            } catch (UnsupportedOperationException expected) {
+            }
+        }
+        assertEquals(JmsCircuitBreaker.CLOSED, mcf.getCircuitBreaker().getState());
+
+        producer.send(broker.getQueue("q"), session.createTextMessage("sent"));
+        assertEquals(1, broker.getQueue("q").getMessageCount());
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+import org.jboss.resource.adapter.jms.testkit.TestBytesMessage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the compact object codec and of its class restrictions
+ */
+public class JmsCompactObjectCodecTestCase {
+    private static final String ALLOWED = Order.class.getName() + ", " + Custom.class.getName();
+
+    public static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String id;
+        int quantity;
+        List<Object> lines = new ArrayList<Object>();
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        Object extra;
+    }
+
+    public static class Custom implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String value;
+        Object extra;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+    }
+
+    public static class Forbidden implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class NotSerializable {
+        int x;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Order order = new Order();
+        order.id = "o-1";
+        order.quantity = 3;
+        order.lines.addAll(Arrays.asList(Integer.valueOf(1), "b", new Date(5)));
+        order.attributes.put("rush", Boolean.TRUE);
+
+        Order decoded = (Order) roundTrip(new JmsCompactObjectCodec(), new JmsCompactObjectCodec(ALLOWED), order);
+        assertEquals("o-1", decoded.id);
+        assertEquals(3, decoded.quantity);
+        assertEquals(order.lines, decoded.lines);
+        assertEquals(order.attributes, decoded.attributes);
+    }
+
+    @Test
+    public void testCustomSerialization() throws Exception {
+        Custom custom = new Custom();
+        custom.value = "v";
+        Custom decoded = (Custom) roundTrip(new JmsCompactObjectCodec(), new JmsCompactObjectCodec(ALLOWED), custom);
+        assertEquals("v", decoded.value);
+    }
+
+    @Test
+    public void testCanEncode() throws Exception {
+        JmsCompactObjectCodec codec = new JmsCompactObjectCodec();
+        assertTrue(codec.canEncode(new Order()));
+        assertFalse(codec.canEncode(new NotSerializable()));
+    }
+
+    @Test
+    public void testClassNotAllowed() throws Exception {
+        assertRejected(new JmsCompactObjectCodec("com.acme.*"), new Order());
+    }
+
+    @Test
+    public void testNestedClassNotAllowed() throws Exception {
+        Order order = new Order();
+        order.extra = new Forbidden();
+        assertRejected(new JmsCompactObjectCodec(ALLOWED), order);
+    }
+
+    @Test
+    public void testNestedClassNotAllowedInSerializedObject() throws Exception {
+        Custom custom = new Custom();
+        custom.extra = new Forbidden();
+        assertRejected(new JmsCompactObjectCodec(ALLOWED), custom);
+    }
+
+    @Test
+    public void testPackageAllowed() throws Exception {
+        Order order = new Order();
+        order.extra = new Forbidden();
+        String allowed = getClass().getPackage().getName() + ".*";
+        Order decoded = (Order) roundTrip(new JmsCompactObjectCodec(), new JmsCompactObjectCodec(allowed), order);
+        assertTrue(decoded.extra instanceof Forbidden);
+    }
+
+    @Test
+    public void testForgedCollectionClass() throws Exception {
+        JmsCompactObjectCodec codec = new JmsCompactObjectCodec();
+        byte[] body = encode(codec, new ArrayList<Object>());
+        String forged = new String(body, "ISO-8859-1").replace("java.util.ArrayList", "java.lang.Throwable");
+        BytesMessage message = new TestBytesMessage();
+        message.writeBytes(forged.getBytes("ISO-8859-1"));
+        message.reset();
+        try {
+            codec.decode(message);
+            fail("Expected the forged collection to be rejected");
+        } catch (JMSException expected) {
+        }
+    }
+
+    @Test
+    public void testConfiguredCodecOnly() throws Exception {
+        JmsCompactObjectCodec codec = new JmsCompactObjectCodec(ALLOWED);
+        for (String name : new String[] { codec.getName(), JmsCompactObjectCodec.class.getName() }) {
+            BytesMessage message = new TestBytesMessage();
+            message.setStringProperty(JmsObjectCodecs.CODEC_PROPERTY, name);
+            assertTrue(JmsObjectCodecs.getCodec(message, codec) == codec);
+        }
+        // the message does not choose the decoder, whatever it names
+        for (String name : new String[] { "other", Forbidden.class.getName() }) {
+            BytesMessage message = new TestBytesMessage();
+            message.setStringProperty(JmsObjectCodecs.CODEC_PROPERTY, name);
+            try {
+                JmsObjectCodecs.getCodec(message, codec);
+                fail("Expected the codec " + name + " to be rejected");
+            } catch (JMSException expected) {
+            }
+        }
+    }
+
+    private static Object roundTrip(JmsObjectCodec encoder, JmsObjectCodec decoder, Object object) throws Exception {
+        BytesMessage message = new TestBytesMessage();
+        encoder.encode(object, message);
+        message.reset();
+        return decoder.decode(message);
+    }
+
+    private static byte[] encode(JmsObjectCodec codec, Object object) throws Exception {
+        BytesMessage message = new TestBytesMessage();
+        codec.encode(object, message);
+        message.reset();
+        byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        return body;
+    }
+
+    private static void assertRejected(JmsObjectCodec decoder, Object object) throws Exception {
+        try {
+            roundTrip(new JmsCompactObjectCodec(), decoder, object);
+            fail("Expected " + object + " to be rejected");
+        } catch (JMSException expected) {
+        }
+    }
+}
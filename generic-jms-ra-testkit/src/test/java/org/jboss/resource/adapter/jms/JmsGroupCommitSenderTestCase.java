@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the group commit of concurrent outbound sends
+ */
+public class JmsGroupCommitSenderTestCase {
+    private static final int THREADS = 8;
+
+    private TestBroker broker;
+    private TestContainer container;
+    private ConnectionFactory cf;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 16);
+        JmsManagedConnectionFactory mcf = container.createManagedConnectionFactory(false);
+        mcf.setGroupCommitSize(8);
+        mcf.setGroupCommitTimeout(500);
+        cf = (ConnectionFactory) container.createConnectionFactory(mcf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.setLatency(TestBroker.Operation.COMMIT, 0);
+        if (container != null)
+            container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testConcurrentSendsShareCommits() throws Exception {
+        Sender sender = send(50, DeliveryMode.PERSISTENT);
+        assertEquals(0, sender.failed.get());
+        assertEquals(THREADS * 50, sender.sent.get());
+        assertEquals(THREADS * 50, broker.getQueue("q").getMessageCount());
+        assertTrue("Commits " + broker.getCommittedCount(), broker.getCommittedCount() < THREADS * 50);
+    }
+
+    @Test
+    public void testNonPersistentSendsAreNotGrouped() throws Exception {
+        Sender sender = send(10, DeliveryMode.NON_PERSISTENT);
+        assertEquals(THREADS * 10, sender.sent.get());
+        assertEquals(0, broker.getCommittedCount());
+    }
+
+    @Test
+    public void testSlowCommitTimesOut() throws Exception {
+        broker.setLatency(TestBroker.Operation.COMMIT, 2000000);
+        long start = System.currentTimeMillis();
+        Sender sender = send(1, DeliveryMode.PERSISTENT);
+        assertEquals(THREADS, sender.failed.get());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void testStopIsBounded() throws Exception {
+        broker.setLatency(TestBroker.Operation.COMMIT, 200000);
+        send(3, DeliveryMode.PERSISTENT);
+        long start = System.currentTimeMillis();
+        container.stop();
+        container = null;
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    private Sender send(int messages, int deliveryMode) throws InterruptedException {
+        Sender sender = new Sender(messages, deliveryMode);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(sender);
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; ++i)
+            threads[i].join();
+        return sender;
+    }
+
+    private class Sender implements Runnable {
+        final int messages;
+        final int deliveryMode;
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Sender(int messages, int deliveryMode) {
+            this.messages = messages;
+            this.deliveryMode = deliveryMode;
+        }
+
+        public void run() {
+            try {
+                Connection connection = cf.createConnection();
+                try {
+                    Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    MessageProducer producer = session.createProducer(broker.getQueue("q"));
+                    producer.setDeliveryMode(deliveryMode);
+                    for (int i = 0; i < messages; ++i) {
+                        try {
+                            producer.send(session.createTextMessage("message " + i));
+                            sent.incrementAndGet();
+                        } catch (JMSException e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    connection.close();
+                }
+            } catch (JMSException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of sending large messages as chunks and reassembling them on delivery
+ */
+public class JmsLargeMessageTestCase {
+    private static final int CHUNK_SIZE = 1000;
+    private static final int[] SIZES = {500, 5000, 14000, 23000, 32000};
+
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 16);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testReassembly() throws Exception {
+        Receiver receiver = activate(false, false);
+        send(true);
+        receiver.await();
+        assertEquals(0, receiver.corrupt.get());
+        assertEquals(0, broker.getQueue("large").getMessageCount());
+    }
+
+    @Test
+    public void testReassemblyWithoutReset() throws Exception {
+        Receiver receiver = activate(false, false);
+        send(false);
+        receiver.await();
+        assertEquals(0, receiver.corrupt.get());
+        assertEquals(0, broker.getQueue("large").getMessageCount());
+    }
+
+    @Test
+    public void testTransactedReassembly() throws Exception {
+        Receiver receiver = activate(true, false);
+        send(true);
+        receiver.await();
+        assertEquals(0, receiver.corrupt.get());
+        assertEquals(0, broker.getQueue("large").getMessageCount());
+    }
+
+    @Test
+    public void testFailedDeliveryRedeliversAllChunks() throws Exception {
+        Receiver receiver = activate(true, true);
+        send(true);
+        receiver.await();
+        assertEquals(0, receiver.corrupt.get());
+        assertEquals(SIZES.length, receiver.failed.size());
+        assertEquals(0, broker.getQueue("large").getMessageCount());
+    }
+
+    @Test
+    public void testChunksAreNotDeliveredOnTheirOwn() throws Exception {
+        Receiver receiver = activate(false, false);
+        send(true);
+        receiver.await();
+        // let any stray chunk reach the endpoint
+        Thread.sleep(200);
+        assertEquals(SIZES.length, receiver.delivered.get());
+    }
+
+    private Receiver activate(boolean transacted, boolean failOnce) throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("large", transacted);
+        spec.setMaxSession(4);
+        spec.setLargeMessages(true);
+        spec.setLargeMessageSpillThreshold(20000);
+        spec.setLargeMessageTimeout(5000);
+        Receiver receiver = new Receiver(failOnce);
+        container.activate(spec, receiver, transacted);
+        return receiver;
+    }
+
+    /**
+     * Send the messages through the outbound connection factory, which
+     * splits the ones larger than the chunk size
+     *
+     * @param reset whether the messages are reset before they are sent
+     */
+    private void send(boolean reset) throws Exception {
+        JmsManagedConnectionFactory mcf = container.createManagedConnectionFactory(false);
+        mcf.setLargeMessageChunkSize(CHUNK_SIZE);
+        ConnectionFactory cf = (ConnectionFactory) container.createConnectionFactory(mcf);
+        Connection connection = cf.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("large"));
+            for (int i = 0; i < SIZES.length; ++i) {
+                BytesMessage message = session.createBytesMessage();
+                // the length of a body being written is counted by the wrapper
+                ((JmsBytesMessage) message).writeBytes(ByteBuffer.wrap(body(SIZES[i])));
+                message.setIntProperty("size", SIZES[i]);
+                if (reset)
+                    message.reset();
+                producer.send(message);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; ++i)
+            body[i] = (byte) (i * 7 + size);
+        return body;
+    }
+
+    private static class Receiver implements MessageListener {
+        final boolean failOnce;
+        final CountDownLatch done = new CountDownLatch(SIZES.length);
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger corrupt = new AtomicInteger();
+        final Set<Integer> failed = Collections.synchronizedSet(new HashSet<Integer>());
+
+        Receiver(boolean failOnce) {
+            this.failOnce = failOnce;
+        }
+
+        public void onMessage(Message message) {
+            try {
+                BytesMessage bytes = (BytesMessage) message;
+                int size = message.getIntProperty("size");
+                byte[] body = new byte[size + 1];
+                int read = bytes.readBytes(body);
+                byte[] expected = body(size);
+                // only the messages larger than a chunk were split
+                boolean equal = read == size && (message instanceof JmsLargeMessage) == (size > CHUNK_SIZE);
+                for (int i = 0; equal && i < size; ++i)
+                    equal = body[i] == expected[i];
+                if (equal == false)
+                    corrupt.incrementAndGet();
+                if (failOnce && failed.add(Integer.valueOf(size)))
+                    throw new RuntimeException("First delivery of " + size + " bytes fails");
+                delivered.incrementAndGet();
+                done.countDown();
+            } catch (JMSException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Delivered " + delivered, done.await(30, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.resource.adapter.jms.metrics.LatencyHistogram;
+import org.jboss.resource.adapter.jms.metrics.MetricsReporter;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestInitialContextFactory;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the MBean and the metrics reports of the outbound connection definitions
+ */
+public class JmsManagedConnectionFactoryTestCase {
+    private static final AtomicInteger reports = new AtomicInteger();
+
+    private TestBroker broker;
+    private TestContainer container;
+
+    public static class CountingReporter implements MetricsReporter {
+        public void report(String source, Map<String, Long> counters, List<LatencyHistogram> histograms) {
+            reports.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 4);
+        reports.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testStopReleasesTheFactory() throws Exception {
+        JmsManagedConnectionFactory mcf = container.createManagedConnectionFactory(false);
+        mcf.setMetricsReporter(CountingReporter.class.getName());
+        mcf.setMetricsReportInterval(20);
+        connect(mcf);
+        assertEquals(1, queryMBeans().size());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reports.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(reports.get() > 0);
+
+        container.stop();
+        assertEquals(0, queryMBeans().size());
+        // a report running meanwhile may still complete
+        Thread.sleep(50);
+        int stopped = reports.get();
+        Thread.sleep(200);
+        assertEquals(stopped, reports.get());
+    }
+
+    @Test
+    public void testIdenticalConfigurations() throws Exception {
+        // the same properties, so the same hash code
+        connect(container.createManagedConnectionFactory(false));
+        connect(container.createManagedConnectionFactory(false));
+        assertEquals(2, queryMBeans().size());
+    }
+
+    private void connect(JmsManagedConnectionFactory mcf) throws Exception {
+        Connection connection = ((ConnectionFactory) container.createConnectionFactory(mcf)).createConnection();
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        connection.close();
+    }
+
+    private static Set<ObjectName> queryMBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        return server.queryNames(new ObjectName(JmsManagement.DOMAIN + ":type=ManagedConnectionFactory,name="
+                + ObjectName.quote(TestInitialContextFactory.CONNECTION_FACTORY) + ",*"), null);
+    }
+}
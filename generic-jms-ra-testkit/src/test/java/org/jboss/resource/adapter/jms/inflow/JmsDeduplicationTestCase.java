@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the deduplication of inbound deliveries
+ */
+public class JmsDeduplicationTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+    private final BlockingQueue<Message> delivered = new LinkedBlockingQueue<Message>();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        activate("Drop", null);
+        send("order-1");
+        assertNotNull(delivered.poll(10, TimeUnit.SECONDS));
+        send("order-1");
+        send("order-2");
+        Message message = delivered.poll(10, TimeUnit.SECONDS);
+        assertEquals("order-2", ((TextMessage) message).getText());
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, broker.getQueue("dedup").getMessageCount());
+    }
+
+    @Test
+    public void testFlag() throws Exception {
+        activate("Flag", null);
+        send("order-1");
+        Message first = delivered.poll(10, TimeUnit.SECONDS);
+        assertFalse(first.propertyExists(JmsDuplicateMessage.DUPLICATE));
+        send("order-1");
+        Message second = delivered.poll(10, TimeUnit.SECONDS);
+        assertTrue(second instanceof TextMessage);
+        assertEquals("order-1", ((TextMessage) second).getText());
+        assertTrue(second.getBooleanProperty(JmsDuplicateMessage.DUPLICATE));
+        // the provider headers are left alone
+        assertFalse(second.getJMSRedelivered());
+    }
+
+    @Test
+    public void testRolledBackDeliveryIsNotADuplicate() throws Exception {
+        activate("Drop", "order-1");
+        send("order-1");
+        // rolled back first, then redelivered and not dropped
+        assertNotNull(delivered.poll(10, TimeUnit.SECONDS));
+        assertEquals(0, broker.getQueue("dedup").getMessageCount());
+    }
+
+    /**
+     * @param deduplication the deduplication mode
+     * @param rollbackFirst the text of a message whose first delivery is rolled back or null
+     */
+    private void activate(String deduplication, final String rollbackFirst) throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("dedup", true);
+        spec.setMaxSession(1);
+        spec.setDeduplication(deduplication);
+        spec.setDeduplicationKey("orderId");
+        final List<String> rolledBack = new ArrayList<String>();
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                try {
+                    String text = ((TextMessage) message).getText();
+                    if (text.equals(rollbackFirst) && rolledBack.isEmpty()) {
+                        rolledBack.add(text);
+                        container.getTransactionManager().setRollbackOnly();
+                        return;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                delivered.add(message);
+            }
+        }, true);
+    }
+
+    private void send(String orderId) throws JMSException {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            TextMessage message = session.createTextMessage(orderId);
+            message.setStringProperty("orderId", orderId);
+            session.createProducer(broker.getQueue("dedup")).send(message);
+        } finally {
+            connection.close();
+        }
+    }
+}
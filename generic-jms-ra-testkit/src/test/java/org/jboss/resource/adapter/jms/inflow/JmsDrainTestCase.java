@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of draining the deliveries in progress on deactivation
+ */
+public class JmsDrainTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testDrained() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("drain", true);
+        spec.setMaxSession(4);
+        spec.setDrainTimeout(5000);
+        final CountDownLatch started = new CountDownLatch(4);
+        final AtomicInteger completed = new AtomicInteger();
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                started.countDown();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                completed.incrementAndGet();
+            }
+        }, true);
+
+        send(4);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        container.deactivate(spec);
+        // the deliveries in progress completed and were committed
+        assertEquals(4, completed.get());
+        assertEquals(0, broker.getQueue("drain").getMessageCount());
+    }
+
+    @Test
+    public void testAbortedTransacted() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("drain", true);
+        spec.setMaxSession(1);
+        spec.setDrainTimeout(200);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        }, true);
+
+        send(1);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        container.deactivate(spec);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsed), elapsed < 3000);
+        assertTrue(interrupted.get());
+        // the transaction was marked for rollback so the message is still on the queue
+        assertEquals(1, broker.getQueue("drain").getMessageCount());
+    }
+
+    @Test
+    public void testAbortedNotTransacted() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("drain", false);
+        spec.setMaxSession(1);
+        spec.setDrainTimeout(200);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, false);
+
+        send(1);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        container.deactivate(spec);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsed), elapsed < 3000);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void send(int count) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("drain"));
+            for (int i = 0; i < count; ++i)
+                producer.send(session.createTextMessage(String.valueOf(i)));
+        } finally {
+            connection.close();
+        }
+    }
+}
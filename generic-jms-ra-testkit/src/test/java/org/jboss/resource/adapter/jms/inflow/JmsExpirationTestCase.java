@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the messages which expired or are too old by the time they are
+ * delivered. The broker drops the messages which expired before it hands
+ * them over, so its delivery latency lets them expire on the way.
+ */
+public class JmsExpirationTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+    private BlockingQueue<String> delivered;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+        delivered = new LinkedBlockingQueue<String>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testCheckExpiration() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("expiring", false);
+        spec.setCheckExpiration(true);
+        JmsActivationMBean mbean = activate(spec, false);
+
+        broker.setLatency(TestBroker.Operation.DELIVER, 300000);
+        send("stale", 100);
+        send("fresh", 0);
+        assertEquals("fresh", delivered.poll(10, TimeUnit.SECONDS));
+        awaitExpired(mbean, 1);
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testWithoutCheckExpiration() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("expiring", false);
+        JmsActivationMBean mbean = activate(spec, false);
+
+        // the message expired after the broker handed it over
+        broker.setLatency(TestBroker.Operation.DELIVER, 300000);
+        send("stale", 100);
+        assertEquals("stale", delivered.poll(10, TimeUnit.SECONDS));
+        assertEquals(0, mbean.getExpiredCount());
+    }
+
+    @Test
+    public void testMaxMessageAge() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("expiring", false);
+        spec.setMaxMessageAge(200);
+        JmsActivationMBean mbean = activate(spec, false);
+
+        // without an expiration set by the sender
+        broker.setLatency(TestBroker.Operation.DELIVER, 300000);
+        send("old", 0);
+        awaitExpired(mbean, 1);
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+
+        broker.setLatency(TestBroker.Operation.DELIVER, 0);
+        send("young", 0);
+        assertEquals("young", delivered.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, mbean.getExpiredCount());
+    }
+
+    @Test
+    public void testExpiryDestination() throws Exception {
+        testExpiryDestination(false);
+    }
+
+    @Test
+    public void testExpiryDestinationTransacted() throws Exception {
+        testExpiryDestination(true);
+    }
+
+    private void testExpiryDestination(boolean transacted) throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("expiring", transacted);
+        spec.setCheckExpiration(true);
+        spec.setExpiryDestination("dynamicQueues/expired");
+        JmsActivationMBean mbean = activate(spec, transacted);
+
+        broker.setLatency(TestBroker.Operation.DELIVER, 300000);
+        send("stale", 100);
+        awaitExpired(mbean, 1);
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+
+        // the message is moved, not lost
+        broker.setLatency(TestBroker.Operation.DELIVER, 0);
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(broker.getQueue("expired"));
+            connection.start();
+            Message message = consumer.receive(10000);
+            assertNotNull(message);
+            assertEquals("stale", ((TextMessage) message).getText());
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, broker.getQueue("expiring").getMessageCount());
+    }
+
+    private JmsActivationMBean activate(JmsActivationSpec spec, boolean transacted) throws Exception {
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                try {
+                    delivered.add(((TextMessage) message).getText());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, transacted);
+        return container.getActivationMBean(spec);
+    }
+
+    private static void awaitExpired(JmsActivationMBean mbean, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mbean.getExpiredCount() < count) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Expired " + mbean.getExpiredCount() + " instead of " + count);
+            Thread.sleep(10);
+        }
+    }
+
+    private void send(String text, long timeToLive) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("expiring"));
+            producer.setTimeToLive(timeToLive);
+            producer.send(session.createTextMessage(text));
+        } finally {
+            connection.close();
+        }
+    }
+}
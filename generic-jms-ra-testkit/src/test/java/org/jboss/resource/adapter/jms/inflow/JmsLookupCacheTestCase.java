@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.NameNotFoundException;
+
+import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestInitialContextFactory;
+import org.jboss.resource.adapter.jms.testkit.container.TestBootstrapContext;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the JNDI lookups shared by the activations
+ */
+public class JmsLookupCacheTestCase {
+    private static final String NAME = "lookupCacheTest";
+
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestInitialContextFactory.unbind(NAME);
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        JmsLookupCache cache = new JmsLookupCache(60000);
+        Object first = new Object();
+        TestInitialContextFactory.bind(NAME, first);
+        assertSame(first, cache.lookup(container.getJndiParameters(), NAME));
+
+        // served from the cache until invalidated
+        TestInitialContextFactory.bind(NAME, new Object());
+        assertSame(first, cache.lookup(container.getJndiParameters(), NAME));
+        cache.invalidate(container.getJndiParameters());
+        Object second = cache.lookup(container.getJndiParameters(), NAME);
+        assertNotSame(first, second);
+
+        // other JNDI parameters have entries of their own
+        String other = container.getJndiParameters() + ";other=true";
+        assertSame(second, cache.lookup(other, NAME));
+        TestInitialContextFactory.bind(NAME, first);
+        cache.invalidate(container.getJndiParameters());
+        assertSame(second, cache.lookup(other, NAME));
+        assertSame(first, cache.lookup(container.getJndiParameters(), NAME));
+
+        cache.clear();
+        TestInitialContextFactory.unbind(NAME);
+        try {
+            cache.lookup(other, NAME);
+            fail("Expected the cleared cache to look up again");
+        } catch (NameNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        JmsLookupCache cache = new JmsLookupCache(50);
+        Object first = new Object();
+        TestInitialContextFactory.bind(NAME, first);
+        assertSame(first, cache.lookup(container.getJndiParameters(), NAME));
+        Object second = new Object();
+        TestInitialContextFactory.bind(NAME, second);
+        Thread.sleep(100);
+        assertSame(second, cache.lookup(container.getJndiParameters(), NAME));
+    }
+
+    @Test
+    public void testInvalidatedOnReconnect() throws Exception {
+        JmsResourceAdapter ra = container.getResourceAdapter();
+        ra.stop();
+        ra.setLookupCacheTimeout(Long.valueOf(60000));
+        ra.start(new TestBootstrapContext(container.getWorkManager()));
+        assertNotNull(ra.getLookupCache());
+
+        TestInitialContextFactory.bind(NAME, broker.getQueue("first"));
+        final BlockingQueue<Message> delivered = new LinkedBlockingQueue<Message>();
+        JmsActivationSpec spec = container.createQueueActivationSpec("unused", false);
+        spec.setDestination(NAME);
+        spec.setReconnectInterval(1);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                delivered.add(message);
+            }
+        }, false);
+        send("first");
+        assertEquals("first", ((TextMessage) delivered.poll(10, TimeUnit.SECONDS)).getText());
+
+        // the destination is rebound, the activation finds it once it reconnects
+        TestInitialContextFactory.bind(NAME, broker.getQueue("second"));
+        broker.failConnections("injected");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (broker.getQueue("second").getSubscription().getConsumerCount() == 0) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Not reconnected to the rebound destination");
+            Thread.sleep(10);
+        }
+        send("second");
+        assertEquals("second", ((TextMessage) delivered.poll(10, TimeUnit.SECONDS)).getText());
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void send(String queue) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createProducer(broker.getQueue(queue)).send(session.createTextMessage(queue));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestSubscription;
+import org.jboss.resource.adapter.jms.testkit.TestTextMessage;
+import org.jboss.resource.adapter.jms.testkit.TestTopic;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of spreading the messages of a topic across cluster nodes
+ */
+public class JmsPartitionFilterTestCase {
+    @Test
+    public void testHashIsStable() throws Exception {
+        // every node and every release must assign the same partitions
+        assertEquals(-1388729422223754158L, JmsKeyHash.hash(""));
+        assertEquals(-4554675267381330362L, JmsKeyHash.hash("order-1"));
+        assertEquals(-2780840013787421686L, JmsKeyHash.hash("customer-7"));
+    }
+
+    @Test
+    public void testAssignment() throws Exception {
+        JmsPartitionFilter filter = new JmsPartitionFilter(8, "customer", 1, 0);
+        assertEquals(3, filter.getPartition(message("order-1", null)));
+        assertEquals(5, filter.getPartition(message("customer-7", null)));
+
+        JmsPartitionFilter byId = new JmsPartitionFilter(8, null, 1, 0);
+        assertEquals(3, byId.getPartition(message(null, "order-1")));
+        // the same key always gets the same partition
+        for (int i = 0; i < 100; ++i) {
+            int partition = byId.getPartition(message(null, "ID:" + i));
+            assertTrue(partition >= 0 && partition < 8);
+            assertEquals(partition, byId.getPartition(message(null, "ID:" + i)));
+        }
+    }
+
+    @Test
+    public void testKeylessMessagesGoToPartitionZero() throws Exception {
+        JmsPartitionFilter filter = new JmsPartitionFilter(8, "customer", 2, 0);
+        assertEquals(0, filter.getPartition(message(null, "ID:1")));
+        assertTrue(filter.accepts(message(null, "ID:1")));
+        assertFalse(new JmsPartitionFilter(8, "customer", 2, 1).accepts(message(null, "ID:1")));
+        assertEquals(0, new JmsPartitionFilter(8, null, 2, 0).getPartition(message(null, null)));
+    }
+
+    @Test
+    public void testEveryPartitionHasOneOwner() throws Exception {
+        int nodes = 3;
+        JmsPartitionFilter[] filters = new JmsPartitionFilter[nodes];
+        for (int node = 0; node < nodes; ++node)
+            filters[node] = new JmsPartitionFilter(8, "customer", nodes, node);
+        for (int i = 0; i < 200; ++i) {
+            Message message = message("customer-" + i, null);
+            int owners = 0;
+            for (int node = 0; node < nodes; ++node) {
+                if (filters[node].accepts(message)) {
+                    ++owners;
+                    assertEquals(node, filters[node].getPartition(message) % nodes);
+                }
+            }
+            assertEquals(1, owners);
+        }
+    }
+
+    @Test
+    public void testQualify() throws Exception {
+        JmsPartitionFilter filter = new JmsPartitionFilter(4, null, 3, 2);
+        assertEquals("orders.2", filter.qualify("orders"));
+        assertNull(filter.qualify(null));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        int[][] invalid = { { 0, 1, 0 }, { 4, 0, 0 }, { 4, 2, 2 }, { 4, 2, -1 } };
+        for (int i = 0; i < invalid.length; ++i) {
+            try {
+                new JmsPartitionFilter(invalid[i][0], null, invalid[i][1], invalid[i][2]);
+                fail("partitions=" + invalid[i][0] + " nodes=" + invalid[i][1] + " node=" + invalid[i][2]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testActivations() throws Exception {
+        TestBroker broker = TestBroker.getBroker(getClass().getName());
+        TestContainer container = new TestContainer(broker, 8);
+        try {
+            BlockingQueue<Message> node0 = activate(container, 0);
+            BlockingQueue<Message> node1 = activate(container, 1);
+            awaitSubscriptions(broker.getTopic("partitioned"), 2);
+
+            Connection connection = broker.createConnectionFactory().createConnection();
+            try {
+                Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                MessageProducer producer = session.createProducer(broker.getTopic("partitioned"));
+                for (int i = 0; i < 20; ++i) {
+                    TextMessage message = session.createTextMessage(String.valueOf(i));
+                    message.setStringProperty("customer", "customer-" + i);
+                    producer.send(message);
+                }
+            } finally {
+                connection.close();
+            }
+
+            JmsPartitionFilter filter = new JmsPartitionFilter(4, "customer", 2, 0);
+            Set<String> delivered = new HashSet<String>();
+            for (int i = 0; i < 20; ++i) {
+                Message message = node0.poll(100, TimeUnit.MILLISECONDS);
+                if (message == null)
+                    message = node1.poll(10, TimeUnit.SECONDS);
+                else
+                    assertTrue(filter.accepts(message));
+                assertTrue(delivered.add(((TextMessage) message).getText()));
+            }
+            assertNull(node0.poll(200, TimeUnit.MILLISECONDS));
+            assertNull(node1.poll(10, TimeUnit.MILLISECONDS));
+        } finally {
+            container.stop();
+            broker.destroy();
+        }
+    }
+
+    private static BlockingQueue<Message> activate(TestContainer container, final int node) throws Exception {
+        final BlockingQueue<Message> delivered = new LinkedBlockingQueue<Message>();
+        JmsActivationSpec spec = container.createTopicActivationSpec("partitioned", false);
+        spec.setClientId("app");
+        spec.setSubscriptionDurability("Durable");
+        spec.setSubscriptionName("orders");
+        spec.setPartitions(4);
+        spec.setPartitionKey("customer");
+        spec.setClusterNodes(2);
+        spec.setClusterNode(node);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                delivered.add(message);
+            }
+        }, false);
+        return delivered;
+    }
+
+    private static void awaitSubscriptions(TestTopic topic, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countConsumed(topic) < count) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Subscriptions not set up " + topic.getSubscriptions());
+            Thread.sleep(10);
+        }
+        // one subscription per node
+        Set<String> names = new HashSet<String>();
+        for (TestSubscription subscription : topic.getSubscriptions())
+            names.add(subscription.getName());
+        assertTrue(names.toString(), names.contains("orders.0") && names.contains("orders.1"));
+    }
+
+    private static int countConsumed(TestTopic topic) {
+        int result = 0;
+        for (TestSubscription subscription : topic.getSubscriptions()) {
+            if (subscription.getConsumerCount() > 0)
+                ++result;
+        }
+        return result;
+    }
+
+    private static Message message(String customer, String id) throws Exception {
+        TestTextMessage message = new TestTextMessage("text");
+        if (customer != null)
+            message.setStringProperty("customer", customer);
+        message.setJMSMessageID(id);
+        return message;
+    }
+}
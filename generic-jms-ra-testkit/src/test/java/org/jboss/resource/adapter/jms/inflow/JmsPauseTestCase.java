@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of pausing and resuming the delivery of an activation through its MBean
+ */
+public class JmsPauseTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+    private BlockingQueue<Message> delivered;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+        delivered = new LinkedBlockingQueue<Message>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        JmsActivationSpec spec = activate();
+        JmsActivationMBean mbean = container.getActivationMBean(spec);
+        awaitState(mbean, "ACTIVE");
+        send(1);
+        assertNotNull(delivered.poll(10, TimeUnit.SECONDS));
+
+        mbean.pause();
+        assertTrue(mbean.isPaused());
+        assertEquals("PAUSED", mbean.getState());
+        send(3);
+        assertNull(delivered.poll(300, TimeUnit.MILLISECONDS));
+        // the connection and the sessions stay open meanwhile
+        assertEquals(1, broker.getConnections().size());
+
+        mbean.resume();
+        assertFalse(mbean.isPaused());
+        assertReceived(3);
+    }
+
+    @Test
+    public void testPauseSurvivesReconnect() throws Exception {
+        JmsActivationSpec spec = activate();
+        JmsActivationMBean mbean = container.getActivationMBean(spec);
+        awaitState(mbean, "ACTIVE");
+
+        mbean.pause();
+        broker.failConnections("Connection failure simulated by " + getClass().getName());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mbean.getReconnectCount() == 0 || "PAUSED".equals(mbean.getState()) == false) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Not reconnected " + mbean.getState());
+            Thread.sleep(10);
+        }
+        // the new pool does not deliver either
+        send(2);
+        assertNull(delivered.poll(300, TimeUnit.MILLISECONDS));
+
+        mbean.resume();
+        assertReceived(2);
+    }
+
+    @Test
+    public void testUndeployWhilePaused() throws Exception {
+        JmsActivationSpec spec = activate();
+        JmsActivationMBean mbean = container.getActivationMBean(spec);
+        awaitState(mbean, "ACTIVE");
+
+        mbean.pause();
+        send(3);
+        assertNull(delivered.poll(300, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        container.deactivate(spec);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsed), elapsed < 5000);
+        // the messages stay on the queue for the next deployment
+        assertEquals(0, broker.getConnections().size());
+        assertEquals(3, broker.getQueue("paused").getMessageCount());
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private JmsActivationSpec activate() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("paused", false);
+        spec.setMaxSession(2);
+        spec.setReconnectInterval(1);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                delivered.add(message);
+            }
+        }, false);
+        return spec;
+    }
+
+    private static void awaitState(JmsActivationMBean mbean, String state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (state.equals(mbean.getState()) == false) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Expected " + state + " but was " + mbean.getState());
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertReceived(int count) throws InterruptedException {
+        for (int i = 0; i < count; ++i)
+            assertNotNull("Only " + i + " of " + count + " messages delivered", delivered.poll(10, TimeUnit.SECONDS));
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void send(int count) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("paused"));
+            for (int i = 0; i < count; ++i)
+                producer.send(session.createTextMessage(String.valueOf(i)));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the delivery rate limit of an activation
+ */
+public class JmsRateLimitTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("limited", false);
+        spec.setMaxSession(4);
+        spec.setRateLimit(50);
+        spec.setRateLimitBurst(1);
+        final CountDownLatch delivered = new CountDownLatch(26);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                delivered.countDown();
+            }
+        }, false);
+
+        long start = System.nanoTime();
+        send(26);
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // one message every 20 ms whatever the number of sessions
+        assertTrue(String.valueOf(elapsed), elapsed >= 450);
+    }
+
+    @Test
+    public void testDeactivateWhileLimited() throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("limited", false);
+        spec.setMaxSession(4);
+        spec.setRateLimit(0.1);
+        spec.setRateLimitBurst(1);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                delivered.countDown();
+            }
+        }, false);
+
+        send(5);
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        // the sessions waiting for a token do not hold up the deactivation
+        long start = System.nanoTime();
+        container.deactivate(spec);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsed), elapsed < 5000);
+    }
+
+    private void send(int count) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("limited"));
+            for (int i = 0; i < count; ++i)
+                producer.send(session.createTextMessage(String.valueOf(i)));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.transaction.SystemException;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the redelivery delay and poison message handling
+ */
+public class JmsRedeliveryTestCase {
+    private static final int MAX_REDELIVERIES = 3;
+
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testPoisonMessageOnException() throws Exception {
+        testPoisonMessage(false);
+    }
+
+    @Test
+    public void testPoisonMessageOnRollbackOnly() throws Exception {
+        testPoisonMessage(true);
+    }
+
+    private void testPoisonMessage(final boolean setRollbackOnly) throws Exception {
+        JmsActivationSpec spec = container.createQueueActivationSpec("redelivery", true);
+        spec.setRedeliveryDelay(100);
+        spec.setMaxRedeliveries(MAX_REDELIVERIES);
+        spec.setPoisonDestination("dynamicQueues/DLQ");
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch good = new CountDownLatch(10);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                try {
+                    if (((TextMessage) message).getText().equals("bad")) {
+                        attempts.incrementAndGet();
+                        if (setRollbackOnly)
+                            container.getTransactionManager().setRollbackOnly();
+                        else
+                            throw new RuntimeException("bad");
+                        return;
+                    }
+                } catch (JMSException e) {
+                    throw new RuntimeException(e);
+                } catch (SystemException e) {
+                    throw new RuntimeException(e);
+                }
+                good.countDown();
+            }
+        }, true);
+
+        long start = System.currentTimeMillis();
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue("redelivery"));
+            producer.send(session.createTextMessage("bad"));
+            for (int i = 0; i < 10; ++i)
+                producer.send(session.createTextMessage("good"));
+        } finally {
+            connection.close();
+        }
+
+        // the poison message does not hold up the others
+        assertTrue(good.await(10, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (broker.getQueue("DLQ").getMessageCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(1, broker.getQueue("DLQ").getMessageCount());
+        assertEquals(0, broker.getQueue("redelivery").getMessageCount());
+        assertEquals(MAX_REDELIVERIES + 1, attempts.get());
+        // each redelivery waits for the delay
+        assertTrue(System.currentTimeMillis() - start >= MAX_REDELIVERIES * 100);
+    }
+}
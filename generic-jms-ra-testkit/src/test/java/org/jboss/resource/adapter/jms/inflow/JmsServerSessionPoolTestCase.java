@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.UnavailableException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.xa.XAResource;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestConnection;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the concurrent setup of the server sessions
+ */
+public class JmsServerSessionPoolTestCase {
+    private static final int SESSIONS = 8;
+
+    private TestBroker broker;
+    private TestContainer container;
+    private TestConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+        connection = (TestConnection) broker.createConnectionFactory().createConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testConcurrentSetup() throws Exception {
+        EndpointFactory endpointFactory = new EndpointFactory(-1);
+        JmsServerSessionPool pool = createPool(endpointFactory, 4);
+        pool.start();
+        try {
+            assertEquals(SESSIONS, pool.getSessionCount());
+            assertEquals(SESSIONS, endpointFactory.created.get());
+            assertEquals(SESSIONS, endpointFactory.live.get());
+            assertEquals(SESSIONS, connection.getSessionCount());
+            assertTrue("peak " + endpointFactory.peak.get(), endpointFactory.peak.get() > 1);
+            assertTrue("peak " + endpointFactory.peak.get(), endpointFactory.peak.get() <= 4);
+        } finally {
+            pool.stop();
+        }
+        assertEquals(0, endpointFactory.live.get());
+        assertEquals(0, connection.getSessionCount());
+    }
+
+    @Test
+    public void testSequentialSetup() throws Exception {
+        EndpointFactory endpointFactory = new EndpointFactory(-1);
+        JmsServerSessionPool pool = createPool(endpointFactory, 1);
+        pool.start();
+        pool.stop();
+        assertEquals(SESSIONS, endpointFactory.created.get());
+        assertEquals(1, endpointFactory.peak.get());
+        assertEquals(0, endpointFactory.live.get());
+    }
+
+    @Test
+    public void testPartialFailureLeaksNothing() throws Exception {
+        EndpointFactory endpointFactory = new EndpointFactory(5);
+        JmsServerSessionPool pool = createPool(endpointFactory, 4);
+        try {
+            pool.start();
+            fail("Expected the setup to fail");
+        } catch (UnavailableException e) {
+            assertSame(endpointFactory.failure, e);
+        }
+        // some sessions were setup before the failure, none is left
+        assertTrue(endpointFactory.created.get() >= 4);
+        assertEquals(0, endpointFactory.live.get());
+        assertEquals(0, connection.getSessionCount());
+        assertEquals(0, pool.getSessionCount());
+        // the consumer was not created
+        assertEquals(0, broker.getQueue("setup").getSubscription().getConsumerCount());
+        pool.stop();
+    }
+
+    private JmsServerSessionPool createPool(MessageEndpointFactory endpointFactory, int concurrency) throws ResourceException {
+        JmsActivationSpec spec = container.createQueueActivationSpec("setup", false);
+        spec.setMaxSession(SESSIONS);
+        spec.setSessionSetupConcurrency(concurrency);
+        JmsActivation activation = new JmsActivation(container.getResourceAdapter(), endpointFactory, spec);
+        activation.connection = connection;
+        activation.destination = broker.getQueue("setup");
+        return new JmsServerSessionPool(activation);
+    }
+
+    /**
+     * Counts the endpoints which are not released, failing one creation
+     */
+    private static class EndpointFactory implements MessageEndpointFactory {
+        final int failAt;
+        final UnavailableException failure = new UnavailableException("injected");
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger creating = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+
+        EndpointFactory(int failAt) {
+            this.failAt = failAt;
+        }
+
+        public MessageEndpoint createEndpoint(XAResource xaResource) throws UnavailableException {
+            int current = creating.incrementAndGet();
+            try {
+                int previous;
+                while (current > (previous = peak.get()) && peak.compareAndSet(previous, current) == false) {
+                }
+                // slow enough for the helpers to overlap
+                Thread.sleep(50);
+                if (created.incrementAndGet() == failAt)
+                    throw failure;
+                live.incrementAndGet();
+                return new Endpoint(live);
+            } catch (InterruptedException e) {
+                throw new UnavailableException(e);
+            } finally {
+                creating.decrementAndGet();
+            }
+        }
+
+        public boolean isDeliveryTransacted(Method method) throws NoSuchMethodException {
+            return false;
+        }
+    }
+
+    private static class Endpoint implements MessageEndpoint, MessageListener {
+        private final AtomicInteger live;
+
+        Endpoint(AtomicInteger live) {
+            this.live = live;
+        }
+
+        public void onMessage(Message message) {
+        }
+
+        public void beforeDelivery(Method method) throws NoSuchMethodException, ResourceException {
+        }
+
+        public void afterDelivery() throws ResourceException {
+        }
+
+        public void release() {
+            live.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestSubscription;
+import org.jboss.resource.adapter.jms.testkit.TestTopic;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of activations sharing the consumer of a topic
+ */
+public class JmsSharedSubscriptionTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        BlockingQueue<String> first = activate(createSpec(null));
+        BlockingQueue<String> second = activate(createSpec(null));
+        BlockingQueue<String> third = activate(createSpec(null));
+        awaitConsumer(broker.getTopic("shared"));
+        // one consumer for all of them
+        assertEquals(1, broker.getTopic("shared").getSubscriptions().size());
+
+        send(broker.getTopic("shared"), 5, null);
+        assertReceived(first, 5);
+        assertReceived(second, 5);
+        assertReceived(third, 5);
+    }
+
+    @Test
+    public void testSelectors() throws Exception {
+        BlockingQueue<String> red = activate(createSpec("color = 'red'"));
+        BlockingQueue<String> blue = activate(createSpec("color = 'blue'"));
+        BlockingQueue<String> all = activate(createSpec(null));
+        awaitConsumer(broker.getTopic("shared"));
+
+        send(broker.getTopic("shared"), 3, "red");
+        send(broker.getTopic("shared"), 2, "blue");
+        send(broker.getTopic("shared"), 1, "green");
+        assertReceived(red, 3);
+        assertReceived(blue, 2);
+        assertReceived(all, 6);
+    }
+
+    @Test
+    public void testLeaderHandover() throws Exception {
+        JmsActivationSpec leader = createSpec(null);
+        BlockingQueue<String> first = activate(leader);
+        BlockingQueue<String> second = activate(createSpec(null));
+        awaitConsumer(broker.getTopic("shared"));
+
+        send(broker.getTopic("shared"), 2, null);
+        assertReceived(first, 2);
+        assertReceived(second, 2);
+
+        // the remaining member connects once the one consuming the messages is deactivated
+        container.deactivate(leader);
+        awaitConsumer(broker.getTopic("shared"));
+        send(broker.getTopic("shared"), 3, null);
+        assertReceived(second, 3);
+        assertNull(first.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRateLimitDoesNotHoldUpTheOthers() throws Exception {
+        JmsActivationSpec limited = createSpec(null);
+        limited.setRateLimit(0.1);
+        limited.setRateLimitBurst(1);
+        BlockingQueue<String> first = activate(limited);
+        BlockingQueue<String> second = activate(createSpec(null));
+        awaitConsumer(broker.getTopic("shared"));
+
+        // without the rate limit of the first member the messages arrive at once
+        long start = System.nanoTime();
+        send(broker.getTopic("shared"), 3, null);
+        assertReceived(second, 3);
+        assertReceived(first, 3);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsed), elapsed < 5000);
+    }
+
+    @Test
+    public void testLeavingDoesNotHoldUpTheOthers() throws Exception {
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final JmsActivationSpec blocked = createSpec(null);
+        container.activate(blocked, new MessageListener() {
+            public void onMessage(Message message) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, false);
+        awaitConsumer(broker.getTopic("shared"));
+        send(broker.getTopic("shared"), 1, null);
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+
+        // leaving waits for the delivery in progress
+        Thread leaving = new Thread() {
+            public void run() {
+                container.deactivate(blocked);
+            }
+        };
+        leaving.start();
+        // meanwhile the activations of another topic come and go
+        final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    JmsActivationSpec spec = container.createTopicActivationSpec("other", false);
+                    spec.setSharedSubscription(true);
+                    BlockingQueue<String> received = activate(spec);
+                    awaitConsumer(broker.getTopic("other"));
+                    send(broker.getTopic("other"), 1, null);
+                    delivered.add(received.poll(10, TimeUnit.SECONDS));
+                    container.deactivate(spec);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        };
+        try {
+            leaving.join(200);
+            assertTrue(leaving.isAlive());
+            other.start();
+            other.join(10000);
+            assertFalse(other.isAlive());
+            assertEquals("null-0", delivered.poll());
+            assertTrue(leaving.isAlive());
+        } finally {
+            release.countDown();
+            leaving.join(10000);
+            other.join(10000);
+        }
+        assertFalse(leaving.isAlive());
+    }
+
+    @Test
+    public void testQueueIsNotShared() throws Exception {
+        JmsActivationSpec firstSpec = container.createQueueActivationSpec("shared", false);
+        firstSpec.setSharedSubscription(true);
+        JmsActivationSpec secondSpec = container.createQueueActivationSpec("shared", false);
+        secondSpec.setSharedSubscription(true);
+        BlockingQueue<String> first = activate(firstSpec);
+        BlockingQueue<String> second = activate(secondSpec);
+        TestSubscription subscription = broker.getQueue("shared").getSubscription();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (subscription.getConsumerCount() < 2) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Consumers not set up " + subscription);
+            Thread.sleep(10);
+        }
+
+        // each message is delivered once, to either activation
+        send(broker.getQueue("shared"), 10, null);
+        Set<String> delivered = new HashSet<String>();
+        for (int i = 0; i < 10; ++i) {
+            String text = first.poll(100, TimeUnit.MILLISECONDS);
+            if (text == null)
+                text = second.poll(10, TimeUnit.SECONDS);
+            assertNotNull(text);
+            assertTrue(text, delivered.add(text));
+        }
+        assertNull(first.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(second.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    private JmsActivationSpec createSpec(String messageSelector) throws Exception {
+        JmsActivationSpec spec = container.createTopicActivationSpec("shared", false);
+        spec.setSharedSubscription(true);
+        spec.setMessageSelector(messageSelector);
+        return spec;
+    }
+
+    private BlockingQueue<String> activate(JmsActivationSpec spec) throws Exception {
+        final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                try {
+                    delivered.add(((TextMessage) message).getText());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, false);
+        return delivered;
+    }
+
+    private static void awaitConsumer(TestTopic topic) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            for (TestSubscription subscription : topic.getSubscriptions()) {
+                if (subscription.getConsumerCount() > 0)
+                    return;
+            }
+            if (System.currentTimeMillis() > deadline)
+                fail("Consumer not set up " + topic.getSubscriptions());
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertReceived(BlockingQueue<String> delivered, int count) throws InterruptedException {
+        Set<String> texts = new HashSet<String>();
+        for (int i = 0; i < count; ++i) {
+            String text = delivered.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Only " + i + " of " + count + " messages delivered", text);
+            assertTrue(text, texts.add(text));
+        }
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void send(Destination destination, int count, String color) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(destination);
+            for (int i = 0; i < count; ++i) {
+                TextMessage message = session.createTextMessage(color + "-" + i);
+                if (color != null)
+                    message.setStringProperty("color", color);
+                producer.send(message);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
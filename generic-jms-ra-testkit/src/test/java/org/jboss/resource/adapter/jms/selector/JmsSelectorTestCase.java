@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.selector;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestTextMessage;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the selector engine
+ */
+public class JmsSelectorTestCase {
+    private TestTextMessage message;
+
+    @Before
+    public void setUp() throws Exception {
+        message = new TestTextMessage("text");
+        message.setJMSType("order");
+        message.setJMSPriority(7);
+        message.setJMSDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setJMSCorrelationID("ID:42");
+        message.setStringProperty("region", "EMEA");
+        message.setStringProperty("sku", "AB_12%");
+        message.setIntProperty("quantity", 12);
+        message.setDoubleProperty("price", 9.5);
+        message.setBooleanProperty("urgent", true);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertNull(JmsSelector.compile(null));
+        assertNull(JmsSelector.compile("  "));
+    }
+
+    @Test
+    public void testHeaders() throws Exception {
+        assertMatches("JMSType = 'order'");
+        assertMatches("JMSPriority > 4");
+        assertMatches("JMSDeliveryMode = 'PERSISTENT'");
+        assertMatches("JMSCorrelationID = 'ID:42'");
+        assertNotMatches("JMSType <> 'order'");
+    }
+
+    @Test
+    public void testProperties() throws Exception {
+        assertMatches("region = 'EMEA' AND quantity >= 10");
+        assertMatches("quantity * 2 + 1 = 25");
+        assertMatches("price < 10");
+        assertMatches("urgent");
+        assertMatches("urgent = TRUE OR region = 'APAC'");
+        assertNotMatches("NOT urgent");
+        assertNotMatches("region = 'APAC'");
+    }
+
+    @Test
+    public void testLike() throws Exception {
+        assertMatches("region LIKE 'E_EA'");
+        assertMatches("region LIKE '%EA'");
+        assertMatches("sku LIKE 'AB\\_%' ESCAPE '\\'");
+        assertMatches("sku LIKE '%!%' ESCAPE '!'");
+        assertNotMatches("sku LIKE 'AB!_1' ESCAPE '!'");
+        assertMatches("region NOT LIKE 'A%'");
+    }
+
+    @Test
+    public void testIn() throws Exception {
+        assertMatches("region IN ('APAC', 'EMEA')");
+        assertNotMatches("region IN ('APAC', 'AMER')");
+        assertMatches("region NOT IN ('APAC', 'AMER')");
+    }
+
+    @Test
+    public void testBetween() throws Exception {
+        assertMatches("quantity BETWEEN 10 AND 12");
+        assertNotMatches("quantity BETWEEN 13 AND 20");
+        assertMatches("price NOT BETWEEN 10 AND 20");
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        assertMatches("missing IS NULL");
+        assertMatches("region IS NOT NULL");
+        // comparisons with an unknown value are not true
+        assertNotMatches("missing = 'x'");
+        assertNotMatches("NOT (missing = 'x')");
+        assertNotMatches("missing IN ('x')");
+        assertMatches("missing = 'x' OR urgent");
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        String[] selectors = { "region =", "region = 'EMEA", "quantity BETWEEN 1", "region LIKE", "(urgent", "region NOT 'x'" };
+        for (int i = 0; i < selectors.length; ++i) {
+            try {
+                JmsSelector.compile(selectors[i]);
+                fail(selectors[i]);
+            } catch (InvalidSelectorException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testLongRange() throws Exception {
+        message.setLongProperty("big", Long.MIN_VALUE);
+        assertMatches("big = -9223372036854775808");
+        assertMatches("big < -9223372036854775807");
+        assertNotMatches("big = 9223372036854775807");
+        String[] selectors = { "big = 9223372036854775808", "big = +9223372036854775808", "big = -(9223372036854775808)", "big = - -9223372036854775808" };
+        for (int i = 0; i < selectors.length; ++i) {
+            try {
+                JmsSelector.compile(selectors[i]);
+                fail(selectors[i]);
+            } catch (InvalidSelectorException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testActivation() throws Exception {
+        TestBroker broker = TestBroker.getBroker(getClass().getName());
+        TestContainer container = new TestContainer(broker, 4);
+        try {
+            final BlockingQueue<Message> delivered = new LinkedBlockingQueue<Message>();
+            JmsActivationSpec spec = container.createQueueActivationSpec("selector", false);
+            spec.setSelectorMode("RA");
+            spec.setMessageSelector("region = 'EMEA'");
+            container.activate(spec, new MessageListener() {
+                public void onMessage(Message message) {
+                    delivered.add(message);
+                }
+            }, false);
+
+            Connection connection = broker.createConnectionFactory().createConnection();
+            try {
+                Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                MessageProducer producer = session.createProducer(broker.getQueue("selector"));
+                for (int i = 0; i < 10; ++i) {
+                    TextMessage message = session.createTextMessage(String.valueOf(i));
+                    message.setStringProperty("region", i % 2 == 0 ? "EMEA" : "APAC");
+                    producer.send(message);
+                }
+            } finally {
+                connection.close();
+            }
+
+            for (int i = 0; i < 5; ++i) {
+                Message message = delivered.poll(10, TimeUnit.SECONDS);
+                assertEquals("EMEA", message.getStringProperty("region"));
+            }
+            assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+            // the messages not selected are consumed
+            assertEquals(0, broker.getQueue("selector").getMessageCount());
+        } finally {
+            container.stop();
+            broker.destroy();
+        }
+    }
+
+    private void assertMatches(String selector) throws JMSException {
+        assertTrue(selector, JmsSelector.compile(selector).matches(message));
+    }
+
+    private void assertNotMatches(String selector) throws JMSException {
+        assertFalse(selector, JmsSelector.compile(selector).matches(message));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the in-memory broker
+ */
+public class TestBrokerTestCase {
+    private TestBroker broker;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        connection = broker.createConnectionFactory().createConnection();
+        connection.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            connection.close();
+        } catch (JMSException ignored) {
+        }
+        broker.destroy();
+    }
+
+    @Test
+    public void testSendReceive() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        session.createProducer(broker.getQueue("q")).send(session.createTextMessage("hello"));
+        assertEquals(1, broker.getQueue("q").getMessageCount());
+
+        TextMessage message = (TextMessage) session.createConsumer(broker.getQueue("q")).receive(1000);
+        assertNotNull(message);
+        assertEquals("hello", message.getText());
+        assertFalse(message.getJMSRedelivered());
+        assertEquals(0, broker.getQueue("q").getMessageCount());
+    }
+
+    @Test
+    public void testRollbackRedelivers() throws Exception {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        session.createProducer(broker.getQueue("q")).send(session.createTextMessage("hello"));
+        session.commit();
+
+        MessageConsumer consumer = session.createConsumer(broker.getQueue("q"));
+        assertNotNull(consumer.receive(1000));
+        session.rollback();
+
+        TextMessage message = (TextMessage) consumer.receive(1000);
+        assertNotNull(message);
+        assertTrue(message.getJMSRedelivered());
+        assertEquals(2, message.getIntProperty(TestMessage.DELIVERY_COUNT));
+        session.commit();
+        assertEquals(0, broker.getQueue("q").getMessageCount());
+        assertEquals(1, broker.getRolledBackCount());
+    }
+
+    @Test
+    public void testSelector() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(broker.getQueue("q"));
+        String[] colors = {"red", "blue", "red"};
+        for (int i = 0; i < colors.length; ++i) {
+            TextMessage message = session.createTextMessage(colors[i]);
+            message.setStringProperty("color", colors[i]);
+            producer.send(message);
+        }
+
+        MessageConsumer consumer = session.createConsumer(broker.getQueue("q"), "color = 'red'");
+        assertEquals("red", ((TextMessage) consumer.receive(1000)).getText());
+        assertEquals("red", ((TextMessage) consumer.receive(1000)).getText());
+        assertNull(consumer.receiveNoWait());
+        assertEquals(1, broker.getQueue("q").getMessageCount());
+    }
+
+    @Test
+    public void testTopicFanOut() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer first = session.createConsumer(broker.getTopic("t"));
+        MessageConsumer second = session.createConsumer(broker.getTopic("t"));
+        session.createProducer(broker.getTopic("t")).send(session.createTextMessage("news"));
+
+        assertEquals("news", ((TextMessage) first.receive(1000)).getText());
+        assertEquals("news", ((TextMessage) second.receive(1000)).getText());
+    }
+
+    @Test
+    public void testFailNext() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(broker.getQueue("q"));
+        broker.failNext(TestBroker.Operation.SEND, 1);
+        try {
+            producer.send(session.createTextMessage("lost"));
+            fail("Expected the send to fail");
+        } catch (JMSException expected) {
+        }
+        producer.send(session.createTextMessage("sent"));
+        assertEquals(1, broker.getQueue("q").getMessageCount());
+    }
+
+    @Test
+    public void testStopFailsConnections() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        connection.setExceptionListener(new ExceptionListener() {
+            public void onException(JMSException e) {
+                failed.countDown();
+            }
+        });
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        session.createProducer(broker.getQueue("q")).send(session.createTextMessage("kept"));
+
+        broker.stop();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        try {
+            broker.createConnectionFactory().createConnection();
+            fail("Expected the connection to be refused");
+        } catch (JMSException expected) {
+        }
+
+        broker.start();
+        connection = broker.createConnectionFactory().createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        assertEquals("kept", ((TextMessage) session.createConsumer(broker.getQueue("q")).receive(1000)).getText());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.container;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.resource.adapter.jms.JmsManagedConnectionFactory;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of inbound and outbound messaging through the resource adapter
+ */
+public class TestContainerTestCase {
+    private TestBroker broker;
+    private TestContainer container;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        container = new TestContainer(broker, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.stop();
+        broker.destroy();
+    }
+
+    @Test
+    public void testDelivery() throws Exception {
+        deliver(false);
+    }
+
+    @Test
+    public void testTransactedDelivery() throws Exception {
+        deliver(true);
+    }
+
+    @Test
+    public void testFailedTransactedDeliveryIsRedelivered() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicBoolean redelivered = new AtomicBoolean();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        container.activate(container.createQueueActivationSpec("q", true), new MessageListener() {
+            public void onMessage(Message message) {
+                if (attempts.incrementAndGet() == 1)
+                    throw new RuntimeException("First delivery fails");
+                try {
+                    redelivered.set(message.getJMSRedelivered());
+                } catch (JMSException e) {
+                    throw new RuntimeException(e);
+                }
+                delivered.countDown();
+            }
+        }, true);
+        send("q", 1);
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertTrue(redelivered.get());
+    }
+
+    @Test
+    public void testOutboundSendInTransaction() throws Exception {
+        JmsManagedConnectionFactory mcf = container.createManagedConnectionFactory(true);
+        ConnectionFactory cf = (ConnectionFactory) container.createConnectionFactory(mcf);
+
+        container.getTransactionManager().begin();
+        Connection connection = cf.createConnection();
+        try {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            session.createProducer(broker.getQueue("out")).send(session.createTextMessage("rolled back"));
+        } finally {
+            connection.close();
+        }
+        container.getTransactionManager().rollback();
+        assertEquals(0, broker.getQueue("out").getMessageCount());
+
+        container.getTransactionManager().begin();
+        connection = cf.createConnection();
+        try {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            session.createProducer(broker.getQueue("out")).send(session.createTextMessage("committed"));
+        } finally {
+            connection.close();
+        }
+        container.getTransactionManager().commit();
+        assertEquals(1, broker.getQueue("out").getMessageCount());
+    }
+
+    private void deliver(boolean transacted) throws Exception {
+        int count = 50;
+        final Set<String> texts = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch delivered = new CountDownLatch(count);
+        container.activate(container.createQueueActivationSpec("q", transacted), new MessageListener() {
+            public void onMessage(Message message) {
+                try {
+                    texts.add(((TextMessage) message).getText());
+                } catch (JMSException e) {
+                    throw new RuntimeException(e);
+                }
+                delivered.countDown();
+            }
+        }, transacted);
+        send("q", count);
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(count, texts.size());
+        assertEquals(0, broker.getQueue("q").getMessageCount());
+    }
+
+    private void send(String queue, int count) throws JMSException {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(broker.getQueue(queue));
+            for (int i = 0; i < count; ++i)
+                producer.send(session.createTextMessage("message " + i));
+        } finally {
+            connection.close();
+        }
+    }
+}
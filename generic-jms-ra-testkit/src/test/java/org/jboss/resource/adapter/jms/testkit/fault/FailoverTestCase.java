@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.testkit.fault;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.testkit.TestBroker;
+import org.jboss.resource.adapter.jms.testkit.TestInitialContextFactory;
+import org.jboss.resource.adapter.jms.testkit.container.TestContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the reconnect and failover behaviour of the activations, with
+ * faults injected between the resource adapter and the test broker
+ */
+public class FailoverTestCase {
+    private static final String PRIMARY = "PrimaryConnectionFactory";
+    private static final String STANDBY = "StandbyConnectionFactory";
+
+    private TestBroker broker;
+    private FaultInjector injector;
+    private FaultInjector standbyInjector;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = TestBroker.getBroker(getClass().getName());
+        injector = FaultInjector.getInjector(getClass().getName());
+        injector.setSlowCloseTime(200);
+        injector.setJndiTimeout(300);
+        standbyInjector = FaultInjector.getInjector(getClass().getName() + ".standby");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestInitialContextFactory.unbind(PRIMARY);
+        TestInitialContextFactory.unbind(STANDBY);
+        injector.clearAll();
+        standbyInjector.clearAll();
+        broker.destroy();
+    }
+
+    @Test
+    public void testConnectionDrop() throws Exception {
+        FaultSchedule schedule = new FaultSchedule().at(100, Fault.CONNECTION_DROP, 0).at(300, Fault.CONNECTION_DROP, 0);
+        assertNoLoss(run(schedule, false), false);
+        assertNoLoss(run(schedule, true), true);
+    }
+
+    @Test
+    public void testJndiTimeoutWhileReconnecting() throws Exception {
+        FaultSchedule schedule = new FaultSchedule().at(100, Fault.JNDI_TIMEOUT, 500).at(100, Fault.CONNECTION_DROP, 0);
+        assertNoLoss(run(schedule, false), false);
+        assertNoLoss(run(schedule, true), true);
+    }
+
+    @Test
+    public void testConnectionConsumerFailure() throws Exception {
+        FaultSchedule schedule = new FaultSchedule().at(100, Fault.CONNECTION_CONSUMER_FAILURE, 400).at(150, Fault.CONNECTION_DROP, 0);
+        assertNoLoss(run(schedule, false), false);
+        assertNoLoss(run(schedule, true), true);
+    }
+
+    @Test
+    public void testHangingReceiveAndSlowClose() throws Exception {
+        FaultSchedule schedule = new FaultSchedule().at(100, Fault.HANGING_RECEIVE, 300).at(200, Fault.SLOW_CLOSE, 300).at(250, Fault.CONNECTION_DROP, 0);
+        FailoverReport report = run(schedule, true);
+        assertNoLoss(report, true);
+        assertTrue(report.toString(), report.getDeactivationTime() < 5000);
+    }
+
+    @Test
+    public void testBrokerRestart() throws Exception {
+        TestContainer container = new TestContainer(broker, 10);
+        try {
+            final CountDownLatch before = new CountDownLatch(1);
+            final CountDownLatch after = new CountDownLatch(2);
+            JmsActivationSpec spec = container.createQueueActivationSpec("restart", true);
+            spec.setReconnectInterval(1);
+            container.activate(spec, new MessageListener() {
+                public void onMessage(Message message) {
+                    before.countDown();
+                    after.countDown();
+                }
+            }, true);
+            send("before");
+            assertTrue(before.await(10, TimeUnit.SECONDS));
+
+            broker.stop();
+            Thread.sleep(500);
+            broker.start();
+            send("after");
+            assertTrue(after.await(30, TimeUnit.SECONDS));
+        } finally {
+            container.stop();
+        }
+    }
+
+    @Test
+    public void testHotStandby() throws Exception {
+        TestContainer container = new TestContainer(broker, 10);
+        try {
+            final CountDownLatch before = new CountDownLatch(1);
+            final CountDownLatch after = new CountDownLatch(2);
+            activateHotStandby(container, before, after);
+            awaitConnections(standbyInjector, 1);
+            send("before");
+            assertTrue(before.await(10, TimeUnit.SECONDS));
+
+            // delivery resumes on the standby connection at once, with no reconnect interval
+            injector.dropConnections();
+            send("after");
+            assertTrue(after.await(10, TimeUnit.SECONDS));
+            // the next standby connection comes from the first connection factory again
+            awaitConnections(injector, 1);
+            assertEquals(1, standbyInjector.getConnectionCount());
+        } finally {
+            container.stop();
+        }
+    }
+
+    @Test
+    public void testStandbyConnectionDrop() throws Exception {
+        TestContainer container = new TestContainer(broker, 10);
+        try {
+            final CountDownLatch before = new CountDownLatch(1);
+            final CountDownLatch after = new CountDownLatch(2);
+            activateHotStandby(container, before, after);
+            awaitConnections(standbyInjector, 1);
+            send("before");
+            assertTrue(before.await(10, TimeUnit.SECONDS));
+
+            // the failed standby connection is replaced
+            standbyInjector.dropConnections();
+            awaitConnections(standbyInjector, 1);
+            assertEquals(1, injector.getConnectionCount());
+
+            // so the activation still fails over to it
+            injector.dropConnections();
+            send("after");
+            assertTrue(after.await(10, TimeUnit.SECONDS));
+        } finally {
+            container.stop();
+        }
+    }
+
+    private void activateHotStandby(TestContainer container, final CountDownLatch before, final CountDownLatch after) throws Exception {
+        TestInitialContextFactory.bind(PRIMARY, injector.wrap(broker.createConnectionFactory()));
+        TestInitialContextFactory.bind(STANDBY, standbyInjector.wrap(broker.createConnectionFactory()));
+        JmsActivationSpec spec = container.createQueueActivationSpec("restart", false);
+        spec.setConnectionFactory(PRIMARY);
+        spec.setAlternateConnectionFactories(STANDBY);
+        spec.setHotStandby(true);
+        spec.setReconnectInterval(60);
+        container.activate(spec, new MessageListener() {
+            public void onMessage(Message message) {
+                before.countDown();
+                after.countDown();
+            }
+        }, false);
+    }
+
+    private static void awaitConnections(FaultInjector injector, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (injector.getConnectionCount() != count) {
+            if (System.currentTimeMillis() > deadline)
+                fail(injector + " has " + injector.getConnectionCount() + " connections instead of " + count);
+            Thread.sleep(10);
+        }
+    }
+
+    private FailoverReport run(FaultSchedule schedule, boolean transacted) throws Exception {
+        FailoverHarness harness = new FailoverHarness(broker, injector);
+        harness.setMessages(200);
+        harness.setSendInterval(2);
+        harness.setTransacted(transacted);
+        harness.setSettleTimeout(15000);
+        return harness.run(schedule);
+    }
+
+    private void assertNoLoss(FailoverReport report, boolean transacted) {
+        assertEquals(report.toString(), 0, report.getLost());
+        assertEquals(report.toString(), report.getSent(), report.getDelivered());
+        if (transacted)
+            assertEquals(report.toString(), 0, report.getDuplicates());
+    }
+
+    private void send(String text) throws Exception {
+        Connection connection = broker.createConnectionFactory().createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createProducer(broker.getQueue("restart")).send(session.createTextMessage(text));
+        } finally {
+            connection.close();
+        }
+    }
+}